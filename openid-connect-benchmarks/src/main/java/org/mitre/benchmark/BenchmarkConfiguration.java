@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.eclipse.persistence.jpa.PersistenceProvider;
+import org.mitre.jwt.signer.service.impl.ClientKeyCacheService;
+import org.mitre.jwt.signer.service.impl.JWKSetCacheService;
+import org.mitre.jwt.signer.service.impl.SymmetricKeyJWTValidatorCacheService;
+import org.mitre.oauth2.repository.impl.JpaAuthenticationHolderRepository;
+import org.mitre.oauth2.repository.impl.JpaOAuth2ClientRepository;
+import org.mitre.oauth2.repository.impl.JpaOAuth2TokenRepository;
+import org.mitre.oauth2.repository.impl.JpaSystemScopeRepository;
+import org.mitre.oauth2.service.impl.DefaultIntrospectionResultAssembler;
+import org.mitre.oauth2.service.impl.DefaultOAuth2ClientDetailsEntityService;
+import org.mitre.oauth2.service.impl.DefaultOAuth2ProviderTokenService;
+import org.mitre.oauth2.service.impl.DefaultSystemScopeService;
+import org.mitre.oauth2.service.impl.InMemoryAccessTokenCacheService;
+import org.mitre.openid.connect.config.ConfigurationPropertiesBean;
+import org.mitre.openid.connect.repository.impl.JpaCacheVersionRepository;
+import org.mitre.openid.connect.repository.impl.JpaUserInfoRepository;
+import org.mitre.openid.connect.service.ApprovedSiteService;
+import org.mitre.openid.connect.service.BlacklistedSiteService;
+import org.mitre.openid.connect.service.PairwiseIdentiferService;
+import org.mitre.openid.connect.service.StatsService;
+import org.mitre.openid.connect.service.WhitelistedSiteService;
+import org.mitre.openid.connect.service.impl.DefaultCacheVersionService;
+import org.mitre.openid.connect.service.impl.DefaultOIDCTokenService;
+import org.mitre.openid.connect.service.impl.DefaultUserInfoService;
+import org.mitre.uma.service.ResourceSetService;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.Database;
+import org.springframework.orm.jpa.vendor.EclipseLinkJpaVendorAdapter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+/**
+ * Wires the production token services against an in-memory HSQL database built
+ * from the webapp's db/hsql scripts. Collaborators that the benchmarked paths
+ * never reach are replaced by stubs that fail loudly if they are ever called.
+ *
+ * The signing service is not defined here, it is registered by the benchmark
+ * so that it can be built for the key type under test.
+ */
+@Configuration
+@EnableTransactionManagement
+public class BenchmarkConfiguration {
+
+	public static final String ISSUER = "https://benchmark.example.org/";
+
+	@Bean
+	public DataSource dataSource() {
+		return new EmbeddedDatabaseBuilder()
+				.generateUniqueName(true)
+				.setType(EmbeddedDatabaseType.HSQL)
+				.setScriptEncoding("UTF-8")
+				.addScripts("classpath:db/hsql/hsql_database_tables.sql", "classpath:db/hsql/hsql_database_index.sql")
+				.build();
+	}
+
+	@Bean
+	public LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource) {
+		EclipseLinkJpaVendorAdapter adapter = new EclipseLinkJpaVendorAdapter();
+		adapter.setDatabase(Database.HSQL);
+
+		LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
+		factory.setPackagesToScan("org.mitre");
+		factory.setPersistenceProviderClass(PersistenceProvider.class);
+		factory.setPersistenceUnitName("defaultPersistenceUnit");
+		factory.setDataSource(dataSource);
+		factory.setJpaVendorAdapter(adapter);
+
+		Map<String, Object> jpaProperties = new HashMap<>();
+		jpaProperties.put("eclipselink.weaving", "false");
+		jpaProperties.put("eclipselink.logging.level", "WARNING");
+		jpaProperties.put("eclipselink.cache.shared.default", "false");
+		factory.setJpaPropertyMap(jpaProperties);
+
+		return factory;
+	}
+
+	@Bean
+	public PlatformTransactionManager defaultTransactionManager(EntityManagerFactory entityManagerFactory) {
+		return new JpaTransactionManager(entityManagerFactory);
+	}
+
+	@Bean
+	public ConfigurationPropertiesBean configBean() {
+		ConfigurationPropertiesBean config = new ConfigurationPropertiesBean();
+		config.setIssuer(ISSUER);
+		return config;
+	}
+
+	// repositories
+
+	@Bean
+	public JpaOAuth2TokenRepository tokenRepository() {
+		return new JpaOAuth2TokenRepository();
+	}
+
+	@Bean
+	public JpaAuthenticationHolderRepository authenticationHolderRepository() {
+		return new JpaAuthenticationHolderRepository();
+	}
+
+	@Bean
+	public JpaOAuth2ClientRepository clientRepository() {
+		return new JpaOAuth2ClientRepository();
+	}
+
+	@Bean
+	public JpaSystemScopeRepository systemScopeRepository() {
+		return new JpaSystemScopeRepository();
+	}
+
+	@Bean
+	public JpaCacheVersionRepository cacheVersionRepository() {
+		return new JpaCacheVersionRepository();
+	}
+
+	@Bean
+	public JpaUserInfoRepository userInfoRepository() {
+		return new JpaUserInfoRepository();
+	}
+
+	// services under test
+
+	@Bean
+	public DefaultOAuth2ProviderTokenService tokenService() {
+		return new DefaultOAuth2ProviderTokenService();
+	}
+
+	@Bean
+	public BenchmarkTokenEnhancer tokenEnhancer() {
+		return new BenchmarkTokenEnhancer();
+	}
+
+	@Bean
+	public DefaultOIDCTokenService connectTokenService() {
+		return new DefaultOIDCTokenService();
+	}
+
+	@Bean
+	public DefaultIntrospectionResultAssembler introspectionResultAssembler() {
+		return new DefaultIntrospectionResultAssembler();
+	}
+
+	// real collaborators on the benchmarked paths
+
+	@Bean
+	public DefaultOAuth2ClientDetailsEntityService clientDetailsService() {
+		return new DefaultOAuth2ClientDetailsEntityService();
+	}
+
+	@Bean
+	public DefaultSystemScopeService scopeService() {
+		return new DefaultSystemScopeService();
+	}
+
+	@Bean
+	public DefaultCacheVersionService cacheVersionService() {
+		return new DefaultCacheVersionService();
+	}
+
+	@Bean
+	public DefaultUserInfoService userInfoService() {
+		return new DefaultUserInfoService();
+	}
+
+	@Bean
+	public InMemoryAccessTokenCacheService tokenCache() {
+		return new InMemoryAccessTokenCacheService();
+	}
+
+	@Bean
+	public SymmetricKeyJWTValidatorCacheService symmetricCacheService() {
+		return new SymmetricKeyJWTValidatorCacheService();
+	}
+
+	@Bean
+	public ClientKeyCacheService encrypters() {
+		return new ClientKeyCacheService();
+	}
+
+	@Bean
+	public JWKSetCacheService jwksUriCache() {
+		return new JWKSetCacheService();
+	}
+
+	// collaborators that are never reached
+
+	@Bean
+	public ApprovedSiteService approvedSiteService() {
+		return unsupported(ApprovedSiteService.class);
+	}
+
+	@Bean
+	public WhitelistedSiteService whitelistedSiteService() {
+		return unsupported(WhitelistedSiteService.class);
+	}
+
+	@Bean
+	public BlacklistedSiteService blacklistedSiteService() {
+		return unsupported(BlacklistedSiteService.class);
+	}
+
+	@Bean
+	public StatsService statsService() {
+		return unsupported(StatsService.class);
+	}
+
+	@Bean
+	public ResourceSetService resourceSetService() {
+		return unsupported(ResourceSetService.class);
+	}
+
+	@Bean
+	public PairwiseIdentiferService pairwiseIdentifierService() {
+		return unsupported(PairwiseIdentiferService.class);
+	}
+
+	/**
+	 * Build a stub of the given interface that throws on any call, so a benchmark that
+	 * wanders off the path it means to measure fails instead of silently measuring a no-op.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T unsupported(final Class<T> type) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getDeclaringClass() == Object.class) {
+					switch (method.getName()) {
+						case "equals":
+							return proxy == args[0];
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						default:
+							return type.getSimpleName() + " stub";
+					}
+				}
+				throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName() + " is not available in benchmarks");
+			}
+		});
+	}
+}
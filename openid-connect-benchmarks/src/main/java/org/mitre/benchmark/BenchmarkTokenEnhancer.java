@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.benchmark;
+
+import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
+import org.mitre.openid.connect.token.ConnectTokenEnhancer;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+import com.google.common.base.Strings;
+import com.nimbusds.jwt.JWTClaimsSet.Builder;
+
+/**
+ * Token enhancer that pads every access token with a custom claim of a fixed
+ * size, so that signing and persistence can be measured for larger tokens.
+ */
+public class BenchmarkTokenEnhancer extends ConnectTokenEnhancer {
+
+	private String padding = "";
+
+	@Override
+	protected void addCustomAccessTokenClaims(Builder builder, OAuth2AccessTokenEntity token, OAuth2Authentication authentication) {
+		if (!padding.isEmpty()) {
+			builder.claim("ext", padding);
+		}
+	}
+
+	/**
+	 * @param extraClaimBytes the size of the custom claim added to each access token, 0 for none
+	 */
+	public void setExtraClaimBytes(int extraClaimBytes) {
+		this.padding = Strings.repeat("x", extraClaimBytes);
+	}
+}
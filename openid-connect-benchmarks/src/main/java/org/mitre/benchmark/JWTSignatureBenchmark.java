@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.benchmark;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.mitre.jwt.signer.service.impl.DefaultJWTSigningAndValidationService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Cost of JWT signature validation and signing by algorithm against the
+ * size of the key set. The JWT is signed with the last generated key, so
+ * the scans below are close to their worst case.
+ *
+ * allVerifiersScan reproduces the old behaviour of trying every verifier
+ * in turn and is kept as the baseline for the indexed lookups.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JWTSignatureBenchmark {
+
+	@Param({"1", "4", "16", "64"})
+	private int keyCount;
+
+	private DefaultJWTSigningAndValidationService service;
+
+	private List<JWSVerifier> allVerifiers = new ArrayList<>();
+
+	private SignedJWT jwtWithKeyId;
+
+	private SignedJWT jwtWithoutKeyId;
+
+	private JWTClaimsSet claims;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+
+		Map<String, JWK> keys = new HashMap<>();
+		RSAKey last = null;
+		for (int i = 0; i < keyCount; i++) {
+			KeyPair pair = generator.generateKeyPair();
+			last = new RSAKey.Builder((RSAPublicKey) pair.getPublic())
+					.privateKey((RSAPrivateKey) pair.getPrivate())
+					.keyID("key" + i)
+					.build();
+			keys.put(last.getKeyID(), last);
+			allVerifiers.add(new RSASSAVerifier(last));
+		}
+
+		service = new DefaultJWTSigningAndValidationService(keys);
+		service.setDefaultSignerKeyId(last.getKeyID());
+
+		claims = new JWTClaimsSet.Builder()
+				.issuer("https://benchmark.example.org/")
+				.subject("benchmark-user")
+				.claim("scope", "openid profile email")
+				.build();
+
+		jwtWithKeyId = signedWith(last, last.getKeyID());
+		jwtWithoutKeyId = signedWith(last, null);
+	}
+
+	private SignedJWT signedWith(RSAKey key, String kid) throws JOSEException {
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(kid).build(), claims);
+		jwt.sign(new RSASSASigner(key));
+		return jwt;
+	}
+
+	@Benchmark
+	public boolean validateWithKeyId() {
+		return service.validateSignature(jwtWithKeyId);
+	}
+
+	@Benchmark
+	public boolean validateWithoutKeyId() {
+		return service.validateSignature(jwtWithoutKeyId);
+	}
+
+	@Benchmark
+	public boolean allVerifiersScan() throws JOSEException {
+		// the matching key was generated last, so it is tried last
+		for (JWSVerifier verifier : allVerifiers) {
+			if (jwtWithKeyId.verify(verifier)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Benchmark
+	public SignedJWT signByAlgorithm() {
+		SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.RS256), claims);
+		service.signJwt(jwt, JWSAlgorithm.RS256);
+		return jwt;
+	}
+
+}
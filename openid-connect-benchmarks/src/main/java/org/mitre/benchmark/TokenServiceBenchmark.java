@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.benchmark;
+
+import java.io.Serializable;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.mitre.jwt.signer.service.JWTSigningAndValidationService;
+import org.mitre.jwt.signer.service.impl.DefaultJWTSigningAndValidationService;
+import org.mitre.oauth2.model.ClientDetailsEntity;
+import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
+import org.mitre.oauth2.repository.OAuth2ClientRepository;
+import org.mitre.oauth2.service.IntrospectionResultAssembler;
+import org.mitre.oauth2.service.OAuth2TokenEntityService;
+import org.mitre.openid.connect.model.UserInfo;
+import org.mitre.openid.connect.service.OIDCTokenService;
+import org.mitre.openid.connect.service.UserInfoService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.TokenEnhancer;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * End-to-end cost of the token issuance, introspection and validation paths,
+ * using the production services against an in-memory HSQL database.
+ *
+ * algorithm selects the server's signing key, scopeCount the number of scopes
+ * granted to the token and extraClaimBytes the size of a custom claim added to
+ * each access token. Rows written by createAccessToken are cleared after every
+ * iteration so the tables don't grow across the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenServiceBenchmark {
+
+	private static final String CLIENT_ID = "benchmark-client";
+
+	private static final String USERNAME = "benchmark-user";
+
+	private static final String SUB = "benchmark-subject";
+
+	private static final String KEY_ID = "benchmark-key";
+
+	/**
+	 * Tables written by createAccessToken, children first
+	 */
+	private static final String[] TOKEN_TABLES = {
+			"token_scope", "access_token", "refresh_token",
+			"authentication_holder_authority", "authentication_holder_resource_id", "authentication_holder_response_type",
+			"authentication_holder_extension", "authentication_holder_scope", "authentication_holder_request_parameter",
+			"authentication_holder", "saved_user_auth_authority", "saved_user_auth"
+	};
+
+	@Param({"RS256", "ES256", "HS256"})
+	private String algorithm;
+
+	@Param({"1", "16"})
+	private int scopeCount;
+
+	@Param({"0", "2048"})
+	private int extraClaimBytes;
+
+	private AnnotationConfigApplicationContext context;
+
+	private JWTSigningAndValidationService jwtService;
+
+	private OAuth2TokenEntityService tokenService;
+
+	private TokenEnhancer tokenEnhancer;
+
+	private OIDCTokenService connectTokenService;
+
+	private IntrospectionResultAssembler introspectionResultAssembler;
+
+	private JdbcTemplate jdbc;
+
+	private ClientDetailsEntity client;
+
+	private UserInfo userInfo;
+
+	private Set<String> scope;
+
+	private OAuth2Request request;
+
+	private OAuth2Authentication authentication;
+
+	/**
+	 * A token minted during setup, used by the read-only benchmarks
+	 */
+	private OAuth2AccessTokenEntity token;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		JWSAlgorithm alg = JWSAlgorithm.parse(algorithm);
+
+		DefaultJWTSigningAndValidationService signingService = new DefaultJWTSigningAndValidationService(ImmutableMap.of(KEY_ID, generateKey(alg)));
+		signingService.setDefaultSignerKeyId(KEY_ID);
+		signingService.setDefaultSigningAlgorithmName(algorithm);
+
+		context = new AnnotationConfigApplicationContext();
+		context.getBeanFactory().registerSingleton("defaultSignerService", signingService);
+		context.register(BenchmarkConfiguration.class);
+		context.refresh();
+
+		jwtService = signingService;
+		tokenService = context.getBean(OAuth2TokenEntityService.class);
+		tokenEnhancer = context.getBean(TokenEnhancer.class);
+		connectTokenService = context.getBean(OIDCTokenService.class);
+		introspectionResultAssembler = context.getBean(IntrospectionResultAssembler.class);
+		jdbc = new JdbcTemplate(context.getBean(DataSource.class));
+
+		context.getBean(BenchmarkTokenEnhancer.class).setExtraClaimBytes(extraClaimBytes);
+
+		scope = new LinkedHashSet<>();
+		scope.add("openid");
+		for (int i = 1; i < scopeCount; i++) {
+			scope.add("scope" + i);
+		}
+
+		client = saveClient(alg);
+
+		jdbc.update("INSERT INTO user_info (sub, preferred_username, name, email, email_verified) VALUES (?, ?, ?, ?, ?)",
+				SUB, USERNAME, "Benchmark User", "benchmark@example.org", true);
+		userInfo = context.getBean(UserInfoService.class).getByUsernameAndClientId(USERNAME, CLIENT_ID);
+
+		Set<GrantedAuthority> authorities = new LinkedHashSet<>(AuthorityUtils.createAuthorityList("ROLE_USER"));
+		request = new OAuth2Request(ImmutableMap.of("client_id", CLIENT_ID), CLIENT_ID, authorities, true, scope,
+				null, "https://client.example.org/callback", Sets.newHashSet("code"), new HashMap<String, Serializable>());
+		Authentication userAuthentication = new UsernamePasswordAuthenticationToken(USERNAME, null, authorities);
+		authentication = new OAuth2Authentication(request, userAuthentication);
+
+		token = (OAuth2AccessTokenEntity) tokenService.createAccessToken(authentication);
+	}
+
+	@TearDown(Level.Iteration)
+	public void clearTokens() {
+		for (String table : TOKEN_TABLES) {
+			jdbc.update("DELETE FROM " + table);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	private ClientDetailsEntity saveClient(JWSAlgorithm alg) {
+		final ClientDetailsEntity c = new ClientDetailsEntity();
+		c.setClientId(CLIENT_ID);
+		// long enough to be an HS256 key for the client-signed ID token
+		c.setClientSecret(UUID.randomUUID().toString() + UUID.randomUUID().toString());
+		c.setScope(scope);
+		c.setGrantTypes(Sets.newHashSet("authorization_code"));
+		c.setAccessTokenValiditySeconds(3600);
+		c.setIdTokenValiditySeconds(600);
+		if (JWSAlgorithm.Family.HMAC_SHA.contains(alg)) {
+			c.setIdTokenSignedResponseAlg(alg);
+		}
+
+		final OAuth2ClientRepository clientRepository = context.getBean(OAuth2ClientRepository.class);
+		return new TransactionTemplate(context.getBean(PlatformTransactionManager.class)).execute(new TransactionCallback<ClientDetailsEntity>() {
+			@Override
+			public ClientDetailsEntity doInTransaction(TransactionStatus status) {
+				return clientRepository.saveClient(c);
+			}
+		});
+	}
+
+	private static JWK generateKey(JWSAlgorithm alg) throws Exception {
+		if (JWSAlgorithm.Family.RSA.contains(alg)) {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(2048);
+			KeyPair pair = generator.generateKeyPair();
+			return new RSAKey.Builder((RSAPublicKey) pair.getPublic())
+					.privateKey((RSAPrivateKey) pair.getPrivate())
+					.keyID(KEY_ID)
+					.algorithm(alg)
+					.build();
+		} else if (JWSAlgorithm.Family.EC.contains(alg)) {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+			generator.initialize(Curve.P_256.toECParameterSpec());
+			KeyPair pair = generator.generateKeyPair();
+			return new ECKey.Builder(Curve.P_256, (ECPublicKey) pair.getPublic())
+					.privateKey((ECPrivateKey) pair.getPrivate())
+					.keyID(KEY_ID)
+					.algorithm(alg)
+					.build();
+		} else if (JWSAlgorithm.Family.HMAC_SHA.contains(alg)) {
+			byte[] secret = new byte[32];
+			new SecureRandom().nextBytes(secret);
+			return new OctetSequenceKey.Builder(Base64URL.encode(secret))
+					.keyID(KEY_ID)
+					.algorithm(alg)
+					.build();
+		}
+		throw new IllegalArgumentException("Unsupported algorithm: " + alg);
+	}
+
+	private OAuth2AccessTokenEntity newToken() {
+		OAuth2AccessTokenEntity t = new OAuth2AccessTokenEntity();
+		t.setClient(client);
+		t.setScope(scope);
+		t.setExpiration(new Date(System.currentTimeMillis() + 3600 * 1000L));
+		return t;
+	}
+
+	/**
+	 * The whole token endpoint path: scope lookup, signing, ID token and persistence
+	 */
+	@Benchmark
+	public OAuth2AccessToken createAccessToken() {
+		return tokenService.createAccessToken(authentication);
+	}
+
+	@Benchmark
+	public OAuth2AccessToken enhance() {
+		return tokenEnhancer.enhance(newToken(), authentication);
+	}
+
+	@Benchmark
+	public JWT createIdToken() {
+		return connectTokenService.createIdToken(client, request, new Date(), SUB, token);
+	}
+
+	@Benchmark
+	public Map<String, Object> assembleFrom() {
+		return introspectionResultAssembler.assembleFrom(token, userInfo, scope);
+	}
+
+	@Benchmark
+	public boolean validateSignature() {
+		return jwtService.validateSignature((SignedJWT) token.getJwt());
+	}
+}
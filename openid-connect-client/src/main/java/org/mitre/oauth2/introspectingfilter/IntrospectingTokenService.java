@@ -27,13 +27,18 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.http.client.HttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.mitre.oauth2.introspectingfilter.service.IntrospectionAuthorityGranter;
 import org.mitre.oauth2.introspectingfilter.service.IntrospectionConfigurationService;
 import org.mitre.oauth2.introspectingfilter.service.impl.SimpleIntrospectionAuthorityGranter;
 import org.mitre.oauth2.model.RegisteredClient;
+import org.mitre.util.http.PooledHttpClientFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpMethod;
@@ -52,6 +57,10 @@ import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
@@ -73,23 +82,38 @@ public class IntrospectingTokenService implements ResourceServerTokenServices {
 	private boolean forceCacheExpireTime = false; // force removal of cached tokens based on default expire time
 	private boolean cacheNonExpiringTokens = false;
 	private boolean cacheTokens = true;
+	private long cacheMaximumSize = 10000;
+	private int negativeCacheTime = 0; // don't remember inactive tokens by default
+
+	/**
+	 * How often, at most, expired entries are swept out of the cache, in milliseconds
+	 */
+	private static final long CACHE_SWEEP_INTERVAL = 60000;
 
 	private HttpComponentsClientHttpRequestFactory factory;
 
 	public IntrospectingTokenService() {
-		this(HttpClientBuilder.create().useSystemProperties().build());
+		this(new PooledHttpClientFactory().getClient());
 	}
 
 	public IntrospectingTokenService(HttpClient httpClient) {
 		this.factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+		buildCache();
 	}
 
-	// Inner class to store in the hash map
+	// Inner class to store in the cache
 	private class TokenCacheObject {
 		OAuth2AccessToken token;
 		OAuth2Authentication auth;
 		Date cacheExpire;
 
+		/**
+		 * Remember that a token was reported inactive, so that it is not introspected again until the given time
+		 */
+		private TokenCacheObject(Date cacheExpire) {
+			this.cacheExpire = cacheExpire;
+		}
+
 		private TokenCacheObject(OAuth2AccessToken token, OAuth2Authentication auth) {
 			this.token = token;
 			this.auth = auth;
@@ -105,9 +129,29 @@ public class IntrospectingTokenService implements ResourceServerTokenServices {
 				this.cacheExpire = cal.getTime();
 			}
 		}
+
+		private boolean isActive() {
+			return auth != null;
+		}
+
+		private boolean isExpired(long now) {
+			return cacheExpire == null || cacheExpire.getTime() <= now;
+		}
 	}
 
-	private Map<String, TokenCacheObject> authCache = new HashMap<>();
+	private Cache<String, TokenCacheObject> authCache;
+
+	// introspection calls in progress, so that concurrent requests for the same token share one call
+	private final ConcurrentMap<String, FutureTask<TokenCacheObject>> pendingIntrospections = new ConcurrentHashMap<>();
+
+	private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong negativeHitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong evictionCount = new AtomicLong();
+	private final AtomicLong introspectionCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
 	/**
 	 * Logger for this class
 	 */
@@ -205,29 +249,207 @@ public class IntrospectingTokenService implements ResourceServerTokenServices {
 		this.cacheTokens = cacheTokens;
 	}
 
+	/**
+	 * @return the maximum number of introspection results held in the cache
+	 */
+	public long getCacheMaximumSize() {
+		return cacheMaximumSize;
+	}
+
+	/**
+	 * Set the maximum number of introspection results held in the cache, the least
+	 * recently used ones are evicted first. This clears the cache.
+	 * @param cacheMaximumSize
+	 */
+	public void setCacheMaximumSize(long cacheMaximumSize) {
+		this.cacheMaximumSize = cacheMaximumSize;
+		buildCache();
+	}
+
+	/**
+	 * get how long a token reported as inactive is remembered, in milliseconds
+	 * @return the negative cache time, 0 if inactive tokens are not cached
+	 */
+	public int getNegativeCacheTime() {
+		return negativeCacheTime;
+	}
+
+	/**
+	 * set how long a token reported as inactive is remembered before it is introspected
+	 * again, in milliseconds. Use 0 (the default) to introspect inactive tokens every time.
+	 * @param negativeCacheTime
+	 */
+	public void setNegativeCacheTime(int negativeCacheTime) {
+		this.negativeCacheTime = negativeCacheTime;
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache, including cached inactive tokens
+	 */
+	public long getCacheHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache with a cached inactive token
+	 */
+	public long getCacheNegativeHitCount() {
+		return negativeHitCount.get();
+	}
+
+	/**
+	 * @return the number of lookups that were not in the cache, or had expired
+	 */
+	public long getCacheMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return the number of entries removed because they expired or the cache was full
+	 */
+	public long getCacheEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * @return the number of calls made to the introspection endpoint
+	 */
+	public long getIntrospectionCount() {
+		return introspectionCount.get();
+	}
+
+	/**
+	 * @return the number of lookups that waited on another request's introspection call instead of making their own
+	 */
+	public long getCoalescedIntrospectionCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * @return the number of entries currently in the cache
+	 */
+	public long getCacheSize() {
+		return authCache.size();
+	}
+
+	private void buildCache() {
+		authCache = CacheBuilder.newBuilder()
+				.maximumSize(cacheMaximumSize)
+				.removalListener(new RemovalListener<String, TokenCacheObject>() {
+					@Override
+					public void onRemoval(RemovalNotification<String, TokenCacheObject> notification) {
+						if (notification.wasEvicted()) {
+							evictionCount.incrementAndGet();
+						}
+					}
+				})
+				.build();
+	}
+
+	/**
+	 * Remove every cached entry whose cache time has passed. This runs at most once a
+	 * minute from the request path, but may also be called on a schedule.
+	 */
+	public void removeExpired() {
+		long now = System.currentTimeMillis();
+		lastSweep.set(now);
+		for (Map.Entry<String, TokenCacheObject> entry : authCache.asMap().entrySet()) {
+			if (entry.getValue().isExpired(now) && authCache.asMap().remove(entry.getKey(), entry.getValue())) {
+				evictionCount.incrementAndGet();
+			}
+		}
+	}
+
+	private void cache(String key, TokenCacheObject tco) {
+		authCache.put(key, tco);
+
+		long now = System.currentTimeMillis();
+		long last = lastSweep.get();
+		if (now - last > CACHE_SWEEP_INTERVAL && lastSweep.compareAndSet(last, now)) {
+			removeExpired();
+		}
+	}
+
 	/**
 	 * Check to see if the introspection end point response for a token has been cached locally
 	 * This call will return the token if it has been cached and is still valid according to
 	 * the cache expire time on the TokenCacheObject. If a cached value has been found but is
 	 * expired, either by default expire times or the token's own expire time, then the token is
-	 * removed from the cache and null is returned.
+	 * removed from the cache and null is returned. Tokens remembered as inactive are returned
+	 * as well, with no authentication.
 	 * @param key is the token to check
 	 * @return the cached TokenCacheObject or null
 	 */
 	private TokenCacheObject checkCache(String key) {
-		if (cacheTokens && authCache.containsKey(key)) {
-			TokenCacheObject tco = authCache.get(key);
+		if (!cacheTokens) {
+			return null;
+		}
 
-			if (tco != null && tco.cacheExpire != null && tco.cacheExpire.after(new Date())) {
+		TokenCacheObject tco = authCache.getIfPresent(key);
+		if (tco != null) {
+			if (!tco.isExpired(System.currentTimeMillis())) {
+				hitCount.incrementAndGet();
+				if (!tco.isActive()) {
+					negativeHitCount.incrementAndGet();
+				}
 				return tco;
-			} else {
+			} else if (authCache.asMap().remove(key, tco)) {
 				// if the token is expired, don't keep things around.
-				authCache.remove(key);
+				evictionCount.incrementAndGet();
 			}
 		}
+		missCount.incrementAndGet();
 		return null;
 	}
 
+	/**
+	 * Look a token up in the cache, or introspect it. Concurrent lookups of the same token
+	 * that miss the cache wait for a single call to the introspection endpoint.
+	 *
+	 * @param accessToken the token to look up
+	 * @return the cached or introspected TokenCacheObject, which may be inactive, or null if the token was not valid
+	 */
+	private TokenCacheObject loadToken(final String accessToken) {
+		TokenCacheObject cached = checkCache(accessToken);
+		if (cached != null) {
+			return cached;
+		}
+
+		FutureTask<TokenCacheObject> task = new FutureTask<>(() -> {
+			// another request may have finished introspecting this token since we looked
+			TokenCacheObject done = cacheTokens ? authCache.getIfPresent(accessToken) : null;
+			if (done != null && !done.isExpired(System.currentTimeMillis())) {
+				return done;
+			}
+			return parseToken(accessToken);
+		});
+		FutureTask<TokenCacheObject> pending = pendingIntrospections.putIfAbsent(accessToken, task);
+		if (pending != null) {
+			coalescedCount.incrementAndGet();
+			task = pending;
+		} else {
+			// always run the published task, since other requests may already be waiting on it
+			try {
+				task.run();
+			} finally {
+				pendingIntrospections.remove(accessToken, task);
+			}
+		}
+
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Interrupted while waiting for token introspection");
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
 	private OAuth2Request createStoredRequest(final JsonObject token) {
 		String clientId = token.get("client_id").getAsString();
 		Set<String> scopes = new HashSet<>();
@@ -263,7 +485,8 @@ public class IntrospectingTokenService implements ResourceServerTokenServices {
 	 * then parse it and store it in the local cache if caching is enabled.
 	 *
 	 * @param accessToken Token to pass to the introspection endpoint
-	 * @return TokenCacheObject containing authentication and token if the token was valid, otherwise null
+	 * @return TokenCacheObject containing authentication and token if the token was valid,
+	 * an inactive TokenCacheObject if the token was reported inactive and negative caching is on, otherwise null
 	 */
 	private TokenCacheObject parseToken(String accessToken) {
 
@@ -309,6 +532,7 @@ public class IntrospectingTokenService implements ResourceServerTokenServices {
 		form.add("token", accessToken);
 
 		try {
+			introspectionCount.incrementAndGet();
 			validatedToken = restTemplate.postForObject(introspectionUrl, form, String.class);
 		} catch (RestClientException rce) {
 			logger.error("validateToken", rce);
@@ -332,7 +556,7 @@ public class IntrospectingTokenService implements ResourceServerTokenServices {
 			if (!tokenResponse.get("active").getAsBoolean()) {
 				// non-valid token
 				logger.info("Server returned non-active token");
-				return null;
+				return cacheInactive(accessToken);
 			}
 			// create an OAuth2Authentication
 			OAuth2Authentication auth = new OAuth2Authentication(createStoredRequest(tokenResponse), createUserAuthentication(tokenResponse));
@@ -343,9 +567,11 @@ public class IntrospectingTokenService implements ResourceServerTokenServices {
 				// Store them in the cache
 				TokenCacheObject tco = new TokenCacheObject(token, auth);
 				if (cacheTokens && (cacheNonExpiringTokens || token.getExpiration() != null)) {
-					authCache.put(accessToken, tco);
+					cache(accessToken, tco);
 				}
 				return tco;
+			} else {
+				return cacheInactive(accessToken);
 			}
 		}
 
@@ -353,21 +579,29 @@ public class IntrospectingTokenService implements ResourceServerTokenServices {
 		return null;
 	}
 
+	/**
+	 * Remember that the server considers this token inactive, if negative caching is turned on
+	 * @return the inactive TokenCacheObject, or null if inactive tokens aren't cached
+	 */
+	private TokenCacheObject cacheInactive(String accessToken) {
+		if (cacheTokens && negativeCacheTime > 0) {
+			TokenCacheObject tco = new TokenCacheObject(new Date(System.currentTimeMillis() + negativeCacheTime));
+			cache(accessToken, tco);
+			return tco;
+		}
+		return null;
+	}
+
 	@Override
 	public OAuth2Authentication loadAuthentication(String accessToken) throws AuthenticationException {
 		// First check if the in memory cache has an Authentication object, and
 		// that it is still valid
-		// If Valid, return it
-		TokenCacheObject cacheAuth = checkCache(accessToken);
+		// If not, introspect it
+		TokenCacheObject cacheAuth = loadToken(accessToken);
 		if (cacheAuth != null) {
 			return cacheAuth.auth;
 		} else {
-			cacheAuth = parseToken(accessToken);
-			if (cacheAuth != null) {
-				return cacheAuth.auth;
-			} else {
-				return null;
-			}
+			return null;
 		}
 	}
 
@@ -375,17 +609,12 @@ public class IntrospectingTokenService implements ResourceServerTokenServices {
 	public OAuth2AccessToken readAccessToken(String accessToken) {
 		// First check if the in memory cache has a Token object, and that it is
 		// still valid
-		// If Valid, return it
-		TokenCacheObject cacheAuth = checkCache(accessToken);
+		// If not, introspect it
+		TokenCacheObject cacheAuth = loadToken(accessToken);
 		if (cacheAuth != null) {
 			return cacheAuth.token;
 		} else {
-			cacheAuth = parseToken(accessToken);
-			if (cacheAuth != null) {
-				return cacheAuth.token;
-			} else {
-				return null;
-			}
+			return null;
 		}
 	}
 
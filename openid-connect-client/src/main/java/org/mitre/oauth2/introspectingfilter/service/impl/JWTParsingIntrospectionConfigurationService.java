@@ -24,13 +24,16 @@ import java.text.ParseException;
 
 import org.mitre.oauth2.introspectingfilter.service.IntrospectionConfigurationService;
 import org.mitre.oauth2.model.RegisteredClient;
+import org.mitre.openid.connect.client.IdTokenValidator;
 import org.mitre.openid.connect.client.service.ClientConfigurationService;
 import org.mitre.openid.connect.client.service.ServerConfigurationService;
 import org.mitre.openid.connect.config.ServerConfiguration;
+import org.springframework.security.core.AuthenticationException;
 
 import com.google.common.base.Strings;
 import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTParser;
+import com.nimbusds.jwt.SignedJWT;
 
 /**
  *
@@ -38,6 +41,10 @@ import com.nimbusds.jwt.JWTParser;
  * the "iss" field inside the JWT. Uses the ServerConfigurationService to determine
  * the introspection URL for that issuer.
  *
+ * If a token validator is set, the JWT's signature and timestamps are checked against
+ * the issuer's keys before its introspection URL is handed out, so forged or expired
+ * tokens are turned away without a call to the introspection endpoint.
+ *
  * @author jricher
  *
  */
@@ -45,6 +52,7 @@ public class JWTParsingIntrospectionConfigurationService implements Introspectio
 
 	private ServerConfigurationService serverConfigurationService;
 	private ClientConfigurationService clientConfigurationService;
+	private IdTokenValidator tokenValidator;
 
 	/**
 	 * @return the serverConfigurationService
@@ -67,9 +75,24 @@ public class JWTParsingIntrospectionConfigurationService implements Introspectio
 		this.clientConfigurationService = clientConfigurationService;
 	}
 
+	/**
+	 * @param tokenValidator the validator used to check tokens locally, or null to leave all checks to the introspection endpoint
+	 */
+	public void setTokenValidator(IdTokenValidator tokenValidator) {
+		this.tokenValidator = tokenValidator;
+	}
+
+	private JWT parse(String accessToken) {
+		try {
+			return JWTParser.parse(accessToken);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Unable to parse JWT", e);
+		}
+	}
+
 	private String getIssuer(String accessToken) {
 		try {
-			JWT jwt = JWTParser.parse(accessToken);
+			JWT jwt = parse(accessToken);
 
 			String issuer = jwt.getJWTClaimsSet().getIssuer();
 
@@ -80,6 +103,28 @@ public class JWTParsingIntrospectionConfigurationService implements Introspectio
 		}
 	}
 
+	/**
+	 * Check the token's signature and timestamps if a validator has been set.
+	 */
+	private void validate(String accessToken, ServerConfiguration server) {
+		if (tokenValidator == null) {
+			return;
+		}
+
+		try {
+			JWT jwt = parse(accessToken);
+			if (!(jwt instanceof SignedJWT)) {
+				throw new IllegalArgumentException("JWT is not signed");
+			}
+			tokenValidator.validateTimestamps(jwt.getJWTClaimsSet());
+			tokenValidator.verifySignature(jwt, server, clientConfigurationService.getClientConfiguration(server));
+		} catch (ParseException e) {
+			throw new IllegalArgumentException("Unable to parse JWT", e);
+		} catch (AuthenticationException e) {
+			throw new IllegalArgumentException("JWT failed validation: " + e.getMessage(), e);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.mitre.oauth2.introspectingfilter.IntrospectionConfigurationService#getIntrospectionUrl(java.lang.String)
 	 */
@@ -90,6 +135,7 @@ public class JWTParsingIntrospectionConfigurationService implements Introspectio
 			ServerConfiguration server = serverConfigurationService.getServerConfiguration(issuer);
 			if (server != null) {
 				if (!Strings.isNullOrEmpty(server.getIntrospectionEndpointUri())) {
+					validate(accessToken, server);
 					return server.getIntrospectionEndpointUri();
 				} else {
 					throw new IllegalArgumentException("Server does not have Introspection Endpoint defined");
@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.client;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.mitre.jwt.signer.service.JWTSigningAndValidationService;
+import org.mitre.jwt.signer.service.impl.JWKSetCacheService;
+import org.mitre.jwt.signer.service.impl.SymmetricKeyJWTValidatorCacheService;
+import org.mitre.oauth2.model.RegisteredClient;
+import org.mitre.openid.connect.config.ServerConfiguration;
+import org.mitre.util.http.PooledHttpClientFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.AuthenticationServiceException;
+
+import com.google.common.base.Strings;
+import com.nimbusds.jose.Algorithm;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Validates ID tokens (and other JWTs issued by a known server) on the client side.
+ *
+ * The checks are split so that the cheap ones (algorithm, issuer, timestamps, audience,
+ * nonce) run first and reject bad tokens before any key is looked up. The signature is
+ * then checked against the single key named by the token's kid, loaded from the
+ * server's JWKS through the {@link JWKSetCacheService}. Callers that have other work to
+ * do, such as fetching user info, can run the signature check alongside it with
+ * {@link #verifySignatureAsync(JWT, ServerConfiguration, RegisteredClient)}.
+ */
+public class IdTokenValidator {
+
+	private static final Logger logger = LoggerFactory.getLogger(IdTokenValidator.class);
+
+	// Allow for time sync issues by having a window of X seconds.
+	private int timeSkewAllowance = 300;
+
+	// fetches and caches public keys for servers
+	private JWKSetCacheService validationServices;
+
+	// creates JWT signer/validators for symmetric keys
+	private SymmetricKeyJWTValidatorCacheService symmetricCacheService;
+
+	// runs prefetches and async signature checks; a factory of this validator's own unless one is set
+	private PooledHttpClientFactory httpClientFactory;
+
+	public IdTokenValidator() {
+		this(new JWKSetCacheService(), new SymmetricKeyJWTValidatorCacheService());
+	}
+
+	public IdTokenValidator(JWKSetCacheService validationServices, SymmetricKeyJWTValidatorCacheService symmetricCacheService) {
+		this.validationServices = validationServices;
+		this.symmetricCacheService = symmetricCacheService;
+	}
+
+	/**
+	 * Start loading the server's JWKS in the background so that it's already cached
+	 * by the time the first token from that server needs to be checked. Failures are
+	 * only logged, the keys will be loaded again when they're needed.
+	 *
+	 * @param serverConfig the server whose keys to load
+	 */
+	public void prefetch(ServerConfiguration serverConfig) {
+		if (serverConfig == null || Strings.isNullOrEmpty(serverConfig.getJwksUri())) {
+			return;
+		}
+
+		final String jwksUri = serverConfig.getJwksUri();
+		getHttpClientFactory().supplyAsync(() -> validationServices.getValidator(jwksUri))
+		.exceptionally(e -> {
+			if (e instanceof RejectedExecutionException) {
+				logger.debug("Skipping JWKS prefetch from " + jwksUri + ", outbound pool is busy");
+			} else {
+				logger.warn("Unable to prefetch JWKS from " + jwksUri + ": " + e.getMessage());
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Run every check on an ID token: first the claims, then the signature.
+	 *
+	 * @param idToken the parsed ID token
+	 * @param serverConfig the server that issued it
+	 * @param clientConfig this client's registration at that server
+	 * @param expectedNonce the nonce sent with the authorization request
+	 * @return the validated claims
+	 * @throws AuthenticationServiceException if any check fails
+	 */
+	public JWTClaimsSet validate(JWT idToken, ServerConfiguration serverConfig, RegisteredClient clientConfig, String expectedNonce) {
+		JWTClaimsSet idClaims = validateClaims(idToken, serverConfig, clientConfig, expectedNonce);
+		verifySignature(idToken, serverConfig, clientConfig);
+		return idClaims;
+	}
+
+	/**
+	 * Check the ID token's header and claims without looking at its signature.
+	 *
+	 * @param idToken the parsed ID token
+	 * @param serverConfig the server that issued it
+	 * @param clientConfig this client's registration at that server
+	 * @param expectedNonce the nonce sent with the authorization request
+	 * @return the validated claims
+	 * @throws AuthenticationServiceException if any check fails
+	 */
+	public JWTClaimsSet validateClaims(JWT idToken, ServerConfiguration serverConfig, RegisteredClient clientConfig, String expectedNonce) {
+
+		JWTClaimsSet idClaims;
+		try {
+			idClaims = idToken.getJWTClaimsSet();
+		} catch (ParseException e) {
+			throw new AuthenticationServiceException("Couldn't parse idToken: ", e);
+		}
+
+		Algorithm tokenAlg = idToken.getHeader().getAlgorithm();
+
+		Algorithm clientAlg = clientConfig.getIdTokenSignedResponseAlg();
+
+		if (clientAlg != null) {
+			if (!clientAlg.equals(tokenAlg)) {
+				throw new AuthenticationServiceException("Token algorithm " + tokenAlg + " does not match expected algorithm " + clientAlg);
+			}
+		}
+
+		if (idToken instanceof PlainJWT) {
+
+			if (clientAlg == null) {
+				throw new AuthenticationServiceException("Unsigned ID tokens can only be used if explicitly configured in client.");
+			}
+
+			if (tokenAlg != null && !tokenAlg.equals(Algorithm.NONE)) {
+				throw new AuthenticationServiceException("Unsigned token received, expected signature with " + tokenAlg);
+			}
+		} else if (!(idToken instanceof SignedJWT)) {
+			// TODO: encrypted id tokens
+			throw new AuthenticationServiceException("Unsupported ID token type: " + idToken.getClass().getSimpleName());
+		}
+
+		// check the issuer
+		if (idClaims.getIssuer() == null) {
+			throw new AuthenticationServiceException("Id Token Issuer is null");
+		} else if (!idClaims.getIssuer().equals(serverConfig.getIssuer())){
+			throw new AuthenticationServiceException("Issuers do not match, expected " + serverConfig.getIssuer() + " got " + idClaims.getIssuer());
+		}
+
+		validateTimestamps(idClaims);
+
+		// check audience
+		if (idClaims.getAudience() == null) {
+			throw new AuthenticationServiceException("Id token audience is null");
+		} else if (!idClaims.getAudience().contains(clientConfig.getClientId())) {
+			throw new AuthenticationServiceException("Audience does not match, expected " + clientConfig.getClientId() + " got " + idClaims.getAudience());
+		}
+
+		// compare the nonce to our stored claim
+		String nonce;
+		try {
+			nonce = idClaims.getStringClaim("nonce");
+		} catch (ParseException e) {
+			throw new AuthenticationServiceException("Couldn't parse idToken: ", e);
+		}
+		if (Strings.isNullOrEmpty(nonce)) {
+
+			logger.error("ID token did not contain a nonce claim.");
+
+			throw new AuthenticationServiceException("ID token did not contain a nonce claim.");
+		}
+
+		if (!nonce.equals(expectedNonce)) {
+			logger.error("Possible replay attack detected! The comparison of the nonce in the returned "
+					+ "ID Token to the session nonce failed. Expected " + expectedNonce + " got " + nonce + ".");
+
+			throw new AuthenticationServiceException(
+					"Possible replay attack detected! The comparison of the nonce in the returned "
+							+ "ID Token to the session nonce failed. Expected " + expectedNonce + " got " + nonce + ".");
+		}
+
+		return idClaims;
+	}
+
+	/**
+	 * Check the expiration, not-before and issued-at claims, allowing for the configured clock skew.
+	 *
+	 * @param claims the claims to check
+	 * @throws AuthenticationServiceException if the token isn't currently valid
+	 */
+	public void validateTimestamps(JWTClaimsSet claims) {
+
+		// check expiration
+		if (claims.getExpirationTime() == null) {
+			throw new AuthenticationServiceException("Id Token does not have required expiration claim");
+		} else {
+			// it's not null, see if it's expired
+			Date now = new Date(System.currentTimeMillis() - (timeSkewAllowance * 1000));
+			if (now.after(claims.getExpirationTime())) {
+				throw new AuthenticationServiceException("Id Token is expired: " + claims.getExpirationTime());
+			}
+		}
+
+		// check not before
+		if (claims.getNotBeforeTime() != null) {
+			Date now = new Date(System.currentTimeMillis() + (timeSkewAllowance * 1000));
+			if (now.before(claims.getNotBeforeTime())){
+				throw new AuthenticationServiceException("Id Token not valid untill: " + claims.getNotBeforeTime());
+			}
+		}
+
+		// check issued at
+		if (claims.getIssueTime() == null) {
+			throw new AuthenticationServiceException("Id Token does not have required issued-at claim");
+		} else {
+			// since it's not null, see if it was issued in the future
+			Date now = new Date(System.currentTimeMillis() + (timeSkewAllowance * 1000));
+			if (now.before(claims.getIssueTime())) {
+				throw new AuthenticationServiceException("Id Token was issued in the future: " + claims.getIssueTime());
+			}
+		}
+	}
+
+	/**
+	 * Check a signed token's signature. HMAC signatures are checked with the client's secret,
+	 * everything else with the key from the server's JWKS named by the token's kid. Unsigned
+	 * tokens are let through, whether they're allowed at all is up to the caller.
+	 *
+	 * @param jwt the token to check
+	 * @param serverConfig the server that issued it
+	 * @param clientConfig this client's registration at that server, needed for HMAC signatures
+	 * @throws AuthenticationServiceException if the signature can't be checked or doesn't match
+	 */
+	public void verifySignature(JWT jwt, ServerConfiguration serverConfig, RegisteredClient clientConfig) {
+		if (!(jwt instanceof SignedJWT)) {
+			return;
+		}
+
+		SignedJWT signedJwt = (SignedJWT) jwt;
+		JWSAlgorithm tokenAlg = signedJwt.getHeader().getAlgorithm();
+
+		JWTSigningAndValidationService jwtValidator = null;
+
+		if (JWSAlgorithm.Family.HMAC_SHA.contains(tokenAlg)) {
+			// generate one based on client secret
+			if (clientConfig != null) {
+				jwtValidator = symmetricCacheService.getSymmetricValidtor(clientConfig.getClient());
+			}
+		} else if (!Strings.isNullOrEmpty(serverConfig.getJwksUri())) {
+			// otherwise load from the server's public key
+			jwtValidator = validationServices.getValidator(serverConfig.getJwksUri(), signedJwt.getHeader().getKeyID());
+		}
+
+		if (jwtValidator != null) {
+			if (!jwtValidator.validateSignature(signedJwt)) {
+				throw new AuthenticationServiceException("Signature validation failed");
+			}
+		} else {
+			logger.error("No validation service found. Skipping signature validation");
+			throw new AuthenticationServiceException("Unable to find an appropriate signature validator for ID Token.");
+		}
+	}
+
+	/**
+	 * Check a token's signature on the shared outbound pool, so that a JWKS load doesn't hold
+	 * up the caller. If the pool is busy the check runs on the calling thread instead.
+	 *
+	 * @see #verifySignature(JWT, ServerConfiguration, RegisteredClient)
+	 * @return a future that completes when the signature has been checked, or fails with
+	 * an {@link AuthenticationServiceException} if it doesn't match
+	 */
+	public CompletableFuture<Void> verifySignatureAsync(final JWT jwt, final ServerConfiguration serverConfig, final RegisteredClient clientConfig) {
+		return getHttpClientFactory().supplyAsyncOrRun(() -> {
+			verifySignature(jwt, serverConfig, clientConfig);
+			return null;
+		});
+	}
+
+	/**
+	 * @return the factory whose pool runs prefetches and async signature checks
+	 */
+	public synchronized PooledHttpClientFactory getHttpClientFactory() {
+		if (httpClientFactory == null) {
+			httpClientFactory = new PooledHttpClientFactory();
+		}
+		return httpClientFactory;
+	}
+
+	/**
+	 * @param httpClientFactory the factory whose pool runs prefetches and async signature checks
+	 */
+	public synchronized void setHttpClientFactory(PooledHttpClientFactory httpClientFactory) {
+		this.httpClientFactory = httpClientFactory;
+	}
+
+	public int getTimeSkewAllowance() {
+		return timeSkewAllowance;
+	}
+
+	public void setTimeSkewAllowance(int timeSkewAllowance) {
+		this.timeSkewAllowance = timeSkewAllowance;
+	}
+
+	public JWKSetCacheService getValidationServices() {
+		return validationServices;
+	}
+
+	public void setValidationServices(JWKSetCacheService validationServices) {
+		this.validationServices = validationServices;
+	}
+
+	public SymmetricKeyJWTValidatorCacheService getSymmetricCacheService() {
+		return symmetricCacheService;
+	}
+
+	public void setSymmetricCacheService(SymmetricKeyJWTValidatorCacheService symmetricCacheService) {
+		this.symmetricCacheService = symmetricCacheService;
+	}
+
+}
@@ -23,15 +23,14 @@ import static org.mitre.oauth2.model.ClientDetailsEntity.AuthMethod.SECRET_JWT;
 
 import java.io.IOException;
 import java.math.BigInteger;
-import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.text.ParseException;
-import java.util.Date;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -39,8 +38,6 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.mitre.jwt.signer.service.JWTSigningAndValidationService;
 import org.mitre.jwt.signer.service.impl.JWKSetCacheService;
 import org.mitre.jwt.signer.service.impl.SymmetricKeyJWTValidatorCacheService;
@@ -55,10 +52,9 @@ import org.mitre.openid.connect.client.service.ServerConfigurationService;
 import org.mitre.openid.connect.client.service.impl.StaticAuthRequestOptionsService;
 import org.mitre.openid.connect.config.ServerConfiguration;
 import org.mitre.openid.connect.model.PendingOIDCAuthenticationToken;
+import org.mitre.util.http.PooledHttpClientFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.client.ClientHttpRequest;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
@@ -67,25 +63,16 @@ import org.springframework.security.web.authentication.AuthenticationSuccessHand
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestClientException;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriUtils;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.nimbusds.jose.Algorithm;
 import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.util.Base64;
 import com.nimbusds.jose.util.Base64URL;
 import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.JWTParser;
-import com.nimbusds.jwt.PlainJWT;
-import com.nimbusds.jwt.SignedJWT;
 
 /**
  * OpenID Connect Authentication Filter class
@@ -123,6 +110,19 @@ public class OIDCAuthenticationFilter extends AbstractAuthenticationProcessingFi
 	@Autowired(required=false)
 	private HttpClient httpClient;
 
+	// pools outbound requests and runs async checks, a factory of this filter's own if none is wired
+	@Autowired(required=false)
+	private PooledHttpClientFactory httpClientFactory;
+
+	// makes token endpoint requests, reused across logins
+	private TokenEndpointClient tokenEndpointClient;
+
+	// checks returned ID tokens, built from the validator services above if not set
+	private IdTokenValidator idTokenValidator;
+
+	// check the ID token's signature while user info is being fetched
+	private boolean parallelSignatureValidation = false;
+
 	/*
 	 * Modular services to build out client filter.
 	 */
@@ -245,6 +245,8 @@ public class OIDCAuthenticationFilter extends AbstractAuthenticationProcessingFi
 				throw new AuthenticationServiceException("No server configuration found for issuer: " + issuer);
 			}
 
+			// start loading the server's keys now so they're ready when the ID token comes back
+			getIdTokenValidator().prefetch(serverConfig);
 
 			session.setAttribute(ISSUER_SESSION_VARIABLE, serverConfig.getIssuer());
 
@@ -300,6 +302,75 @@ public class OIDCAuthenticationFilter extends AbstractAuthenticationProcessingFi
 		}
 	}
 
+	/**
+	 * @return the token endpoint client, built on first use from the wired HTTP client or the pooled one
+	 */
+	protected synchronized TokenEndpointClient getTokenEndpointClient() {
+		if (tokenEndpointClient == null) {
+			tokenEndpointClient = new TokenEndpointClient(httpClient != null ? httpClient : getHttpClientFactory().getClient(), httpSocketTimeout);
+		}
+		return tokenEndpointClient;
+	}
+
+	/**
+	 * @return the validator for returned ID tokens, built from this filter's validator services and time skew if none was set
+	 */
+	protected synchronized IdTokenValidator getIdTokenValidator() {
+		if (idTokenValidator == null) {
+			idTokenValidator = new IdTokenValidator(
+					validationServices != null ? validationServices : new JWKSetCacheService(),
+					symmetricCacheService != null ? symmetricCacheService : new SymmetricKeyJWTValidatorCacheService());
+			idTokenValidator.setTimeSkewAllowance(timeSkewAllowance);
+			idTokenValidator.setHttpClientFactory(getHttpClientFactory());
+		}
+		return idTokenValidator;
+	}
+
+	/**
+	 * @return the factory that pools outbound requests, built on first use if none was set
+	 */
+	public synchronized PooledHttpClientFactory getHttpClientFactory() {
+		if (httpClientFactory == null) {
+			httpClientFactory = new PooledHttpClientFactory();
+		}
+		return httpClientFactory;
+	}
+
+	/**
+	 * @param httpClientFactory the factory that pools outbound requests
+	 */
+	public synchronized void setHttpClientFactory(PooledHttpClientFactory httpClientFactory) {
+		this.httpClientFactory = httpClientFactory;
+	}
+
+	/**
+	 * @param idTokenValidator the validator to use for returned ID tokens
+	 */
+	public synchronized void setIdTokenValidator(IdTokenValidator idTokenValidator) {
+		this.idTokenValidator = idTokenValidator;
+	}
+
+	/**
+	 * Wait for a signature check started alongside the authentication manager.
+	 */
+	private void awaitSignatureCheck(CompletableFuture<Void> signatureCheck) {
+		try {
+			signatureCheck.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof AuthenticationException) {
+				throw (AuthenticationException) e.getCause();
+			}
+			throw new AuthenticationServiceException("Unable to check ID token signature", e.getCause());
+		}
+	}
+
+	/**
+	 * @param tokenEndpointClient the token endpoint client, to configure client assertion reuse
+	 */
+	public void setTokenEndpointClient(TokenEndpointClient tokenEndpointClient) {
+		this.tokenEndpointClient = tokenEndpointClient;
+	}
+
 	/**
 	 * @param request
 	 *            The request from which to extract parameters and perform the
@@ -344,37 +415,18 @@ public class OIDCAuthenticationFilter extends AbstractAuthenticationProcessingFi
 
 		// Handle Token Endpoint interaction
 
-		if(httpClient == null) {
-			httpClient = HttpClientBuilder.create()
-					.useSystemProperties()
-					.setDefaultRequestConfig(RequestConfig.custom()
-							.setSocketTimeout(httpSocketTimeout)
-							.build())
-					.build();
-		}
-
-		HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+		TokenEndpointClient tokenClient = getTokenEndpointClient();
 
-		RestTemplate restTemplate;
+		HttpHeaders headers = new HttpHeaders();
 
 		if (SECRET_BASIC.equals(clientConfig.getTokenEndpointAuthMethod())){
 			// use BASIC auth if configured to do so
-			restTemplate = new RestTemplate(factory) {
-
-				@Override
-				protected ClientHttpRequest createRequest(URI url, HttpMethod method) throws IOException {
-					ClientHttpRequest httpRequest = super.createRequest(url, method);
-					httpRequest.getHeaders().add("Authorization",
-							String.format("Basic %s", Base64.encode(String.format("%s:%s",
-									UriUtils.encodePathSegment(clientConfig.getClientId(), "UTF-8"),
-									UriUtils.encodePathSegment(clientConfig.getClientSecret(), "UTF-8")))));
-
-					return httpRequest;
-				}
-			};
+			headers.add("Authorization",
+					String.format("Basic %s", Base64.encode(String.format("%s:%s",
+							UriUtils.encodePathSegment(clientConfig.getClientId(), "UTF-8"),
+							UriUtils.encodePathSegment(clientConfig.getClientSecret(), "UTF-8")))));
 		} else {
 			// we're not doing basic auth, figure out what other flavor we have
-			restTemplate = new RestTemplate(factory);
 
 			if (SECRET_JWT.equals(clientConfig.getTokenEndpointAuthMethod()) || PRIVATE_KEY.equals(clientConfig.getTokenEndpointAuthMethod())) {
 				// do a symmetric secret signed JWT for auth
@@ -405,30 +457,8 @@ public class OIDCAuthenticationFilter extends AbstractAuthenticationProcessingFi
 					throw new AuthenticationServiceException("Couldn't find required signer service for use with private key auth.");
 				}
 
-				JWTClaimsSet.Builder claimsSet = new JWTClaimsSet.Builder();
-
-				claimsSet.issuer(clientConfig.getClientId());
-				claimsSet.subject(clientConfig.getClientId());
-				claimsSet.audience(Lists.newArrayList(serverConfig.getTokenEndpointUri()));
-				claimsSet.jwtID(UUID.randomUUID().toString());
-
-				// TODO: make this configurable
-				Date exp = new Date(System.currentTimeMillis() + (60 * 1000)); // auth good for 60 seconds
-				claimsSet.expirationTime(exp);
-
-				Date now = new Date(System.currentTimeMillis());
-				claimsSet.issueTime(now);
-				claimsSet.notBeforeTime(now);
-
-				JWSHeader header = new JWSHeader(alg, null, null, null, null, null, null, null, null, null,
-						signer.getDefaultSignerKeyId(),
-						null, null);
-				SignedJWT jwt = new SignedJWT(header, claimsSet.build());
-
-				signer.signJwt(jwt, alg);
-
 				form.add("client_assertion_type", "urn:ietf:params:oauth:client-assertion-type:jwt-bearer");
-				form.add("client_assertion", jwt.serialize());
+				form.add("client_assertion", tokenClient.getClientAssertion(serverConfig, clientConfig, signer, alg));
 			} else {
 				//Alternatively use form based auth
 				form.add("client_id", clientConfig.getClientId());
@@ -440,10 +470,10 @@ public class OIDCAuthenticationFilter extends AbstractAuthenticationProcessingFi
 		logger.debug("tokenEndpointURI = " + serverConfig.getTokenEndpointUri());
 		logger.debug("form = " + form);
 
-		String jsonString = null;
+		TokenEndpointClient.TokenResponse tokenResponse = null;
 
 		try {
-			jsonString = restTemplate.postForObject(serverConfig.getTokenEndpointUri(), form, String.class);
+			tokenResponse = tokenClient.exchange(serverConfig.getTokenEndpointUri(), form, headers);
 		} catch (RestClientException e) {
 
 			// Handle error
@@ -453,20 +483,15 @@ public class OIDCAuthenticationFilter extends AbstractAuthenticationProcessingFi
 			throw new AuthenticationServiceException("Unable to obtain Access Token: " + e.getMessage());
 		}
 
-		logger.debug("from TokenEndpoint jsonString = " + jsonString);
-
-		JsonElement jsonRoot = new JsonParser().parse(jsonString);
-		if (!jsonRoot.isJsonObject()) {
-			throw new AuthenticationServiceException("Token Endpoint did not return a JSON object: " + jsonRoot);
+		if (tokenResponse == null) {
+			throw new AuthenticationServiceException("Token Endpoint returned an empty response");
 		}
 
-		JsonObject tokenResponse = jsonRoot.getAsJsonObject();
-
-		if (tokenResponse.get("error") != null) {
+		if (tokenResponse.getError() != null) {
 
 			// Handle error
 
-			String error = tokenResponse.get("error").getAsString();
+			String error = tokenResponse.getError();
 
 			logger.error("Token Endpoint returned: " + error);
 
@@ -478,141 +503,33 @@ public class OIDCAuthenticationFilter extends AbstractAuthenticationProcessingFi
 			// OIDCAuthenticationToken
 
 			// get out all the token strings
-			String accessTokenValue = null;
-			String idTokenValue = null;
-			String refreshTokenValue = null;
+			String accessTokenValue = tokenResponse.getAccessToken();
+			String idTokenValue = tokenResponse.getIdToken();
+			String refreshTokenValue = tokenResponse.getRefreshToken();
 
-			if (tokenResponse.has("access_token")) {
-				accessTokenValue = tokenResponse.get("access_token").getAsString();
-			} else {
-				throw new AuthenticationServiceException("Token Endpoint did not return an access_token: " + jsonString);
+			if (accessTokenValue == null) {
+				throw new AuthenticationServiceException("Token Endpoint did not return an access_token");
 			}
 
-			if (tokenResponse.has("id_token")) {
-				idTokenValue = tokenResponse.get("id_token").getAsString();
-			} else {
+			if (idTokenValue == null) {
 				logger.error("Token Endpoint did not return an id_token");
 				throw new AuthenticationServiceException("Token Endpoint did not return an id_token");
 			}
 
-			if (tokenResponse.has("refresh_token")) {
-				refreshTokenValue = tokenResponse.get("refresh_token").getAsString();
-			}
-
 			try {
 				JWT idToken = JWTParser.parse(idTokenValue);
 
-				// validate our ID Token over a number of tests
-				JWTClaimsSet idClaims = idToken.getJWTClaimsSet();
-
-				// check the signature
-				JWTSigningAndValidationService jwtValidator = null;
-
-				Algorithm tokenAlg = idToken.getHeader().getAlgorithm();
-
-				Algorithm clientAlg = clientConfig.getIdTokenSignedResponseAlg();
-
-				if (clientAlg != null) {
-					if (!clientAlg.equals(tokenAlg)) {
-						throw new AuthenticationServiceException("Token algorithm " + tokenAlg + " does not match expected algorithm " + clientAlg);
-					}
-				}
-
-				if (idToken instanceof PlainJWT) {
-
-					if (clientAlg == null) {
-						throw new AuthenticationServiceException("Unsigned ID tokens can only be used if explicitly configured in client.");
-					}
-
-					if (tokenAlg != null && !tokenAlg.equals(Algorithm.NONE)) {
-						throw new AuthenticationServiceException("Unsigned token received, expected signature with " + tokenAlg);
-					}
-				} else if (idToken instanceof SignedJWT) {
-
-					SignedJWT signedIdToken = (SignedJWT)idToken;
-
-					if (tokenAlg.equals(JWSAlgorithm.HS256)
-							|| tokenAlg.equals(JWSAlgorithm.HS384)
-							|| tokenAlg.equals(JWSAlgorithm.HS512)) {
+				IdTokenValidator validator = getIdTokenValidator();
 
-						// generate one based on client secret
-						jwtValidator = symmetricCacheService.getSymmetricValidtor(clientConfig.getClient());
-					} else {
-						// otherwise load from the server's public key
-						jwtValidator = validationServices.getValidator(serverConfig.getJwksUri());
-					}
-
-					if (jwtValidator != null) {
-						if(!jwtValidator.validateSignature(signedIdToken)) {
-							throw new AuthenticationServiceException("Signature validation failed");
-						}
-					} else {
-						logger.error("No validation service found. Skipping signature validation");
-						throw new AuthenticationServiceException("Unable to find an appropriate signature validator for ID Token.");
-					}
-				} // TODO: encrypted id tokens
+				// check the cheap claims first so a bad token is rejected before any keys are looked up
+				JWTClaimsSet idClaims = validator.validateClaims(idToken, serverConfig, clientConfig, getStoredNonce(session));
 
-				// check the issuer
-				if (idClaims.getIssuer() == null) {
-					throw new AuthenticationServiceException("Id Token Issuer is null");
-				} else if (!idClaims.getIssuer().equals(serverConfig.getIssuer())){
-					throw new AuthenticationServiceException("Issuers do not match, expected " + serverConfig.getIssuer() + " got " + idClaims.getIssuer());
-				}
-
-				// check expiration
-				if (idClaims.getExpirationTime() == null) {
-					throw new AuthenticationServiceException("Id Token does not have required expiration claim");
+				CompletableFuture<Void> signatureCheck = null;
+				if (parallelSignatureValidation) {
+					// check the signature while the authentication manager fetches user info
+					signatureCheck = validator.verifySignatureAsync(idToken, serverConfig, clientConfig);
 				} else {
-					// it's not null, see if it's expired
-					Date now = new Date(System.currentTimeMillis() - (timeSkewAllowance * 1000));
-					if (now.after(idClaims.getExpirationTime())) {
-						throw new AuthenticationServiceException("Id Token is expired: " + idClaims.getExpirationTime());
-					}
-				}
-
-				// check not before
-				if (idClaims.getNotBeforeTime() != null) {
-					Date now = new Date(System.currentTimeMillis() + (timeSkewAllowance * 1000));
-					if (now.before(idClaims.getNotBeforeTime())){
-						throw new AuthenticationServiceException("Id Token not valid untill: " + idClaims.getNotBeforeTime());
-					}
-				}
-
-				// check issued at
-				if (idClaims.getIssueTime() == null) {
-					throw new AuthenticationServiceException("Id Token does not have required issued-at claim");
-				} else {
-					// since it's not null, see if it was issued in the future
-					Date now = new Date(System.currentTimeMillis() + (timeSkewAllowance * 1000));
-					if (now.before(idClaims.getIssueTime())) {
-						throw new AuthenticationServiceException("Id Token was issued in the future: " + idClaims.getIssueTime());
-					}
-				}
-
-				// check audience
-				if (idClaims.getAudience() == null) {
-					throw new AuthenticationServiceException("Id token audience is null");
-				} else if (!idClaims.getAudience().contains(clientConfig.getClientId())) {
-					throw new AuthenticationServiceException("Audience does not match, expected " + clientConfig.getClientId() + " got " + idClaims.getAudience());
-				}
-
-				// compare the nonce to our stored claim
-				String nonce = idClaims.getStringClaim("nonce");
-				if (Strings.isNullOrEmpty(nonce)) {
-
-					logger.error("ID token did not contain a nonce claim.");
-
-					throw new AuthenticationServiceException("ID token did not contain a nonce claim.");
-				}
-
-				String storedNonce = getStoredNonce(session);
-				if (!nonce.equals(storedNonce)) {
-					logger.error("Possible replay attack detected! The comparison of the nonce in the returned "
-							+ "ID Token to the session " + NONCE_SESSION_VARIABLE + " failed. Expected " + storedNonce + " got " + nonce + ".");
-
-					throw new AuthenticationServiceException(
-							"Possible replay attack detected! The comparison of the nonce in the returned "
-									+ "ID Token to the session " + NONCE_SESSION_VARIABLE + " failed. Expected " + storedNonce + " got " + nonce + ".");
+					validator.verifySignature(idToken, serverConfig, clientConfig);
 				}
 
 				// construct an PendingOIDCAuthenticationToken and return a Authentication object w/the userId and the idToken
@@ -621,7 +538,15 @@ public class OIDCAuthenticationFilter extends AbstractAuthenticationProcessingFi
 						serverConfig,
 						idToken, accessTokenValue, refreshTokenValue);
 
-				Authentication authentication = this.getAuthenticationManager().authenticate(token);
+				Authentication authentication;
+				try {
+					authentication = this.getAuthenticationManager().authenticate(token);
+				} finally {
+					if (signatureCheck != null) {
+						// never hand back an authentication for a token whose signature didn't check out
+						awaitSignatureCheck(signatureCheck);
+					}
+				}
 
 				return authentication;
 			} catch (ParseException e) {
@@ -786,8 +711,34 @@ public class OIDCAuthenticationFilter extends AbstractAuthenticationProcessingFi
 		return timeSkewAllowance;
 	}
 
-	public void setTimeSkewAllowance(int timeSkewAllowance) {
+	/**
+	 * @param timeSkewAllowance the clock skew, in seconds, allowed when checking ID token times;
+	 * also applied to the ID token validator if one has already been set or built
+	 */
+	public synchronized void setTimeSkewAllowance(int timeSkewAllowance) {
 		this.timeSkewAllowance = timeSkewAllowance;
+		if (idTokenValidator != null) {
+			idTokenValidator.setTimeSkewAllowance(timeSkewAllowance);
+		}
+	}
+
+	public boolean isParallelSignatureValidation() {
+		return parallelSignatureValidation;
+	}
+
+	/**
+	 * Checking the signature alongside the user info fetch saves a round trip on login, but
+	 * the access token is then sent to the userinfo endpoint of the configured issuer before
+	 * the ID token that came with it has been verified. The ID token's claims (issuer,
+	 * audience, expiry and nonce) are still checked first, and no authentication is returned
+	 * unless the signature checks out; leave this off if the access token must only be used
+	 * after the whole token response has been verified.
+	 *
+	 * @param parallelSignatureValidation whether to check the ID token's signature while the
+	 * authentication manager fetches user info, instead of before it
+	 */
+	public void setParallelSignatureValidation(boolean parallelSignatureValidation) {
+		this.parallelSignatureValidation = parallelSignatureValidation;
 	}
 
 	/**
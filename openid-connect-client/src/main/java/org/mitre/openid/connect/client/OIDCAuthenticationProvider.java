@@ -18,6 +18,7 @@
 package org.mitre.openid.connect.client;
 
 import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 import org.mitre.openid.connect.model.OIDCAuthenticationToken;
 import org.mitre.openid.connect.model.PendingOIDCAuthenticationToken;
@@ -45,6 +46,9 @@ public class OIDCAuthenticationProvider implements AuthenticationProvider {
 
 	private OIDCAuthoritiesMapper authoritiesMapper = new NamedAdminAuthoritiesMapper();
 
+	// map authorities from the ID token alone while user info is being fetched
+	private boolean mapAuthoritiesWhileFetching = false;
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -65,8 +69,17 @@ public class OIDCAuthenticationProvider implements AuthenticationProvider {
 			// get the ID Token value out
 			JWT idToken = token.getIdToken();
 
-			// load the user info if we can
-			UserInfo userInfo = userInfoFetcher.loadUserInfo(token);
+			UserInfo userInfo;
+			Collection<? extends GrantedAuthority> authorities = null;
+			if (mapAuthoritiesWhileFetching) {
+				// start the user info call, then map authorities while it's in flight
+				CompletableFuture<UserInfo> pendingUserInfo = userInfoFetcher.loadUserInfoAsync(token);
+				authorities = authoritiesMapper.mapAuthorities(idToken, null);
+				userInfo = pendingUserInfo.join();
+			} else {
+				// load the user info if we can
+				userInfo = userInfoFetcher.loadUserInfo(token);
+			}
 
 			if (userInfo == null) {
 				// user info not found -- could be an error, could be fine
@@ -78,7 +91,11 @@ public class OIDCAuthenticationProvider implements AuthenticationProvider {
 				}
 			}
 
-			return createAuthenticationToken(token, authoritiesMapper.mapAuthorities(idToken, userInfo), userInfo);
+			if (authorities == null) {
+				authorities = authoritiesMapper.mapAuthorities(idToken, userInfo);
+			}
+
+			return createAuthenticationToken(token, authorities, userInfo);
 		}
 
 		return null;
@@ -114,6 +131,17 @@ public class OIDCAuthenticationProvider implements AuthenticationProvider {
 		this.authoritiesMapper = authoritiesMapper;
 	}
 
+	/**
+	 * Fetch user info in the background and map authorities at the same time. The authorities
+	 * mapper is then always called with null user info, so only turn this on when it works
+	 * from the ID token alone, as the default {@link NamedAdminAuthoritiesMapper} does.
+	 *
+	 * @param mapAuthoritiesWhileFetching
+	 */
+	public void setMapAuthoritiesWhileFetching(boolean mapAuthoritiesWhileFetching) {
+		this.mapAuthoritiesWhileFetching = mapAuthoritiesWhileFetching;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
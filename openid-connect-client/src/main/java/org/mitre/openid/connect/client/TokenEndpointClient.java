@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.client;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.HttpClient;
+import org.mitre.jwt.signer.service.JWTSigningAndValidationService;
+import org.mitre.oauth2.model.RegisteredClient;
+import org.mitre.openid.connect.config.ServerConfiguration;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+/**
+ * Makes token endpoint requests for the authentication filter. One instance is reused for
+ * every login, so connections to each issuer's token endpoint are pooled and kept alive.
+ *
+ * Signed client assertions are built fresh for every request by default. Providers that
+ * don't enforce single use of an assertion's jti can allow an assertion to be reused for
+ * a few requests within a short window, which saves a signature on every login.
+ */
+public class TokenEndpointClient {
+
+	// margin before an assertion's expiration after which it's no longer reused
+	private static final long EXPIRATION_MARGIN_MILLIS = 10 * 1000;
+
+	private RestTemplate restTemplate;
+
+	private long clientAssertionLifetimeSeconds = 60;
+
+	private long clientAssertionReuseSeconds = 0;
+
+	private int clientAssertionMaxUses = 1;
+
+	// map of (token endpoint, client ID, algorithm, key ID) -> reusable assertion
+	private Cache<List<Object>, ReusableAssertion> assertions = CacheBuilder.newBuilder()
+			.maximumSize(1000)
+			.build();
+
+	/**
+	 * @param httpClient the client to make requests with, which should pool its connections
+	 * @param readTimeoutMillis how long to wait for the token endpoint to answer
+	 */
+	public TokenEndpointClient(HttpClient httpClient, int readTimeoutMillis) {
+		HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+		factory.setReadTimeout(readTimeoutMillis);
+		restTemplate = new RestTemplate(factory);
+		restTemplate.getMessageConverters().add(0, new TokenResponseConverter());
+	}
+
+	/**
+	 * Post a request to the token endpoint.
+	 *
+	 * @param tokenEndpointUri where to post the request
+	 * @param form the request parameters
+	 * @param headers extra headers, such as basic authentication
+	 * @return the parsed response
+	 */
+	public TokenResponse exchange(String tokenEndpointUri, MultiValueMap<String, String> form, HttpHeaders headers) {
+		return restTemplate.postForObject(tokenEndpointUri, new HttpEntity<>(form, headers), TokenResponse.class);
+	}
+
+	/**
+	 * Get a signed client assertion for authenticating to the server's token endpoint,
+	 * reusing a recent one if that is allowed.
+	 *
+	 * @return the serialized assertion
+	 */
+	public String getClientAssertion(ServerConfiguration serverConfig, RegisteredClient clientConfig, JWTSigningAndValidationService signer, JWSAlgorithm alg) {
+		if (clientAssertionReuseSeconds <= 0 || clientAssertionMaxUses <= 1) {
+			return buildClientAssertion(serverConfig, clientConfig, signer, alg, System.currentTimeMillis());
+		}
+
+		List<Object> key = Arrays.asList(serverConfig.getTokenEndpointUri(), clientConfig.getClientId(), alg, signer.getDefaultSignerKeyId());
+		long now = System.currentTimeMillis();
+
+		ReusableAssertion cached = assertions.getIfPresent(key);
+		if (cached != null && now < cached.reuseUntil && cached.uses.incrementAndGet() <= clientAssertionMaxUses) {
+			return cached.serialized;
+		}
+
+		String serialized = buildClientAssertion(serverConfig, clientConfig, signer, alg, now);
+		long expiresAt = now + TimeUnit.SECONDS.toMillis(clientAssertionLifetimeSeconds);
+		long reuseUntil = Math.min(now + TimeUnit.SECONDS.toMillis(clientAssertionReuseSeconds), expiresAt - EXPIRATION_MARGIN_MILLIS);
+		assertions.put(key, new ReusableAssertion(serialized, reuseUntil));
+		return serialized;
+	}
+
+	private String buildClientAssertion(ServerConfiguration serverConfig, RegisteredClient clientConfig, JWTSigningAndValidationService signer, JWSAlgorithm alg, long now) {
+		JWTClaimsSet.Builder claimsSet = new JWTClaimsSet.Builder();
+
+		claimsSet.issuer(clientConfig.getClientId());
+		claimsSet.subject(clientConfig.getClientId());
+		claimsSet.audience(Lists.newArrayList(serverConfig.getTokenEndpointUri()));
+		claimsSet.jwtID(UUID.randomUUID().toString());
+
+		claimsSet.expirationTime(new Date(now + TimeUnit.SECONDS.toMillis(clientAssertionLifetimeSeconds)));
+		claimsSet.issueTime(new Date(now));
+		claimsSet.notBeforeTime(new Date(now));
+
+		JWSHeader header = new JWSHeader.Builder(alg)
+				.keyID(signer.getDefaultSignerKeyId())
+				.build();
+		SignedJWT jwt = new SignedJWT(header, claimsSet.build());
+
+		signer.signJwt(jwt, alg);
+
+		return jwt.serialize();
+	}
+
+	/**
+	 * @return how long a client assertion is valid for
+	 */
+	public long getClientAssertionLifetimeSeconds() {
+		return clientAssertionLifetimeSeconds;
+	}
+
+	/**
+	 * @param clientAssertionLifetimeSeconds how long a client assertion is valid for
+	 */
+	public void setClientAssertionLifetimeSeconds(long clientAssertionLifetimeSeconds) {
+		this.clientAssertionLifetimeSeconds = clientAssertionLifetimeSeconds;
+	}
+
+	/**
+	 * @return how long a client assertion may be reused for, 0 to build one for every request
+	 */
+	public long getClientAssertionReuseSeconds() {
+		return clientAssertionReuseSeconds;
+	}
+
+	/**
+	 * Only set this for providers that accept the same assertion more than once.
+	 *
+	 * @param clientAssertionReuseSeconds how long a client assertion may be reused for, 0 to build one for every request
+	 */
+	public void setClientAssertionReuseSeconds(long clientAssertionReuseSeconds) {
+		this.clientAssertionReuseSeconds = clientAssertionReuseSeconds;
+	}
+
+	/**
+	 * @return the most requests a single client assertion is sent with
+	 */
+	public int getClientAssertionMaxUses() {
+		return clientAssertionMaxUses;
+	}
+
+	/**
+	 * @param clientAssertionMaxUses the most requests a single client assertion is sent with
+	 */
+	public void setClientAssertionMaxUses(int clientAssertionMaxUses) {
+		this.clientAssertionMaxUses = clientAssertionMaxUses;
+	}
+
+	/**
+	 * A signed assertion and how often it has been used.
+	 */
+	private static class ReusableAssertion {
+
+		private final String serialized;
+		private final long reuseUntil;
+		private final AtomicInteger uses = new AtomicInteger(1);
+
+		ReusableAssertion(String serialized, long reuseUntil) {
+			this.serialized = serialized;
+			this.reuseUntil = reuseUntil;
+		}
+	}
+
+	/**
+	 * The parts of a token endpoint response that the filter uses.
+	 */
+	public static class TokenResponse {
+
+		private String accessToken;
+		private String idToken;
+		private String refreshToken;
+		private String error;
+
+		public String getAccessToken() {
+			return accessToken;
+		}
+
+		public String getIdToken() {
+			return idToken;
+		}
+
+		public String getRefreshToken() {
+			return refreshToken;
+		}
+
+		public String getError() {
+			return error;
+		}
+	}
+
+	/**
+	 * Reads a token response straight from the response stream, keeping only the fields
+	 * the filter uses.
+	 */
+	private static class TokenResponseConverter extends AbstractHttpMessageConverter<TokenResponse> {
+
+		TokenResponseConverter() {
+			super(MediaType.ALL);
+		}
+
+		@Override
+		protected boolean supports(Class<?> clazz) {
+			return TokenResponse.class.equals(clazz);
+		}
+
+		@Override
+		protected TokenResponse readInternal(Class<? extends TokenResponse> clazz, HttpInputMessage inputMessage) throws IOException {
+			MediaType contentType = inputMessage.getHeaders().getContentType();
+			Charset charset = contentType != null && contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8;
+
+			TokenResponse response = new TokenResponse();
+			try (JsonReader reader = new JsonReader(new InputStreamReader(inputMessage.getBody(), charset))) {
+				reader.setLenient(true);
+				if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+					throw new HttpMessageNotReadableException("Token Endpoint did not return a JSON object", inputMessage);
+				}
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String name = reader.nextName();
+					if (reader.peek() != JsonToken.STRING) {
+						reader.skipValue();
+						continue;
+					}
+					switch (name) {
+						case "access_token":
+							response.accessToken = reader.nextString();
+							break;
+						case "id_token":
+							response.idToken = reader.nextString();
+							break;
+						case "refresh_token":
+							response.refreshToken = reader.nextString();
+							break;
+						case "error":
+							response.error = reader.nextString();
+							break;
+						default:
+							reader.skipValue();
+							break;
+					}
+				}
+				reader.endObject();
+			} catch (JsonParseException | IllegalStateException e) {
+				throw new HttpMessageNotReadableException("Unable to parse Token Endpoint response: " + e.getMessage(), e, inputMessage);
+			}
+			return response;
+		}
+
+		@Override
+		public boolean canWrite(Class<?> clazz, MediaType mediaType) {
+			// token responses are only read
+			return false;
+		}
+
+		@Override
+		protected void writeInternal(TokenResponse t, HttpOutputMessage outputMessage) throws IOException {
+			throw new HttpMessageNotWritableException("Token responses are only read");
+		}
+	}
+
+}
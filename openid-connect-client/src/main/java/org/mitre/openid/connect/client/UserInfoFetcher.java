@@ -20,17 +20,21 @@ package org.mitre.openid.connect.client;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.mitre.openid.connect.config.ServerConfiguration;
 import org.mitre.openid.connect.config.ServerConfiguration.UserInfoTokenMethod;
 import org.mitre.openid.connect.model.DefaultUserInfo;
 import org.mitre.openid.connect.model.PendingOIDCAuthenticationToken;
 import org.mitre.openid.connect.model.UserInfo;
+import org.mitre.util.http.PooledHttpClientFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpMethod;
@@ -41,15 +45,20 @@ import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 /**
  * Utility class to fetch userinfo from the userinfo endpoint, if available. Caches the results.
+ *
+ * Results are cached by issuer, subject and a hash of the access token, so a repeated lookup
+ * for the same login is answered from the cache whichever token object it comes in on.
+ * Concurrent lookups for the same key share a single call to the userinfo endpoint.
+ *
  * @author jricher
  *
  */
@@ -60,22 +69,57 @@ public class UserInfoFetcher {
 	 */
 	private static final Logger logger = LoggerFactory.getLogger(UserInfoFetcher.class);
 
-	private LoadingCache<PendingOIDCAuthenticationToken, UserInfo> cache;
+	private long cacheMaximumSize = 1000;
+
+	private long cacheExpireSeconds = TimeUnit.HOURS.toSeconds(1); // expires 1 hour after fetch
+
+	private Cache<List<String>, UserInfo> cache;
+
+	private HttpComponentsClientHttpRequestFactory factory;
+
+	// runs async fetches; a factory of this fetcher's own unless one was given
+	private PooledHttpClientFactory httpClientFactory;
 
 	public UserInfoFetcher() {
-		this(HttpClientBuilder.create().useSystemProperties().build());
+		this(new PooledHttpClientFactory());
+	}
+
+	/**
+	 * @param httpClientFactory supplies the HTTP client that user info is fetched with and the pool async fetches run on
+	 */
+	public UserInfoFetcher(PooledHttpClientFactory httpClientFactory) {
+		this(httpClientFactory.getClient());
+		this.httpClientFactory = httpClientFactory;
 	}
 
 	public UserInfoFetcher(HttpClient httpClient) {
-		cache = CacheBuilder.newBuilder()
-				.expireAfterWrite(1, TimeUnit.HOURS) // expires 1 hour after fetch
-				.maximumSize(100)
-				.build(new UserInfoLoader(httpClient));
+		this.factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+		this.cache = buildCache();
+	}
+
+	private Cache<List<String>, UserInfo> buildCache() {
+		return CacheBuilder.newBuilder()
+				.expireAfterWrite(cacheExpireSeconds, TimeUnit.SECONDS)
+				.maximumSize(cacheMaximumSize)
+				.build();
 	}
 
 	public UserInfo loadUserInfo(final PendingOIDCAuthenticationToken token) {
+
+		ServerConfiguration serverConfiguration = token.getServerConfiguration();
+
+		if (serverConfiguration == null) {
+			logger.warn("No server configuration found.");
+			return null;
+		}
+
+		if (Strings.isNullOrEmpty(serverConfiguration.getUserInfoUri())) {
+			logger.warn("No userinfo endpoint, not fetching.");
+			return null;
+		}
+
 		try {
-			return cache.get(token);
+			return cache.get(getCacheKey(token), () -> fetchUserInfo(token));
 		} catch (UncheckedExecutionException | ExecutionException e) {
 			logger.warn("Couldn't load User Info from token: " + e.getMessage());
 			return null;
@@ -83,75 +127,112 @@ public class UserInfoFetcher {
 
 	}
 
-
-	private class UserInfoLoader extends CacheLoader<PendingOIDCAuthenticationToken, UserInfo> {
-		private HttpComponentsClientHttpRequestFactory factory;
-
-		UserInfoLoader(HttpClient httpClient) {
-			this.factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+	/**
+	 * Load the user info without blocking the caller. Cached results complete straight away,
+	 * anything else is fetched on the shared outbound pool (or on the calling thread if that
+	 * pool is busy). Like {@link #loadUserInfo(PendingOIDCAuthenticationToken)}, the future
+	 * holds null if the user info couldn't be loaded.
+	 *
+	 * @param token the token to load user info for
+	 * @return the eventual user info
+	 */
+	public CompletableFuture<UserInfo> loadUserInfoAsync(final PendingOIDCAuthenticationToken token) {
+		UserInfo cached = cache.getIfPresent(getCacheKey(token));
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
 		}
 
-		@Override
-		public UserInfo load(final PendingOIDCAuthenticationToken token) throws URISyntaxException {
+		return getHttpClientFactory().supplyAsyncOrRun(() -> loadUserInfo(token));
+	}
 
-			ServerConfiguration serverConfiguration = token.getServerConfiguration();
+	private synchronized PooledHttpClientFactory getHttpClientFactory() {
+		if (httpClientFactory == null) {
+			httpClientFactory = new PooledHttpClientFactory();
+		}
+		return httpClientFactory;
+	}
 
-			if (serverConfiguration == null) {
-				logger.warn("No server configuration found.");
-				return null;
-			}
+	/**
+	 * The access token is only stored hashed, so the cache doesn't keep usable tokens around.
+	 */
+	private List<String> getCacheKey(PendingOIDCAuthenticationToken token) {
+		String tokenHash = Hashing.sha256().hashString(Strings.nullToEmpty(token.getAccessTokenValue()), StandardCharsets.UTF_8).toString();
+		return Arrays.asList(token.getIssuer(), token.getSub(), tokenHash);
+	}
 
-			if (Strings.isNullOrEmpty(serverConfiguration.getUserInfoUri())) {
-				logger.warn("No userinfo endpoint, not fetching.");
-				return null;
-			}
+	private UserInfo fetchUserInfo(final PendingOIDCAuthenticationToken token) throws URISyntaxException {
 
-			String userInfoString = null;
+		ServerConfiguration serverConfiguration = token.getServerConfiguration();
 
-			if (serverConfiguration.getUserInfoTokenMethod() == null || serverConfiguration.getUserInfoTokenMethod().equals(UserInfoTokenMethod.HEADER)) {
-				RestTemplate restTemplate = new RestTemplate(factory) {
+		String userInfoString = null;
 
-					@Override
-					protected ClientHttpRequest createRequest(URI url, HttpMethod method) throws IOException {
-						ClientHttpRequest httpRequest = super.createRequest(url, method);
-						httpRequest.getHeaders().add("Authorization", String.format("Bearer %s", token.getAccessTokenValue()));
-						return httpRequest;
-					}
-				};
+		if (serverConfiguration.getUserInfoTokenMethod() == null || serverConfiguration.getUserInfoTokenMethod().equals(UserInfoTokenMethod.HEADER)) {
+			RestTemplate restTemplate = new RestTemplate(factory) {
 
-				userInfoString = restTemplate.getForObject(serverConfiguration.getUserInfoUri(), String.class);
+				@Override
+				protected ClientHttpRequest createRequest(URI url, HttpMethod method) throws IOException {
+					ClientHttpRequest httpRequest = super.createRequest(url, method);
+					httpRequest.getHeaders().add("Authorization", String.format("Bearer %s", token.getAccessTokenValue()));
+					return httpRequest;
+				}
+			};
 
-			} else if (serverConfiguration.getUserInfoTokenMethod().equals(UserInfoTokenMethod.FORM)) {
-				MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
-				form.add("access_token", token.getAccessTokenValue());
+			userInfoString = restTemplate.getForObject(serverConfiguration.getUserInfoUri(), String.class);
 
-				RestTemplate restTemplate = new RestTemplate(factory);
-				userInfoString = restTemplate.postForObject(serverConfiguration.getUserInfoUri(), form, String.class);
-			} else if (serverConfiguration.getUserInfoTokenMethod().equals(UserInfoTokenMethod.QUERY)) {
-				URIBuilder builder = new URIBuilder(serverConfiguration.getUserInfoUri());
-				builder.setParameter("access_token",  token.getAccessTokenValue());
+		} else if (serverConfiguration.getUserInfoTokenMethod().equals(UserInfoTokenMethod.FORM)) {
+			MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+			form.add("access_token", token.getAccessTokenValue());
 
-				RestTemplate restTemplate = new RestTemplate(factory);
-				userInfoString = restTemplate.getForObject(builder.toString(), String.class);
-			}
+			RestTemplate restTemplate = new RestTemplate(factory);
+			userInfoString = restTemplate.postForObject(serverConfiguration.getUserInfoUri(), form, String.class);
+		} else if (serverConfiguration.getUserInfoTokenMethod().equals(UserInfoTokenMethod.QUERY)) {
+			URIBuilder builder = new URIBuilder(serverConfiguration.getUserInfoUri());
+			builder.setParameter("access_token",  token.getAccessTokenValue());
 
+			RestTemplate restTemplate = new RestTemplate(factory);
+			userInfoString = restTemplate.getForObject(builder.toString(), String.class);
+		}
 
-			if (!Strings.isNullOrEmpty(userInfoString)) {
 
-				JsonObject userInfoJson = new JsonParser().parse(userInfoString).getAsJsonObject();
+		if (!Strings.isNullOrEmpty(userInfoString)) {
 
-				UserInfo userInfo = fromJson(userInfoJson);
+			JsonObject userInfoJson = new JsonParser().parse(userInfoString).getAsJsonObject();
 
-				return userInfo;
-			} else {
-				// didn't get anything throw exception
-				throw new IllegalArgumentException("Unable to load user info");
-			}
+			UserInfo userInfo = fromJson(userInfoJson);
 
+			return userInfo;
+		} else {
+			// didn't get anything throw exception
+			throw new IllegalArgumentException("Unable to load user info");
 		}
+
 	}
 
 	protected UserInfo fromJson(JsonObject userInfoJson) {
 		return DefaultUserInfo.fromJson(userInfoJson);
 	}
+
+	public long getCacheMaximumSize() {
+		return cacheMaximumSize;
+	}
+
+	/**
+	 * @param cacheMaximumSize the most user info results to keep; clears the cache
+	 */
+	public void setCacheMaximumSize(long cacheMaximumSize) {
+		this.cacheMaximumSize = cacheMaximumSize;
+		this.cache = buildCache();
+	}
+
+	public long getCacheExpireSeconds() {
+		return cacheExpireSeconds;
+	}
+
+	/**
+	 * @param cacheExpireSeconds how long after a fetch a user info result is dropped; clears the cache
+	 */
+	public void setCacheExpireSeconds(long cacheExpireSeconds) {
+		this.cacheExpireSeconds = cacheExpireSeconds;
+		this.cache = buildCache();
+	}
 }
@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.client.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mitre.oauth2.model.RegisteredClient;
+import org.mitre.openid.connect.ClientDetailsEntityJsonProcessor;
+import org.mitre.openid.connect.client.service.RegisteredClientService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.reflect.TypeToken;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Keeps registered clients in a log file that's only ever appended to. Each save writes one
+ * line holding the issuer and the client as JSON, and the latest line for an issuer wins.
+ * Lookups are answered from an in-memory index that's built by reading the memory-mapped
+ * log once at startup.
+ *
+ * Once the log holds more than {@link #getCompactionRatio()} times as many records as there
+ * are issuers, it's rewritten with one record per issuer into a temporary file that then
+ * atomically replaces the log. A save interrupted by a crash leaves at most a partial last
+ * line, which is dropped the next time the log is loaded. A save that fails with an error
+ * is cut back out of the log and leaves the in-memory index unchanged.
+ *
+ * Saves are serialized within this instance; the file should not be shared with another
+ * instance or process. A file written by {@link JsonFileRegisteredClientService} is read
+ * and converted on first load.
+ */
+public class AppendOnlyFileRegisteredClientService implements RegisteredClientService {
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(AppendOnlyFileRegisteredClientService.class);
+
+	private static final String ISSUER = "issuer";
+	private static final String CLIENT = "client";
+
+	// leaves out null members, which the client parser can't read back
+	private static final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+	private final Path file;
+
+	private final Map<String, RegisteredClient> clients = new ConcurrentHashMap<>();
+
+	private FileChannel log;
+
+	// set when a failed write couldn't be cut back out of the log, so the next record starts on a new line
+	private boolean fragmentInLog = false;
+
+	// number of records in the log, including ones that have since been replaced
+	private int records = 0;
+
+	private int compactionRatio = 4;
+
+	private int compactionMinimumRecords = 64;
+
+	private boolean syncOnSave = true;
+
+	public AppendOnlyFileRegisteredClientService(String filename) {
+		this.file = new File(filename).toPath().toAbsolutePath();
+		load();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.client.service.RegisteredClientService#getByIssuer(java.lang.String)
+	 */
+	@Override
+	public RegisteredClient getByIssuer(String issuer) {
+		return clients.get(issuer);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.client.service.RegisteredClientService#save(java.lang.String, org.mitre.oauth2.model.RegisteredClient)
+	 */
+	@Override
+	public synchronized void save(String issuer, RegisteredClient client) {
+		try {
+			append(toRecord(issuer, client));
+			clients.put(issuer, client);
+			records++;
+
+			if (records >= compactionMinimumRecords && records > (long) clients.size() * compactionRatio) {
+				compact();
+			}
+		} catch (IOException e) {
+			logger.error("Could not write to client log " + file, e);
+		}
+	}
+
+	/**
+	 * Rewrite the log with only the latest record for each issuer.
+	 */
+	public synchronized void compact() {
+		try {
+			Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try {
+				try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+					Writer writer = Channels.newWriter(out, StandardCharsets.UTF_8.newEncoder(), -1);
+					for (Map.Entry<String, RegisteredClient> entry : clients.entrySet()) {
+						writer.write(toRecord(entry.getKey(), entry.getValue()));
+					}
+					writer.flush();
+					out.force(true);
+				}
+
+				closeLog();
+				try {
+					Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+				fragmentInLog = false;
+				records = clients.size();
+				syncDirectory();
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException e) {
+			logger.error("Could not compact client log " + file, e);
+		}
+	}
+
+	/**
+	 * Close the log file. Any later save reopens it.
+	 */
+	public synchronized void close() {
+		try {
+			closeLog();
+		} catch (IOException e) {
+			logger.warn("Could not close client log " + file, e);
+		}
+	}
+
+	/**
+	 * Append a record to the log. If the write fails, the log is truncated back to where
+	 * the record started so that no fragment is left for the next record to be joined to.
+	 */
+	private void append(String record) throws IOException {
+		if (log == null) {
+			log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		}
+
+		long start = log.size();
+		try {
+			if (fragmentInLog) {
+				// the fragment becomes an unreadable line of its own, skipped on load
+				record = "\n" + record;
+			}
+			ByteBuffer bytes = StandardCharsets.UTF_8.encode(record);
+			while (bytes.hasRemaining()) {
+				log.write(bytes);
+			}
+			if (syncOnSave) {
+				log.force(false);
+			}
+			fragmentInLog = false;
+		} catch (IOException e) {
+			try {
+				log.truncate(start);
+			} catch (IOException truncateFailure) {
+				e.addSuppressed(truncateFailure);
+				fragmentInLog = true;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Force the log's directory entry to disk after the log has been replaced by a rename.
+	 * Not every platform can open a directory; there the rename is left to the file system.
+	 */
+	private void syncDirectory() {
+		try (FileChannel dir = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+			dir.force(true);
+		} catch (IOException e) {
+			logger.debug("Could not sync directory " + file.getParent(), e);
+		}
+	}
+
+	private void closeLog() throws IOException {
+		if (log != null) {
+			log.close();
+			log = null;
+		}
+	}
+
+	private String toRecord(String issuer, RegisteredClient client) {
+		JsonObject record = new JsonObject();
+		record.addProperty(ISSUER, issuer);
+		record.add(CLIENT, ClientDetailsEntityJsonProcessor.serialize(client));
+		// compact JSON never contains a raw newline, so each record is exactly one line
+		return gson.toJson(record) + "\n";
+	}
+
+	/**
+	 * Build the index from the log, dropping a partial last record left by a crash.
+	 */
+	private synchronized void load() {
+		if (!Files.exists(file)) {
+			logger.info("No saved clients file found in " + file);
+			return;
+		}
+
+		try {
+			long goodLength = 0;
+			boolean legacy = false;
+
+			try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+				long size = in.size();
+				if (size > Integer.MAX_VALUE) {
+					throw new IOException("Client log is too large to load: " + size + " bytes");
+				}
+				if (size == 0) {
+					return;
+				}
+
+				MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+				int start = 0;
+				for (int i = 0; i < buffer.limit(); i++) {
+					if (buffer.get(i) != '\n') {
+						continue;
+					}
+
+					String line = readLine(buffer, start, i);
+					if (records == 0 && line.trim().equals("{")) {
+						// pretty-printed map from JsonFileRegisteredClientService
+						legacy = true;
+						break;
+					}
+					if (!line.trim().isEmpty()) {
+						readRecord(line);
+						records++;
+					}
+					start = i + 1;
+					goodLength = start;
+				}
+
+				if (legacy) {
+					loadLegacy(StandardCharsets.UTF_8.decode(buffer).toString());
+				} else if (goodLength < size) {
+					logger.warn("Dropping incomplete record at the end of client log " + file);
+				}
+			}
+
+			if (legacy) {
+				logger.info("Converting saved clients in " + file + " to an append-only log");
+				compact();
+			} else if (goodLength < Files.size(file)) {
+				try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+					out.truncate(goodLength);
+				}
+			}
+		} catch (IOException | JsonParseException e) {
+			logger.error("Could not read from client log " + file, e);
+		}
+	}
+
+	private String readLine(MappedByteBuffer buffer, int start, int end) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(start);
+		slice.limit(end);
+		return StandardCharsets.UTF_8.decode(slice).toString();
+	}
+
+	private void readRecord(String line) {
+		try {
+			JsonElement parsed = new JsonParser().parse(line);
+			if (parsed.isJsonObject() && parsed.getAsJsonObject().has(ISSUER) && parsed.getAsJsonObject().has(CLIENT)) {
+				JsonObject record = parsed.getAsJsonObject();
+				RegisteredClient client = ClientDetailsEntityJsonProcessor.parseRegistered(record.get(CLIENT));
+				if (client != null) {
+					clients.put(record.get(ISSUER).getAsString(), client);
+					return;
+				}
+			}
+		} catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+			// fall through to the warning below
+		}
+		logger.warn("Skipping unreadable record in client log " + file);
+	}
+
+	@SuppressWarnings("serial")
+	private void loadLegacy(String json) {
+		Gson legacyGson = new GsonBuilder()
+				.registerTypeAdapter(RegisteredClient.class, new JsonDeserializer<RegisteredClient>() {
+					@Override
+					public RegisteredClient deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+						return ClientDetailsEntityJsonProcessor.parseRegistered(json);
+					}
+				})
+				.create();
+
+		Map<String, RegisteredClient> legacy = legacyGson.fromJson(json, new TypeToken<HashMap<String, RegisteredClient>>(){}.getType());
+		if (legacy != null) {
+			clients.putAll(legacy);
+		}
+		records = clients.size();
+	}
+
+	/**
+	 * @return how many times the number of issuers the log may grow to before it's compacted
+	 */
+	public int getCompactionRatio() {
+		return compactionRatio;
+	}
+
+	/**
+	 * @param compactionRatio how many times the number of issuers the log may grow to before it's compacted
+	 */
+	public void setCompactionRatio(int compactionRatio) {
+		this.compactionRatio = compactionRatio;
+	}
+
+	/**
+	 * @return the number of records below which the log is never compacted
+	 */
+	public int getCompactionMinimumRecords() {
+		return compactionMinimumRecords;
+	}
+
+	/**
+	 * @param compactionMinimumRecords the number of records below which the log is never compacted
+	 */
+	public void setCompactionMinimumRecords(int compactionMinimumRecords) {
+		this.compactionMinimumRecords = compactionMinimumRecords;
+	}
+
+	/**
+	 * @return whether each save is forced to disk before it returns
+	 */
+	public boolean isSyncOnSave() {
+		return syncOnSave;
+	}
+
+	/**
+	 * @param syncOnSave whether each save is forced to disk before it returns
+	 */
+	public void setSyncOnSave(boolean syncOnSave) {
+		this.syncOnSave = syncOnSave;
+	}
+
+}
@@ -25,12 +25,12 @@ import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.http.client.HttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.mitre.oauth2.model.RegisteredClient;
 import org.mitre.openid.connect.ClientDetailsEntityJsonProcessor;
 import org.mitre.openid.connect.client.service.ClientConfigurationService;
 import org.mitre.openid.connect.client.service.RegisteredClientService;
 import org.mitre.openid.connect.config.ServerConfiguration;
+import org.mitre.util.http.PooledHttpClientFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpEntity;
@@ -73,7 +73,7 @@ public class DynamicRegistrationClientConfigurationService implements ClientConf
 	private Set<String> blacklist = new HashSet<>();
 
 	public DynamicRegistrationClientConfigurationService() {
-		this(HttpClientBuilder.create().useSystemProperties().build());
+		this(new PooledHttpClientFactory().getClient());
 	}
 
 	public DynamicRegistrationClientConfigurationService(HttpClient httpClient) {
@@ -177,7 +177,7 @@ public class DynamicRegistrationClientConfigurationService implements ClientConf
 		private Gson gson = new Gson(); // note that this doesn't serialize nulls by default
 
 		public DynamicClientRegistrationLoader() {
-			this(HttpClientBuilder.create().useSystemProperties().build());
+			this(new PooledHttpClientFactory().getClient());
 		}
 
 		public DynamicClientRegistrationLoader(HttpClient httpClient) {
@@ -29,29 +29,28 @@ import static org.mitre.util.JsonUtils.getAsStringList;
 
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 
 import org.apache.http.client.HttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.mitre.openid.connect.client.service.ServerConfigurationService;
 import org.mitre.openid.connect.config.ServerConfiguration;
+import org.mitre.util.http.AbstractRefreshingHttpCache;
+import org.mitre.util.http.AbstractRefreshingHttpCache.Fetched;
+import org.mitre.util.http.PooledHttpClientFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.web.client.RestTemplate;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 /**
  *
- * Dynamically fetches OpenID Connect server configurations based on the issuer. Caches the server configurations.
+ * Dynamically fetches OpenID Connect server configurations based on the issuer. Caches the server configurations
+ * in a bounded cache, refreshing them in the background as their Cache-Control headers allow.
  *
  * @author jricher
  *
@@ -64,18 +63,61 @@ public class DynamicServerConfigurationService implements ServerConfigurationSer
 	private static final Logger logger = LoggerFactory.getLogger(DynamicServerConfigurationService.class);
 
 	// map of issuer -> server configuration, loaded dynamically from service discovery
-	private LoadingCache<String, ServerConfiguration> servers;
+	private AbstractRefreshingHttpCache<ServerConfiguration> servers;
 
 	private Set<String> whitelist = new HashSet<>();
 	private Set<String> blacklist = new HashSet<>();
 
 	public DynamicServerConfigurationService() {
-		this(HttpClientBuilder.create().useSystemProperties().build());
+		this(new PooledHttpClientFactory());
+	}
+
+	/**
+	 * @param httpClientFactory supplies the HTTP client that discovery documents are fetched with
+	 * and the pool they are refreshed on
+	 */
+	public DynamicServerConfigurationService(PooledHttpClientFactory httpClientFactory) {
+		this(httpClientFactory.getClient());
+		servers.setRefreshExecutor(httpClientFactory.getAsyncExecutor());
 	}
 
 	public DynamicServerConfigurationService(HttpClient httpClient) {
 		// initialize the cache
-		servers = CacheBuilder.newBuilder().build(new OpenIDConnectServiceConfigurationFetcher(httpClient));
+		OpenIDConnectServiceConfigurationFetcher fetcher = new OpenIDConnectServiceConfigurationFetcher(httpClient);
+		servers = new AbstractRefreshingHttpCache<ServerConfiguration>() {
+			@Override
+			protected Fetched<ServerConfiguration> fetch(String issuer) throws Exception {
+				return fetcher.load(issuer);
+			}
+		};
+	}
+
+	/**
+	 * @return the maximum number of issuers held in the cache
+	 */
+	public long getMaximumSize() {
+		return servers.getMaximumSize();
+	}
+
+	/**
+	 * @param maximumSize the maximum number of issuers held in the cache
+	 */
+	public void setMaximumSize(long maximumSize) {
+		servers.setMaximumSize(maximumSize);
+	}
+
+	/**
+	 * @return the time between refreshes when the server sends no Cache-Control max-age
+	 */
+	public long getRefreshSeconds() {
+		return servers.getRefreshSeconds();
+	}
+
+	/**
+	 * @param refreshSeconds the time between refreshes when the server sends no Cache-Control max-age
+	 */
+	public void setRefreshSeconds(long refreshSeconds) {
+		servers.setRefreshSeconds(refreshSeconds);
 	}
 
 	/**
@@ -108,29 +150,25 @@ public class DynamicServerConfigurationService implements ServerConfigurationSer
 
 	@Override
 	public ServerConfiguration getServerConfiguration(String issuer) {
-		try {
-
-			if (!whitelist.isEmpty() && !whitelist.contains(issuer)) {
-				throw new AuthenticationServiceException("Whitelist was nonempty, issuer was not in whitelist: " + issuer);
-			}
 
-			if (blacklist.contains(issuer)) {
-				throw new AuthenticationServiceException("Issuer was in blacklist: " + issuer);
-			}
+		if (!whitelist.isEmpty() && !whitelist.contains(issuer)) {
+			throw new AuthenticationServiceException("Whitelist was nonempty, issuer was not in whitelist: " + issuer);
+		}
 
-			return servers.get(issuer);
-		} catch (UncheckedExecutionException | ExecutionException e) {
-			logger.warn("Couldn't load configuration for " + issuer + ": " + e);
-			return null;
+		if (blacklist.contains(issuer)) {
+			throw new AuthenticationServiceException("Issuer was in blacklist: " + issuer);
 		}
 
+		// null if the configuration couldn't be loaded, or failed recently
+		return servers.get(issuer);
+
 	}
 
 	/**
 	 * @author jricher
 	 *
 	 */
-	private class OpenIDConnectServiceConfigurationFetcher extends CacheLoader<String, ServerConfiguration> {
+	private class OpenIDConnectServiceConfigurationFetcher {
 		private HttpComponentsClientHttpRequestFactory httpFactory;
 		private JsonParser parser = new JsonParser();
 
@@ -138,8 +176,7 @@ public class DynamicServerConfigurationService implements ServerConfigurationSer
 			this.httpFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
 		}
 
-		@Override
-		public ServerConfiguration load(String issuer) throws Exception {
+		public Fetched<ServerConfiguration> load(String issuer) throws Exception {
 			RestTemplate restTemplate = new RestTemplate(httpFactory);
 
 			// data holder
@@ -149,7 +186,8 @@ public class DynamicServerConfigurationService implements ServerConfigurationSer
 			String url = issuer + "/.well-known/openid-configuration";
 
 			// fetch the value
-			String jsonString = restTemplate.getForObject(url, String.class);
+			ResponseEntity<String> response = restTemplate.getForEntity(url, String.class);
+			String jsonString = response.getBody();
 
 			JsonElement parsed = parser.parse(jsonString);
 			if (parsed.isJsonObject()) {
@@ -203,7 +241,7 @@ public class DynamicServerConfigurationService implements ServerConfigurationSer
 				conf.setUserinfoEncryptionEncValuesSupported(getAsEncryptionMethodList(o, "userinfo_encryption_enc_values_supported"));
 				conf.setUserinfoSigningAlgValuesSupported(getAsJwsAlgorithmList(o, "userinfo_signing_alg_values_supported"));
 
-				return conf;
+				return new Fetched<>(conf, response.getHeaders().getCacheControl());
 			} else {
 				throw new IllegalStateException("Couldn't parse server discovery results for " + url);
 			}
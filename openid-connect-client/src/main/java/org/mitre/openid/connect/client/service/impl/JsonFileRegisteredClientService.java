@@ -47,7 +47,10 @@ import com.google.gson.JsonSerializer;
 /**
  * @author jricher
  *
+ * @deprecated rewrites the whole file on every save; use {@link AppendOnlyFileRegisteredClientService},
+ * which reads this class's file format and converts it on first load
  */
+@Deprecated
 public class JsonFileRegisteredClientService implements RegisteredClientService {
 
 	/**
@@ -22,18 +22,20 @@ package org.mitre.openid.connect.client.service.impl;
 
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.mitre.discovery.util.WebfingerURLNormalizer;
 import org.mitre.openid.connect.client.model.IssuerServiceResponse;
 import org.mitre.openid.connect.client.service.IssuerService;
+import org.mitre.util.http.AbstractRefreshingHttpCache;
+import org.mitre.util.http.AbstractRefreshingHttpCache.Fetched;
+import org.mitre.util.http.PooledHttpClientFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.web.client.RestClientException;
@@ -41,10 +43,6 @@ import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponents;
 
 import com.google.common.base.Strings;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -53,6 +51,7 @@ import com.google.gson.JsonParser;
 
 /**
  * Use Webfinger to discover the appropriate issuer for a user-given input string.
+ * Results are held in a bounded cache and refreshed as their Cache-Control headers allow.
  * @author jricher
  *
  */
@@ -64,7 +63,7 @@ public class WebfingerIssuerService implements IssuerService {
 	private static final Logger logger = LoggerFactory.getLogger(WebfingerIssuerService.class);
 
 	// map of user input -> issuer, loaded dynamically from webfinger discover
-	private LoadingCache<String, LoadingResult> issuers;
+	private AbstractRefreshingHttpCache<LoadingResult> issuers;
 
 	// private data shuttle class to get back two bits of info from the cache loader
 	private class LoadingResult {
@@ -95,11 +94,26 @@ public class WebfingerIssuerService implements IssuerService {
 	private boolean forceHttps = true;
 
 	public WebfingerIssuerService() {
-		this(HttpClientBuilder.create().useSystemProperties().build());
+		this(new PooledHttpClientFactory());
+	}
+
+	/**
+	 * @param httpClientFactory supplies the HTTP client that webfinger lookups are made with
+	 * and the pool they are refreshed on
+	 */
+	public WebfingerIssuerService(PooledHttpClientFactory httpClientFactory) {
+		this(httpClientFactory.getClient());
+		issuers.setRefreshExecutor(httpClientFactory.getAsyncExecutor());
 	}
 
 	public WebfingerIssuerService(HttpClient httpClient) {
-		issuers = CacheBuilder.newBuilder().build(new WebfingerIssuerFetcher(httpClient));
+		WebfingerIssuerFetcher fetcher = new WebfingerIssuerFetcher(httpClient);
+		issuers = new AbstractRefreshingHttpCache<LoadingResult>() {
+			@Override
+			protected Fetched<LoadingResult> fetch(String identifier) throws Exception {
+				return fetcher.load(identifier);
+			}
+		};
 	}
 
 	/* (non-Javadoc)
@@ -110,22 +124,23 @@ public class WebfingerIssuerService implements IssuerService {
 
 		String identifier = request.getParameter(parameterName);
 		if (!Strings.isNullOrEmpty(identifier)) {
-			try {
-				LoadingResult lr = issuers.get(identifier);
-				if (!whitelist.isEmpty() && !whitelist.contains(lr.issuer)) {
-					throw new AuthenticationServiceException("Whitelist was nonempty, issuer was not in whitelist: " + lr.issuer);
-				}
+			LoadingResult lr = issuers.get(identifier);
+			if (lr == null) {
+				// couldn't be loaded, or failed recently
+				logger.warn("Issue fetching issuer for user input: " + identifier);
+				return null;
+			}
 
-				if (blacklist.contains(lr.issuer)) {
-					throw new AuthenticationServiceException("Issuer was in blacklist: " + lr.issuer);
-				}
+			if (!whitelist.isEmpty() && !whitelist.contains(lr.issuer)) {
+				throw new AuthenticationServiceException("Whitelist was nonempty, issuer was not in whitelist: " + lr.issuer);
+			}
 
-				return new IssuerServiceResponse(lr.issuer, lr.loginHint, request.getParameter("target_link_uri"));
-			} catch (UncheckedExecutionException | ExecutionException e) {
-				logger.warn("Issue fetching issuer for user input: " + identifier + ": " + e.getMessage());
-				return null;
+			if (blacklist.contains(lr.issuer)) {
+				throw new AuthenticationServiceException("Issuer was in blacklist: " + lr.issuer);
 			}
 
+			return new IssuerServiceResponse(lr.issuer, lr.loginHint, request.getParameter("target_link_uri"));
+
 		} else {
 			logger.warn("No user input given, directing to login page: " + loginPageUrl);
 			return new IssuerServiceResponse(loginPageUrl);
@@ -189,6 +204,20 @@ public class WebfingerIssuerService implements IssuerService {
 		this.blacklist = blacklist;
 	}
 
+	/**
+	 * @return the maximum number of user inputs held in the cache
+	 */
+	public long getMaximumSize() {
+		return issuers.getMaximumSize();
+	}
+
+	/**
+	 * @param maximumSize the maximum number of user inputs held in the cache
+	 */
+	public void setMaximumSize(long maximumSize) {
+		issuers.setMaximumSize(maximumSize);
+	}
+
 	/**
 	 * @return the forceHttps
 	 */
@@ -207,7 +236,7 @@ public class WebfingerIssuerService implements IssuerService {
 	 * @author jricher
 	 *
 	 */
-	private class WebfingerIssuerFetcher extends CacheLoader<String, LoadingResult> {
+	private class WebfingerIssuerFetcher {
 		private HttpComponentsClientHttpRequestFactory httpFactory;
 		private JsonParser parser = new JsonParser();
 
@@ -215,8 +244,7 @@ public class WebfingerIssuerService implements IssuerService {
 			this.httpFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
 		}
 
-		@Override
-		public LoadingResult load(String identifier) throws Exception {
+		public Fetched<LoadingResult> load(String identifier) throws Exception {
 
 			UriComponents key = WebfingerURLNormalizer.normalizeResource(identifier);
 
@@ -253,7 +281,9 @@ public class WebfingerIssuerService implements IssuerService {
 
 				// do the fetch
 				logger.info("Loading: " + builder.toString());
-				String webfingerResponse = restTemplate.getForObject(builder.build(), String.class);
+				ResponseEntity<String> response = restTemplate.getForEntity(builder.build(), String.class);
+				String webfingerResponse = response.getBody();
+				String cacheControl = response.getHeaders().getCacheControl();
 
 				JsonElement json = parser.parse(webfingerResponse);
 
@@ -273,10 +303,10 @@ public class WebfingerIssuerService implements IssuerService {
 								if (identifier.equals(href)
 										|| identifier.startsWith("http")) {
 									// try to avoid sending a URL as the login hint
-									return new LoadingResult(null, href);
+									return new Fetched<>(new LoadingResult(null, href), cacheControl);
 								} else {
 									// otherwise pass back whatever the user typed as a login hint
-									return new LoadingResult(identifier, href);
+									return new Fetched<>(new LoadingResult(identifier, href), cacheControl);
 								}
 							}
 						}
@@ -291,7 +321,7 @@ public class WebfingerIssuerService implements IssuerService {
 			if (key.getScheme().equals("http") || key.getScheme().equals("https")) {
 				// if it looks like HTTP then punt: return the input, hope for the best
 				logger.warn("Returning normalized input string as issuer, hoping for the best: " + identifier);
-				return new LoadingResult(null, identifier);
+				return new Fetched<>(new LoadingResult(null, identifier), null);
 			} else {
 				// if it's not HTTP, give up
 				logger.warn("Couldn't find issuer: " + identifier);
@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.oauth2.introspectingfilter;
+
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mitre.oauth2.introspectingfilter.service.IntrospectionConfigurationService;
+import org.mitre.oauth2.model.ClientDetailsEntity.AuthMethod;
+import org.mitre.oauth2.model.RegisteredClient;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestIntrospectingTokenService {
+
+	private static final String INTROSPECTION_URL = "https://auth.example.org/introspect";
+
+	@Mock
+	private HttpClient httpClient;
+
+	@Mock
+	private IntrospectionConfigurationService configurationService;
+
+	private IntrospectingTokenService service;
+
+	private AtomicBoolean active = new AtomicBoolean(true);
+
+	@Before
+	public void prepare() throws Exception {
+		RegisteredClient client = new RegisteredClient();
+		client.setClientId("resource-server");
+		client.setClientSecret("secret");
+		client.setTokenEndpointAuthMethod(AuthMethod.SECRET_POST);
+
+		when(configurationService.getIntrospectionUrl(any(String.class))).thenReturn(INTROSPECTION_URL);
+		when(configurationService.getClientConfiguration(any(String.class))).thenReturn(client);
+
+		when(httpClient.execute(any(HttpUriRequest.class), any(HttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+			@Override
+			public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+				return introspectionResponse();
+			}
+		});
+
+		service = new IntrospectingTokenService(httpClient);
+		service.setIntrospectionConfigurationService(configurationService);
+	}
+
+	private HttpResponse introspectionResponse() {
+		String json;
+		if (active.get()) {
+			long exp = System.currentTimeMillis() / 1000L + 3600;
+			json = "{\"active\":true,\"client_id\":\"client\",\"scope\":\"read write\",\"sub\":\"user\",\"exp\":" + exp + "}";
+		} else {
+			json = "{\"active\":false}";
+		}
+		BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		response.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+		return response;
+	}
+
+	@Test
+	public void cachesActiveToken() throws Exception {
+		OAuth2Authentication first = service.loadAuthentication("token");
+		OAuth2Authentication second = service.loadAuthentication("token");
+
+		assertThat(first, notNullValue());
+		assertEquals(first, second);
+		verify(httpClient, times(1)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+		assertEquals(1, service.getCacheHitCount());
+		assertEquals(1, service.getCacheMissCount());
+		assertEquals(1, service.getIntrospectionCount());
+	}
+
+	@Test
+	public void coalescesConcurrentIntrospection() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		when(httpClient.execute(any(HttpUriRequest.class), any(HttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+			@Override
+			public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+				release.await(5, TimeUnit.SECONDS);
+				return introspectionResponse();
+			}
+		});
+
+		int threads = 4;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<OAuth2Authentication>> results = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				results.add(executor.submit(new Callable<OAuth2Authentication>() {
+					@Override
+					public OAuth2Authentication call() throws Exception {
+						return service.loadAuthentication("token");
+					}
+				}));
+			}
+
+			// wait for everyone but the introspecting thread to queue up behind it
+			long deadline = System.currentTimeMillis() + 5000;
+			while (service.getCoalescedIntrospectionCount() < threads - 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			release.countDown();
+
+			for (Future<OAuth2Authentication> result : results) {
+				assertThat(result.get(5, TimeUnit.SECONDS), notNullValue());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		verify(httpClient, times(1)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+		assertEquals(threads - 1, service.getCoalescedIntrospectionCount());
+	}
+
+	@Test
+	public void waitersCompleteWhenIntrospectionRacesTheCache() throws Exception {
+		// lookups that miss the cache just as another introspection fills it must still
+		// complete anyone who queued up behind them
+		int threads = 8;
+		int rounds = 200;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			for (int round = 0; round < rounds; round++) {
+				final String token = "token" + round;
+				final CountDownLatch start = new CountDownLatch(1);
+				List<Future<OAuth2Authentication>> results = new ArrayList<>();
+				for (int i = 0; i < threads; i++) {
+					results.add(executor.submit(new Callable<OAuth2Authentication>() {
+						@Override
+						public OAuth2Authentication call() throws Exception {
+							start.await();
+							OAuth2Authentication auth = null;
+							for (int j = 0; j < 5; j++) {
+								auth = service.loadAuthentication(token);
+							}
+							return auth;
+						}
+					}));
+				}
+				start.countDown();
+
+				for (Future<OAuth2Authentication> result : results) {
+					assertThat(result.get(5, TimeUnit.SECONDS), notNullValue());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void introspectsInactiveTokenEveryTimeByDefault() throws Exception {
+		active.set(false);
+
+		assertThat(service.loadAuthentication("token"), nullValue());
+		assertThat(service.loadAuthentication("token"), nullValue());
+
+		verify(httpClient, times(2)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+	}
+
+	@Test
+	public void cachesInactiveToken() throws Exception {
+		active.set(false);
+		service.setNegativeCacheTime(60000);
+
+		assertThat(service.loadAuthentication("token"), nullValue());
+		assertThat(service.readAccessToken("token"), nullValue());
+
+		verify(httpClient, times(1)).execute(any(HttpUriRequest.class), any(HttpContext.class));
+		assertEquals(1, service.getCacheNegativeHitCount());
+	}
+
+	@Test
+	public void boundsCacheSize() throws Exception {
+		service.setCacheMaximumSize(2);
+
+		for (int i = 0; i < 10; i++) {
+			service.loadAuthentication("token" + i);
+		}
+
+		assertTrue(service.getCacheSize() <= 2);
+		assertTrue(service.getCacheEvictionCount() >= 8);
+	}
+
+	@Test
+	public void removesExpiredEntries() throws Exception {
+		service.setForceCacheExpireTime(true);
+		service.setDefaultExpireTime(1);
+
+		service.loadAuthentication("token");
+		assertEquals(1, service.getCacheSize());
+
+		Thread.sleep(10);
+		service.removeExpired();
+
+		assertEquals(0, service.getCacheSize());
+		assertEquals(1, service.getCacheEvictionCount());
+	}
+}
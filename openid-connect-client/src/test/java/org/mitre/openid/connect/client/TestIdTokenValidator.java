@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.CompletionException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mitre.jwt.signer.service.JWTSigningAndValidationService;
+import org.mitre.jwt.signer.service.impl.JWKSetCacheService;
+import org.mitre.jwt.signer.service.impl.SymmetricKeyJWTValidatorCacheService;
+import org.mitre.oauth2.model.RegisteredClient;
+import org.mitre.openid.connect.config.ServerConfiguration;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.security.authentication.AuthenticationServiceException;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestIdTokenValidator {
+
+	private static final String ISSUER = "https://issuer.example.com/";
+	private static final String JWKS_URI = "https://issuer.example.com/jwk";
+	private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+	@Mock
+	private JWKSetCacheService validationServices;
+
+	@Mock
+	private JWTSigningAndValidationService jwksValidator;
+
+	private IdTokenValidator validator;
+
+	private ServerConfiguration serverConfig;
+
+	private RegisteredClient clientConfig;
+
+	@Before
+	public void prepare() {
+		validator = new IdTokenValidator(validationServices, new SymmetricKeyJWTValidatorCacheService());
+
+		serverConfig = new ServerConfiguration();
+		serverConfig.setIssuer(ISSUER);
+		serverConfig.setJwksUri(JWKS_URI);
+
+		clientConfig = new RegisteredClient();
+		clientConfig.setClientId("client");
+		clientConfig.setClientSecret(SECRET);
+	}
+
+	private JWTClaimsSet.Builder claims() {
+		long now = System.currentTimeMillis();
+		return new JWTClaimsSet.Builder()
+				.issuer(ISSUER)
+				.subject("user")
+				.audience("client")
+				.issueTime(new Date(now))
+				.expirationTime(new Date(now + 60 * 1000))
+				.claim("nonce", "nonce");
+	}
+
+	private SignedJWT hmacToken(JWTClaimsSet claims, String secret) throws Exception {
+		SignedJWT jwt = new SignedJWT(new JWSHeader(JWSAlgorithm.HS256), claims);
+		jwt.sign(new MACSigner(secret.getBytes(StandardCharsets.UTF_8)));
+		return jwt;
+	}
+
+	@Test
+	public void validate_hmacSignedToken() throws Exception {
+		SignedJWT jwt = hmacToken(claims().build(), SECRET);
+
+		JWTClaimsSet validated = validator.validate(jwt, serverConfig, clientConfig, "nonce");
+
+		assertEquals("user", validated.getSubject());
+		// HMAC tokens never need the server's keys
+		verify(validationServices, never()).getValidator(any(String.class), any(String.class));
+	}
+
+	@Test(expected = AuthenticationServiceException.class)
+	public void verifySignature_wrongSecret() throws Exception {
+		SignedJWT jwt = hmacToken(claims().build(), "fedcba9876543210fedcba9876543210");
+
+		validator.verifySignature(jwt, serverConfig, clientConfig);
+	}
+
+	@Test(expected = AuthenticationServiceException.class)
+	public void validateClaims_wrongNonce() throws Exception {
+		validator.validateClaims(hmacToken(claims().build(), SECRET), serverConfig, clientConfig, "other");
+	}
+
+	@Test(expected = AuthenticationServiceException.class)
+	public void validateClaims_wrongAudience() throws Exception {
+		validator.validateClaims(hmacToken(claims().audience("someone-else").build(), SECRET), serverConfig, clientConfig, "nonce");
+	}
+
+	@Test
+	public void validateClaims_expiredWithinSkew() throws Exception {
+		long now = System.currentTimeMillis();
+		JWTClaimsSet expired = claims().expirationTime(new Date(now - 60 * 1000)).build();
+
+		// within the default five minutes of skew
+		validator.validateClaims(hmacToken(expired, SECRET), serverConfig, clientConfig, "nonce");
+
+		validator.setTimeSkewAllowance(0);
+		try {
+			validator.validateClaims(hmacToken(expired, SECRET), serverConfig, clientConfig, "nonce");
+			fail("Expired token should have been rejected");
+		} catch (AuthenticationServiceException e) {
+			assertTrue(e.getMessage().startsWith("Id Token is expired"));
+		}
+	}
+
+	@Test
+	public void verifySignature_resolvesValidatorByKid() throws Exception {
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("rsa1").build(), claims().build());
+		when(validationServices.getValidator(JWKS_URI, "rsa1")).thenReturn(jwksValidator);
+		when(jwksValidator.validateSignature(jwt)).thenReturn(true);
+
+		validator.verifySignature(jwt, serverConfig, clientConfig);
+
+		verify(jwksValidator).validateSignature(jwt);
+	}
+
+	@Test(expected = AuthenticationServiceException.class)
+	public void verifySignature_noValidator() throws Exception {
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("rsa1").build(), claims().build());
+
+		validator.verifySignature(jwt, serverConfig, clientConfig);
+	}
+
+	@Test
+	public void verifySignatureAsync_failure() throws Exception {
+		SignedJWT jwt = hmacToken(claims().build(), "fedcba9876543210fedcba9876543210");
+
+		try {
+			validator.verifySignatureAsync(jwt, serverConfig, clientConfig).join();
+			fail("Bad signature should have been rejected");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof AuthenticationServiceException);
+		}
+	}
+
+	@Test
+	public void prefetch_loadsJwks() {
+		validator.prefetch(serverConfig);
+
+		verify(validationServices, timeout(5000)).getValidator(JWKS_URI);
+	}
+
+}
@@ -58,4 +58,14 @@ public class TestOIDCAuthenticationFilter {
 			assertThat(exception, is(instanceOf(AuthenticationServiceException.class)));
 		}
 	}
+
+	@Test
+	public void setTimeSkewAllowance_appliesToBuiltValidator() {
+		IdTokenValidator validator = filter.getIdTokenValidator();
+		assertThat(validator.getTimeSkewAllowance(), is(300));
+
+		filter.setTimeSkewAllowance(60);
+
+		assertThat(validator.getTimeSkewAllowance(), is(60));
+	}
 }
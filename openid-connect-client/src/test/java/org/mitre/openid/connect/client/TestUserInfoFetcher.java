@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mitre.openid.connect.config.ServerConfiguration;
+import org.mitre.openid.connect.model.PendingOIDCAuthenticationToken;
+import org.mitre.openid.connect.model.UserInfo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestUserInfoFetcher {
+
+	private HttpServer server;
+
+	private AtomicInteger hits = new AtomicInteger();
+
+	private ServerConfiguration serverConfig;
+
+	private UserInfoFetcher fetcher;
+
+	@Before
+	public void prepare() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/userinfo", exchange -> {
+			hits.incrementAndGet();
+			try {
+				// slow enough for concurrent lookups to overlap
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			respond(exchange, "{\"sub\":\"user\",\"name\":\"User\"}");
+		});
+		server.start();
+
+		serverConfig = new ServerConfiguration();
+		serverConfig.setIssuer("https://issuer.example.com/");
+		serverConfig.setUserInfoUri("http://127.0.0.1:" + server.getAddress().getPort() + "/userinfo");
+
+		fetcher = new UserInfoFetcher(HttpClientBuilder.create().build());
+	}
+
+	@After
+	public void shutdown() {
+		server.stop(0);
+	}
+
+	private void respond(HttpExchange exchange, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private PendingOIDCAuthenticationToken token(String accessToken) {
+		return new PendingOIDCAuthenticationToken("user", serverConfig.getIssuer(), serverConfig, null, accessToken, null);
+	}
+
+	@Test
+	public void loadUserInfo_cachedAcrossTokenObjects() {
+		UserInfo first = fetcher.loadUserInfo(token("at1"));
+		UserInfo second = fetcher.loadUserInfo(token("at1"));
+
+		assertEquals("User", first.getName());
+		assertEquals(first, second);
+		assertEquals(1, hits.get());
+
+		// a different access token may carry different scopes, so it's fetched again
+		fetcher.loadUserInfo(token("at2"));
+		assertEquals(2, hits.get());
+	}
+
+	@Test
+	public void loadUserInfoAsync_coalescesConcurrentFetches() {
+		CompletableFuture<UserInfo> first = fetcher.loadUserInfoAsync(token("at1"));
+		CompletableFuture<UserInfo> second = fetcher.loadUserInfoAsync(token("at1"));
+
+		assertEquals("user", first.join().getSub());
+		assertEquals("user", second.join().getSub());
+		assertEquals(1, hits.get());
+
+		// now answered from the cache
+		assertEquals("user", fetcher.loadUserInfoAsync(token("at1")).join().getSub());
+		assertEquals(1, hits.get());
+	}
+
+	@Test
+	public void loadUserInfo_noEndpoint() {
+		serverConfig.setUserInfoUri(null);
+
+		assertNull(fetcher.loadUserInfo(token("at1")));
+		assertNull(fetcher.loadUserInfoAsync(token("at1")).join());
+		assertEquals(0, hits.get());
+	}
+
+	@Test
+	public void setCacheMaximumSize_zeroDisablesCaching() {
+		fetcher.setCacheMaximumSize(0);
+
+		fetcher.loadUserInfo(token("at1"));
+		fetcher.loadUserInfo(token("at1"));
+
+		assertEquals(2, hits.get());
+	}
+
+}
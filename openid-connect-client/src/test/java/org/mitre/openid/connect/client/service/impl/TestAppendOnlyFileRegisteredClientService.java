@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.client.service.impl;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.oauth2.model.RegisteredClient;
+
+import com.google.common.collect.ImmutableSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestAppendOnlyFileRegisteredClientService {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	@Before
+	public void prepare() {
+		file = new File(folder.getRoot(), "clients.log");
+	}
+
+	private RegisteredClient client(String clientId) {
+		RegisteredClient client = new RegisteredClient();
+		client.setClientId(clientId);
+		client.setClientSecret(clientId + "-secret");
+		client.setRedirectUris(ImmutableSet.of("https://rp.example.com/openid_connect_login"));
+		client.setRegistrationAccessToken("rat");
+		client.setRegistrationClientUri("https://issuer.example.com/register/" + clientId);
+		return client;
+	}
+
+	private List<String> lines() throws Exception {
+		return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void save_survivesReload() throws Exception {
+		AppendOnlyFileRegisteredClientService service = new AppendOnlyFileRegisteredClientService(file.getPath());
+		service.save("https://one.example.com/", client("one"));
+		service.save("https://two.example.com/", client("two"));
+		service.save("https://one.example.com/", client("one-again"));
+		service.close();
+
+		assertEquals(3, lines().size());
+
+		AppendOnlyFileRegisteredClientService reloaded = new AppendOnlyFileRegisteredClientService(file.getPath());
+		assertEquals("one-again", reloaded.getByIssuer("https://one.example.com/").getClientId());
+		assertEquals("two-secret", reloaded.getByIssuer("https://two.example.com/").getClientSecret());
+		assertNull(reloaded.getByIssuer("https://three.example.com/"));
+	}
+
+	@Test
+	public void load_dropsIncompleteRecord() throws Exception {
+		AppendOnlyFileRegisteredClientService service = new AppendOnlyFileRegisteredClientService(file.getPath());
+		service.save("https://one.example.com/", client("one"));
+		service.close();
+		long goodLength = file.length();
+
+		// a save cut short by a crash
+		Files.write(file.toPath(), "{\"issuer\":\"https://two.exa".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		AppendOnlyFileRegisteredClientService reloaded = new AppendOnlyFileRegisteredClientService(file.getPath());
+		assertEquals("one", reloaded.getByIssuer("https://one.example.com/").getClientId());
+		assertNull(reloaded.getByIssuer("https://two.example.com/"));
+		assertEquals(goodLength, file.length());
+
+		reloaded.save("https://two.example.com/", client("two"));
+		reloaded.close();
+
+		AppendOnlyFileRegisteredClientService again = new AppendOnlyFileRegisteredClientService(file.getPath());
+		assertEquals("two", again.getByIssuer("https://two.example.com/").getClientId());
+	}
+
+	@Test
+	public void save_failedWriteLeavesIndexUnchanged() throws Exception {
+		AppendOnlyFileRegisteredClientService service = new AppendOnlyFileRegisteredClientService(file.getPath());
+
+		// the log can't be opened for writing
+		assertTrue(file.mkdir());
+		service.save("https://one.example.com/", client("one"));
+
+		assertNull(service.getByIssuer("https://one.example.com/"));
+	}
+
+	@Test
+	public void save_compactsLog() throws Exception {
+		AppendOnlyFileRegisteredClientService service = new AppendOnlyFileRegisteredClientService(file.getPath());
+		service.setCompactionMinimumRecords(4);
+		service.setCompactionRatio(2);
+
+		service.save("https://two.example.com/", client("two"));
+		for (int i = 0; i < 10; i++) {
+			service.save("https://one.example.com/", client("one-" + i));
+		}
+		service.close();
+
+		assertTrue(lines().size() <= 4);
+
+		AppendOnlyFileRegisteredClientService reloaded = new AppendOnlyFileRegisteredClientService(file.getPath());
+		assertEquals("one-9", reloaded.getByIssuer("https://one.example.com/").getClientId());
+		assertEquals("two", reloaded.getByIssuer("https://two.example.com/").getClientId());
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void load_convertsJsonFile() throws Exception {
+		JsonFileRegisteredClientService old = new JsonFileRegisteredClientService(file.getPath());
+		old.save("https://one.example.com/", client("one"));
+		old.save("https://two.example.com/", client("two"));
+
+		AppendOnlyFileRegisteredClientService service = new AppendOnlyFileRegisteredClientService(file.getPath());
+		assertEquals("one", service.getByIssuer("https://one.example.com/").getClientId());
+		assertEquals("two", service.getByIssuer("https://two.example.com/").getClientId());
+		assertEquals(2, lines().size());
+	}
+
+	@Test
+	public void save_concurrentWriters() throws Exception {
+		final AppendOnlyFileRegisteredClientService service = new AppendOnlyFileRegisteredClientService(file.getPath());
+		service.setSyncOnSave(false);
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<?>> saves = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final int thread = t;
+			saves.add(executor.submit(() -> {
+				for (int i = 0; i < 25; i++) {
+					service.save("https://issuer-" + thread + "-" + i + ".example.com/", client("client-" + thread + "-" + i));
+				}
+			}));
+		}
+		for (Future<?> save : saves) {
+			save.get();
+		}
+		executor.shutdown();
+		service.close();
+
+		AppendOnlyFileRegisteredClientService reloaded = new AppendOnlyFileRegisteredClientService(file.getPath());
+		for (int t = 0; t < 8; t++) {
+			for (int i = 0; i < 25; i++) {
+				assertEquals("client-" + t + "-" + i, reloaded.getByIssuer("https://issuer-" + t + "-" + i + ".example.com/").getClientId());
+			}
+		}
+		assertEquals(200, lines().size());
+	}
+
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Abstract class for deleting a potentially large number of rows
+ * with set-based statements, one bounded chunk per transaction, so
+ * that no single statement holds locks or connections for long.
+ *
+ * Each call to {@link #deleteChunk()} is expected to delete at most
+ * one chunk of rows and return how many it deleted; execution stops
+ * when a chunk comes back empty or the maxChunks or maxTime limit
+ * is reached.
+ */
+public abstract class AbstractChunkedDeleteTemplate {
+
+	private static final Logger logger = LoggerFactory.getLogger(AbstractChunkedDeleteTemplate.class);
+
+	private static int DEFAULT_MAX_CHUNKS = 1000;
+	private static long DEFAULT_MAX_TIME_MILLIS = 600000L; //10 Minutes
+
+	/**
+	 * int specifying the maximum number of
+	 * chunks which should be deleted before
+	 * execution should terminate
+	 */
+	private int maxChunks;
+
+	/**
+	 * long specifying the maximum execution time
+	 * in milliseconds
+	 */
+	private long maxTime;
+
+	/**
+	 * String that is used for logging in final tallies.
+	 */
+	private String operationName = "";
+
+	/**
+	 * default constructor which sets the value of
+	 * maxChunks and maxTime to DEFAULT_MAX_CHUNKS and
+	 * DEFAULT_MAX_TIME_MILLIS respectively
+	 */
+	public AbstractChunkedDeleteTemplate(String operationName) {
+		this(DEFAULT_MAX_CHUNKS, DEFAULT_MAX_TIME_MILLIS, operationName);
+	}
+
+	/**
+	 * Instantiates a new AbstractChunkedDeleteTemplate with the
+	 * given maxChunks and maxTime
+	 *
+	 * @param maxChunks the maximum number of chunks to delete.
+	 * @param maxTime the maximum execution time.
+	 */
+	public AbstractChunkedDeleteTemplate(int maxChunks, long maxTime, String operationName) {
+		this.maxChunks = maxChunks;
+		this.maxTime = maxTime;
+		this.operationName = operationName;
+	}
+
+	/**
+	 * Delete chunks until one comes back empty or a limit is reached.
+	 *
+	 * @return the total number of rows deleted
+	 */
+	public long execute() {
+		logger.debug("[" + getOperationName() + "] Starting chunked delete. maximum time: " + maxTime + ", maximum chunks: " + maxChunks);
+
+		long startTime = System.currentTimeMillis();
+		long executionTime = 0;
+		int chunks = 0;
+		long rowsDeleted = 0;
+
+		while (chunks < maxChunks && executionTime < maxTime) {
+			long chunkStart = System.currentTimeMillis();
+			int deleted = deleteChunk();
+			if (deleted <= 0) {
+				break;
+			}
+
+			chunks++;
+			rowsDeleted += deleted;
+			executionTime = System.currentTimeMillis() - startTime;
+
+			logger.debug("[" + getOperationName() + "] Chunk " + chunks + " deleted " + deleted + " rows in " + (System.currentTimeMillis() - chunkStart) + "ms");
+		}
+
+		finalReport(chunks, rowsDeleted, System.currentTimeMillis() - startTime);
+
+		return rowsDeleted;
+	}
+
+	/**
+	 * method responsible for deleting a single
+	 * chunk of rows, in its own transaction.
+	 *
+	 * @return the number of rows deleted
+	 */
+	protected abstract int deleteChunk();
+
+	/**
+	 * Method responsible for final report of progress.
+	 */
+	protected void finalReport(int chunks, long rowsDeleted, long elapsedMillis) {
+		if (rowsDeleted > 0) {
+			long rowsPerSecond = elapsedMillis > 0 ? (rowsDeleted * 1000L) / elapsedMillis : rowsDeleted;
+			logger.info("[" + getOperationName() + "] Chunked delete run: deleted " + rowsDeleted + " rows in " + chunks + " chunks over " + elapsedMillis + "ms (" + rowsPerSecond + " rows/s)");
+		}
+	}
+
+	public int getMaxChunks() {
+		return maxChunks;
+	}
+
+	public void setMaxChunks(int maxChunks) {
+		this.maxChunks = maxChunks;
+	}
+
+	public long getMaxTime() {
+		return maxTime;
+	}
+
+	public void setMaxTime(long maxTime) {
+		this.maxTime = maxTime;
+	}
+
+	/**
+	 * @return the operationName
+	 */
+	public String getOperationName() {
+		return operationName;
+	}
+
+	/**
+	 * @param operationName the operationName to set
+	 */
+	public void setOperationName(String operationName) {
+		this.operationName = operationName;
+	}
+
+}
@@ -15,17 +15,45 @@
  *******************************************************************************/
 package org.mitre.data;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * Abstract class for performing an operation on a potentially large
  * number of items by paging through the items in discreet chunks.
  *
+ * By default each page is processed serially on the calling thread. When
+ * threadCount is set above one, each fetched page is split into batches of
+ * batchSize items which are handed to a bounded worker pool. At most
+ * queueCapacity batches may be waiting or running at any time, so the
+ * fetching thread blocks rather than outrunning the workers. Subclasses
+ * can override executeBatch to wrap each batch in a single transaction;
+ * otherwise each doOperation call runs in whatever transaction it opens
+ * itself.
+ *
+ * Several nodes can share the work by setting shardCount and a distinct
+ * shardIndex on each node. The template does not filter items itself;
+ * fetchPage implementations should use getShardCount and getShardIndex
+ * (or isInShard) to restrict the page to the rows of this shard, for
+ * example with an id mod N predicate in the query.
+ *
  * @param <T>  the type parameter
  * @author Colm Smyth.
  */
@@ -35,6 +63,7 @@ public abstract class AbstractPageOperationTemplate<T> {
 
 	private static int DEFAULT_MAX_PAGES = 1000;
 	private static long DEFAULT_MAX_TIME_MILLIS = 600000L; //10 Minutes
+	private static int DEFAULT_BATCH_SIZE = 100;
 
 	/**
 	 * int specifying the maximum number of
@@ -61,6 +90,47 @@ public abstract class AbstractPageOperationTemplate<T> {
 	 */
 	private String operationName = "";
 
+	/**
+	 * int specifying the number of worker threads
+	 * used to process pages; one or fewer processes
+	 * every page serially on the calling thread
+	 */
+	private int threadCount = 1;
+
+	/**
+	 * int specifying the number of items handed to
+	 * a worker as a single unit of work in parallel mode
+	 */
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/**
+	 * int specifying the maximum number of batches
+	 * waiting for or being processed by the worker pool;
+	 * defaults to twice the thread count when not positive
+	 */
+	private int queueCapacity = 0;
+
+	/**
+	 * boolean specifying whether every batch of a page
+	 * must be processed before the next page is fetched.
+	 * Leave this true when fetchPage returns the first
+	 * remaining items, since fetching ahead would return
+	 * items that are still being processed.
+	 */
+	private boolean awaitPageCompletion = true;
+
+	/**
+	 * int specifying the number of shards the
+	 * items are divided between, default 1
+	 */
+	private int shardCount = 1;
+
+	/**
+	 * int specifying the shard handled by this
+	 * instance, between 0 and shardCount - 1
+	 */
+	private int shardIndex = 0;
+
 
 	/**
 	 * default constructor which sets the value of
@@ -91,8 +161,21 @@ public abstract class AbstractPageOperationTemplate<T> {
 	 * the fetch method returns no more results. Exceptions thrown
 	 * performing the operation on the item will be swallowed if the
 	 * swallowException (default true) field is set true.
+	 *
+	 * When threadCount is greater than one the pages are processed
+	 * on a worker pool that is shut down before this method returns.
+	 * The page and time limits are checked before each fetch, so
+	 * batches already handed to the pool are always allowed to finish.
 	 */
 	public void execute(){
+		if (threadCount > 1) {
+			executeInParallel();
+		} else {
+			executeSerially();
+		}
+	}
+
+	private void executeSerially(){
 		logger.debug("[" + getOperationName() +  "] Starting execution of paged operation. maximum time: " + maxTime + ", maximum pages: " + maxPages);
 
 		long startTime = System.currentTimeMillis();
@@ -130,7 +213,154 @@ public abstract class AbstractPageOperationTemplate<T> {
 			executionTime = System.currentTimeMillis() - startTime;
 		}
 
-		finalReport(operationsCompleted, exceptionsSwallowedCount, exceptionsSwallowedClasses);
+		finalReport(operationsCompleted, exceptionsSwallowedCount, exceptionsSwallowedClasses, Collections.<WorkerStatistics>emptyList());
+	}
+
+	private void executeInParallel(){
+		int capacity = queueCapacity > 0 ? queueCapacity : threadCount * 2;
+
+		logger.debug("[" + getOperationName() +  "] Starting parallel execution of paged operation. maximum time: " + maxTime + ", maximum pages: " + maxPages
+				+ ", threads: " + threadCount + ", batch size: " + batchSize + ", queue capacity: " + capacity
+				+ ", shard: " + shardIndex + "/" + shardCount);
+
+		long startTime = System.currentTimeMillis();
+		long executionTime = 0;
+		int i = 0;
+
+		final Map<String, WorkerStatistics> workerStatistics = new ConcurrentHashMap<>();
+		final Set<String> exceptionsSwallowedClasses = ConcurrentHashMap.newKeySet();
+		final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		final Semaphore permits = new Semaphore(capacity);
+
+		ExecutorService workers = Executors.newFixedThreadPool(threadCount, new ThreadFactoryBuilder()
+				.setNameFormat(getOperationName() + "-worker-%d")
+				.setDaemon(true)
+				.build());
+
+		try {
+			while (i < maxPages && executionTime < maxTime && failure.get() == null){
+				Collection<T> page = fetchPage();
+				if(page == null || page.size() == 0){
+					break;
+				}
+
+				for (final List<T> batch : Iterables.partition(page, Math.max(batchSize, 1))) {
+					permits.acquire();
+					if (failure.get() != null) {
+						permits.release();
+						break;
+					}
+					workers.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								WorkerStatistics stats = workerStatistics.computeIfAbsent(Thread.currentThread().getName(), WorkerStatistics::new);
+								processBatch(batch, stats, exceptionsSwallowedClasses, failure);
+							} finally {
+								permits.release();
+							}
+						}
+					});
+				}
+
+				if (awaitPageCompletion) {
+					// every permit is back once all batches of this page are done
+					permits.acquire(capacity);
+					permits.release(capacity);
+				}
+
+				i++;
+				executionTime = System.currentTimeMillis() - startTime;
+			}
+		} catch (InterruptedException e) {
+			logger.warn("[" + getOperationName() +  "] Interrupted while waiting for workers, stopping after " + i + " pages");
+			Thread.currentThread().interrupt();
+		} finally {
+			workers.shutdown();
+			try {
+				while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+					logger.debug("[" + getOperationName() +  "] Waiting for workers to finish");
+				}
+			} catch (InterruptedException e) {
+				workers.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+
+		int operationsCompleted = 0;
+		int exceptionsSwallowedCount = 0;
+		List<WorkerStatistics> stats = new ArrayList<>(workerStatistics.values());
+		for (WorkerStatistics worker : stats) {
+			operationsCompleted += worker.getOperationsCompleted();
+			exceptionsSwallowedCount += worker.getExceptionsSwallowed();
+		}
+
+		finalReport(operationsCompleted, exceptionsSwallowedCount, new HashSet<>(exceptionsSwallowedClasses), stats);
+	}
+
+	private void processBatch(final List<T> batch, final WorkerStatistics stats, final Set<String> exceptionsSwallowedClasses, final AtomicReference<RuntimeException> failure) {
+		long batchStart = System.currentTimeMillis();
+		try {
+			executeBatch(new Runnable() {
+				@Override
+				public void run() {
+					for (T item : batch) {
+						if (failure.get() != null) {
+							return;
+						}
+						try {
+							doOperation(item);
+							stats.operationsCompleted++;
+						} catch (RuntimeException e) {
+							handleWorkerException(e, stats, exceptionsSwallowedClasses, failure);
+						}
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// the batch wrapper itself failed, e.g. a transaction could not be committed
+			handleWorkerException(e, stats, exceptionsSwallowedClasses, failure);
+		} finally {
+			stats.batches++;
+			stats.busyMillis += System.currentTimeMillis() - batchStart;
+		}
+	}
+
+	private void handleWorkerException(RuntimeException e, WorkerStatistics stats, Set<String> exceptionsSwallowedClasses, AtomicReference<RuntimeException> failure) {
+		if(swallowExceptions){
+			stats.exceptionsSwallowed++;
+			exceptionsSwallowedClasses.add(e.getClass().getName());
+			logger.debug("Swallowing exception " + e.getMessage(), e);
+		} else {
+			logger.debug("Rethrowing exception " + e.getMessage());
+			failure.compareAndSet(null, e);
+		}
+	}
+
+	/**
+	 * Runs one batch of items on a worker thread in parallel mode.
+	 * The default implementation simply runs the batch; override it
+	 * to wrap the whole batch in a single transaction.
+	 *
+	 * @param batch the work that calls doOperation for every item in the batch
+	 */
+	protected void executeBatch(Runnable batch) {
+		batch.run();
+	}
+
+	/**
+	 * Checks whether an item with the given key belongs to the
+	 * shard handled by this instance, using key mod shardCount.
+	 *
+	 * @param key the numeric key of the item, usually its id
+	 * @return true if the item should be processed by this instance
+	 */
+	public boolean isInShard(long key) {
+		return shardCount <= 1 || Math.floorMod(key, (long) shardCount) == shardIndex;
 	}
 
 
@@ -151,6 +381,20 @@ public abstract class AbstractPageOperationTemplate<T> {
 	 */
 	protected abstract void doOperation(T item);
 
+	/**
+	 * Method responsible for final report of progress in parallel
+	 * mode, logs the statistics of each worker before the totals.
+	 */
+	protected void finalReport(int operationsCompleted, int exceptionsSwallowedCount, Set<String> exceptionsSwallowedClasses, Collection<WorkerStatistics> workerStatistics) {
+		for (WorkerStatistics worker : workerStatistics) {
+			if (worker.getBatches() > 0) {
+				logger.info("[" + getOperationName() +  "] Worker " + worker.getWorkerName() + ": " + worker.getBatches() + " batches, completed " + worker.getOperationsCompleted()
+						+ "; swallowed " + worker.getExceptionsSwallowed() + " exceptions; busy " + worker.getBusyMillis() + " ms");
+			}
+		}
+		finalReport(operationsCompleted, exceptionsSwallowedCount, exceptionsSwallowedClasses);
+	}
+
 	/**
 	 * Method responsible for final report of progress.
 	 * @return
@@ -203,4 +447,94 @@ public abstract class AbstractPageOperationTemplate<T> {
 	public void setOperationName(String operationName) {
 		this.operationName = operationName;
 	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public boolean isAwaitPageCompletion() {
+		return awaitPageCompletion;
+	}
+
+	public void setAwaitPageCompletion(boolean awaitPageCompletion) {
+		this.awaitPageCompletion = awaitPageCompletion;
+	}
+
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	public int getShardIndex() {
+		return shardIndex;
+	}
+
+	/**
+	 * Restrict this operation to one shard of the items.
+	 *
+	 * @param shardCount the number of shards, at least 1
+	 * @param shardIndex the shard handled by this instance, between 0 and shardCount - 1
+	 */
+	public void setShard(int shardCount, int shardIndex) {
+		if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+			throw new IllegalArgumentException("Invalid shard " + shardIndex + " of " + shardCount);
+		}
+		this.shardCount = shardCount;
+		this.shardIndex = shardIndex;
+	}
+
+	/**
+	 * Statistics gathered by a single worker thread in parallel mode.
+	 */
+	public static class WorkerStatistics {
+
+		private final String workerName;
+		private int batches;
+		private int operationsCompleted;
+		private int exceptionsSwallowed;
+		private long busyMillis;
+
+		public WorkerStatistics(String workerName) {
+			this.workerName = workerName;
+		}
+
+		public String getWorkerName() {
+			return workerName;
+		}
+
+		public int getBatches() {
+			return batches;
+		}
+
+		public int getOperationsCompleted() {
+			return operationsCompleted;
+		}
+
+		public int getExceptionsSwallowed() {
+			return exceptionsSwallowed;
+		}
+
+		public long getBusyMillis() {
+			return busyMillis;
+		}
+	}
 }
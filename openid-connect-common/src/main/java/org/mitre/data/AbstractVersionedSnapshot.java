@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.data;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Abstract class for holding an in-memory copy of data that is read far
+ * more often than it changes, such as the blacklist or the system scopes.
+ *
+ * The copy is built by {@link #load()} on first use and rebuilt after
+ * {@link #invalidate()}. So that changes made on other nodes are seen,
+ * the copy remembers the version returned by {@link #currentVersion()}
+ * when it was built, and every versionCheckSeconds one caller checks
+ * whether that version has moved on. Other callers keep using the
+ * current copy while the check runs.
+ *
+ * @param <T> the type of the copy, which should be immutable
+ */
+public abstract class AbstractVersionedSnapshot<T> {
+
+	private static final long DEFAULT_VERSION_CHECK_SECONDS = 30;
+
+	/**
+	 * how long the copy is trusted before checking the version again
+	 */
+	private long versionCheckSeconds = DEFAULT_VERSION_CHECK_SECONDS;
+
+	private volatile Snapshot<T> snapshot;
+
+	private final AtomicBoolean checkingVersion = new AtomicBoolean(false);
+
+	private static class Snapshot<T> {
+		private final T value;
+		private final long version;
+		private volatile long checkedAt;
+
+		private Snapshot(T value, long version, long checkedAt) {
+			this.value = value;
+			this.version = version;
+			this.checkedAt = checkedAt;
+		}
+	}
+
+	/**
+	 * Get the in-memory copy, loading it if there is none and reloading it if
+	 * the version has moved on since it was loaded.
+	 *
+	 * @return the current copy
+	 */
+	public T get() {
+		Snapshot<T> current = snapshot;
+		if (current == null) {
+			synchronized (this) {
+				if (snapshot == null) {
+					snapshot = loadSnapshot();
+				}
+				return snapshot.value;
+			}
+		}
+
+		long now = System.currentTimeMillis();
+		if (now - current.checkedAt > versionCheckSeconds * 1000L && checkingVersion.compareAndSet(false, true)) {
+			try {
+				if (currentVersion() != current.version) {
+					current = loadSnapshot();
+					snapshot = current;
+				} else {
+					current.checkedAt = now;
+				}
+			} finally {
+				checkingVersion.set(false);
+			}
+		}
+		return current.value;
+	}
+
+	/**
+	 * Drop the in-memory copy so that the next call to {@link #get()} loads it again.
+	 */
+	public void invalidate() {
+		snapshot = null;
+	}
+
+	private Snapshot<T> loadSnapshot() {
+		// read the version first, so a change that lands in between is picked up by the next check
+		long version = currentVersion();
+		return new Snapshot<>(load(), version, System.currentTimeMillis());
+	}
+
+	/**
+	 * method responsible for reading the current version of the data,
+	 * usually from a shared store.
+	 *
+	 * @return the version
+	 */
+	protected abstract long currentVersion();
+
+	/**
+	 * method responsible for building a new copy of the data.
+	 *
+	 * @return the copy
+	 */
+	protected abstract T load();
+
+	public long getVersionCheckSeconds() {
+		return versionCheckSeconds;
+	}
+
+	public void setVersionCheckSeconds(long versionCheckSeconds) {
+		this.versionCheckSeconds = versionCheckSeconds;
+	}
+}
@@ -91,7 +91,7 @@ public class WhitelistedIssuerAssertionValidator implements AssertionValidator {
 
 		String jwksUri = whitelist.get(claims.getIssuer());
 
-		JWTSigningAndValidationService validator = jwkCache.getValidator(jwksUri);
+		JWTSigningAndValidationService validator = jwkCache.getValidator(jwksUri, ((SignedJWT) assertion).getHeader().getKeyID());
 
 		if (validator.validateSignature((SignedJWT) assertion)) {
 			return true;
@@ -75,6 +75,19 @@ public class ClientKeyCacheService {
 
 
 	public JWTSigningAndValidationService getValidator(ClientDetailsEntity client, JWSAlgorithm alg) {
+		return getValidator(client, alg, null);
+	}
+
+	/**
+	 * Get the validator for a client, fetching the client's JWK Set again if it
+	 * is loaded by URI and does not contain the given key id.
+	 *
+	 * @param client
+	 * @param alg the algorithm the JWT was signed with
+	 * @param keyId the key id named by the JWT, may be null
+	 * @return the validator, or null if none could be built
+	 */
+	public JWTSigningAndValidationService getValidator(ClientDetailsEntity client, JWSAlgorithm alg, String keyId) {
 
 		try {
 			if (alg.equals(JWSAlgorithm.RS256)
@@ -91,7 +104,7 @@ public class ClientKeyCacheService {
 				if (client.getJwks() != null) {
 					return jwksValidators.get(client.getJwks());
 				} else if (!Strings.isNullOrEmpty(client.getJwksUri())) {
-					return jwksUriCache.getValidator(client.getJwksUri());
+					return jwksUriCache.getValidator(client.getJwksUri(), keyId);
 				} else {
 					return null;
 				}
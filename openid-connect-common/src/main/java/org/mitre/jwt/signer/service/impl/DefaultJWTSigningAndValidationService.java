@@ -19,9 +19,11 @@ package org.mitre.jwt.signer.service.impl;
 
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -56,6 +58,12 @@ public class DefaultJWTSigningAndValidationService implements JWTSigningAndValid
 	// map of identifier to verifier
 	private Map<String, JWSVerifier> verifiers = new HashMap<>();
 
+	// map of algorithm to the signer used for it, so signing by algorithm needs no search
+	private Map<JWSAlgorithm, JWSSigner> signersByAlgorithm = new HashMap<>();
+
+	// map of algorithm to the verifiers supporting it, scanned for JWTs without a known key id
+	private Map<JWSAlgorithm, List<JWSVerifier>> verifiersByAlgorithm = new HashMap<>();
+
 	/**
 	 * Logger for this class
 	 */
@@ -128,6 +136,7 @@ public class DefaultJWTSigningAndValidationService implements JWTSigningAndValid
 	 */
 	public void setDefaultSignerKeyId(String defaultSignerId) {
 		this.defaultSignerKeyId = defaultSignerId;
+		buildSignersByAlgorithm();
 	}
 
 	/**
@@ -207,6 +216,53 @@ public class DefaultJWTSigningAndValidationService implements JWTSigningAndValid
 			// if there's only one key, it's the default
 			setDefaultSignerKeyId(keys.keySet().iterator().next());
 		}
+
+		for (Map.Entry<String, JWSVerifier> verifierEntry : verifiers.entrySet()) {
+			JWSVerifier verifier = verifierEntry.getValue();
+			for (JWSAlgorithm alg : verifier.supportedJWSAlgorithms()) {
+				List<JWSVerifier> algVerifiers = verifiersByAlgorithm.get(alg);
+				if (algVerifiers == null) {
+					algVerifiers = new ArrayList<>();
+					verifiersByAlgorithm.put(alg, algVerifiers);
+				}
+				algVerifiers.add(verifier);
+			}
+		}
+
+		buildSignersByAlgorithm();
+	}
+
+	/**
+	 * Pick one signer for each supported algorithm, preferring the default
+	 * signer and then a key whose declared algorithm matches.
+	 */
+	private void buildSignersByAlgorithm() {
+		signersByAlgorithm.clear();
+
+		JWSSigner defaultSigner = defaultSignerKeyId != null ? signers.get(defaultSignerKeyId) : null;
+		if (defaultSigner != null) {
+			for (JWSAlgorithm alg : defaultSigner.supportedJWSAlgorithms()) {
+				signersByAlgorithm.put(alg, defaultSigner);
+			}
+		}
+
+		for (Map.Entry<String, JWSSigner> signerEntry : signers.entrySet()) {
+			JWK jwk = keys.get(signerEntry.getKey());
+			if (jwk != null && jwk.getAlgorithm() != null) {
+				JWSAlgorithm declared = JWSAlgorithm.parse(jwk.getAlgorithm().getName());
+				if (!signersByAlgorithm.containsKey(declared) && signerEntry.getValue().supportedJWSAlgorithms().contains(declared)) {
+					signersByAlgorithm.put(declared, signerEntry.getValue());
+				}
+			}
+		}
+
+		for (JWSSigner signer : signers.values()) {
+			for (JWSAlgorithm alg : signer.supportedJWSAlgorithms()) {
+				if (!signersByAlgorithm.containsKey(alg)) {
+					signersByAlgorithm.put(alg, signer);
+				}
+			}
+		}
 	}
 
 	/**
@@ -232,14 +288,7 @@ public class DefaultJWTSigningAndValidationService implements JWTSigningAndValid
 	@Override
 	public void signJwt(SignedJWT jwt, JWSAlgorithm alg) {
 
-		JWSSigner signer = null;
-
-		for (JWSSigner s : signers.values()) {
-			if (s.supportedJWSAlgorithms().contains(alg)) {
-				signer = s;
-				break;
-			}
-		}
+		JWSSigner signer = signersByAlgorithm.get(alg);
 
 		if (signer == null) {
 			//If we can't find an algorithm that matches, we can't sign
@@ -259,19 +308,40 @@ public class DefaultJWTSigningAndValidationService implements JWTSigningAndValid
 	@Override
 	public boolean validateSignature(SignedJWT jwt) {
 
-		for (JWSVerifier verifier : verifiers.values()) {
-			try {
-				if (jwt.verify(verifier)) {
+		JWSAlgorithm alg = jwt.getHeader().getAlgorithm();
+		String kid = jwt.getHeader().getKeyID();
+
+		if (!Strings.isNullOrEmpty(kid)) {
+			// the header names one of our keys, so only that key can have signed it
+			JWSVerifier verifier = verifiers.get(kid);
+			if (verifier != null) {
+				return verifier.supportedJWSAlgorithms().contains(alg) && verify(jwt, verifier);
+			}
+			// otherwise the kid is one we don't know (a symmetric key is stored under a fixed id, for instance),
+			// so fall back to every key for the algorithm
+		}
+
+		List<JWSVerifier> algVerifiers = verifiersByAlgorithm.get(alg);
+		if (algVerifiers != null) {
+			for (JWSVerifier verifier : algVerifiers) {
+				if (verify(jwt, verifier)) {
 					return true;
 				}
-			} catch (JOSEException e) {
-
-				logger.error("Failed to validate signature with " + verifier + " error message: " + e.getMessage());
 			}
 		}
 		return false;
 	}
 
+	private boolean verify(SignedJWT jwt, JWSVerifier verifier) {
+		try {
+			return jwt.verify(verifier);
+		} catch (JOSEException e) {
+
+			logger.error("Failed to validate signature with " + verifier + " error message: " + e.getMessage());
+			return false;
+		}
+	}
+
 	@Override
 	public Map<String, JWK> getAllPublicKeys() {
 		Map<String, JWK> pubKeys = new HashMap<>();
@@ -20,27 +20,35 @@
  */
 package org.mitre.jwt.signer.service.impl;
 
-import java.util.concurrent.ExecutionException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.http.client.HttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.mitre.jose.keystore.JWKSetKeyStore;
 import org.mitre.jwt.encryption.service.JWTEncryptionAndDecryptionService;
 import org.mitre.jwt.encryption.service.impl.DefaultJWTEncryptionAndDecryptionService;
 import org.mitre.jwt.signer.service.JWTSigningAndValidationService;
+import org.mitre.util.http.AbstractRefreshingHttpCache;
+import org.mitre.util.http.AbstractRefreshingHttpCache.Fetched;
+import org.mitre.util.http.PooledHttpClientFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import com.google.common.base.Strings;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.util.concurrent.UncheckedExecutionException;
-import com.google.gson.JsonParseException;
+import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
 
 /**
@@ -48,6 +56,15 @@ import com.nimbusds.jose.jwk.JWKSet;
  * Creates a caching map of JOSE signers/validators and encrypters/decryptors
  * keyed on the JWK Set URI. Dynamically loads JWK Sets to create the services.
  *
+ * The sets are held in an {@link AbstractRefreshingHttpCache}: only the first
+ * fetch of a JWK Set happens on the calling thread, later ones are governed
+ * by the Cache-Control header of the response and run in the background on a
+ * bounded pool, as conditional GETs on the cached set's ETag. A set that
+ * can't be refreshed is served for up to maxStaleSeconds after its last
+ * successful fetch, and failing URIs are retried with an exponential backoff.
+ * When a JWT names a key id that is missing from the cached set, the set is
+ * fetched again right away, at most once per keyMissRefreshSeconds.
+ *
  * @author jricher
  *
  */
@@ -59,108 +76,331 @@ public class JWKSetCacheService {
 	 */
 	private static final Logger logger = LoggerFactory.getLogger(JWKSetCacheService.class);
 
-	// map of jwk set uri -> signing/validation service built on the keys found in that jwk set
-	private LoadingCache<String, JWTSigningAndValidationService> validators;
+	// minimum time between refreshes triggered by an unknown key id
+	private long keyMissRefreshSeconds = 60;
+
+	// map of jwk set uri -> the fetched jwk set and the services built on the keys found in it
+	private AbstractRefreshingHttpCache<CachedJWKSet> jwkSets;
+
+	// map of jwk set uri -> time of the last refresh triggered by an unknown key id
+	private Map<String, Long> keyMissRefreshes;
+
+	// builds the HTTP client when none was given; a factory of this service's own unless one is wired in
+	@Autowired(required = false)
+	private PooledHttpClientFactory httpClientFactory;
 
-	// map of jwk set uri -> encryption/decryption service built on the keys found in that jwk set
-	private LoadingCache<String, JWTEncryptionAndDecryptionService> encrypters;
+	private RestTemplate restTemplate;
 
 	public JWKSetCacheService() {
-		this.validators = CacheBuilder.newBuilder()
-				.expireAfterWrite(1, TimeUnit.HOURS) // expires 1 hour after fetch
-				.maximumSize(100)
-				.build(new JWKSetVerifierFetcher(HttpClientBuilder.create().useSystemProperties().build()));
-		this.encrypters = CacheBuilder.newBuilder()
-				.expireAfterWrite(1, TimeUnit.HOURS) // expires 1 hour after fetch
-				.maximumSize(100)
-				.build(new JWKSetEncryptorFetcher(HttpClientBuilder.create().useSystemProperties().build()));
+		jwkSets = new AbstractRefreshingHttpCache<CachedJWKSet>() {
+			@Override
+			protected Fetched<CachedJWKSet> fetch(String jwksUri) throws Exception {
+				return fetch(jwksUri, null);
+			}
+
+			@Override
+			protected Fetched<CachedJWKSet> fetch(String jwksUri, CachedJWKSet previous) throws Exception {
+				return fetchJWKSet(jwksUri, previous);
+			}
+		};
+		jwkSets.setMaximumSize(100);
+		buildKeyMissRefreshes();
+	}
+
+	public JWKSetCacheService(HttpClient httpClient) {
+		this();
+		this.restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+	}
+
+	private void buildKeyMissRefreshes() {
+		this.keyMissRefreshes = CacheBuilder.newBuilder()
+				.maximumSize(jwkSets.getMaximumSize())
+				.<String, Long>build()
+				.asMap();
 	}
 
 	/**
 	 * @param jwksUri
-	 * @return
-	 * @throws ExecutionException
-	 * @see com.google.common.cache.Cache#get(java.lang.Object)
+	 * @return the validator for the keys at the given URI, or null if they could not be loaded
 	 */
 	public JWTSigningAndValidationService getValidator(String jwksUri) {
-		try {
-			return validators.get(jwksUri);
-		} catch (UncheckedExecutionException | ExecutionException e) {
-			logger.warn("Couldn't load JWK Set from " + jwksUri + ": " + e.getMessage());
-			return null;
+		return getValidator(jwksUri, null);
+	}
+
+	/**
+	 * @param jwksUri
+	 * @param keyId the key id named by the JWT being validated, may be null
+	 * @return the validator for the keys at the given URI, or null if they could not be loaded
+	 */
+	public JWTSigningAndValidationService getValidator(String jwksUri, String keyId) {
+		CachedJWKSet cached = jwkSets.get(jwksUri);
+		if (cached != null && !Strings.isNullOrEmpty(keyId) && !cached.hasKey(keyId)) {
+			cached = refreshForMissingKey(jwksUri, cached, keyId);
 		}
+		return cached != null ? cached.getValidator() : null;
 	}
 
 	public JWTEncryptionAndDecryptionService getEncrypter(String jwksUri) {
-		try {
-			return encrypters.get(jwksUri);
-		} catch (UncheckedExecutionException | ExecutionException e) {
-			logger.warn("Couldn't load JWK Set from " + jwksUri + ": " + e.getMessage());
-			return null;
+		CachedJWKSet cached = jwkSets.get(jwksUri);
+		return cached != null ? cached.getEncrypter() : null;
+	}
+
+	/**
+	 * Drop the cached keys and any failure backoff for the given URI.
+	 */
+	public void invalidate(String jwksUri) {
+		jwkSets.invalidate(jwksUri);
+		keyMissRefreshes.remove(jwksUri);
+	}
+
+	private CachedJWKSet refreshForMissingKey(String jwksUri, CachedJWKSet cached, String keyId) {
+		final long now = System.currentTimeMillis();
+
+		// only one caller per interval gets to refresh
+		final AtomicBoolean claimed = new AtomicBoolean();
+		keyMissRefreshes.compute(jwksUri, (uri, last) -> {
+			if (last == null || now - last >= TimeUnit.SECONDS.toMillis(keyMissRefreshSeconds)) {
+				claimed.set(true);
+				return now;
+			}
+			return last;
+		});
+		if (!claimed.get()) {
+			return cached;
+		}
+
+		logger.info("Key id {} not found in JWK Set from {}, fetching it again", keyId, jwksUri);
+		CachedJWKSet fresh = jwkSets.refreshNow(jwksUri);
+		return fresh != null ? fresh : cached;
+	}
+
+	/**
+	 * Fetch the JWK Set, revalidating the previous copy if there is one, and
+	 * build the services for its keys.
+	 */
+	private Fetched<CachedJWKSet> fetchJWKSet(String jwksUri, CachedJWKSet previous) throws Exception {
+		FetchResult result = fetch(jwksUri, previous != null ? previous.getETag() : null);
+
+		CachedJWKSet loaded;
+		if (result.isNotModified() && previous != null) {
+			loaded = new CachedJWKSet(previous, result.getETag() != null ? result.getETag() : previous.getETag());
+		} else {
+			loaded = new CachedJWKSet(JWKSet.parse(result.getBody()), result.getETag());
 		}
+		return new Fetched<>(loaded, result.getCacheControl());
 	}
 
 	/**
-	 * @author jricher
+	 * Make the HTTP request for a JWK Set.
 	 *
+	 * @param jwksUri the URI to fetch
+	 * @param eTag the ETag of the cached copy, sent as If-None-Match; may be null
+	 * @return the response
 	 */
-	private class JWKSetVerifierFetcher extends CacheLoader<String, JWTSigningAndValidationService> {
-		private HttpComponentsClientHttpRequestFactory httpFactory;
-		private RestTemplate restTemplate;
+	protected FetchResult fetch(String jwksUri, String eTag) {
+		HttpHeaders headers = new HttpHeaders();
+		if (eTag != null) {
+			headers.setIfNoneMatch(eTag);
+		}
+		ResponseEntity<String> response = getRestTemplate().exchange(jwksUri, HttpMethod.GET, new HttpEntity<Void>(headers), String.class);
+		return new FetchResult(response.getStatusCode() == HttpStatus.NOT_MODIFIED, response.getBody(),
+				response.getHeaders().getETag(), response.getHeaders().getCacheControl());
+	}
 
-		JWKSetVerifierFetcher(HttpClient httpClient) {
-			this.httpFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
-			this.restTemplate = new RestTemplate(httpFactory);
+	private synchronized RestTemplate getRestTemplate() {
+		if (restTemplate == null) {
+			if (httpClientFactory == null) {
+				httpClientFactory = new PooledHttpClientFactory();
+			}
+			restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClientFactory.getClient()));
 		}
+		return restTemplate;
+	}
+
+	/**
+	 * A fetched JWK Set with the services built from it.
+	 */
+	private static class CachedJWKSet {
 
-		/**
-		 * Load the JWK Set and build the appropriate signing service.
-		 */
-		@Override
-		public JWTSigningAndValidationService load(String key) throws Exception {
-			String jsonString = restTemplate.getForObject(key, String.class);
-			JWKSet jwkSet = JWKSet.parse(jsonString);
+		private final JWKSet jwkSet;
+		private final String eTag;
+		private final JWTSigningAndValidationService validator;
+		private final JWTEncryptionAndDecryptionService encrypter;
+
+		CachedJWKSet(JWKSet jwkSet, String eTag) {
+			this.jwkSet = jwkSet;
+			this.eTag = eTag;
 
 			JWKSetKeyStore keyStore = new JWKSetKeyStore(jwkSet);
 
-			JWTSigningAndValidationService service = new DefaultJWTSigningAndValidationService(keyStore);
+			JWTSigningAndValidationService validator = null;
+			try {
+				validator = new DefaultJWTSigningAndValidationService(keyStore);
+			} catch (Exception e) {
+				logger.warn("Unable to build validator for JWK Set: " + e.getMessage());
+			}
+			this.validator = validator;
+
+			JWTEncryptionAndDecryptionService encrypter = null;
+			try {
+				encrypter = new DefaultJWTEncryptionAndDecryptionService(keyStore);
+			} catch (Exception e) {
+				logger.warn("Unable to build encrypter for JWK Set: " + e.getMessage());
+			}
+			this.encrypter = encrypter;
+
+			if (validator == null && encrypter == null) {
+				throw new IllegalArgumentException("Unable to load JWK Set");
+			}
+		}
+
+		// the same keys, revalidated by the server
+		CachedJWKSet(CachedJWKSet previous, String eTag) {
+			this.jwkSet = previous.jwkSet;
+			this.eTag = eTag;
+			this.validator = previous.validator;
+			this.encrypter = previous.encrypter;
+		}
+
+		boolean hasKey(String keyId) {
+			List<JWK> keys = jwkSet.getKeys();
+			for (JWK key : keys) {
+				// keys without an id may be the one that was meant
+				if (key.getKeyID() == null || key.getKeyID().equals(keyId)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		String getETag() {
+			return eTag;
+		}
 
-			return service;
+		JWTSigningAndValidationService getValidator() {
+			return validator;
 		}
 
+		JWTEncryptionAndDecryptionService getEncrypter() {
+			return encrypter;
+		}
 	}
 
 	/**
-	 * @author jricher
-	 *
+	 * The parts of a JWK Set response that the cache uses.
 	 */
-	private class JWKSetEncryptorFetcher extends CacheLoader<String, JWTEncryptionAndDecryptionService> {
-		private HttpComponentsClientHttpRequestFactory httpFactory;
-		private RestTemplate restTemplate;
+	protected static class FetchResult {
+
+		private final boolean notModified;
+		private final String body;
+		private final String eTag;
+		private final String cacheControl;
 
-		public JWKSetEncryptorFetcher(HttpClient httpClient) {
-			this.httpFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
-			this.restTemplate = new RestTemplate(httpFactory);
+		public FetchResult(boolean notModified, String body, String eTag, String cacheControl) {
+			this.notModified = notModified;
+			this.body = body;
+			this.eTag = eTag;
+			this.cacheControl = cacheControl;
 		}
 
-		/* (non-Javadoc)
-		 * @see com.google.common.cache.CacheLoader#load(java.lang.Object)
-		 */
-		@Override
-		public JWTEncryptionAndDecryptionService load(String key) throws Exception {
-			try {
-				String jsonString = restTemplate.getForObject(key, String.class);
-				JWKSet jwkSet = JWKSet.parse(jsonString);
+		public boolean isNotModified() {
+			return notModified;
+		}
 
-				JWKSetKeyStore keyStore = new JWKSetKeyStore(jwkSet);
+		public String getBody() {
+			return body;
+		}
 
-				JWTEncryptionAndDecryptionService service = new DefaultJWTEncryptionAndDecryptionService(keyStore);
+		public String getETag() {
+			return eTag;
+		}
 
-				return service;
-			} catch (JsonParseException | RestClientException e) {
-				throw new IllegalArgumentException("Unable to load JWK Set");
-			}
+		public String getCacheControl() {
+			return cacheControl;
 		}
 	}
 
+	/**
+	 * @return the maximum number of JWK Set URIs held in the cache
+	 */
+	public long getMaximumSize() {
+		return jwkSets.getMaximumSize();
+	}
+
+	/**
+	 * @param maximumSize the maximum number of JWK Set URIs held in the cache
+	 */
+	public void setMaximumSize(long maximumSize) {
+		jwkSets.setMaximumSize(maximumSize);
+		buildKeyMissRefreshes();
+	}
+
+	/**
+	 * @return the time between refreshes when the server sends no Cache-Control max-age
+	 */
+	public long getRefreshSeconds() {
+		return jwkSets.getRefreshSeconds();
+	}
+
+	public void setRefreshSeconds(long refreshSeconds) {
+		jwkSets.setRefreshSeconds(refreshSeconds);
+	}
+
+	public long getMinRefreshSeconds() {
+		return jwkSets.getMinRefreshSeconds();
+	}
+
+	public void setMinRefreshSeconds(long minRefreshSeconds) {
+		jwkSets.setMinRefreshSeconds(minRefreshSeconds);
+	}
+
+	/**
+	 * @return how long a JWK Set is served after its last successful fetch when it cannot be refreshed
+	 */
+	public long getMaxStaleSeconds() {
+		return jwkSets.getMaxStaleSeconds();
+	}
+
+	public void setMaxStaleSeconds(long maxStaleSeconds) {
+		jwkSets.setMaxStaleSeconds(maxStaleSeconds);
+	}
+
+	public long getInitialBackoffSeconds() {
+		return jwkSets.getInitialBackoffSeconds();
+	}
+
+	public void setInitialBackoffSeconds(long initialBackoffSeconds) {
+		jwkSets.setInitialBackoffSeconds(initialBackoffSeconds);
+	}
+
+	public long getMaxBackoffSeconds() {
+		return jwkSets.getMaxBackoffSeconds();
+	}
+
+	public void setMaxBackoffSeconds(long maxBackoffSeconds) {
+		jwkSets.setMaxBackoffSeconds(maxBackoffSeconds);
+	}
+
+	public long getKeyMissRefreshSeconds() {
+		return keyMissRefreshSeconds;
+	}
+
+	public void setKeyMissRefreshSeconds(long keyMissRefreshSeconds) {
+		this.keyMissRefreshSeconds = keyMissRefreshSeconds;
+	}
+
+	/**
+	 * @param refreshExecutor the executor that background refreshes run on; a small bounded pool by default
+	 */
+	public void setRefreshExecutor(Executor refreshExecutor) {
+		jwkSets.setRefreshExecutor(refreshExecutor);
+	}
+
+	/**
+	 * @param httpClientFactory builds the HTTP client that JWK Sets are fetched with, unless a client was given
+	 */
+	public synchronized void setHttpClientFactory(PooledHttpClientFactory httpClientFactory) {
+		this.httpClientFactory = httpClientFactory;
+	}
+
 }
@@ -56,11 +56,17 @@ import org.springframework.security.oauth2.provider.OAuth2Request;
 	@NamedQuery(name = AuthenticationHolderEntity.QUERY_GET_UNUSED, query = "select a from AuthenticationHolderEntity a where " +
 			"a.id not in (select t.authenticationHolder.id from OAuth2AccessTokenEntity t) and " +
 			"a.id not in (select r.authenticationHolder.id from OAuth2RefreshTokenEntity r) and " +
-			"a.id not in (select c.authenticationHolder.id from AuthorizationCodeEntity c)")
+			"a.id not in (select c.authenticationHolder.id from AuthorizationCodeEntity c)"),
+	@NamedQuery(name = AuthenticationHolderEntity.QUERY_GET_UNUSED_IDS, query = "select a.id from AuthenticationHolderEntity a where " +
+			"a.id not in (select t.authenticationHolder.id from OAuth2AccessTokenEntity t) and " +
+			"a.id not in (select r.authenticationHolder.id from OAuth2RefreshTokenEntity r) and " +
+			"a.id not in (select c.authenticationHolder.id from AuthorizationCodeEntity c) and " +
+			"a.id not in (select d.authenticationHolder.id from DeviceCode d)")
 })
 public class AuthenticationHolderEntity {
 
 	public static final String QUERY_GET_UNUSED = "AuthenticationHolderEntity.getUnusedAuthenticationHolders";
+	public static final String QUERY_GET_UNUSED_IDS = "AuthenticationHolderEntity.getUnusedAuthenticationHolderIds";
 	public static final String QUERY_ALL = "AuthenticationHolderEntity.getAll";
 
 	private Long id;
@@ -42,14 +42,19 @@ import javax.persistence.Temporal;
 @Table(name = "authorization_code")
 @NamedQueries({
 	@NamedQuery(name = AuthorizationCodeEntity.QUERY_BY_VALUE, query = "select a from AuthorizationCodeEntity a where a.code = :code"),
-	@NamedQuery(name = AuthorizationCodeEntity.QUERY_EXPIRATION_BY_DATE, query = "select a from AuthorizationCodeEntity a where a.expiration <= :" + AuthorizationCodeEntity.PARAM_DATE)
+	@NamedQuery(name = AuthorizationCodeEntity.QUERY_EXPIRATION_BY_DATE, query = "select a from AuthorizationCodeEntity a where a.expiration <= :" + AuthorizationCodeEntity.PARAM_DATE),
+	@NamedQuery(name = AuthorizationCodeEntity.QUERY_EXPIRATION_BY_DATE_AND_SHARD, query = "select a from AuthorizationCodeEntity a where a.expiration <= :" + AuthorizationCodeEntity.PARAM_DATE
+			+ " and mod(a.id, :" + AuthorizationCodeEntity.PARAM_SHARD_COUNT + ") = :" + AuthorizationCodeEntity.PARAM_SHARD_INDEX)
 })
 public class AuthorizationCodeEntity {
 
 	public static final String QUERY_BY_VALUE = "AuthorizationCodeEntity.getByValue";
 	public static final String QUERY_EXPIRATION_BY_DATE = "AuthorizationCodeEntity.expirationByDate";
+	public static final String QUERY_EXPIRATION_BY_DATE_AND_SHARD = "AuthorizationCodeEntity.expirationByDateAndShard";
 
 	public static final String PARAM_DATE = "date";
+	public static final String PARAM_SHARD_COUNT = "shardCount";
+	public static final String PARAM_SHARD_INDEX = "shardIndex";
 
 	private Long id;
 
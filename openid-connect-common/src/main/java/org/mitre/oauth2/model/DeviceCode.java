@@ -46,17 +46,22 @@ import javax.persistence.Temporal;
 @NamedQueries({
 	@NamedQuery(name = DeviceCode.QUERY_BY_USER_CODE, query = "select d from DeviceCode d where d.userCode = :" + DeviceCode.PARAM_USER_CODE),
 	@NamedQuery(name = DeviceCode.QUERY_BY_DEVICE_CODE, query = "select d from DeviceCode d where d.deviceCode = :" + DeviceCode.PARAM_DEVICE_CODE),
-	@NamedQuery(name = DeviceCode.QUERY_EXPIRED_BY_DATE, query = "select d from DeviceCode d where d.expiration <= :" + DeviceCode.PARAM_DATE)
+	@NamedQuery(name = DeviceCode.QUERY_EXPIRED_BY_DATE, query = "select d from DeviceCode d where d.expiration <= :" + DeviceCode.PARAM_DATE),
+	@NamedQuery(name = DeviceCode.QUERY_EXPIRED_BY_DATE_AND_SHARD, query = "select d from DeviceCode d where d.expiration <= :" + DeviceCode.PARAM_DATE
+			+ " and mod(d.id, :" + DeviceCode.PARAM_SHARD_COUNT + ") = :" + DeviceCode.PARAM_SHARD_INDEX)
 })
 public class DeviceCode {
 
 	public static final String QUERY_BY_USER_CODE = "DeviceCode.queryByUserCode";
 	public static final String QUERY_BY_DEVICE_CODE = "DeviceCode.queryByDeviceCode";
 	public static final String QUERY_EXPIRED_BY_DATE = "DeviceCode.queryExpiredByDate";
+	public static final String QUERY_EXPIRED_BY_DATE_AND_SHARD = "DeviceCode.queryExpiredByDateAndShard";
 
 	public static final String PARAM_USER_CODE = "userCode";
 	public static final String PARAM_DEVICE_CODE = "deviceCode";
 	public static final String PARAM_DATE = "date";
+	public static final String PARAM_SHARD_COUNT = "shardCount";
+	public static final String PARAM_SHARD_INDEX = "shardIndex";
 
 	private Long id;
 	private String deviceCode;
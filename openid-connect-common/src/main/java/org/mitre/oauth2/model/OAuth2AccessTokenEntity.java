@@ -49,6 +49,7 @@ import javax.persistence.Transient;
 import org.mitre.oauth2.model.convert.JWTStringConverter;
 import org.mitre.openid.connect.model.ApprovedSite;
 import org.mitre.uma.model.Permission;
+import org.mitre.util.TokenValueHashUtils;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.OAuth2AccessTokenJackson1Deserializer;
 import org.springframework.security.oauth2.common.OAuth2AccessTokenJackson1Serializer;
@@ -67,9 +68,14 @@ import com.nimbusds.jwt.JWT;
 @NamedQueries({
 	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_ALL, query = "select a from OAuth2AccessTokenEntity a"),
 	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_EXPIRED_BY_DATE, query = "select a from OAuth2AccessTokenEntity a where a.expiration <= :" + OAuth2AccessTokenEntity.PARAM_DATE),
+	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_EXPIRED_IDS_BY_DATE, query = "select a.id from OAuth2AccessTokenEntity a where a.expiration <= :" + OAuth2AccessTokenEntity.PARAM_DATE),
+	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_IDS_BY_REFRESH_TOKEN_IDS, query = "select a.id from OAuth2AccessTokenEntity a where a.refreshToken.id in :" + OAuth2AccessTokenEntity.PARAM_REFRESH_TOKEN_IDS),
 	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_BY_REFRESH_TOKEN, query = "select a from OAuth2AccessTokenEntity a where a.refreshToken = :" + OAuth2AccessTokenEntity.PARAM_REFERSH_TOKEN),
 	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_BY_CLIENT, query = "select a from OAuth2AccessTokenEntity a where a.client = :" + OAuth2AccessTokenEntity.PARAM_CLIENT),
 	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_BY_TOKEN_VALUE, query = "select a from OAuth2AccessTokenEntity a where a.jwt = :" + OAuth2AccessTokenEntity.PARAM_TOKEN_VALUE),
+	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_BY_TOKEN_VALUE_HASH, query = "select a from OAuth2AccessTokenEntity a where a.tokenValueHash = :" + OAuth2AccessTokenEntity.PARAM_TOKEN_VALUE_HASH),
+	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_MISSING_TOKEN_VALUE_HASH, query = "select a.id, a.jwt from OAuth2AccessTokenEntity a where a.tokenValueHash is null and a.jwt is not null"),
+	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_IDS_BY_APPROVED_SITE_IDS, query = "select a.id from OAuth2AccessTokenEntity a where a.approvedSite.id in :" + OAuth2AccessTokenEntity.PARAM_APPROVED_SITE_IDS),
 	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_BY_APPROVED_SITE, query = "select a from OAuth2AccessTokenEntity a where a.approvedSite = :" + OAuth2AccessTokenEntity.PARAM_APPROVED_SITE),
 	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_BY_RESOURCE_SET, query = "select a from OAuth2AccessTokenEntity a join a.permissions p where p.resourceSet.id = :" + OAuth2AccessTokenEntity.PARAM_RESOURCE_SET_ID),
 	@NamedQuery(name = OAuth2AccessTokenEntity.QUERY_BY_NAME, query = "select r from OAuth2AccessTokenEntity r where r.authenticationHolder.userAuth.name = :" + OAuth2AccessTokenEntity.PARAM_NAME)
@@ -81,20 +87,28 @@ import com.nimbusds.jwt.JWT;
 public class OAuth2AccessTokenEntity implements OAuth2AccessToken {
 
 	public static final String QUERY_BY_APPROVED_SITE = "OAuth2AccessTokenEntity.getByApprovedSite";
+	public static final String QUERY_IDS_BY_APPROVED_SITE_IDS = "OAuth2AccessTokenEntity.getIdsByApprovedSiteIds";
 	public static final String QUERY_BY_TOKEN_VALUE = "OAuth2AccessTokenEntity.getByTokenValue";
+	public static final String QUERY_BY_TOKEN_VALUE_HASH = "OAuth2AccessTokenEntity.getByTokenValueHash";
+	public static final String QUERY_MISSING_TOKEN_VALUE_HASH = "OAuth2AccessTokenEntity.getMissingTokenValueHash";
 	public static final String QUERY_BY_CLIENT = "OAuth2AccessTokenEntity.getByClient";
 	public static final String QUERY_BY_REFRESH_TOKEN = "OAuth2AccessTokenEntity.getByRefreshToken";
 	public static final String QUERY_EXPIRED_BY_DATE = "OAuth2AccessTokenEntity.getAllExpiredByDate";
+	public static final String QUERY_EXPIRED_IDS_BY_DATE = "OAuth2AccessTokenEntity.getAllExpiredIdsByDate";
+	public static final String QUERY_IDS_BY_REFRESH_TOKEN_IDS = "OAuth2AccessTokenEntity.getIdsByRefreshTokenIds";
 	public static final String QUERY_ALL = "OAuth2AccessTokenEntity.getAll";
 	public static final String QUERY_BY_RESOURCE_SET = "OAuth2AccessTokenEntity.getByResourceSet";
 	public static final String QUERY_BY_NAME = "OAuth2AccessTokenEntity.getByName";
 
 	public static final String PARAM_TOKEN_VALUE = "tokenValue";
+	public static final String PARAM_TOKEN_VALUE_HASH = "tokenValueHash";
 	public static final String PARAM_CLIENT = "client";
 	public static final String PARAM_REFERSH_TOKEN = "refreshToken";
 	public static final String PARAM_DATE = "date";
+	public static final String PARAM_REFRESH_TOKEN_IDS = "refreshTokenIds";
 	public static final String PARAM_RESOURCE_SET_ID = "rsid";
 	public static final String PARAM_APPROVED_SITE = "approvedSite";
+	public static final String PARAM_APPROVED_SITE_IDS = "approvedSiteIds";
 	public static final String PARAM_NAME = "name";
 
 	public static final String ID_TOKEN_FIELD_NAME = "id_token";
@@ -107,6 +121,8 @@ public class OAuth2AccessTokenEntity implements OAuth2AccessToken {
 
 	private JWT jwtValue; // JWT-encoded access token value
 
+	private String tokenValueHash; // indexed digest of the token value, used for lookups
+
 	private Date expiration;
 
 	private String tokenType = OAuth2AccessToken.BEARER_TYPE;
@@ -274,6 +290,29 @@ public class OAuth2AccessTokenEntity implements OAuth2AccessToken {
 	 */
 	public void setJwt(JWT jwt) {
 		this.jwtValue = jwt;
+		this.tokenValueHash = null; // recalculated from the new value on next read
+	}
+
+	/**
+	 * Get the digest of the serialized token value. This is computed from the
+	 * JWT whenever it hasn't been loaded from or stored to the database yet.
+	 *
+	 * @return the tokenValueHash
+	 */
+	@Basic
+	@Column(name="token_value_hash")
+	public String getTokenValueHash() {
+		if (tokenValueHash == null) {
+			tokenValueHash = TokenValueHashUtils.hash(jwtValue);
+		}
+		return tokenValueHash;
+	}
+
+	/**
+	 * @param tokenValueHash the tokenValueHash to set
+	 */
+	public void setTokenValueHash(String tokenValueHash) {
+		this.tokenValueHash = tokenValueHash;
 	}
 
 	@Override
@@ -39,6 +39,7 @@ import javax.persistence.Temporal;
 import javax.persistence.Transient;
 
 import org.mitre.oauth2.model.convert.JWTStringConverter;
+import org.mitre.util.TokenValueHashUtils;
 import org.springframework.security.oauth2.common.OAuth2RefreshToken;
 
 import com.nimbusds.jwt.JWT;
@@ -52,19 +53,26 @@ import com.nimbusds.jwt.JWT;
 @NamedQueries({
 	@NamedQuery(name = OAuth2RefreshTokenEntity.QUERY_ALL, query = "select r from OAuth2RefreshTokenEntity r"),
 	@NamedQuery(name = OAuth2RefreshTokenEntity.QUERY_EXPIRED_BY_DATE, query = "select r from OAuth2RefreshTokenEntity r where r.expiration <= :" + OAuth2RefreshTokenEntity.PARAM_DATE),
+	@NamedQuery(name = OAuth2RefreshTokenEntity.QUERY_EXPIRED_IDS_BY_DATE, query = "select r.id from OAuth2RefreshTokenEntity r where r.expiration <= :" + OAuth2RefreshTokenEntity.PARAM_DATE),
 	@NamedQuery(name = OAuth2RefreshTokenEntity.QUERY_BY_CLIENT, query = "select r from OAuth2RefreshTokenEntity r where r.client = :" + OAuth2RefreshTokenEntity.PARAM_CLIENT),
 	@NamedQuery(name = OAuth2RefreshTokenEntity.QUERY_BY_TOKEN_VALUE, query = "select r from OAuth2RefreshTokenEntity r where r.jwt = :" + OAuth2RefreshTokenEntity.PARAM_TOKEN_VALUE),
+	@NamedQuery(name = OAuth2RefreshTokenEntity.QUERY_BY_TOKEN_VALUE_HASH, query = "select r from OAuth2RefreshTokenEntity r where r.tokenValueHash = :" + OAuth2RefreshTokenEntity.PARAM_TOKEN_VALUE_HASH),
+	@NamedQuery(name = OAuth2RefreshTokenEntity.QUERY_MISSING_TOKEN_VALUE_HASH, query = "select r.id, r.jwt from OAuth2RefreshTokenEntity r where r.tokenValueHash is null and r.jwt is not null"),
 	@NamedQuery(name = OAuth2RefreshTokenEntity.QUERY_BY_NAME, query = "select r from OAuth2RefreshTokenEntity r where r.authenticationHolder.userAuth.name = :" + OAuth2RefreshTokenEntity.PARAM_NAME)
 })
 public class OAuth2RefreshTokenEntity implements OAuth2RefreshToken {
 
 	public static final String QUERY_BY_TOKEN_VALUE = "OAuth2RefreshTokenEntity.getByTokenValue";
+	public static final String QUERY_BY_TOKEN_VALUE_HASH = "OAuth2RefreshTokenEntity.getByTokenValueHash";
+	public static final String QUERY_MISSING_TOKEN_VALUE_HASH = "OAuth2RefreshTokenEntity.getMissingTokenValueHash";
 	public static final String QUERY_BY_CLIENT = "OAuth2RefreshTokenEntity.getByClient";
 	public static final String QUERY_EXPIRED_BY_DATE = "OAuth2RefreshTokenEntity.getAllExpiredByDate";
+	public static final String QUERY_EXPIRED_IDS_BY_DATE = "OAuth2RefreshTokenEntity.getAllExpiredIdsByDate";
 	public static final String QUERY_ALL = "OAuth2RefreshTokenEntity.getAll";
 	public static final String QUERY_BY_NAME = "OAuth2RefreshTokenEntity.getByName";
 
 	public static final String PARAM_TOKEN_VALUE = "tokenValue";
+	public static final String PARAM_TOKEN_VALUE_HASH = "tokenValueHash";
 	public static final String PARAM_CLIENT = "client";
 	public static final String PARAM_DATE = "date";
 	public static final String PARAM_NAME = "name";
@@ -78,6 +86,9 @@ public class OAuth2RefreshTokenEntity implements OAuth2RefreshToken {
 	//JWT-encoded representation of this access token entity
 	private JWT jwt;
 
+	// indexed digest of the token value, used for lookups
+	private String tokenValueHash;
+
 	// our refresh tokens might expire
 	private Date expiration;
 
@@ -189,6 +200,29 @@ public class OAuth2RefreshTokenEntity implements OAuth2RefreshToken {
 	 */
 	public void setJwt(JWT jwt) {
 		this.jwt = jwt;
+		this.tokenValueHash = null; // recalculated from the new value on next read
+	}
+
+	/**
+	 * Get the digest of the serialized token value. This is computed from the
+	 * JWT whenever it hasn't been loaded from or stored to the database yet.
+	 *
+	 * @return the tokenValueHash
+	 */
+	@Basic
+	@Column(name="token_value_hash")
+	public String getTokenValueHash() {
+		if (tokenValueHash == null) {
+			tokenValueHash = TokenValueHashUtils.hash(jwt);
+		}
+		return tokenValueHash;
+	}
+
+	/**
+	 * @param tokenValueHash the tokenValueHash to set
+	 */
+	public void setTokenValueHash(String tokenValueHash) {
+		this.tokenValueHash = tokenValueHash;
 	}
 
 }
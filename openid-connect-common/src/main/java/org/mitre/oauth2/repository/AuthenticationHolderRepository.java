@@ -34,4 +34,14 @@ public interface AuthenticationHolderRepository {
 	public List<AuthenticationHolderEntity> getOrphanedAuthenticationHolders();
 
 	public List<AuthenticationHolderEntity> getOrphanedAuthenticationHolders(PageCriteria pageCriteria);
+
+	/**
+	 * Delete one chunk of authentication holders that are no longer referenced by any
+	 * token, authorization code or device code, along with their saved user authentication,
+	 * using set-based statements in a single transaction.
+	 *
+	 * @param chunkSize the maximum number of authentication holders to delete
+	 * @return the number of authentication holders deleted
+	 */
+	public int deleteOrphanedAuthenticationHolders(int chunkSize);
 }
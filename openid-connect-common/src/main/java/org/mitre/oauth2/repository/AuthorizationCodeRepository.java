@@ -64,4 +64,10 @@ public interface AuthorizationCodeRepository {
 	 */
 	public Collection<AuthorizationCodeEntity> getExpiredCodes(PageCriteria pageCriteria);
 
+	/**
+	 * @return A collection of the expired codes whose id mod shardCount
+	 * equals shardIndex.
+	 */
+	public Collection<AuthorizationCodeEntity> getExpiredCodes(int shardCount, int shardIndex);
+
 }
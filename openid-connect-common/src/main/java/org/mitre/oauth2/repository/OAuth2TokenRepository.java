@@ -17,6 +17,8 @@
  *******************************************************************************/
 package org.mitre.oauth2.repository;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Set;
 
@@ -71,6 +73,36 @@ public interface OAuth2TokenRepository {
 
 	public Set<OAuth2AccessTokenEntity> getAccessTokensForResourceSet(ResourceSet rs);
 
+	/**
+	 * Delete one chunk of access tokens that expired on or before the given date, along
+	 * with their scopes and permissions, using set-based statements in a single transaction.
+	 *
+	 * @param expiredBefore the cutoff date
+	 * @param chunkSize the maximum number of tokens to delete
+	 * @return the number of access tokens deleted
+	 */
+	public int deleteExpiredAccessTokens(Date expiredBefore, int chunkSize);
+
+	/**
+	 * Delete one chunk of refresh tokens that expired on or before the given date, along
+	 * with any access tokens issued from them, using set-based statements in a single transaction.
+	 *
+	 * @param expiredBefore the cutoff date
+	 * @param chunkSize the maximum number of refresh tokens to delete
+	 * @return the number of refresh tokens deleted
+	 */
+	public int deleteExpiredRefreshTokens(Date expiredBefore, int chunkSize);
+
+	/**
+	 * Delete all access tokens tied to the given approved sites, along with their refresh
+	 * tokens and any other access tokens issued from those, using set-based statements in
+	 * a single transaction.
+	 *
+	 * @param approvedSiteIds the ids of the approved sites
+	 * @return the number of access tokens deleted
+	 */
+	public int deleteTokensForApprovedSites(Collection<Long> approvedSiteIds);
+
 	/**
 	 * removes duplicate access tokens.
 	 *
@@ -97,4 +129,22 @@ public interface OAuth2TokenRepository {
 
 	public List<OAuth2AccessTokenEntity> getAccessTokensForApprovedSite(ApprovedSite approvedSite);
 
+	/**
+	 * Fill in the token value hash for a batch of access tokens that were stored
+	 * before the hash column existed.
+	 *
+	 * @param batchSize the maximum number of tokens to update
+	 * @return the number of tokens processed, zero once every access token has a hash
+	 */
+	public int backfillAccessTokenValueHashes(int batchSize);
+
+	/**
+	 * Fill in the token value hash for a batch of refresh tokens that were stored
+	 * before the hash column existed.
+	 *
+	 * @param batchSize the maximum number of tokens to update
+	 * @return the number of tokens processed, zero once every refresh token has a hash
+	 */
+	public int backfillRefreshTokenValueHashes(int batchSize);
+
 }
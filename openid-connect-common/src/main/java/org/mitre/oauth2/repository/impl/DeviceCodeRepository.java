@@ -60,4 +60,11 @@ public interface DeviceCodeRepository {
 	 */
 	public Collection<DeviceCode> getExpiredCodes();
 
+	/**
+	 * @param shardCount
+	 * @param shardIndex
+	 * @return the expired codes whose id mod shardCount equals shardIndex
+	 */
+	public Collection<DeviceCode> getExpiredCodes(int shardCount, int shardIndex);
+
 }
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.oauth2.service;
+
+import org.mitre.oauth2.model.ClientDetailsEntity;
+import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
+import org.mitre.oauth2.model.OAuth2RefreshTokenEntity;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * An in-process cache of resolved access tokens, consulted before the database
+ * whenever a token is validated. Entries are keyed by the token value hash.
+ *
+ * Every eviction means the token is no longer valid, so implementations that
+ * run on more than one node must pass evictions on to the other nodes, or keep
+ * the lifetime of an entry short enough to bound how long a token revoked on
+ * another node is still accepted.
+ */
+public interface AccessTokenCacheService {
+
+	/**
+	 * Look up a cached token by its serialized value.
+	 *
+	 * @param accessTokenValue the serialized token value
+	 * @return the cached token, or null if it isn't cached or has expired
+	 */
+	public OAuth2AccessTokenEntity get(String accessTokenValue);
+
+	/**
+	 * Add a token that has been loaded from the database to the cache.
+	 */
+	public void put(OAuth2AccessTokenEntity accessToken);
+
+	/**
+	 * Remove a single token from the cache.
+	 */
+	public void evict(OAuth2AccessTokenEntity accessToken);
+
+	/**
+	 * Remove all tokens issued from the given refresh token.
+	 */
+	public void evictForRefreshToken(OAuth2RefreshTokenEntity refreshToken);
+
+	/**
+	 * Remove all tokens issued to the given client.
+	 */
+	public void evictForClient(ClientDetailsEntity client);
+
+	/**
+	 * Remove everything from the cache.
+	 */
+	public void evictAll();
+
+	/**
+	 * @return hit, miss and eviction counts for this cache
+	 */
+	public CacheStats getStats();
+
+}
@@ -44,6 +44,8 @@ public interface OAuth2TokenEntityService extends AuthorizationServerTokenServic
 
 	public void clearExpiredTokens();
 
+	public void backfillTokenValueHashes();
+
 	public OAuth2AccessTokenEntity saveAccessToken(OAuth2AccessTokenEntity accessToken);
 
 	public OAuth2RefreshTokenEntity saveRefreshToken(OAuth2RefreshTokenEntity refreshToken);
@@ -40,6 +40,11 @@ import javax.persistence.Transient;
 @Table(name="approved_site")
 @NamedQueries({
 	@NamedQuery(name = ApprovedSite.QUERY_ALL, query = "select a from ApprovedSite a"),
+	@NamedQuery(name = ApprovedSite.QUERY_COUNT_ALL, query = "select count(a) from ApprovedSite a"),
+	@NamedQuery(name = ApprovedSite.QUERY_COUNT_USERS, query = "select count(distinct a.userId) from ApprovedSite a"),
+	@NamedQuery(name = ApprovedSite.QUERY_COUNT_CLIENTS, query = "select count(distinct a.clientId) from ApprovedSite a"),
+	@NamedQuery(name = ApprovedSite.QUERY_COUNT_BY_CLIENT_ID, query = "select count(a) from ApprovedSite a where a.clientId = :" + ApprovedSite.PARAM_CLIENT_ID),
+	@NamedQuery(name = ApprovedSite.QUERY_EXPIRED_IDS_BY_DATE, query = "select a.id from ApprovedSite a where a.timeoutDate <= :" + ApprovedSite.PARAM_DATE),
 	@NamedQuery(name = ApprovedSite.QUERY_BY_USER_ID, query = "select a from ApprovedSite a where a.userId = :" + ApprovedSite.PARAM_USER_ID),
 	@NamedQuery(name = ApprovedSite.QUERY_BY_CLIENT_ID, query = "select a from ApprovedSite a where a.clientId = :" + ApprovedSite.PARAM_CLIENT_ID),
 	@NamedQuery(name = ApprovedSite.QUERY_BY_CLIENT_ID_AND_USER_ID, query = "select a from ApprovedSite a where a.clientId = :" + ApprovedSite.PARAM_CLIENT_ID + " and a.userId = :" + ApprovedSite.PARAM_USER_ID)
@@ -50,9 +55,15 @@ public class ApprovedSite {
 	public static final String QUERY_BY_CLIENT_ID = "ApprovedSite.getByClientId";
 	public static final String QUERY_BY_USER_ID = "ApprovedSite.getByUserId";
 	public static final String QUERY_ALL = "ApprovedSite.getAll";
+	public static final String QUERY_EXPIRED_IDS_BY_DATE = "ApprovedSite.getExpiredIdsByDate";
+	public static final String QUERY_COUNT_ALL = "ApprovedSite.countAll";
+	public static final String QUERY_COUNT_USERS = "ApprovedSite.countUsers";
+	public static final String QUERY_COUNT_CLIENTS = "ApprovedSite.countClients";
+	public static final String QUERY_COUNT_BY_CLIENT_ID = "ApprovedSite.countByClientId";
 
 	public static final String PARAM_CLIENT_ID = "clientId";
 	public static final String PARAM_USER_ID = "userId";
+	public static final String PARAM_DATE = "date";
 
 	// unique id
 	private Long id;
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.model;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+
+/**
+ * A version counter for a set of data that nodes hold in memory. Every change
+ * to the data increments its counter, so each node can tell that its copy is
+ * out of date by reading a single row.
+ */
+@Entity
+@Table(name = "cache_version")
+@NamedQueries({
+	@NamedQuery(name = CacheVersion.QUERY_INCREMENT, query = "update CacheVersion v set v.version = v.version + 1 where v.name = :" + CacheVersion.PARAM_NAME)
+})
+public class CacheVersion {
+
+	public static final String QUERY_INCREMENT = "CacheVersion.increment";
+
+	public static final String PARAM_NAME = "name";
+
+	// name of the cached data
+	private String name;
+
+	private long version;
+
+	public CacheVersion() {
+
+	}
+
+	public CacheVersion(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the name
+	 */
+	@Id
+	@Column(name = "name")
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param name the name to set
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the version
+	 */
+	@Basic
+	@Column(name = "version")
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param version the version to set
+	 */
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+}
@@ -25,6 +25,8 @@ public class CachedImage {
 	private byte[] data;
 	private String contentType;
 	private long length;
+	private String etag;
+	private String lastModified;
 
 	/**
 	 * @return the data
@@ -62,5 +64,29 @@ public class CachedImage {
 	public void setLength(long length) {
 		this.length = length;
 	}
+	/**
+	 * @return the ETag the image was served with, if any
+	 */
+	public String getEtag() {
+		return etag;
+	}
+	/**
+	 * @param etag the ETag the image was served with
+	 */
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+	/**
+	 * @return the Last-Modified date the image was served with, if any
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+	/**
+	 * @param lastModified the Last-Modified date the image was served with
+	 */
+	public void setLastModified(String lastModified) {
+		this.lastModified = lastModified;
+	}
 
 }
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.model;
+
+import java.util.Date;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * A lease on a scheduled task, used so that only one node of a
+ * cluster runs the task at a time. A node holds the lease until
+ * its expiration; if the node goes away, any other node may take
+ * over the lease once it has expired.
+ */
+@Entity
+@Table(name = "task_lease")
+@NamedQueries({
+	@NamedQuery(name = TaskLease.QUERY_ALL, query = "select l from TaskLease l order by l.name"),
+	@NamedQuery(name = TaskLease.QUERY_ACQUIRE, query = "update TaskLease l set l.holder = :" + TaskLease.PARAM_HOLDER
+			+ ", l.leaseExpiration = :" + TaskLease.PARAM_EXPIRATION + ", l.lastStarted = :" + TaskLease.PARAM_NOW
+			+ " where l.name = :" + TaskLease.PARAM_NAME
+			+ " and (l.holder = :" + TaskLease.PARAM_HOLDER + " or l.holder is null or l.leaseExpiration is null or l.leaseExpiration < :" + TaskLease.PARAM_NOW + ")"),
+	@NamedQuery(name = TaskLease.QUERY_RECORD_RUN, query = "update TaskLease l set l.lastFinished = :" + TaskLease.PARAM_NOW
+			+ ", l.lastDuration = :" + TaskLease.PARAM_DURATION + ", l.leaseExpiration = :" + TaskLease.PARAM_EXPIRATION
+			+ " where l.name = :" + TaskLease.PARAM_NAME + " and l.holder = :" + TaskLease.PARAM_HOLDER)
+})
+public class TaskLease {
+
+	public static final String QUERY_ALL = "TaskLease.getAll";
+	public static final String QUERY_ACQUIRE = "TaskLease.acquire";
+	public static final String QUERY_RECORD_RUN = "TaskLease.recordRun";
+
+	public static final String PARAM_NAME = "name";
+	public static final String PARAM_HOLDER = "holder";
+	public static final String PARAM_NOW = "now";
+	public static final String PARAM_EXPIRATION = "expiration";
+	public static final String PARAM_DURATION = "duration";
+
+	// name of the scheduled task
+	private String name;
+
+	// node currently holding the lease
+	private String holder;
+
+	private Date leaseExpiration;
+
+	private Date lastStarted;
+
+	private Date lastFinished;
+
+	// duration of the last completed run in milliseconds
+	private Long lastDuration;
+
+	public TaskLease() {
+
+	}
+
+	public TaskLease(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the name
+	 */
+	@Id
+	@Column(name = "name")
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param name the name to set
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the holder
+	 */
+	@Basic
+	@Column(name = "holder")
+	public String getHolder() {
+		return holder;
+	}
+
+	/**
+	 * @param holder the holder to set
+	 */
+	public void setHolder(String holder) {
+		this.holder = holder;
+	}
+
+	/**
+	 * @return the leaseExpiration
+	 */
+	@Basic
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "lease_expiration")
+	public Date getLeaseExpiration() {
+		return leaseExpiration;
+	}
+
+	/**
+	 * @param leaseExpiration the leaseExpiration to set
+	 */
+	public void setLeaseExpiration(Date leaseExpiration) {
+		this.leaseExpiration = leaseExpiration;
+	}
+
+	/**
+	 * @return the lastStarted
+	 */
+	@Basic
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "last_started")
+	public Date getLastStarted() {
+		return lastStarted;
+	}
+
+	/**
+	 * @param lastStarted the lastStarted to set
+	 */
+	public void setLastStarted(Date lastStarted) {
+		this.lastStarted = lastStarted;
+	}
+
+	/**
+	 * @return the lastFinished
+	 */
+	@Basic
+	@Temporal(TemporalType.TIMESTAMP)
+	@Column(name = "last_finished")
+	public Date getLastFinished() {
+		return lastFinished;
+	}
+
+	/**
+	 * @param lastFinished the lastFinished to set
+	 */
+	public void setLastFinished(Date lastFinished) {
+		this.lastFinished = lastFinished;
+	}
+
+	/**
+	 * @return the lastDuration
+	 */
+	@Basic
+	@Column(name = "last_duration")
+	public Long getLastDuration() {
+		return lastDuration;
+	}
+
+	/**
+	 * @param lastDuration the lastDuration to set
+	 */
+	public void setLastDuration(Long lastDuration) {
+		this.lastDuration = lastDuration;
+	}
+
+}
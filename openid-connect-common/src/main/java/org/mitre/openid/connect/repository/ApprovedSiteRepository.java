@@ -18,6 +18,8 @@
 package org.mitre.openid.connect.repository;
 
 import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 
 import org.mitre.openid.connect.model.ApprovedSite;
 
@@ -79,6 +81,53 @@ public interface ApprovedSiteRepository {
 	 */
 	public Collection<ApprovedSite> getByUserId(String userId);
 
+	/**
+	 * Count all approved sites
+	 *
+	 * @return the number of approved sites
+	 */
+	public long getCount();
+
+	/**
+	 * Count the distinct users that have approved at least one site
+	 *
+	 * @return the number of users
+	 */
+	public long getUserCount();
+
+	/**
+	 * Count the distinct clients that have been approved at least once
+	 *
+	 * @return the number of clients
+	 */
+	public long getClientCount();
+
+	/**
+	 * Count the approved sites for the given client ID
+	 *
+	 * @param clientId
+	 * @return the number of approved sites
+	 */
+	public long getCountByClientId(String clientId);
+
+	/**
+	 * Get the ids of up to chunkSize sites whose timeout date is on or before the given date
+	 *
+	 * @param expiredBefore the cutoff date
+	 * @param chunkSize the maximum number of ids to return
+	 * @return the ids, never null
+	 */
+	public List<Long> getExpiredIds(Date expiredBefore, int chunkSize);
+
+	/**
+	 * Delete the given sites and their allowed scopes using set-based statements
+	 * in a single transaction. Any tokens tied to the sites must be removed first.
+	 *
+	 * @param ids the ids of the sites to delete
+	 * @return the number of sites deleted
+	 */
+	public int deleteByIds(Collection<Long> ids);
+
 	/**
 	 * Get all sites associated with this client
 	 * @param clientId
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.repository;
+
+import org.mitre.openid.connect.model.CacheVersion;
+
+/**
+ * Storage for the version counters of data that nodes cache in memory.
+ */
+public interface CacheVersionRepository {
+
+	/**
+	 * @param name the name of the cached data
+	 * @return the version counter, or null if the data has never changed
+	 */
+	public CacheVersion getByName(String name);
+
+	/**
+	 * Create the counter for data that has never changed. Fails if another
+	 * node created it first.
+	 *
+	 * @param version the new counter
+	 * @return the saved counter
+	 */
+	public CacheVersion create(CacheVersion version);
+
+	/**
+	 * Atomically increment the counter.
+	 *
+	 * @param name the name of the cached data
+	 * @return true if the counter exists and was incremented
+	 */
+	public boolean increment(String name);
+
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.repository;
+
+import java.util.Collection;
+import java.util.Date;
+
+import org.mitre.openid.connect.model.TaskLease;
+
+/**
+ * Storage for the leases that elect a single node to run each scheduled task.
+ */
+public interface TaskLeaseRepository {
+
+	/**
+	 * @return all known leases, ordered by task name
+	 */
+	public Collection<TaskLease> getAll();
+
+	/**
+	 * @param name the task name
+	 * @return the lease for the task, or null if the task has never run
+	 */
+	public TaskLease getByName(String name);
+
+	/**
+	 * Create the lease row for a task that has never run, held by the given node.
+	 * Fails if another node created the row first.
+	 *
+	 * @param lease the new lease
+	 * @return the saved lease
+	 */
+	public TaskLease create(TaskLease lease);
+
+	/**
+	 * Atomically take the lease if it is free, expired, or already held by
+	 * the given node.
+	 *
+	 * @param name the task name
+	 * @param holder the node asking for the lease
+	 * @param now the current time
+	 * @param expiration when the lease expires if taken
+	 * @return true if the node now holds the lease
+	 */
+	public boolean acquire(String name, String holder, Date now, Date expiration);
+
+	/**
+	 * Record a completed run and set the new lease expiration, provided
+	 * the given node still holds the lease.
+	 *
+	 * @param name the task name
+	 * @param holder the node that ran the task
+	 * @param now the time the run finished
+	 * @param duration the run duration in milliseconds
+	 * @param expiration when the lease now expires
+	 * @return true if the run was recorded
+	 */
+	public boolean recordRun(String name, String holder, Date now, long duration, Date expiration);
+
+}
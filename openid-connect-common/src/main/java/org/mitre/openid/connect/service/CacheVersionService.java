@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.service;
+
+/**
+ * Tracks the version of data that each node keeps in memory, so that a change
+ * made on one node can be noticed by the others without reloading the data.
+ */
+public interface CacheVersionService {
+
+	/**
+	 * @param name the name of the cached data
+	 * @return the current version, 0 if the data has never changed
+	 */
+	public long getVersion(String name);
+
+	/**
+	 * Record a change to the data. This joins the caller's transaction, so the
+	 * new version becomes visible together with the change itself.
+	 *
+	 * @param name the name of the cached data
+	 */
+	public void increment(String name);
+
+}
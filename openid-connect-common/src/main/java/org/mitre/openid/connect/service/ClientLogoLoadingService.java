@@ -31,4 +31,12 @@ public interface ClientLogoLoadingService {
 	 */
 	public CachedImage getLogo(ClientDetailsEntity client);
 
+	/**
+	 * Start loading the client's logo in the background, if it isn't loaded already,
+	 * so that a page showing it doesn't wait on the remote server.
+	 *
+	 * @param client
+	 */
+	public void prefetchLogo(ClientDetailsEntity client);
+
 }
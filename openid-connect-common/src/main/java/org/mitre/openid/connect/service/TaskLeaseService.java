@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.service;
+
+import java.util.Collection;
+
+import org.mitre.openid.connect.model.TaskLease;
+
+/**
+ * Elects a single node of a cluster to run each scheduled task by
+ * taking a lease on it in the shared database.
+ */
+public interface TaskLeaseService {
+
+	/**
+	 * Run the task on this node if this node can take the lease for it.
+	 * The lease is held for leaseMillis after the task starts and again
+	 * after it finishes, so leaseMillis should be longer than both the
+	 * longest run and the scheduling interval of the task.
+	 *
+	 * @param taskName the name of the lease
+	 * @param leaseMillis how long the lease is held without being renewed
+	 * @param task the work to run
+	 * @return true if the task ran on this node
+	 */
+	public boolean runWithLease(String taskName, long leaseMillis, Runnable task);
+
+	/**
+	 * @return all leases, showing which node holds each and how long its last run took
+	 */
+	public Collection<TaskLease> getAll();
+
+	/**
+	 * @return the identifier this node uses as lease holder
+	 */
+	public String getNodeId();
+
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * Remembers lookups for the length of the current web request, so that the
+ * same user or identifier is loaded once per request no matter how many
+ * services along the token or user info pipeline ask for it.
+ *
+ * Values are kept as request attributes. Outside of a request, such as in
+ * scheduled tasks, every lookup goes straight to its loader.
+ *
+ * The number of loads made during the request is kept as well, so that
+ * tests and debug logs can show how many repository calls a request made.
+ */
+public class RequestScopedCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(RequestScopedCache.class);
+
+	private static final String ATTRIBUTE_NAME = RequestScopedCache.class.getName();
+
+	// stands in for null values, which are remembered too
+	private static final Object NULL_VALUE = new Object();
+
+	private static class Context {
+		private final Map<Object, Object> values = new HashMap<>();
+		private int loadCount;
+	}
+
+	private RequestScopedCache() {
+		// static utility
+	}
+
+	/**
+	 * Get the value for the given key, calling the loader only if it hasn't
+	 * already been loaded during the current request.
+	 *
+	 * @param key the key, which must have proper equals and hashCode methods
+	 * @param loader loads the value, may return null
+	 * @return the value, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T get(Object key, Supplier<T> loader) {
+		Context context = getContext();
+		if (context == null) {
+			return loader.get();
+		}
+
+		Object value = context.values.get(key);
+		if (value == null) {
+			T loaded = loader.get();
+			context.loadCount++;
+			logger.debug("Loaded {} ({} loads so far in this request)", key, context.loadCount);
+			context.values.put(key, loaded == null ? NULL_VALUE : loaded);
+			return loaded;
+		}
+		return value == NULL_VALUE ? null : (T) value;
+	}
+
+	/**
+	 * Count a load made on behalf of the current request by something other than
+	 * this cache, such as a longer-lived cache that missed.
+	 *
+	 * @param key what was loaded, for the debug log
+	 */
+	public static void recordLoad(Object key) {
+		Context context = getContext();
+		if (context != null) {
+			context.loadCount++;
+			logger.debug("Loaded {} ({} loads so far in this request)", key, context.loadCount);
+		}
+	}
+
+	/**
+	 * @return the number of loads made so far during the current request, or 0 outside of a request
+	 */
+	public static int getLoadCount() {
+		Context context = getContext();
+		return context == null ? 0 : context.loadCount;
+	}
+
+	private static Context getContext() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (attributes == null) {
+			return null;
+		}
+		Context context = (Context) attributes.getAttribute(ATTRIBUTE_NAME, RequestAttributes.SCOPE_REQUEST);
+		if (context == null) {
+			context = new Context();
+			attributes.setAttribute(ATTRIBUTE_NAME, context, RequestAttributes.SCOPE_REQUEST);
+		}
+		return context;
+	}
+}
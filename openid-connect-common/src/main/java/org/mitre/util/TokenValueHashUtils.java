@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.util;
+
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.Hashing;
+import com.nimbusds.jwt.JWT;
+
+/**
+ * Computes the fixed-width digest that is stored alongside each token value so that
+ * tokens can be looked up through an index instead of comparing the full serialized JWT.
+ */
+public class TokenValueHashUtils {
+
+	/**
+	 * Length of the hex-encoded SHA-256 digest stored in the token_value_hash columns.
+	 */
+	public static final int HASH_LENGTH = 64;
+
+	private TokenValueHashUtils() {
+		// static utility class
+	}
+
+	/**
+	 * Hash the serialized form of a token.
+	 *
+	 * @param tokenValue the serialized token value
+	 * @return the hex-encoded SHA-256 digest, or null if the value is null
+	 */
+	public static String hash(String tokenValue) {
+		if (tokenValue == null) {
+			return null;
+		}
+		return Hashing.sha256().hashString(tokenValue, StandardCharsets.UTF_8).toString();
+	}
+
+	/**
+	 * Hash a token by its serialized form.
+	 *
+	 * @param jwt the token
+	 * @return the hex-encoded SHA-256 digest, or null if the token is null
+	 */
+	public static String hash(JWT jwt) {
+		if (jwt == null) {
+			return null;
+		}
+		return hash(jwt.serialize());
+	}
+
+}
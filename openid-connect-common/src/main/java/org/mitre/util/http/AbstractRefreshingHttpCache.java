@@ -0,0 +1,382 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.util.http;
+
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * A bounded cache of documents fetched over HTTP, such as discovery documents.
+ *
+ * Each document is refreshed in the background once the max-age in its Cache-Control
+ * header has passed, and the cached copy is served until the refresh completes. Concurrent
+ * callers wanting the same missing document wait for a single fetch. A key whose fetch
+ * fails is not fetched again until a backoff period, which doubles with every further
+ * failure, has passed. Subclasses that revalidate (for example with an ETag) get the
+ * previously cached document when it is refetched.
+ *
+ * @param <V> the type of the parsed document
+ */
+public abstract class AbstractRefreshingHttpCache<V> {
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(AbstractRefreshingHttpCache.class);
+
+	private long maximumSize = 1000;
+
+	// used when the server sends no Cache-Control max-age
+	private long refreshSeconds = 3600;
+
+	private long minRefreshSeconds = 60;
+
+	private long maxStaleSeconds = 86400;
+
+	// first retry delay for a failing key, doubled on every further failure
+	private long initialBackoffSeconds = 5;
+
+	private long maxBackoffSeconds = 900;
+
+	// runs background refreshes; a small bounded pool of its own unless one is set
+	private Executor refreshExecutor;
+
+	// map of key -> the fetched document and when to refresh it
+	private LoadingCache<String, Cached<V>> documents;
+
+	// map of key -> failed fetches that the key is backing off from
+	private Map<String, FailedFetch> failures;
+
+	protected AbstractRefreshingHttpCache() {
+		buildCache();
+	}
+
+	private void buildCache() {
+		this.documents = CacheBuilder.newBuilder()
+				.expireAfterWrite(maxStaleSeconds, TimeUnit.SECONDS) // documents that can't be refreshed are dropped this long after their last fetch
+				.maximumSize(maximumSize)
+				.build(new DocumentLoader());
+		this.failures = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.<String, FailedFetch>build()
+				.asMap();
+	}
+
+	/**
+	 * Fetch and parse the document for a key.
+	 *
+	 * @param key the cache key
+	 * @return the parsed document, with the Cache-Control header it was served with
+	 * @throws Exception if the document couldn't be fetched or parsed
+	 */
+	protected abstract Fetched<V> fetch(String key) throws Exception;
+
+	/**
+	 * Fetch and parse the document for a key that may already be cached. Fetches
+	 * without revalidation unless overridden.
+	 *
+	 * @param key the cache key
+	 * @param previous the cached document being refreshed, null on the first fetch
+	 * @return the parsed document, with the Cache-Control header it was served with
+	 * @throws Exception if the document couldn't be fetched or parsed
+	 */
+	protected Fetched<V> fetch(String key, V previous) throws Exception {
+		return fetch(key);
+	}
+
+	/**
+	 * Get the document for a key, fetching it if it isn't cached.
+	 *
+	 * @param key the cache key
+	 * @return the document, or null if it couldn't be fetched or the key is backing off after a failure
+	 */
+	public V get(String key) {
+		long now = System.currentTimeMillis();
+
+		Cached<V> cached = documents.getIfPresent(key);
+		if (cached != null) {
+			if (now >= cached.refreshAt && !isBackingOff(key, now)) {
+				// reloads in the background, the cached document is served until it completes
+				documents.refresh(key);
+			}
+			return cached.value;
+		}
+
+		if (isBackingOff(key, now)) {
+			logger.debug("Not fetching {} until {}", key, failures.get(key).retryAt);
+			return null;
+		}
+
+		try {
+			return documents.get(key).value;
+		} catch (UncheckedExecutionException | ExecutionException e) {
+			logger.warn("Couldn't load " + key + ": " + e.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * Fetch the document for a key again on the calling thread, whether or not it is due
+	 * for a refresh.
+	 *
+	 * @param key the cache key
+	 * @return the fetched document, or the cached one (null if there is none) if the fetch
+	 * failed or the key is backing off after a failure
+	 */
+	public V refreshNow(String key) {
+		Cached<V> cached = documents.getIfPresent(key);
+		V previous = cached != null ? cached.value : null;
+		if (isBackingOff(key, System.currentTimeMillis())) {
+			return previous;
+		}
+
+		try {
+			Cached<V> fresh = load(key, previous);
+			documents.put(key, fresh);
+			return fresh.value;
+		} catch (Exception e) {
+			logger.warn("Couldn't refresh " + key + ": " + e);
+			return previous;
+		}
+	}
+
+	/**
+	 * Drop the cached document and any failure backoff for a key.
+	 */
+	public void invalidate(String key) {
+		documents.invalidate(key);
+		failures.remove(key);
+	}
+
+	/**
+	 * @return the number of documents cached
+	 */
+	public long size() {
+		return documents.size();
+	}
+
+	private boolean isBackingOff(String key, long now) {
+		FailedFetch failure = failures.get(key);
+		return failure != null && now < failure.retryAt;
+	}
+
+	private Cached<V> load(String key, V previous) throws Exception {
+		try {
+			Fetched<V> fetched = fetch(key, previous);
+			failures.remove(key);
+			return new Cached<>(fetched.getValue(), System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(getRefreshSeconds(fetched.getCacheControl())));
+		} catch (Exception e) {
+			long now = System.currentTimeMillis();
+			failures.compute(key, (k, failed) -> {
+				int count = failed == null ? 1 : failed.count + 1;
+				long delay = Math.min(maxBackoffSeconds, initialBackoffSeconds << Math.min(count - 1, 20));
+				return new FailedFetch(count, now + TimeUnit.SECONDS.toMillis(delay));
+			});
+			throw e;
+		}
+	}
+
+	/**
+	 * Work out how long a response may be used before it is refreshed.
+	 */
+	private long getRefreshSeconds(String cacheControl) {
+		if (Strings.isNullOrEmpty(cacheControl)) {
+			return refreshSeconds;
+		}
+		for (String directive : cacheControl.toLowerCase().split(",")) {
+			directive = directive.trim();
+			if (directive.equals("no-cache") || directive.equals("no-store")) {
+				return minRefreshSeconds;
+			} else if (directive.startsWith("max-age=")) {
+				try {
+					long maxAge = Long.parseLong(directive.substring("max-age=".length()).trim());
+					return Math.max(minRefreshSeconds, Math.min(maxAge, maxStaleSeconds));
+				} catch (NumberFormatException e) {
+					logger.debug("Ignoring unparseable Cache-Control directive {}", directive);
+				}
+			}
+		}
+		return refreshSeconds;
+	}
+
+	/**
+	 * Loads documents into the cache; reloads run on the refresh executor.
+	 */
+	private class DocumentLoader extends CacheLoader<String, Cached<V>> {
+
+		@Override
+		public Cached<V> load(String key) throws Exception {
+			return AbstractRefreshingHttpCache.this.load(key, null);
+		}
+
+		@Override
+		public ListenableFuture<Cached<V>> reload(String key, Cached<V> oldValue) {
+			ListenableFutureTask<Cached<V>> task = ListenableFutureTask.create(() -> AbstractRefreshingHttpCache.this.load(key, oldValue.value));
+			getRefreshExecutor().execute(task);
+			return task;
+		}
+	}
+
+	/**
+	 * A fetched document and when to refresh it.
+	 */
+	private static class Cached<V> {
+
+		private final V value;
+		private final long refreshAt;
+
+		Cached(V value, long refreshAt) {
+			this.value = value;
+			this.refreshAt = refreshAt;
+		}
+	}
+
+	/**
+	 * Consecutive failed fetches of a key and when it may next be tried.
+	 */
+	private static class FailedFetch {
+
+		private final int count;
+		private final long retryAt;
+
+		FailedFetch(int count, long retryAt) {
+			this.count = count;
+			this.retryAt = retryAt;
+		}
+	}
+
+	/**
+	 * A parsed document and the Cache-Control header it was served with.
+	 */
+	public static class Fetched<V> {
+
+		private final V value;
+		private final String cacheControl;
+
+		/**
+		 * @param value the parsed document
+		 * @param cacheControl the Cache-Control header, may be null
+		 */
+		public Fetched(V value, String cacheControl) {
+			this.value = value;
+			this.cacheControl = cacheControl;
+		}
+
+		public V getValue() {
+			return value;
+		}
+
+		public String getCacheControl() {
+			return cacheControl;
+		}
+	}
+
+	/**
+	 * @return the maximum number of documents held in the cache
+	 */
+	public long getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * @param maximumSize the maximum number of documents held in the cache
+	 */
+	public void setMaximumSize(long maximumSize) {
+		this.maximumSize = maximumSize;
+		buildCache();
+	}
+
+	/**
+	 * @return the time between refreshes when the server sends no Cache-Control max-age
+	 */
+	public long getRefreshSeconds() {
+		return refreshSeconds;
+	}
+
+	public void setRefreshSeconds(long refreshSeconds) {
+		this.refreshSeconds = refreshSeconds;
+	}
+
+	public long getMinRefreshSeconds() {
+		return minRefreshSeconds;
+	}
+
+	public void setMinRefreshSeconds(long minRefreshSeconds) {
+		this.minRefreshSeconds = minRefreshSeconds;
+	}
+
+	/**
+	 * @return how long a document is served after its last successful fetch when it cannot be refreshed
+	 */
+	public long getMaxStaleSeconds() {
+		return maxStaleSeconds;
+	}
+
+	public void setMaxStaleSeconds(long maxStaleSeconds) {
+		this.maxStaleSeconds = maxStaleSeconds;
+		buildCache();
+	}
+
+	public long getInitialBackoffSeconds() {
+		return initialBackoffSeconds;
+	}
+
+	public void setInitialBackoffSeconds(long initialBackoffSeconds) {
+		this.initialBackoffSeconds = initialBackoffSeconds;
+	}
+
+	public long getMaxBackoffSeconds() {
+		return maxBackoffSeconds;
+	}
+
+	public void setMaxBackoffSeconds(long maxBackoffSeconds) {
+		this.maxBackoffSeconds = maxBackoffSeconds;
+	}
+
+	/**
+	 * @return the executor that background refreshes run on
+	 */
+	public synchronized Executor getRefreshExecutor() {
+		if (refreshExecutor == null) {
+			refreshExecutor = PooledHttpClientFactory.newBoundedExecutor(2, 100, "http-cache-refresh-%d");
+		}
+		return refreshExecutor;
+	}
+
+	/**
+	 * @param refreshExecutor the executor that background refreshes run on, typically
+	 * a {@link PooledHttpClientFactory}'s async pool
+	 */
+	public synchronized void setRefreshExecutor(Executor refreshExecutor) {
+		this.refreshExecutor = refreshExecutor;
+	}
+
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.util.http;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Request counts, error counts and latency of outbound HTTP calls, kept per destination
+ * (scheme, host and port).
+ *
+ * Destinations often come from client registrations and other outside input, so only the
+ * first maxDestinations are counted on their own; calls to any others are counted under
+ * {@link #OTHER}.
+ */
+public class HttpDestinationMetrics {
+
+	/**
+	 * Destination that calls are counted under once maxDestinations have been seen
+	 */
+	public static final String OTHER = "other";
+
+	private static final int DEFAULT_MAX_DESTINATIONS = 1000;
+
+	private final Map<String, Destination> destinations = new ConcurrentHashMap<>();
+
+	private final int maxDestinations;
+
+	public HttpDestinationMetrics() {
+		this(DEFAULT_MAX_DESTINATIONS);
+	}
+
+	/**
+	 * @param maxDestinations the most destinations counted on their own
+	 */
+	public HttpDestinationMetrics(int maxDestinations) {
+		this.maxDestinations = maxDestinations;
+	}
+
+	/**
+	 * Record one call.
+	 *
+	 * @param destination the scheme, host and port that was called
+	 * @param elapsedNanos time taken until the response headers arrived, or until the call failed
+	 * @param error true if the call failed or the server answered with a 5xx status
+	 */
+	public void record(String destination, long elapsedNanos, boolean error) {
+		Destination counters = destinations.get(destination);
+		if (counters == null) {
+			if (destinations.size() >= maxDestinations) {
+				destination = OTHER;
+			}
+			counters = destinations.computeIfAbsent(destination, d -> new Destination());
+		}
+		counters.record(elapsedNanos, error);
+	}
+
+	/**
+	 * @param destination the scheme, host and port
+	 * @return the metrics for the destination, or null if it has never been called
+	 */
+	public Destination getDestination(String destination) {
+		return destinations.get(destination);
+	}
+
+	/**
+	 * @return the most destinations counted on their own
+	 */
+	public int getMaxDestinations() {
+		return maxDestinations;
+	}
+
+	/**
+	 * @return the metrics of every destination called so far
+	 */
+	public Map<String, Destination> getDestinations() {
+		return ImmutableMap.copyOf(destinations);
+	}
+
+	/**
+	 * Forget everything recorded so far.
+	 */
+	public void reset() {
+		destinations.clear();
+	}
+
+	/**
+	 * Counters for a single destination.
+	 */
+	public static class Destination {
+
+		private final LongAdder requests = new LongAdder();
+
+		private final LongAdder errors = new LongAdder();
+
+		private final LongAdder totalNanos = new LongAdder();
+
+		private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+		private void record(long elapsedNanos, boolean error) {
+			requests.increment();
+			if (error) {
+				errors.increment();
+			}
+			totalNanos.add(elapsedNanos);
+			maxNanos.accumulate(elapsedNanos);
+		}
+
+		public long getRequestCount() {
+			return requests.sum();
+		}
+
+		public long getErrorCount() {
+			return errors.sum();
+		}
+
+		public long getAverageMillis() {
+			long count = requests.sum();
+			return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / count);
+		}
+
+		public long getMaxMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+		}
+
+		@Override
+		public String toString() {
+			return "requests=" + getRequestCount() + ", errors=" + getErrorCount()
+					+ ", avgMillis=" + getAverageMillis() + ", maxMillis=" + getMaxMillis();
+		}
+	}
+
+}
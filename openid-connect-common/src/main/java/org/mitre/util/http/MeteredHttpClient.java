@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.util.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Wraps an HTTP client to record per-destination metrics for every call and to
+ * refuse response bodies larger than a fixed limit.
+ */
+class MeteredHttpClient extends CloseableHttpClient {
+
+	private final CloseableHttpClient delegate;
+
+	private final HttpDestinationMetrics metrics;
+
+	private final long maxResponseBytes;
+
+	MeteredHttpClient(CloseableHttpClient delegate, HttpDestinationMetrics metrics, long maxResponseBytes) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+		this.maxResponseBytes = maxResponseBytes;
+	}
+
+	@Override
+	protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context) throws IOException, ClientProtocolException {
+		String destination = target == null ? "unknown" : target.toURI();
+		long start = System.nanoTime();
+
+		CloseableHttpResponse response;
+		try {
+			response = delegate.execute(target, request, context);
+		} catch (IOException | RuntimeException e) {
+			metrics.record(destination, System.nanoTime() - start, true);
+			throw e;
+		}
+		metrics.record(destination, System.nanoTime() - start, response.getStatusLine().getStatusCode() >= 500);
+
+		HttpEntity entity = response.getEntity();
+		if (entity != null && maxResponseBytes > 0) {
+			if (entity.getContentLength() > maxResponseBytes) {
+				response.close();
+				throw new IOException("Response from " + destination + " is " + entity.getContentLength() + " bytes, over the limit of " + maxResponseBytes);
+			}
+			response.setEntity(new SizeLimitedEntity(entity, destination, maxResponseBytes));
+		}
+
+		return response;
+	}
+
+	@Override
+	public void close() throws IOException {
+		delegate.close();
+	}
+
+	@Override
+	@Deprecated
+	public HttpParams getParams() {
+		return delegate.getParams();
+	}
+
+	@Override
+	@Deprecated
+	public ClientConnectionManager getConnectionManager() {
+		return delegate.getConnectionManager();
+	}
+
+	/**
+	 * Entity whose content fails once more than the limit has been read, for bodies
+	 * that don't declare their length up front.
+	 */
+	private static class SizeLimitedEntity extends HttpEntityWrapper {
+
+		private final String destination;
+
+		private final long limit;
+
+		private SizeLimitedEntity(HttpEntity entity, String destination, long limit) {
+			super(entity);
+			this.destination = destination;
+			this.limit = limit;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			return new FilterInputStream(super.getContent()) {
+
+				private long count = 0;
+
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0) {
+						count(1);
+					}
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = super.read(b, off, len);
+					if (n > 0) {
+						count(n);
+					}
+					return n;
+				}
+
+				private void count(int n) throws IOException {
+					count += n;
+					if (count > limit) {
+						throw new IOException("Response from " + destination + " is over the limit of " + limit + " bytes");
+					}
+				}
+			};
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			try (InputStream in = getContent()) {
+				byte[] buffer = new byte[4096];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					out.write(buffer, 0, n);
+				}
+			}
+		}
+	}
+
+}
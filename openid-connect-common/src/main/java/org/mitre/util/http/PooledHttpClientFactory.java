@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.util.http;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Builds the HTTP client used for outbound calls: discovery, JWK sets, sector identifiers,
+ * logos, introspection and the like. Every client it builds shares one bounded connection
+ * pool, has connect and read timeouts, refuses overly large responses, and records latency
+ * and errors per destination.
+ *
+ * Declare one as a bean and hand it, or its client, to the components that make outbound
+ * calls; the server's own services pick the bean up by autowiring. A component that isn't
+ * given one builds a factory of its own with the default settings.
+ *
+ * Outbound calls that shouldn't hold up a request thread can be handed to {@link #supplyAsync(Supplier)},
+ * which runs them on a small bounded pool of its own.
+ */
+public class PooledHttpClientFactory {
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(PooledHttpClientFactory.class);
+
+	private int maxConnections = 200;
+
+	private int maxConnectionsPerRoute = 20;
+
+	private int connectTimeoutMillis = 5000;
+
+	private int socketTimeoutMillis = 10000;
+
+	private int connectionRequestTimeoutMillis = 5000;
+
+	private long maxResponseBytes = 1024 * 1024;
+
+	private int asyncThreads = 8;
+
+	private int asyncQueueSize = 1000;
+
+	private final HttpDestinationMetrics metrics = new HttpDestinationMetrics();
+
+	private CloseableHttpClient client;
+
+	private ExecutorService asyncExecutor;
+
+	/**
+	 * @return the pooled client, built on first use
+	 */
+	public synchronized CloseableHttpClient getClient() {
+		if (client == null) {
+			client = build();
+		}
+		return client;
+	}
+
+	/**
+	 * Build a new client with this factory's settings. Its metrics are recorded in this
+	 * factory, but it has a connection pool of its own; most callers want {@link #getClient()}.
+	 *
+	 * @return a new client
+	 */
+	public CloseableHttpClient build() {
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+		CloseableHttpClient pooled = HttpClientBuilder.create()
+				.useSystemProperties()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectTimeout(connectTimeoutMillis)
+						.setSocketTimeout(socketTimeoutMillis)
+						.setConnectionRequestTimeout(connectionRequestTimeoutMillis)
+						.build())
+				.evictIdleConnections(60, TimeUnit.SECONDS)
+				.build();
+
+		return new MeteredHttpClient(pooled, metrics, maxResponseBytes);
+	}
+
+	/**
+	 * Run an outbound call on this factory's async pool instead of the calling thread.
+	 * When the pool's queue is full, the returned future has already failed with a
+	 * {@link RejectedExecutionException}.
+	 *
+	 * @param call the call to make, typically through a RestTemplate on {@link #getClient()}
+	 * @return the eventual result of the call
+	 */
+	public <T> CompletableFuture<T> supplyAsync(Supplier<T> call) {
+		try {
+			return CompletableFuture.supplyAsync(call, getAsyncExecutor());
+		} catch (RejectedExecutionException e) {
+			CompletableFuture<T> rejected = new CompletableFuture<>();
+			rejected.completeExceptionally(e);
+			return rejected;
+		}
+	}
+
+	/**
+	 * Like {@link #supplyAsync(Supplier)}, but when the pool's queue is full the call is made
+	 * on the calling thread instead, and the returned future is already complete.
+	 *
+	 * @param call the call to make
+	 * @return the eventual result of the call
+	 */
+	public <T> CompletableFuture<T> supplyAsyncOrRun(Supplier<T> call) {
+		try {
+			return CompletableFuture.supplyAsync(call, getAsyncExecutor());
+		} catch (RejectedExecutionException e) {
+			CompletableFuture<T> result = new CompletableFuture<>();
+			try {
+				result.complete(call.get());
+			} catch (RuntimeException re) {
+				result.completeExceptionally(re);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * @return the bounded pool that runs async calls
+	 */
+	public synchronized ExecutorService getAsyncExecutor() {
+		if (asyncExecutor == null) {
+			asyncExecutor = newBoundedExecutor(asyncThreads, asyncQueueSize, "outbound-http-%d");
+		}
+		return asyncExecutor;
+	}
+
+	/**
+	 * Build a pool of daemon threads with a bounded queue, which rejects work once the queue is full.
+	 * Idle threads are let go after a minute.
+	 *
+	 * @param threads the most threads
+	 * @param queueSize the most tasks waiting for a thread
+	 * @param nameFormat the thread name format, with %d for the thread number
+	 * @return the pool
+	 */
+	public static ThreadPoolExecutor newBoundedExecutor(int threads, int queueSize, String nameFormat) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueSize),
+				new ThreadFactoryBuilder()
+				.setNameFormat(nameFormat)
+				.setDaemon(true)
+				.build());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Close the connection pool and stop the async pool.
+	 */
+	public synchronized void close() {
+		if (asyncExecutor != null) {
+			asyncExecutor.shutdown();
+			asyncExecutor = null;
+		}
+		if (client != null) {
+			try {
+				client.close();
+			} catch (IOException e) {
+				logger.warn("Unable to close HTTP client", e);
+			}
+			client = null;
+		}
+	}
+
+	/**
+	 * @return latency and error counts per destination for every client built by this factory
+	 */
+	public HttpDestinationMetrics getMetrics() {
+		return metrics;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * @param maxConnections the most open connections across all destinations
+	 */
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	/**
+	 * @param maxConnectionsPerRoute the most open connections to a single destination
+	 */
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	/**
+	 * @param connectTimeoutMillis how long to wait for a connection to be established
+	 */
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public int getSocketTimeoutMillis() {
+		return socketTimeoutMillis;
+	}
+
+	/**
+	 * @param socketTimeoutMillis how long to wait for data once connected
+	 */
+	public void setSocketTimeoutMillis(int socketTimeoutMillis) {
+		this.socketTimeoutMillis = socketTimeoutMillis;
+	}
+
+	public int getConnectionRequestTimeoutMillis() {
+		return connectionRequestTimeoutMillis;
+	}
+
+	/**
+	 * @param connectionRequestTimeoutMillis how long to wait for a free connection from the pool
+	 */
+	public void setConnectionRequestTimeoutMillis(int connectionRequestTimeoutMillis) {
+		this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+	}
+
+	public long getMaxResponseBytes() {
+		return maxResponseBytes;
+	}
+
+	/**
+	 * @param maxResponseBytes the largest response body accepted, or 0 for no limit
+	 */
+	public void setMaxResponseBytes(long maxResponseBytes) {
+		this.maxResponseBytes = maxResponseBytes;
+	}
+
+	public int getAsyncThreads() {
+		return asyncThreads;
+	}
+
+	/**
+	 * @param asyncThreads the number of threads that run async calls
+	 */
+	public void setAsyncThreads(int asyncThreads) {
+		this.asyncThreads = asyncThreads;
+	}
+
+	public int getAsyncQueueSize() {
+		return asyncQueueSize;
+	}
+
+	/**
+	 * @param asyncQueueSize the number of async calls that may wait for a thread
+	 */
+	public void setAsyncQueueSize(int asyncQueueSize) {
+		this.asyncQueueSize = asyncQueueSize;
+	}
+
+}
@@ -17,6 +17,8 @@
  *******************************************************************************/
 package org.mitre.util.jpa;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import javax.persistence.EntityManager;
@@ -65,4 +67,55 @@ public class JpaUtil {
 		entityManager.flush();
 		return tmp;
 	}
+
+	/**
+	 * Delete all rows of the given table whose column matches one of
+	 * the given ids, using a single native statement. This is used for
+	 * bulk cleanup of join and element collection tables, which can't be
+	 * addressed with JPQL. The ids are numeric and inlined directly.
+	 *
+	 * @param entityManager the entity manager
+	 * @param table the table name
+	 * @param column the id column to match against
+	 * @param ids the ids to delete
+	 * @return the number of rows deleted
+	 */
+	public static int deleteByIds(EntityManager entityManager, String table, String column, Collection<Long> ids) {
+		if (ids == null || ids.isEmpty()) {
+			return 0;
+		}
+		return entityManager.createNativeQuery("DELETE FROM " + table + " WHERE " + column + " IN (" + toIdList(ids) + ")").executeUpdate();
+	}
+
+	/**
+	 * Select a single id column from all rows of the given table whose
+	 * match column is one of the given ids, using a single native statement.
+	 *
+	 * @return the selected ids, never null
+	 */
+	public static List<Long> selectIdsByIds(EntityManager entityManager, String table, String selectColumn, String matchColumn, Collection<Long> ids) {
+		List<Long> result = new ArrayList<>();
+		if (ids == null || ids.isEmpty()) {
+			return result;
+		}
+		List<?> rows = entityManager.createNativeQuery("SELECT " + selectColumn + " FROM " + table + " WHERE " + matchColumn + " IN (" + toIdList(ids) + ")").getResultList();
+		for (Object row : rows) {
+			if (row != null) {
+				// drivers differ in which numeric type they return
+				result.add(((Number) row).longValue());
+			}
+		}
+		return result;
+	}
+
+	private static String toIdList(Collection<Long> ids) {
+		StringBuilder sb = new StringBuilder();
+		for (Long id : ids) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(id.longValue());
+		}
+		return sb.toString();
+	}
 }
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.data;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AbstractChunkedDeleteTemplateTest {
+
+	@Test(timeout = 1000L)
+	public void execute_nothingToDelete() {
+		CountingChunkedDelete op = new CountingChunkedDelete(0, 10, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+		assertEquals(0L, op.execute());
+		assertEquals(1, op.calls);
+	}
+
+	@Test(timeout = 1000L)
+	public void execute_untilEmpty() {
+		CountingChunkedDelete op = new CountingChunkedDelete(25, 10, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+		assertEquals(25L, op.execute());
+		// three chunks with rows, then one empty chunk to finish
+		assertEquals(4, op.calls);
+	}
+
+	@Test(timeout = 1000L)
+	public void execute_maxChunks() {
+		CountingChunkedDelete op = new CountingChunkedDelete(100, 10, 3, Long.MAX_VALUE);
+
+		assertEquals(30L, op.execute());
+		assertEquals(3, op.calls);
+	}
+
+	@Test(timeout = 1000L)
+	public void execute_maxTime() {
+		CountingChunkedDelete op = new CountingChunkedDelete(100, 10, Integer.MAX_VALUE, 0L);
+
+		assertEquals(0L, op.execute());
+		assertEquals(0, op.calls);
+	}
+
+	private static class CountingChunkedDelete extends AbstractChunkedDeleteTemplate {
+
+		private int remaining;
+		private int chunkSize;
+		private int calls = 0;
+
+		private CountingChunkedDelete(int rows, int chunkSize, int maxChunks, long maxTime) {
+			super(maxChunks, maxTime, "CountingChunkedDelete");
+			this.remaining = rows;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected int deleteChunk() {
+			calls++;
+			int deleted = Math.min(remaining, chunkSize);
+			remaining -= deleted;
+			return deleted;
+		}
+	}
+}
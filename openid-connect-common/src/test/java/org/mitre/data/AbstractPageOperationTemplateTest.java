@@ -18,6 +18,8 @@ package org.mitre.data;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Before;
 import org.junit.Ignore;
@@ -143,6 +145,159 @@ public class AbstractPageOperationTemplateTest {
 	}
 
 
+	@Test(timeout = 5000L)
+	public void execute_parallel_npage(){
+		int n = 7;
+		ParallelCountingPageOperation op = new ParallelCountingPageOperation(n, Long.MAX_VALUE);
+		op.setThreadCount(4);
+		op.setBatchSize(3);
+		op.execute();
+
+		assertEquals(n*10L, op.getCounter());
+		assertEquals(n*10L, op.getReportedOperations());
+		assertTrue(op.getReportedWorkers() > 0 && op.getReportedWorkers() <= 4);
+	}
+
+	@Test(timeout = 5000L)
+	public void execute_parallel_nopageawait(){
+		int n = 7;
+		ParallelCountingPageOperation op = new ParallelCountingPageOperation(n, Long.MAX_VALUE);
+		op.setThreadCount(2);
+		op.setQueueCapacity(1);
+		op.setAwaitPageCompletion(false);
+		op.execute();
+
+		assertEquals(n*10L, op.getCounter());
+	}
+
+	@Test(timeout = 5000L)
+	public void execute_parallel_zerotime(){
+		ParallelCountingPageOperation op = new ParallelCountingPageOperation(Integer.MAX_VALUE, 0L);
+		op.setThreadCount(4);
+		op.execute();
+
+		assertEquals(0L, op.getCounter());
+	}
+
+	@Test(timeout = 5000L)
+	public void execute_parallel_swallowException(){
+		ParallelCountingPageOperation op = new ParallelCountingPageOperation(2, Long.MAX_VALUE) {
+			@Override
+			protected void doOperation(String item) {
+				if (item.endsWith("3")) {
+					throw new IllegalStateException("items ending in 3 cannot be processed");
+				}
+				super.doOperation(item);
+			}
+		};
+		op.setThreadCount(3);
+		op.setBatchSize(4);
+		op.execute();
+
+		assertEquals(18L, op.getCounter());
+		assertEquals(2, op.getReportedExceptions());
+	}
+
+	@Test(timeout = 5000L, expected = IllegalStateException.class)
+	public void execute_parallel_noSwallowException(){
+		ParallelCountingPageOperation op = new ParallelCountingPageOperation(Integer.MAX_VALUE, Long.MAX_VALUE) {
+			@Override
+			protected void doOperation(String item) {
+				throw new IllegalStateException("no items can be processed");
+			}
+		};
+		op.setThreadCount(3);
+		op.setSwallowExceptions(false);
+		op.execute();
+	}
+
+	@Test(timeout = 5000L)
+	public void execute_parallel_batchWrapper(){
+		final AtomicLong batches = new AtomicLong();
+		ParallelCountingPageOperation op = new ParallelCountingPageOperation(1, Long.MAX_VALUE) {
+			@Override
+			protected void executeBatch(Runnable batch) {
+				batches.incrementAndGet();
+				batch.run();
+			}
+		};
+		op.setThreadCount(2);
+		op.setBatchSize(5);
+		op.execute();
+
+		assertEquals(10L, op.getCounter());
+		assertEquals(2L, batches.get());
+	}
+
+	@Test
+	public void isInShard(){
+		CountingPageOperation op = new CountingPageOperation(1, Long.MAX_VALUE);
+		assertTrue(op.isInShard(5L));
+
+		op.setShard(3, 2);
+		assertTrue(op.isInShard(5L));
+		assertFalse(op.isInShard(6L));
+		assertTrue(op.isInShard(-1L));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setShard_invalidIndex(){
+		CountingPageOperation op = new CountingPageOperation(1, Long.MAX_VALUE);
+		op.setShard(2, 2);
+	}
+
+	private static class ParallelCountingPageOperation extends AbstractPageOperationTemplate<String>{
+
+		private int currentPageFetch;
+		private AtomicLong counter = new AtomicLong();
+		private int reportedOperations;
+		private int reportedExceptions;
+		private int reportedWorkers;
+
+		private ParallelCountingPageOperation(int maxPages, long maxTime) {
+			super(maxPages, maxTime, "ParallelCountingPageOperation");
+		}
+
+		@Override
+		public Collection<String> fetchPage() {
+			List<String> page = new ArrayList<String>(10);
+			for(int i = 0; i < 10; i++ ) {
+				page.add("item " + currentPageFetch + i);
+			}
+			currentPageFetch++;
+			return page;
+		}
+
+		@Override
+		protected void doOperation(String item) {
+			counter.incrementAndGet();
+		}
+
+		@Override
+		protected void finalReport(int operationsCompleted, int exceptionsSwallowedCount, Set<String> exceptionsSwallowedClasses, Collection<WorkerStatistics> workerStatistics) {
+			reportedOperations = operationsCompleted;
+			reportedExceptions = exceptionsSwallowedCount;
+			reportedWorkers = workerStatistics.size();
+			super.finalReport(operationsCompleted, exceptionsSwallowedCount, exceptionsSwallowedClasses, workerStatistics);
+		}
+
+		public long getCounter() {
+			return counter.get();
+		}
+
+		public int getReportedOperations() {
+			return reportedOperations;
+		}
+
+		public int getReportedExceptions() {
+			return reportedExceptions;
+		}
+
+		public int getReportedWorkers() {
+			return reportedWorkers;
+		}
+	}
+
 	private static class CountingPageOperation extends AbstractPageOperationTemplate<String>{
 
 		private int currentPageFetch;
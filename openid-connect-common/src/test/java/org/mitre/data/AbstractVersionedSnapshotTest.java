@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.data;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class AbstractVersionedSnapshotTest {
+
+	@Test
+	public void get_loadsOnce() {
+		CountingSnapshot snapshot = new CountingSnapshot();
+
+		assertEquals(Integer.valueOf(1), snapshot.get());
+		assertEquals(Integer.valueOf(1), snapshot.get());
+		assertEquals(1, snapshot.loads);
+	}
+
+	@Test
+	public void get_afterInvalidate() {
+		CountingSnapshot snapshot = new CountingSnapshot();
+		snapshot.get();
+
+		snapshot.invalidate();
+
+		assertEquals(Integer.valueOf(2), snapshot.get());
+		assertEquals(2, snapshot.loads);
+	}
+
+	@Test
+	public void get_versionChanged() {
+		CountingSnapshot snapshot = new CountingSnapshot();
+		snapshot.setVersionCheckSeconds(-1);
+		snapshot.get();
+
+		// same version, so the copy is kept
+		assertEquals(Integer.valueOf(1), snapshot.get());
+
+		snapshot.version++;
+		assertEquals(Integer.valueOf(2), snapshot.get());
+		assertEquals(2, snapshot.loads);
+	}
+
+	@Test
+	public void get_versionNotCheckedYet() {
+		CountingSnapshot snapshot = new CountingSnapshot();
+		snapshot.get();
+
+		snapshot.version++;
+		assertEquals(Integer.valueOf(1), snapshot.get());
+		assertEquals(1, snapshot.versionChecks);
+	}
+
+	private static class CountingSnapshot extends AbstractVersionedSnapshot<Integer> {
+		private long version;
+		private int loads;
+		private int versionChecks;
+
+		@Override
+		protected long currentVersion() {
+			versionChecks++;
+			return version;
+		}
+
+		@Override
+		protected Integer load() {
+			return ++loads;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.jwt.signer.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mitre.jose.keystore.JWKSetKeyStore;
+
+import com.google.common.collect.ImmutableMap;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+public class TestDefaultJWTSigningAndValidationService {
+
+	private static RSAKey rsa1;
+	private static RSAKey rsa2;
+	private static ECKey ec1;
+
+	private JWTClaimsSet claims = new JWTClaimsSet.Builder().subject("user").issuer("https://example.org/").build();
+
+	@BeforeClass
+	public static void generateKeys() throws Exception {
+		rsa1 = rsaKey("rsa1");
+		rsa2 = rsaKey("rsa2");
+
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+		generator.initialize(new ECGenParameterSpec("secp256r1"));
+		KeyPair pair = generator.generateKeyPair();
+		ec1 = new ECKey.Builder(Curve.P_256, (ECPublicKey) pair.getPublic())
+				.privateKey((ECPrivateKey) pair.getPrivate())
+				.keyID("ec1")
+				.build();
+	}
+
+	private static RSAKey rsaKey(String kid) throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair pair = generator.generateKeyPair();
+		return new RSAKey.Builder((RSAPublicKey) pair.getPublic())
+				.privateKey((RSAPrivateKey) pair.getPrivate())
+				.keyID(kid)
+				.build();
+	}
+
+	private DefaultJWTSigningAndValidationService service() throws Exception {
+		Map<String, JWK> keys = ImmutableMap.<String, JWK>of("rsa1", rsa1, "rsa2", rsa2, "ec1", ec1);
+		DefaultJWTSigningAndValidationService service = new DefaultJWTSigningAndValidationService(keys);
+		service.setDefaultSignerKeyId("rsa2");
+		return service;
+	}
+
+	private SignedJWT sign(RSAKey key, String kid) throws Exception {
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(kid).build(), claims);
+		jwt.sign(new RSASSASigner(key));
+		return jwt;
+	}
+
+	@Test
+	public void validateSignature_byKeyId() throws Exception {
+		DefaultJWTSigningAndValidationService service = service();
+
+		assertTrue(service.validateSignature(sign(rsa1, "rsa1")));
+		assertTrue(service.validateSignature(sign(rsa2, "rsa2")));
+	}
+
+	@Test
+	public void validateSignature_wrongKeyId() throws Exception {
+		DefaultJWTSigningAndValidationService service = service();
+
+		// only the named key is tried
+		assertFalse(service.validateSignature(sign(rsa1, "rsa2")));
+	}
+
+	@Test
+	public void validateSignature_unknownKeyId() throws Exception {
+		DefaultJWTSigningAndValidationService service = service();
+
+		// a key id we don't hold falls back to every key for the algorithm
+		assertTrue(service.validateSignature(sign(rsa1, "unknown")));
+		assertTrue(service.validateSignature(sign(rsa2, "unknown")));
+	}
+
+	@Test
+	public void validateSignature_symmetricKeyForeignKeyId() throws Exception {
+		byte[] secret = "a client secret that is at least thirty-two bytes long".getBytes(StandardCharsets.UTF_8);
+		OctetSequenceKey key = new OctetSequenceKey.Builder(secret).keyID("SYMMETRIC-KEY").build();
+		DefaultJWTSigningAndValidationService service = new DefaultJWTSigningAndValidationService(
+				ImmutableMap.<String, JWK>of("SYMMETRIC-KEY", key));
+
+		SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.HS256).keyID("client-kid").build(), claims);
+		jwt.sign(new MACSigner(secret));
+		assertTrue(service.validateSignature(jwt));
+
+		SignedJWT forged = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.HS256).keyID("client-kid").build(), claims);
+		forged.sign(new MACSigner("some other secret that is also thirty-two bytes".getBytes(StandardCharsets.UTF_8)));
+		assertFalse(service.validateSignature(forged));
+	}
+
+	@Test
+	public void validateSignature_noKeyId() throws Exception {
+		DefaultJWTSigningAndValidationService service = service();
+
+		assertTrue(service.validateSignature(sign(rsa1, null)));
+		assertTrue(service.validateSignature(sign(rsa2, null)));
+	}
+
+	@Test
+	public void validateSignature_keylessKey() throws Exception {
+		RSAKey keyless = new RSAKey.Builder(rsa1).keyID(null).build();
+		DefaultJWTSigningAndValidationService service = new DefaultJWTSigningAndValidationService(new JWKSetKeyStore(new JWKSet(keyless)));
+
+		assertTrue(service.validateSignature(sign(rsa1, "issuer-kid")));
+		assertFalse(service.validateSignature(sign(rsa2, "issuer-kid")));
+	}
+
+	@Test
+	public void signJwt_byAlgorithm() throws Exception {
+		DefaultJWTSigningAndValidationService service = service();
+
+		SignedJWT ecJwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.ES256).keyID("ec1").build(), claims);
+		service.signJwt(ecJwt, JWSAlgorithm.ES256);
+		assertEquals(SignedJWT.State.SIGNED, ecJwt.getState());
+		assertTrue(service.validateSignature(ecJwt));
+
+		// the default signer is preferred among the keys that support the algorithm
+		SignedJWT rsaJwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("rsa2").build(), claims);
+		service.signJwt(rsaJwt, JWSAlgorithm.RS256);
+		assertTrue(service.validateSignature(rsaJwt));
+	}
+
+	@Test
+	public void getAllSigningAlgsSupported() throws Exception {
+		Map<String, JWK> keys = new HashMap<>();
+		keys.put("ec1", ec1);
+		DefaultJWTSigningAndValidationService service = new DefaultJWTSigningAndValidationService(keys);
+
+		assertTrue(service.getAllSigningAlgsSupported().contains(JWSAlgorithm.ES256));
+		assertFalse(service.getAllSigningAlgsSupported().contains(JWSAlgorithm.RS256));
+	}
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.jwt.signer.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mitre.jwt.signer.service.JWTSigningAndValidationService;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+
+public class TestJWKSetCacheService {
+
+	private static final String URI = "https://client.example.org/jwks";
+
+	private static String jwks1;
+	private static String jwks2;
+
+	private ScriptedJWKSetCacheService service;
+
+	@BeforeClass
+	public static void generateKeys() throws Exception {
+		jwks1 = new JWKSet(rsaKey("key1")).toJSONObject(true).toString();
+		jwks2 = new JWKSet(rsaKey("key2")).toJSONObject(true).toString();
+	}
+
+	private static RSAKey rsaKey(String kid) throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair pair = generator.generateKeyPair();
+		return new RSAKey.Builder((RSAPublicKey) pair.getPublic()).keyID(kid).build();
+	}
+
+	@Before
+	public void prepare() {
+		service = new ScriptedJWKSetCacheService();
+		service.setRefreshExecutor(MoreExecutors.directExecutor());
+	}
+
+	@Test
+	public void getValidator_cached() {
+		service.respond(new JWKSetCacheService.FetchResult(false, jwks1, "\"v1\"", null));
+
+		JWTSigningAndValidationService first = service.getValidator(URI);
+		assertNotNull(first);
+		assertSame(first, service.getValidator(URI));
+		assertEquals(1, service.fetches.size());
+	}
+
+	@Test
+	public void getValidator_revalidatesWithETag() {
+		service.setRefreshSeconds(0);
+		service.setMinRefreshSeconds(0);
+		service.respond(new JWKSetCacheService.FetchResult(false, jwks1, "\"v1\"", null));
+		service.respond(new JWKSetCacheService.FetchResult(true, null, null, null));
+
+		JWTSigningAndValidationService first = service.getValidator(URI);
+		// due for refresh, served from the cache while revalidating
+		assertSame(first, service.getValidator(URI));
+		assertSame(first, service.getValidator(URI));
+
+		assertEquals(3, service.fetches.size());
+		assertNull(service.fetches.get(0));
+		assertEquals("\"v1\"", service.fetches.get(1));
+		assertEquals("\"v1\"", service.fetches.get(2));
+	}
+
+	@Test
+	public void getValidator_honoursMaxAge() {
+		service.setRefreshSeconds(0);
+		service.setMinRefreshSeconds(0);
+		service.respond(new JWKSetCacheService.FetchResult(false, jwks1, null, "public, max-age=3600"));
+
+		service.getValidator(URI);
+		service.getValidator(URI);
+
+		assertEquals(1, service.fetches.size());
+	}
+
+	@Test
+	public void getValidator_backsOffFailingUri() {
+		service.respond(null);
+
+		assertNull(service.getValidator(URI));
+		assertNull(service.getValidator(URI));
+
+		assertEquals(1, service.fetches.size());
+	}
+
+	@Test
+	public void getValidator_servesStaleOnRefreshFailure() {
+		service.setRefreshSeconds(0);
+		service.setMinRefreshSeconds(0);
+		service.respond(new JWKSetCacheService.FetchResult(false, jwks1, null, null));
+		service.respond(null);
+
+		JWTSigningAndValidationService first = service.getValidator(URI);
+		assertSame(first, service.getValidator(URI));
+		// backing off after the failed refresh
+		assertSame(first, service.getValidator(URI));
+
+		assertEquals(2, service.fetches.size());
+	}
+
+	@Test
+	public void getValidator_refreshesOnKeyMiss() {
+		service.respond(new JWKSetCacheService.FetchResult(false, jwks1, null, null));
+		service.respond(new JWKSetCacheService.FetchResult(false, jwks2, null, null));
+
+		JWTSigningAndValidationService first = service.getValidator(URI, "key1");
+		JWTSigningAndValidationService rotated = service.getValidator(URI, "key2");
+		assertNotNull(rotated);
+		assertNotSame(first, rotated);
+
+		// a second unknown key within the interval does not fetch again
+		assertSame(rotated, service.getValidator(URI, "key3"));
+		assertEquals(2, service.fetches.size());
+	}
+
+	/**
+	 * Serves queued responses instead of making HTTP requests; a null
+	 * response fails the fetch. The last response is repeated.
+	 */
+	private static class ScriptedJWKSetCacheService extends JWKSetCacheService {
+
+		private Queue<JWKSetCacheService.FetchResult> responses = new LinkedList<>();
+		private JWKSetCacheService.FetchResult last;
+		private List<String> fetches = new ArrayList<>();
+
+		void respond(JWKSetCacheService.FetchResult response) {
+			responses.add(response);
+		}
+
+		@Override
+		protected FetchResult fetch(String jwksUri, String eTag) {
+			fetches.add(eTag);
+			if (!responses.isEmpty()) {
+				last = responses.poll();
+			}
+			if (last == null) {
+				throw new IllegalStateException("connection refused");
+			}
+			return last;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+public class TestRequestScopedCache {
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	@After
+	public void tearDown() {
+		RequestContextHolder.resetRequestAttributes();
+	}
+
+	@Test
+	public void get_withinRequest() {
+		RequestContextHolder.setRequestAttributes(new MapRequestAttributes());
+
+		assertEquals("value", RequestScopedCache.get("key", this::load));
+		assertEquals("value", RequestScopedCache.get("key", this::load));
+		assertEquals(1, loads.get());
+		assertEquals(1, RequestScopedCache.getLoadCount());
+
+		RequestScopedCache.recordLoad("other");
+		assertEquals(2, RequestScopedCache.getLoadCount());
+	}
+
+	@Test
+	public void get_nullRemembered() {
+		RequestContextHolder.setRequestAttributes(new MapRequestAttributes());
+
+		assertNull(RequestScopedCache.get("key", this::loadNull));
+		assertNull(RequestScopedCache.get("key", this::loadNull));
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void get_newRequest() {
+		RequestContextHolder.setRequestAttributes(new MapRequestAttributes());
+		RequestScopedCache.get("key", this::load);
+
+		RequestContextHolder.setRequestAttributes(new MapRequestAttributes());
+		RequestScopedCache.get("key", this::load);
+
+		assertEquals(2, loads.get());
+		assertEquals(1, RequestScopedCache.getLoadCount());
+	}
+
+	@Test
+	public void get_outsideRequest() {
+		RequestScopedCache.get("key", this::load);
+		RequestScopedCache.get("key", this::load);
+
+		assertEquals(2, loads.get());
+		assertEquals(0, RequestScopedCache.getLoadCount());
+	}
+
+	private String load() {
+		loads.incrementAndGet();
+		return "value";
+	}
+
+	private String loadNull() {
+		loads.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Request attributes backed by a plain map, standing in for a servlet request
+	 */
+	public static class MapRequestAttributes implements RequestAttributes {
+
+		private final Map<String, Object> attributes = new HashMap<>();
+
+		@Override
+		public Object getAttribute(String name, int scope) {
+			return attributes.get(name);
+		}
+
+		@Override
+		public void setAttribute(String name, Object value, int scope) {
+			attributes.put(name, value);
+		}
+
+		@Override
+		public void removeAttribute(String name, int scope) {
+			attributes.remove(name);
+		}
+
+		@Override
+		public String[] getAttributeNames(int scope) {
+			return attributes.keySet().toArray(new String[0]);
+		}
+
+		@Override
+		public void registerDestructionCallback(String name, Runnable callback, int scope) {
+			// nothing is destroyed
+		}
+
+		@Override
+		public Object resolveReference(String key) {
+			return null;
+		}
+
+		@Override
+		public String getSessionId() {
+			return null;
+		}
+
+		@Override
+		public Object getSessionMutex() {
+			return this;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.util.http;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestAbstractRefreshingHttpCache {
+
+	private AtomicInteger fetches = new AtomicInteger();
+
+	private volatile String cacheControl;
+
+	private volatile boolean failing;
+
+	private volatile CountDownLatch release;
+
+	private AbstractRefreshingHttpCache<String> cache;
+
+	@Before
+	public void prepare() {
+		cache = new AbstractRefreshingHttpCache<String>() {
+			@Override
+			protected Fetched<String> fetch(String key) throws Exception {
+				int count = fetches.incrementAndGet();
+				if (release != null) {
+					release.await(5, TimeUnit.SECONDS);
+				}
+				if (failing) {
+					throw new IllegalStateException("unavailable");
+				}
+				return new Fetched<>(key + "-" + count, cacheControl);
+			}
+		};
+		cache.setRefreshExecutor(MoreExecutors.directExecutor());
+	}
+
+	@Test
+	public void get_cached() {
+		assertEquals("a-1", cache.get("a"));
+		assertEquals("a-1", cache.get("a"));
+		assertEquals(1, fetches.get());
+	}
+
+	@Test
+	public void get_bounded() {
+		cache.setMaximumSize(2);
+		for (int i = 0; i < 10; i++) {
+			cache.get("key" + i);
+		}
+		assertTrue(cache.size() <= 2);
+	}
+
+	@Test
+	public void get_refreshesAfterMaxAge() {
+		cache.setMinRefreshSeconds(0);
+		cacheControl = "public, max-age=0";
+
+		assertEquals("a-1", cache.get("a"));
+		// stale, served while it refreshes
+		assertEquals("a-1", cache.get("a"));
+		assertEquals("a-2", cache.get("a"));
+	}
+
+	@Test
+	public void get_maxAgeRespected() {
+		cacheControl = "max-age=600";
+
+		cache.get("a");
+		cache.get("a");
+		assertEquals(1, fetches.get());
+	}
+
+	@Test
+	public void get_backsOffAfterFailure() {
+		failing = true;
+
+		assertNull(cache.get("a"));
+		assertNull(cache.get("a"));
+		assertEquals(1, fetches.get());
+
+		// an invalidated key is tried again straight away
+		failing = false;
+		cache.invalidate("a");
+		assertEquals("a-2", cache.get("a"));
+	}
+
+	@Test
+	public void refreshNow_fetchesAgain() {
+		assertEquals("a-1", cache.get("a"));
+		assertEquals("a-2", cache.refreshNow("a"));
+		assertEquals("a-2", cache.get("a"));
+
+		// a failed refresh keeps the cached document
+		failing = true;
+		assertEquals("a-2", cache.refreshNow("a"));
+		assertEquals("a-2", cache.get("a"));
+		assertEquals(3, fetches.get());
+	}
+
+	@Test
+	public void get_singleFlight() throws Exception {
+		release = new CountDownLatch(1);
+		ExecutorService callers = Executors.newFixedThreadPool(4);
+		try {
+			Future<?>[] results = new Future<?>[4];
+			for (int i = 0; i < results.length; i++) {
+				results[i] = callers.submit(() -> cache.get("a"));
+			}
+			Thread.sleep(200);
+			release.countDown();
+			for (Future<?> result : results) {
+				assertEquals("a-1", result.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			callers.shutdown();
+		}
+		assertEquals(1, fetches.get());
+	}
+
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.util.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the pooled client against a stub server on a local port.
+ */
+public class TestPooledHttpClientFactory {
+
+	private HttpServer server;
+
+	private String base;
+
+	private PooledHttpClientFactory factory;
+
+	@Before
+	public void prepare() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/ok", exchange -> respond(exchange, 200, "hello"));
+		server.createContext("/error", exchange -> respond(exchange, 503, "unavailable"));
+		server.createContext("/large", exchange -> respond(exchange, 200, new String(new char[2048]).replace('\0', 'x')));
+		server.createContext("/chunked", exchange -> {
+			exchange.sendResponseHeaders(200, 0); // no declared length
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(new byte[2048]);
+			}
+		});
+		server.createContext("/slow", exchange -> {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			respond(exchange, 200, "late");
+		});
+		server.start();
+
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		factory = new PooledHttpClientFactory();
+		factory.setSocketTimeoutMillis(200);
+		factory.setMaxResponseBytes(1024);
+	}
+
+	@After
+	public void shutdown() {
+		factory.close();
+		server.stop(0);
+	}
+
+	@Test
+	public void metrics() throws IOException {
+		RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(factory.getClient()));
+
+		assertEquals("hello", restTemplate.getForObject(base + "/ok", String.class));
+		assertEquals("hello", restTemplate.getForObject(base + "/ok", String.class));
+
+		try (CloseableHttpResponse response = factory.getClient().execute(new HttpGet(base + "/error"))) {
+			assertEquals(503, response.getStatusLine().getStatusCode());
+		}
+
+		HttpDestinationMetrics.Destination destination = factory.getMetrics().getDestination(base);
+		assertEquals(3, destination.getRequestCount());
+		assertEquals(1, destination.getErrorCount());
+	}
+
+	@Test
+	public void metricsBoundDestinations() {
+		HttpDestinationMetrics metrics = new HttpDestinationMetrics(2);
+		metrics.record("https://a.example", 1000, false);
+		metrics.record("https://b.example", 1000, false);
+		metrics.record("https://c.example", 1000, true);
+		metrics.record("https://d.example", 1000, false);
+		metrics.record("https://a.example", 1000, false);
+
+		assertEquals(3, metrics.getDestinations().size());
+		assertEquals(2, metrics.getDestination("https://a.example").getRequestCount());
+		assertEquals(2, metrics.getDestination(HttpDestinationMetrics.OTHER).getRequestCount());
+		assertEquals(1, metrics.getDestination(HttpDestinationMetrics.OTHER).getErrorCount());
+	}
+
+	@Test
+	public void socketTimeout() {
+		RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(factory.getClient()));
+
+		long start = System.nanoTime();
+		try {
+			restTemplate.getForObject(base + "/slow", String.class);
+			fail("expected a timeout");
+		} catch (ResourceAccessException e) {
+			// expected
+		}
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+		assertEquals(1, factory.getMetrics().getDestination(base).getErrorCount());
+	}
+
+	@Test(expected = IOException.class)
+	public void declaredLengthOverLimit() throws IOException {
+		factory.getClient().execute(new HttpGet(base + "/large"));
+	}
+
+	@Test(expected = IOException.class)
+	public void streamedLengthOverLimit() throws IOException {
+		try (CloseableHttpResponse response = factory.getClient().execute(new HttpGet(base + "/chunked"))) {
+			EntityUtils.toByteArray(response.getEntity());
+		}
+	}
+
+	@Test
+	public void supplyAsync() throws Exception {
+		RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(factory.getClient()));
+
+		CompletableFuture<String> result = factory.supplyAsync(() -> restTemplate.getForObject(base + "/ok", String.class));
+
+		assertEquals("hello", result.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void supplyAsyncWhenBusy() throws Exception {
+		PooledHttpClientFactory busy = new PooledHttpClientFactory();
+		busy.setAsyncThreads(1);
+		busy.setAsyncQueueSize(1);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			// one call running, one waiting
+			busy.supplyAsync(() -> awaitQuietly(release));
+			busy.supplyAsync(() -> awaitQuietly(release));
+
+			CompletableFuture<String> rejected = busy.supplyAsync(() -> "async");
+			assertTrue(rejected.isCompletedExceptionally());
+
+			String caller = Thread.currentThread().getName();
+			CompletableFuture<String> inline = busy.supplyAsyncOrRun(() -> Thread.currentThread().getName());
+			assertTrue(inline.isDone());
+			assertEquals(caller, inline.get());
+		} finally {
+			release.countDown();
+			busy.close();
+		}
+	}
+
+	private static Boolean awaitQuietly(CountDownLatch latch) {
+		try {
+			return latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+}
@@ -5,6 +5,7 @@
 CREATE TABLE IF NOT EXISTS access_token (
 	id BIGINT GENERATED BY DEFAULT AS IDENTITY(START WITH 1) PRIMARY KEY,
 	token_value VARCHAR(4096),
+	token_value_hash VARCHAR(64),
 	expiration TIMESTAMP,
 	token_type VARCHAR(256),
 	refresh_token_id BIGINT,
@@ -212,6 +213,7 @@ CREATE TABLE IF NOT EXISTS client_claims_redirect_uri (
 CREATE TABLE IF NOT EXISTS refresh_token (
 	id BIGINT GENERATED BY DEFAULT AS IDENTITY(START WITH 1) PRIMARY KEY,
 	token_value VARCHAR(4096),
+	token_value_hash VARCHAR(64),
 	expiration TIMESTAMP,
 	auth_holder_id BIGINT,
 	client_id BIGINT
@@ -382,3 +384,17 @@ CREATE TABLE IF NOT EXISTS device_code_request_parameter (
 	param VARCHAR(2048),
 	val VARCHAR(2048)
 );
+
+CREATE TABLE IF NOT EXISTS task_lease (
+	name VARCHAR(256) NOT NULL PRIMARY KEY,
+	holder VARCHAR(256),
+	lease_expiration TIMESTAMP,
+	last_started TIMESTAMP,
+	last_finished TIMESTAMP,
+	last_duration BIGINT
+);
+
+CREATE TABLE IF NOT EXISTS cache_version (
+	name VARCHAR(256) NOT NULL PRIMARY KEY,
+	version BIGINT DEFAULT 0 NOT NULL
+);
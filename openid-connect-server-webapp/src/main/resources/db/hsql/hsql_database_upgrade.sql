@@ -0,0 +1,34 @@
+--
+-- Upgrades an existing HSQLDB database to the current schema: token value hashes,
+-- the task_lease and cache_version tables, and the approved site indexes.
+-- The create scripts already include these changes; run this only against a database created by an earlier release.
+--
+
+-- Lookup hashes of token values. Rows stored before this column existed are filled in by the backfillTokenValueHashes task.
+ALTER TABLE access_token ADD COLUMN token_value_hash VARCHAR(64);
+ALTER TABLE refresh_token ADD COLUMN token_value_hash VARCHAR(64);
+CREATE UNIQUE INDEX IF NOT EXISTS at_tvh_idx ON access_token(token_value_hash);
+CREATE UNIQUE INDEX IF NOT EXISTS rf_tvh_idx ON refresh_token(token_value_hash);
+
+-- Leases that elect the node running each scheduled cleanup task.
+CREATE TABLE IF NOT EXISTS task_lease (
+	name VARCHAR(256) NOT NULL PRIMARY KEY,
+	holder VARCHAR(256),
+	lease_expiration TIMESTAMP,
+	last_started TIMESTAMP,
+	last_finished TIMESTAMP,
+	last_duration BIGINT
+);
+
+-- Versions of the in-memory caches shared between nodes. Rows are created the first time a cache is used.
+CREATE TABLE IF NOT EXISTS cache_version (
+	name VARCHAR(256) NOT NULL PRIMARY KEY,
+	version BIGINT DEFAULT 0 NOT NULL
+);
+
+-- Expired approved site cleanup and the removal of their tokens.
+CREATE INDEX IF NOT EXISTS as_td_idx ON approved_site(timeout_date);
+CREATE INDEX IF NOT EXISTS at_asi_idx ON access_token(approved_site_id);
+
+-- Approval statistics grouped by client.
+CREATE INDEX IF NOT EXISTS as_ci_idx ON approved_site(client_id);
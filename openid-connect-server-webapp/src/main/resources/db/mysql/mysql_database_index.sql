@@ -3,10 +3,12 @@
 --
 
 CREATE INDEX at_tv_idx ON access_token(token_value(767));
+CREATE UNIQUE INDEX at_tvh_idx ON access_token(token_value_hash);
 CREATE INDEX ts_oi_idx ON token_scope(owner_id);
 CREATE INDEX at_exp_idx ON access_token(expiration);
 CREATE INDEX rf_ahi_idx ON refresh_token(auth_holder_id);
 CREATE INDEX rf_tv_idx ON refresh_token(token_value(105));
+CREATE UNIQUE INDEX rf_tvh_idx ON refresh_token(token_value_hash);
 CREATE INDEX cd_ci_idx ON client_details(client_id);
 CREATE INDEX at_ahi_idx ON access_token(auth_holder_id);
 CREATE INDEX aha_oi_idx ON authentication_holder_authority(owner_id);
@@ -17,3 +19,6 @@ CREATE INDEX ahrt_oi_idx ON authentication_holder_response_type(owner_id);
 CREATE INDEX ahs_oi_idx ON authentication_holder_scope(owner_id);
 CREATE INDEX ac_ahi_idx ON authorization_code(auth_holder_id);
 CREATE INDEX suaa_oi_idx ON saved_user_auth_authority(owner_id);
+CREATE INDEX as_td_idx ON approved_site(timeout_date);
+CREATE INDEX at_asi_idx ON access_token(approved_site_id);
+CREATE INDEX as_ci_idx ON approved_site(client_id);
@@ -5,6 +5,7 @@
 CREATE TABLE IF NOT EXISTS access_token (
 	id BIGINT AUTO_INCREMENT PRIMARY KEY,
 	token_value VARCHAR(4096),
+	token_value_hash VARCHAR(64),
 	expiration TIMESTAMP NULL,
 	token_type VARCHAR(256),
 	refresh_token_id BIGINT,
@@ -211,6 +212,7 @@ CREATE TABLE IF NOT EXISTS client_claims_redirect_uri (
 CREATE TABLE IF NOT EXISTS refresh_token (
 	id BIGINT AUTO_INCREMENT PRIMARY KEY,
 	token_value VARCHAR(4096),
+	token_value_hash VARCHAR(64),
 	expiration TIMESTAMP NULL,
 	auth_holder_id BIGINT,
 	client_id BIGINT
@@ -381,3 +383,17 @@ CREATE TABLE IF NOT EXISTS device_code_request_parameter (
 	param VARCHAR(2048),
 	val VARCHAR(2048)
 );
+
+CREATE TABLE IF NOT EXISTS task_lease (
+	name VARCHAR(256) NOT NULL PRIMARY KEY,
+	holder VARCHAR(256),
+	lease_expiration TIMESTAMP,
+	last_started TIMESTAMP,
+	last_finished TIMESTAMP,
+	last_duration BIGINT
+);
+
+CREATE TABLE IF NOT EXISTS cache_version (
+	name VARCHAR(256) NOT NULL PRIMARY KEY,
+	version BIGINT DEFAULT 0 NOT NULL
+);
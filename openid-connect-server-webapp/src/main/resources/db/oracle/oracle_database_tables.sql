@@ -5,6 +5,7 @@
 CREATE TABLE access_token (
   id NUMBER(19) NOT NULL PRIMARY KEY,
   token_value VARCHAR2(4000),
+  token_value_hash VARCHAR2(64),
   expiration TIMESTAMP,
   token_type VARCHAR2(256),
   refresh_token_id NUMBER(19),
@@ -228,6 +229,7 @@ CREATE TABLE client_claims_redirect_uri (
 CREATE TABLE refresh_token (
   id NUMBER(19) NOT NULL PRIMARY KEY,
   token_value VARCHAR2(4000),
+  token_value_hash VARCHAR2(64),
   expiration TIMESTAMP,
   auth_holder_id NUMBER(19),
   client_id NUMBER(19)
@@ -415,3 +417,17 @@ CREATE TABLE IF NOT EXISTS device_code_request_parameter (
 	param VARCHAR2(2048),
 	val VARCHAR2(2048)
 );
+
+CREATE TABLE IF NOT EXISTS task_lease (
+	name VARCHAR2(256) NOT NULL PRIMARY KEY,
+	holder VARCHAR2(256),
+	lease_expiration TIMESTAMP,
+	last_started TIMESTAMP,
+	last_finished TIMESTAMP,
+	last_duration NUMBER(19)
+);
+
+CREATE TABLE IF NOT EXISTS cache_version (
+	name VARCHAR2(256) NOT NULL PRIMARY KEY,
+	version NUMBER(19) DEFAULT 0 NOT NULL
+);
@@ -0,0 +1,34 @@
+--
+-- Upgrades an existing Oracle database to the current schema: token value hashes,
+-- the task_lease and cache_version tables, and the approved site indexes.
+-- The create scripts already include these changes; run this only against a database created by an earlier release.
+--
+
+-- Lookup hashes of token values. Rows stored before this column existed are filled in by the backfillTokenValueHashes task.
+ALTER TABLE access_token ADD (token_value_hash VARCHAR2(64));
+ALTER TABLE refresh_token ADD (token_value_hash VARCHAR2(64));
+CREATE UNIQUE INDEX at_tvh_idx ON access_token(token_value_hash);
+CREATE UNIQUE INDEX rf_tvh_idx ON refresh_token(token_value_hash);
+
+-- Leases that elect the node running each scheduled cleanup task.
+CREATE TABLE IF NOT EXISTS task_lease (
+	name VARCHAR2(256) NOT NULL PRIMARY KEY,
+	holder VARCHAR2(256),
+	lease_expiration TIMESTAMP,
+	last_started TIMESTAMP,
+	last_finished TIMESTAMP,
+	last_duration NUMBER(19)
+);
+
+-- Versions of the in-memory caches shared between nodes. Rows are created the first time a cache is used.
+CREATE TABLE IF NOT EXISTS cache_version (
+	name VARCHAR2(256) NOT NULL PRIMARY KEY,
+	version NUMBER(19) DEFAULT 0 NOT NULL
+);
+
+-- Expired approved site cleanup and the removal of their tokens.
+CREATE INDEX as_td_idx ON approved_site(timeout_date);
+CREATE INDEX at_asi_idx ON access_token(approved_site_id);
+
+-- Approval statistics grouped by client.
+CREATE INDEX as_ci_idx ON approved_site(client_id);
@@ -82,4 +82,31 @@ public class JpaAuthenticationHolderRepository implements AuthenticationHolderRe
 		return JpaUtil.getResultPage(query, pageCriteria);
 	}
 
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public int deleteOrphanedAuthenticationHolders(int chunkSize) {
+		TypedQuery<Long> query = manager.createNamedQuery(AuthenticationHolderEntity.QUERY_GET_UNUSED_IDS, Long.class);
+		query.setMaxResults(chunkSize);
+		List<Long> ids = query.getResultList();
+		if (ids.isEmpty()) {
+			return 0;
+		}
+
+		List<Long> userAuthIds = JpaUtil.selectIdsByIds(manager, "authentication_holder", "user_auth_id", "id", ids);
+
+		JpaUtil.deleteByIds(manager, "authentication_holder_authority", "owner_id", ids);
+		JpaUtil.deleteByIds(manager, "authentication_holder_resource_id", "owner_id", ids);
+		JpaUtil.deleteByIds(manager, "authentication_holder_response_type", "owner_id", ids);
+		JpaUtil.deleteByIds(manager, "authentication_holder_extension", "owner_id", ids);
+		JpaUtil.deleteByIds(manager, "authentication_holder_scope", "owner_id", ids);
+		JpaUtil.deleteByIds(manager, "authentication_holder_request_parameter", "owner_id", ids);
+		int deleted = JpaUtil.deleteByIds(manager, "authentication_holder", "id", ids);
+
+		// the saved user authentication is owned by its holder
+		JpaUtil.deleteByIds(manager, "saved_user_auth_authority", "owner_id", userAuthIds);
+		JpaUtil.deleteByIds(manager, "saved_user_auth", "id", userAuthIds);
+
+		return deleted;
+	}
+
 }
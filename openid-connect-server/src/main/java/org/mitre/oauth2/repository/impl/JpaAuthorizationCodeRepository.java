@@ -100,6 +100,15 @@ public class JpaAuthorizationCodeRepository implements AuthorizationCodeReposito
 		return JpaUtil.getResultPage(query, pageCriteria);
 	}
 
+	@Override
+	public Collection<AuthorizationCodeEntity> getExpiredCodes(int shardCount, int shardIndex) {
+		TypedQuery<AuthorizationCodeEntity> query = manager.createNamedQuery(AuthorizationCodeEntity.QUERY_EXPIRATION_BY_DATE_AND_SHARD, AuthorizationCodeEntity.class);
+		query.setParameter(AuthorizationCodeEntity.PARAM_DATE, new Date()); // this gets anything that's already expired
+		query.setParameter(AuthorizationCodeEntity.PARAM_SHARD_COUNT, shardCount);
+		query.setParameter(AuthorizationCodeEntity.PARAM_SHARD_INDEX, shardIndex);
+		return query.getResultList();
+	}
+
 
 
 }
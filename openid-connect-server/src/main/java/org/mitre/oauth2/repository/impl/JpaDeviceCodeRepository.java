@@ -103,4 +103,17 @@ public class JpaDeviceCodeRepository implements DeviceCodeRepository {
 		return query.getResultList();
 	}
 
+	/* (non-Javadoc)
+	 * @see org.mitre.oauth2.repository.impl.DeviceCodeRepository#getExpiredCodes(int, int)
+	 */
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public Collection<DeviceCode> getExpiredCodes(int shardCount, int shardIndex) {
+		TypedQuery<DeviceCode> query = em.createNamedQuery(DeviceCode.QUERY_EXPIRED_BY_DATE_AND_SHARD, DeviceCode.class);
+		query.setParameter(DeviceCode.PARAM_DATE, new Date());
+		query.setParameter(DeviceCode.PARAM_SHARD_COUNT, shardCount);
+		query.setParameter(DeviceCode.PARAM_SHARD_INDEX, shardIndex);
+		return query.getResultList();
+	}
+
 }
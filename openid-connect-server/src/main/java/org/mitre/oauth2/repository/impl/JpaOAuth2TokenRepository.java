@@ -19,6 +19,7 @@ package org.mitre.oauth2.repository.impl;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -41,12 +42,14 @@ import org.mitre.oauth2.model.OAuth2RefreshTokenEntity;
 import org.mitre.oauth2.repository.OAuth2TokenRepository;
 import org.mitre.openid.connect.model.ApprovedSite;
 import org.mitre.uma.model.ResourceSet;
+import org.mitre.util.TokenValueHashUtils;
 import org.mitre.util.jpa.JpaUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.collect.Iterables;
 import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTParser;
 
@@ -55,11 +58,22 @@ public class JpaOAuth2TokenRepository implements OAuth2TokenRepository {
 
 	private static final int MAXEXPIREDRESULTS = 1000;
 
+	private static final int MAX_ID_LIST_SIZE = 500;
+
 	private static final Logger logger = LoggerFactory.getLogger(JpaOAuth2TokenRepository.class);
 
 	@PersistenceContext(unitName="defaultPersistenceUnit")
 	private EntityManager manager;
 
+	/**
+	 * Whether every stored token is known to have its value hash filled in. Until the
+	 * backfill has completed, lookups that miss on the hash fall back to comparing the
+	 * full token value.
+	 */
+	private volatile boolean accessTokenHashesComplete = false;
+
+	private volatile boolean refreshTokenHashesComplete = false;
+
 	@Override
 	public Set<OAuth2AccessTokenEntity> getAllAccessTokens() {
 		TypedQuery<OAuth2AccessTokenEntity> query = manager.createNamedQuery(OAuth2AccessTokenEntity.QUERY_ALL, OAuth2AccessTokenEntity.class);
@@ -77,9 +91,16 @@ public class JpaOAuth2TokenRepository implements OAuth2TokenRepository {
 	public OAuth2AccessTokenEntity getAccessTokenByValue(String accessTokenValue) {
 		try {
 			JWT jwt = JWTParser.parse(accessTokenValue);
-			TypedQuery<OAuth2AccessTokenEntity> query = manager.createNamedQuery(OAuth2AccessTokenEntity.QUERY_BY_TOKEN_VALUE, OAuth2AccessTokenEntity.class);
-			query.setParameter(OAuth2AccessTokenEntity.PARAM_TOKEN_VALUE, jwt);
-			return JpaUtil.getSingleResult(query.getResultList());
+			TypedQuery<OAuth2AccessTokenEntity> query = manager.createNamedQuery(OAuth2AccessTokenEntity.QUERY_BY_TOKEN_VALUE_HASH, OAuth2AccessTokenEntity.class);
+			query.setParameter(OAuth2AccessTokenEntity.PARAM_TOKEN_VALUE_HASH, TokenValueHashUtils.hash(jwt));
+			OAuth2AccessTokenEntity token = JpaUtil.getSingleResult(query.getResultList());
+			if (token == null && !accessTokenHashesComplete) {
+				// the token might have been stored before its hash was
+				TypedQuery<OAuth2AccessTokenEntity> valueQuery = manager.createNamedQuery(OAuth2AccessTokenEntity.QUERY_BY_TOKEN_VALUE, OAuth2AccessTokenEntity.class);
+				valueQuery.setParameter(OAuth2AccessTokenEntity.PARAM_TOKEN_VALUE, jwt);
+				token = JpaUtil.getSingleResult(valueQuery.getResultList());
+			}
+			return token;
 		} catch (ParseException e) {
 			return null;
 		}
@@ -122,9 +143,16 @@ public class JpaOAuth2TokenRepository implements OAuth2TokenRepository {
 	public OAuth2RefreshTokenEntity getRefreshTokenByValue(String refreshTokenValue) {
 		try {
 			JWT jwt = JWTParser.parse(refreshTokenValue);
-			TypedQuery<OAuth2RefreshTokenEntity> query = manager.createNamedQuery(OAuth2RefreshTokenEntity.QUERY_BY_TOKEN_VALUE, OAuth2RefreshTokenEntity.class);
-			query.setParameter(OAuth2RefreshTokenEntity.PARAM_TOKEN_VALUE, jwt);
-			return JpaUtil.getSingleResult(query.getResultList());
+			TypedQuery<OAuth2RefreshTokenEntity> query = manager.createNamedQuery(OAuth2RefreshTokenEntity.QUERY_BY_TOKEN_VALUE_HASH, OAuth2RefreshTokenEntity.class);
+			query.setParameter(OAuth2RefreshTokenEntity.PARAM_TOKEN_VALUE_HASH, TokenValueHashUtils.hash(jwt));
+			OAuth2RefreshTokenEntity token = JpaUtil.getSingleResult(query.getResultList());
+			if (token == null && !refreshTokenHashesComplete) {
+				// the token might have been stored before its hash was
+				TypedQuery<OAuth2RefreshTokenEntity> valueQuery = manager.createNamedQuery(OAuth2RefreshTokenEntity.QUERY_BY_TOKEN_VALUE, OAuth2RefreshTokenEntity.class);
+				valueQuery.setParameter(OAuth2RefreshTokenEntity.PARAM_TOKEN_VALUE, jwt);
+				token = JpaUtil.getSingleResult(valueQuery.getResultList());
+			}
+			return token;
 		} catch (ParseException e) {
 			return null;
 		}
@@ -234,22 +262,107 @@ public class JpaOAuth2TokenRepository implements OAuth2TokenRepository {
 		return new LinkedHashSet<>(query.getResultList());
 	}
 
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public int deleteExpiredAccessTokens(Date expiredBefore, int chunkSize) {
+		TypedQuery<Long> query = manager.createNamedQuery(OAuth2AccessTokenEntity.QUERY_EXPIRED_IDS_BY_DATE, Long.class);
+		query.setParameter(OAuth2AccessTokenEntity.PARAM_DATE, expiredBefore);
+		query.setMaxResults(chunkSize);
+		return deleteAccessTokensById(query.getResultList());
+	}
+
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public int deleteExpiredRefreshTokens(Date expiredBefore, int chunkSize) {
+		TypedQuery<Long> query = manager.createNamedQuery(OAuth2RefreshTokenEntity.QUERY_EXPIRED_IDS_BY_DATE, Long.class);
+		query.setParameter(OAuth2RefreshTokenEntity.PARAM_DATE, expiredBefore);
+		query.setMaxResults(chunkSize);
+		List<Long> ids = query.getResultList();
+		if (ids.isEmpty()) {
+			return 0;
+		}
+
+		// access tokens issued from these refresh tokens go with them
+		TypedQuery<Long> accessQuery = manager.createNamedQuery(OAuth2AccessTokenEntity.QUERY_IDS_BY_REFRESH_TOKEN_IDS, Long.class);
+		accessQuery.setParameter(OAuth2AccessTokenEntity.PARAM_REFRESH_TOKEN_IDS, ids);
+		deleteAccessTokensById(accessQuery.getResultList());
+
+		return JpaUtil.deleteByIds(manager, "refresh_token", "id", ids);
+	}
+
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public int deleteTokensForApprovedSites(Collection<Long> approvedSiteIds) {
+		if (approvedSiteIds == null || approvedSiteIds.isEmpty()) {
+			return 0;
+		}
+
+		TypedQuery<Long> query = manager.createNamedQuery(OAuth2AccessTokenEntity.QUERY_IDS_BY_APPROVED_SITE_IDS, Long.class);
+		query.setParameter(OAuth2AccessTokenEntity.PARAM_APPROVED_SITE_IDS, approvedSiteIds);
+		Set<Long> accessTokenIds = new LinkedHashSet<>(query.getResultList());
+		if (accessTokenIds.isEmpty()) {
+			return 0;
+		}
+
+		// a site can hold many tokens, so keep each IN list to a bounded size
+		Set<Long> refreshTokenIds = new LinkedHashSet<>();
+		for (List<Long> ids : Iterables.partition(accessTokenIds, MAX_ID_LIST_SIZE)) {
+			refreshTokenIds.addAll(JpaUtil.selectIdsByIds(manager, "access_token", "refresh_token_id", "id", ids));
+		}
+
+		// access tokens issued from these refresh tokens go with them
+		for (List<Long> ids : Iterables.partition(refreshTokenIds, MAX_ID_LIST_SIZE)) {
+			TypedQuery<Long> accessQuery = manager.createNamedQuery(OAuth2AccessTokenEntity.QUERY_IDS_BY_REFRESH_TOKEN_IDS, Long.class);
+			accessQuery.setParameter(OAuth2AccessTokenEntity.PARAM_REFRESH_TOKEN_IDS, ids);
+			accessTokenIds.addAll(accessQuery.getResultList());
+		}
+
+		int count = 0;
+		for (List<Long> ids : Iterables.partition(accessTokenIds, MAX_ID_LIST_SIZE)) {
+			count += deleteAccessTokensById(ids);
+		}
+		for (List<Long> ids : Iterables.partition(refreshTokenIds, MAX_ID_LIST_SIZE)) {
+			JpaUtil.deleteByIds(manager, "refresh_token", "id", ids);
+		}
+		return count;
+	}
+
+	/**
+	 * Delete the given access tokens along with their scopes and the permissions they own.
+	 */
+	private int deleteAccessTokensById(List<Long> ids) {
+		if (ids.isEmpty()) {
+			return 0;
+		}
+
+		List<Long> permissionIds = JpaUtil.selectIdsByIds(manager, "access_token_permissions", "permission_id", "access_token_id", ids);
+		// a permission can also belong to a permission ticket, which keeps it
+		permissionIds.removeAll(JpaUtil.selectIdsByIds(manager, "permission_ticket", "permission_id", "permission_id", permissionIds));
+
+		JpaUtil.deleteByIds(manager, "token_scope", "owner_id", ids);
+		JpaUtil.deleteByIds(manager, "access_token_permissions", "access_token_id", ids);
+		JpaUtil.deleteByIds(manager, "permission_scope", "owner_id", permissionIds);
+		JpaUtil.deleteByIds(manager, "permission", "id", permissionIds);
+
+		return JpaUtil.deleteByIds(manager, "access_token", "id", ids);
+	}
+
 	@Override
 	@Transactional(value="defaultTransactionManager")
 	public void clearDuplicateAccessTokens() {
-		Query query = manager.createQuery("select a.jwt, count(1) as c from OAuth2AccessTokenEntity a GROUP BY a.jwt HAVING count(1) > 1");
+		Query query = manager.createQuery("select a.tokenValueHash, count(1) as c from OAuth2AccessTokenEntity a where a.tokenValueHash is not null GROUP BY a.tokenValueHash HAVING count(1) > 1");
 		@SuppressWarnings("unchecked")
 		List<Object[]> resultList = query.getResultList();
-		List<JWT> values = new ArrayList<>();
+		List<String> values = new ArrayList<>();
 		for (Object[] r : resultList) {
-			logger.warn("Found duplicate access tokens: {}, {}", ((JWT)r[0]).serialize(), r[1]);
-			values.add((JWT) r[0]);
+			logger.warn("Found duplicate access tokens: {}, {}", r[0], r[1]);
+			values.add((String) r[0]);
 		}
 		if (values.size() > 0) {
 			CriteriaBuilder cb = manager.getCriteriaBuilder();
 			CriteriaDelete<OAuth2AccessTokenEntity> criteriaDelete = cb.createCriteriaDelete(OAuth2AccessTokenEntity.class);
 			Root<OAuth2AccessTokenEntity> root = criteriaDelete.from(OAuth2AccessTokenEntity.class);
-			criteriaDelete.where(root.get("jwt").in(values));
+			criteriaDelete.where(root.get("tokenValueHash").in(values));
 			int result = manager.createQuery(criteriaDelete).executeUpdate();
 			logger.warn("Deleted {} duplicate access tokens", result);
 		}
@@ -258,25 +371,94 @@ public class JpaOAuth2TokenRepository implements OAuth2TokenRepository {
 	@Override
 	@Transactional(value="defaultTransactionManager")
 	public void clearDuplicateRefreshTokens() {
-		Query query = manager.createQuery("select a.jwt, count(1) as c from OAuth2RefreshTokenEntity a GROUP BY a.jwt HAVING count(1) > 1");
+		Query query = manager.createQuery("select a.tokenValueHash, count(1) as c from OAuth2RefreshTokenEntity a where a.tokenValueHash is not null GROUP BY a.tokenValueHash HAVING count(1) > 1");
 		@SuppressWarnings("unchecked")
 		List<Object[]> resultList = query.getResultList();
-		List<JWT> values = new ArrayList<>();
+		List<String> values = new ArrayList<>();
 		for (Object[] r : resultList) {
-			logger.warn("Found duplicate refresh tokens: {}, {}", ((JWT)r[0]).serialize(), r[1]);
-			values.add((JWT) r[0]);
+			logger.warn("Found duplicate refresh tokens: {}, {}", r[0], r[1]);
+			values.add((String) r[0]);
 		}
 		if (values.size() > 0) {
 			CriteriaBuilder cb = manager.getCriteriaBuilder();
 			CriteriaDelete<OAuth2RefreshTokenEntity> criteriaDelete = cb.createCriteriaDelete(OAuth2RefreshTokenEntity.class);
 			Root<OAuth2RefreshTokenEntity> root = criteriaDelete.from(OAuth2RefreshTokenEntity.class);
-			criteriaDelete.where(root.get("jwt").in(values));
+			criteriaDelete.where(root.get("tokenValueHash").in(values));
 			int result = manager.createQuery(criteriaDelete).executeUpdate();
 			logger.warn("Deleted {} duplicate refresh tokens", result);
 		}
 
 	}
 
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public int backfillAccessTokenValueHashes(int batchSize) {
+		TypedQuery<Object[]> query = manager.createNamedQuery(OAuth2AccessTokenEntity.QUERY_MISSING_TOKEN_VALUE_HASH, Object[].class);
+		query.setMaxResults(batchSize);
+		List<Object[]> resultList = query.getResultList();
+		int count = 0;
+		for (Object[] r : resultList) {
+			Long id = (Long) r[0];
+			String hash = TokenValueHashUtils.hash((JWT) r[1]);
+			if (getAccessTokenByValueHash(hash) != null) {
+				// the hash column is unique, so a duplicate value can't be backfilled
+				logger.warn("Removing duplicate access token {} while backfilling token value hashes", id);
+				removeAccessToken(getAccessTokenById(id));
+			} else {
+				manager.createQuery("update OAuth2AccessTokenEntity a set a.tokenValueHash = :" + OAuth2AccessTokenEntity.PARAM_TOKEN_VALUE_HASH + " where a.id = :id")
+					.setParameter(OAuth2AccessTokenEntity.PARAM_TOKEN_VALUE_HASH, hash)
+					.setParameter("id", id)
+					.executeUpdate();
+			}
+			count++;
+		}
+		if (count == 0) {
+			accessTokenHashesComplete = true;
+		}
+		return count;
+	}
+
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public int backfillRefreshTokenValueHashes(int batchSize) {
+		TypedQuery<Object[]> query = manager.createNamedQuery(OAuth2RefreshTokenEntity.QUERY_MISSING_TOKEN_VALUE_HASH, Object[].class);
+		query.setMaxResults(batchSize);
+		List<Object[]> resultList = query.getResultList();
+		int count = 0;
+		for (Object[] r : resultList) {
+			Long id = (Long) r[0];
+			String hash = TokenValueHashUtils.hash((JWT) r[1]);
+			if (getRefreshTokenByValueHash(hash) != null) {
+				// the hash column is unique, so a duplicate value can't be backfilled
+				logger.warn("Removing duplicate refresh token {} while backfilling token value hashes", id);
+				clearAccessTokensForRefreshToken(getRefreshTokenById(id));
+				removeRefreshToken(getRefreshTokenById(id));
+			} else {
+				manager.createQuery("update OAuth2RefreshTokenEntity r set r.tokenValueHash = :" + OAuth2RefreshTokenEntity.PARAM_TOKEN_VALUE_HASH + " where r.id = :id")
+					.setParameter(OAuth2RefreshTokenEntity.PARAM_TOKEN_VALUE_HASH, hash)
+					.setParameter("id", id)
+					.executeUpdate();
+			}
+			count++;
+		}
+		if (count == 0) {
+			refreshTokenHashesComplete = true;
+		}
+		return count;
+	}
+
+	private OAuth2AccessTokenEntity getAccessTokenByValueHash(String hash) {
+		TypedQuery<OAuth2AccessTokenEntity> query = manager.createNamedQuery(OAuth2AccessTokenEntity.QUERY_BY_TOKEN_VALUE_HASH, OAuth2AccessTokenEntity.class);
+		query.setParameter(OAuth2AccessTokenEntity.PARAM_TOKEN_VALUE_HASH, hash);
+		return JpaUtil.getSingleResult(query.getResultList());
+	}
+
+	private OAuth2RefreshTokenEntity getRefreshTokenByValueHash(String hash) {
+		TypedQuery<OAuth2RefreshTokenEntity> query = manager.createNamedQuery(OAuth2RefreshTokenEntity.QUERY_BY_TOKEN_VALUE_HASH, OAuth2RefreshTokenEntity.class);
+		query.setParameter(OAuth2RefreshTokenEntity.PARAM_TOKEN_VALUE_HASH, hash);
+		return JpaUtil.getSingleResult(query.getResultList());
+	}
+
 	@Override
 	public List<OAuth2AccessTokenEntity> getAccessTokensForApprovedSite(ApprovedSite approvedSite) {
 		TypedQuery<OAuth2AccessTokenEntity> queryA = manager.createNamedQuery(OAuth2AccessTokenEntity.QUERY_BY_APPROVED_SITE, OAuth2AccessTokenEntity.class);
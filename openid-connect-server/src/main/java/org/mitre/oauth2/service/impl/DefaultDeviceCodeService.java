@@ -33,7 +33,6 @@ import org.springframework.security.oauth2.common.util.RandomValueStringGenerato
 import org.springframework.security.oauth2.provider.ClientDetails;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 /**
  * @author jricher
@@ -47,6 +46,21 @@ public class DefaultDeviceCodeService implements DeviceCodeService {
 
 	private RandomValueStringGenerator randomGenerator = new RandomValueStringGenerator();
 
+	/**
+	 * Number of worker threads used to remove expired codes, one removes them serially
+	 */
+	private int cleanupThreadCount = 1;
+
+	/**
+	 * Number of nodes sharing the cleanup of expired codes by id mod cleanupShardCount
+	 */
+	private int cleanupShardCount = 1;
+
+	/**
+	 * Shard of the expired codes removed by this node, between 0 and cleanupShardCount - 1
+	 */
+	private int cleanupShardIndex = 0;
+
 	/* (non-Javadoc)
 	 * @see org.mitre.oauth2.service.DeviceCodeService#save(org.mitre.oauth2.model.DeviceCode)
 	 */
@@ -124,12 +138,14 @@ public class DefaultDeviceCodeService implements DeviceCodeService {
 	 * @see org.mitre.oauth2.service.DeviceCodeService#clearExpiredDeviceCodes()
 	 */
 	@Override
-	@Transactional(value="defaultTransactionManager")
 	public void clearExpiredDeviceCodes() {
 
-		new AbstractPageOperationTemplate<DeviceCode>("clearExpiredDeviceCodes"){
+		AbstractPageOperationTemplate<DeviceCode> op = new AbstractPageOperationTemplate<DeviceCode>("clearExpiredDeviceCodes"){
 			@Override
 			public Collection<DeviceCode> fetchPage() {
+				if (getShardCount() > 1) {
+					return repository.getExpiredCodes(getShardCount(), getShardIndex());
+				}
 				return repository.getExpiredCodes();
 			}
 
@@ -137,7 +153,10 @@ public class DefaultDeviceCodeService implements DeviceCodeService {
 			protected void doOperation(DeviceCode item) {
 				repository.remove(item);
 			}
-		}.execute();
+		};
+		op.setThreadCount(cleanupThreadCount);
+		op.setShard(cleanupShardCount, cleanupShardIndex);
+		op.execute();
 	}
 
 	/* (non-Javadoc)
@@ -154,4 +173,46 @@ public class DefaultDeviceCodeService implements DeviceCodeService {
 
 	}
 
+	/**
+	 * @return the cleanupThreadCount
+	 */
+	public int getCleanupThreadCount() {
+		return cleanupThreadCount;
+	}
+
+	/**
+	 * @param cleanupThreadCount the cleanupThreadCount to set
+	 */
+	public void setCleanupThreadCount(int cleanupThreadCount) {
+		this.cleanupThreadCount = cleanupThreadCount;
+	}
+
+	/**
+	 * @return the cleanupShardCount
+	 */
+	public int getCleanupShardCount() {
+		return cleanupShardCount;
+	}
+
+	/**
+	 * @param cleanupShardCount the cleanupShardCount to set
+	 */
+	public void setCleanupShardCount(int cleanupShardCount) {
+		this.cleanupShardCount = cleanupShardCount;
+	}
+
+	/**
+	 * @return the cleanupShardIndex
+	 */
+	public int getCleanupShardIndex() {
+		return cleanupShardIndex;
+	}
+
+	/**
+	 * @param cleanupShardIndex the cleanupShardIndex to set
+	 */
+	public void setCleanupShardIndex(int cleanupShardIndex) {
+		this.cleanupShardIndex = cleanupShardIndex;
+	}
+
 }
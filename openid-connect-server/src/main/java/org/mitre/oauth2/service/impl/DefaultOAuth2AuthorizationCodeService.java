@@ -59,6 +59,21 @@ public class DefaultOAuth2AuthorizationCodeService implements AuthorizationCodeS
 
 	private RandomValueStringGenerator generator = new RandomValueStringGenerator(22);
 
+	/**
+	 * Number of worker threads used to remove expired codes, one removes them serially
+	 */
+	private int cleanupThreadCount = 1;
+
+	/**
+	 * Number of nodes sharing the cleanup of expired codes by id mod cleanupShardCount
+	 */
+	private int cleanupShardCount = 1;
+
+	/**
+	 * Shard of the expired codes removed by this node, between 0 and cleanupShardCount - 1
+	 */
+	private int cleanupShardIndex = 0;
+
 	/**
 	 * Generate a random authorization code and create an AuthorizationCodeEntity,
 	 * which will be stored in the repository.
@@ -113,14 +128,17 @@ public class DefaultOAuth2AuthorizationCodeService implements AuthorizationCodeS
 	}
 
 	/**
-	 * Find and remove all expired auth codes.
+	 * Find and remove all expired auth codes. Not transactional: each removal runs in its own repository
+	 * transaction, so no connection is held while the workers run.
 	 */
-	@Transactional(value="defaultTransactionManager")
 	public void clearExpiredAuthorizationCodes() {
 
-		new AbstractPageOperationTemplate<AuthorizationCodeEntity>("clearExpiredAuthorizationCodes"){
+		AbstractPageOperationTemplate<AuthorizationCodeEntity> op = new AbstractPageOperationTemplate<AuthorizationCodeEntity>("clearExpiredAuthorizationCodes"){
 			@Override
 			public Collection<AuthorizationCodeEntity> fetchPage() {
+				if (getShardCount() > 1) {
+					return repository.getExpiredCodes(getShardCount(), getShardIndex());
+				}
 				return repository.getExpiredCodes();
 			}
 
@@ -128,7 +146,10 @@ public class DefaultOAuth2AuthorizationCodeService implements AuthorizationCodeS
 			protected void doOperation(AuthorizationCodeEntity item) {
 				repository.remove(item);
 			}
-		}.execute();
+		};
+		op.setThreadCount(cleanupThreadCount);
+		op.setShard(cleanupShardCount, cleanupShardIndex);
+		op.execute();
 	}
 
 	/**
@@ -159,4 +180,46 @@ public class DefaultOAuth2AuthorizationCodeService implements AuthorizationCodeS
 		this.authCodeExpirationSeconds = authCodeExpirationSeconds;
 	}
 
+	/**
+	 * @return the cleanupThreadCount
+	 */
+	public int getCleanupThreadCount() {
+		return cleanupThreadCount;
+	}
+
+	/**
+	 * @param cleanupThreadCount the cleanupThreadCount to set
+	 */
+	public void setCleanupThreadCount(int cleanupThreadCount) {
+		this.cleanupThreadCount = cleanupThreadCount;
+	}
+
+	/**
+	 * @return the cleanupShardCount
+	 */
+	public int getCleanupShardCount() {
+		return cleanupShardCount;
+	}
+
+	/**
+	 * @param cleanupShardCount the cleanupShardCount to set
+	 */
+	public void setCleanupShardCount(int cleanupShardCount) {
+		this.cleanupShardCount = cleanupShardCount;
+	}
+
+	/**
+	 * @return the cleanupShardIndex
+	 */
+	public int getCleanupShardIndex() {
+		return cleanupShardIndex;
+	}
+
+	/**
+	 * @param cleanupShardIndex the cleanupShardIndex to set
+	 */
+	public void setCleanupShardIndex(int cleanupShardIndex) {
+		this.cleanupShardIndex = cleanupShardIndex;
+	}
+
 }
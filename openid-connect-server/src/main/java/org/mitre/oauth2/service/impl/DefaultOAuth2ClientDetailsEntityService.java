@@ -20,6 +20,7 @@ package org.mitre.oauth2.service.impl;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -29,23 +30,27 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.http.client.HttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.mitre.data.AbstractVersionedSnapshot;
 import org.mitre.oauth2.model.ClientDetailsEntity;
 import org.mitre.oauth2.model.ClientDetailsEntity.AuthMethod;
 import org.mitre.oauth2.model.SystemScope;
 import org.mitre.oauth2.repository.OAuth2ClientRepository;
 import org.mitre.oauth2.repository.OAuth2TokenRepository;
+import org.mitre.oauth2.service.AccessTokenCacheService;
 import org.mitre.oauth2.service.ClientDetailsEntityService;
 import org.mitre.oauth2.service.SystemScopeService;
 import org.mitre.openid.connect.config.ConfigurationPropertiesBean;
 import org.mitre.openid.connect.model.WhitelistedSite;
 import org.mitre.openid.connect.service.ApprovedSiteService;
 import org.mitre.openid.connect.service.BlacklistedSiteService;
+import org.mitre.openid.connect.service.CacheVersionService;
 import org.mitre.openid.connect.service.StatsService;
 import org.mitre.openid.connect.service.WhitelistedSiteService;
+import org.mitre.openid.connect.util.TransactionUtils;
 import org.mitre.uma.model.ResourceSet;
 import org.mitre.uma.service.ResourceSetService;
+import org.mitre.util.RequestScopedCache;
+import org.mitre.util.http.PooledHttpClientFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -58,8 +63,11 @@ import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.JsonElement;
@@ -68,6 +76,11 @@ import com.google.gson.JsonParser;
 @Service
 public class DefaultOAuth2ClientDetailsEntityService implements ClientDetailsEntityService {
 
+	/**
+	 * Name of the clients' cache version
+	 */
+	public static final String CACHE_NAME = "client_details";
+
 	/**
 	 * Logger for this class
 	 */
@@ -79,6 +92,9 @@ public class DefaultOAuth2ClientDetailsEntityService implements ClientDetailsEnt
 	@Autowired
 	private OAuth2TokenRepository tokenRepository;
 
+	@Autowired
+	private AccessTokenCacheService tokenCache;
+
 	@Autowired
 	private ApprovedSiteService approvedSiteService;
 
@@ -100,11 +116,39 @@ public class DefaultOAuth2ClientDetailsEntityService implements ClientDetailsEnt
 	@Autowired
 	private ConfigurationPropertiesBean config;
 
+	@Autowired
+	private CacheVersionService cacheVersionService;
+
+	// pools sector identifier fetches, a factory of this service's own if none is wired
+	@Autowired(required = false)
+	private PooledHttpClientFactory httpClientFactory;
+
 	// map of sector URI -> list of redirect URIs
 	private LoadingCache<String, List<String>> sectorRedirects = CacheBuilder.newBuilder()
 			.expireAfterAccess(1, TimeUnit.HOURS)
 			.maximumSize(100)
-			.build(new SectorIdentifierLoader(HttpClientBuilder.create().useSystemProperties().build()));
+			.build(new SectorIdentifierLoader());
+
+	// map of (clients' version, client ID) -> detached copy of the client, read through from the repository
+	private Cache<List<Object>, ClientDetailsEntity> clientCache = CacheBuilder.newBuilder()
+			.expireAfterWrite(10, TimeUnit.MINUTES)
+			.maximumSize(10000)
+			.recordStats()
+			.build();
+
+	// the clients' version in the database, checked every versionCheckSeconds. It is part of every cache key,
+	// so a client that was still loading when the version moved on is never read back under the new version
+	private final AbstractVersionedSnapshot<Long> clientsVersion = new AbstractVersionedSnapshot<Long>() {
+		@Override
+		protected long currentVersion() {
+			return cacheVersionService.getVersion(CACHE_NAME);
+		}
+
+		@Override
+		protected Long load() {
+			return currentVersion();
+		}
+	};
 
 	@Override
 	public ClientDetailsEntity saveNewClient(ClientDetailsEntity client) {
@@ -147,6 +191,8 @@ public class DefaultOAuth2ClientDetailsEntityService implements ClientDetailsEnt
 
 		ClientDetailsEntity c = clientRepository.saveClient(client);
 
+		clientsChanged();
+
 		statsService.resetCache();
 
 		return c;
@@ -332,17 +378,30 @@ public class DefaultOAuth2ClientDetailsEntityService implements ClientDetailsEnt
 	}
 
 	/**
-	 * Get the client for the given ClientID
+	 * Get the client for the given ClientID. Clients are cached, and each call
+	 * returns its own detached copy, so changes to it are neither shared nor saved;
+	 * changes go through {@link #updateClient(ClientDetailsEntity, ClientDetailsEntity)}.
 	 */
 	@Override
 	public ClientDetailsEntity loadClientByClientId(String clientId) throws OAuth2Exception, InvalidClientException, IllegalArgumentException {
 		if (!Strings.isNullOrEmpty(clientId)) {
-			ClientDetailsEntity client = clientRepository.getClientByClientId(clientId);
-			if (client == null) {
-				throw new InvalidClientException("Client with id " + clientId + " was not found");
-			}
-			else {
-				return client;
+			try {
+				ClientDetailsEntity cached = clientCache.get(Arrays.<Object>asList(clientsVersion.get(), clientId), () -> {
+					RequestScopedCache.recordLoad(clientId);
+					ClientDetailsEntity client = clientRepository.getClientByClientId(clientId);
+					if (client == null) {
+						// not cached, so that a client registered on another node is found straight away
+						throw new InvalidClientException("Client with id " + clientId + " was not found");
+					}
+					return new ClientDetailsEntity(client);
+				});
+				return new ClientDetailsEntity(cached);
+			} catch (UncheckedExecutionException | ExecutionException e) {
+				if (e.getCause() instanceof OAuth2Exception) {
+					throw (OAuth2Exception) e.getCause();
+				}
+				Throwables.throwIfUnchecked(e.getCause());
+				throw new IllegalStateException("Unable to load client " + clientId, e.getCause());
 			}
 		}
 
@@ -360,6 +419,7 @@ public class DefaultOAuth2ClientDetailsEntityService implements ClientDetailsEnt
 		}
 
 		// clean out any tokens that this client had issued
+		tokenCache.evictForClient(client);
 		tokenRepository.clearTokensForClient(client);
 
 		// clean out any approved sites for this client
@@ -380,6 +440,8 @@ public class DefaultOAuth2ClientDetailsEntityService implements ClientDetailsEnt
 		// take care of the client itself
 		clientRepository.deleteClient(client);
 
+		clientsChanged();
+
 		statsService.resetCache();
 
 	}
@@ -423,7 +485,11 @@ public class DefaultOAuth2ClientDetailsEntityService implements ClientDetailsEnt
 			// make sure a client doesn't get any special system scopes
 			ensureNoReservedScopes(newClient);
 
-			return clientRepository.updateClient(oldClient.getId(), newClient);
+			ClientDetailsEntity updated = clientRepository.updateClient(oldClient.getId(), newClient);
+
+			clientsChanged();
+
+			return updated;
 		}
 		throw new IllegalArgumentException("Neither old client or new client can be null!");
 	}
@@ -459,6 +525,37 @@ public class DefaultOAuth2ClientDetailsEntityService implements ClientDetailsEnt
 		return client;
 	}
 
+	/**
+	 * Bump the database version so other nodes empty their client caches, and empty this node's once the change has committed
+	 */
+	private void clientsChanged() {
+		cacheVersionService.increment(CACHE_NAME);
+		TransactionUtils.afterCommit(clientsVersion::invalidate);
+	}
+
+	/**
+	 * @return hit, miss and load time statistics for the client cache
+	 */
+	public CacheStats getClientCacheStats() {
+		return clientCache.stats();
+	}
+
+	/**
+	 * @return how long the client cache is used before the database version is checked again
+	 */
+	public long getVersionCheckSeconds() {
+		return clientsVersion.getVersionCheckSeconds();
+	}
+
+	/**
+	 * Set how long the client cache is used before the database version is checked again.
+	 * This bounds how long a change made on another node takes to be seen here.
+	 * @param versionCheckSeconds
+	 */
+	public void setVersionCheckSeconds(long versionCheckSeconds) {
+		clientsVersion.setVersionCheckSeconds(versionCheckSeconds);
+	}
+
 	/**
 	 * Utility class to load a sector identifier's set of authorized redirect URIs.
 	 *
@@ -466,13 +563,18 @@ public class DefaultOAuth2ClientDetailsEntityService implements ClientDetailsEnt
 	 *
 	 */
 	private class SectorIdentifierLoader extends CacheLoader<String, List<String>> {
-		private HttpComponentsClientHttpRequestFactory httpFactory;
 		private RestTemplate restTemplate;
 		private JsonParser parser = new JsonParser();
 
-		SectorIdentifierLoader(HttpClient httpClient) {
-			this.httpFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
-			this.restTemplate = new RestTemplate(httpFactory);
+		// built on first use so the wired client factory is in place
+		private synchronized RestTemplate getRestTemplate() {
+			if (restTemplate == null) {
+				if (httpClientFactory == null) {
+					httpClientFactory = new PooledHttpClientFactory();
+				}
+				restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClientFactory.getClient()));
+			}
+			return restTemplate;
 		}
 
 		@Override
@@ -486,7 +588,7 @@ public class DefaultOAuth2ClientDetailsEntityService implements ClientDetailsEnt
 			}
 
 			// key is the sector URI
-			String jsonString = restTemplate.getForObject(key, String.class);
+			String jsonString = getRestTemplate().getForObject(key, String.class);
 			JsonElement json = parser.parse(jsonString);
 
 			if (json.isJsonArray()) {
@@ -27,15 +27,13 @@ import static org.mitre.openid.connect.request.ConnectRequestParameters.CODE_VER
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
-import org.mitre.data.AbstractPageOperationTemplate;
-import org.mitre.data.DefaultPageCriteria;
+import org.mitre.data.AbstractChunkedDeleteTemplate;
 import org.mitre.oauth2.model.AuthenticationHolderEntity;
 import org.mitre.oauth2.model.ClientDetailsEntity;
 import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
@@ -44,6 +42,7 @@ import org.mitre.oauth2.model.PKCEAlgorithm;
 import org.mitre.oauth2.model.SystemScope;
 import org.mitre.oauth2.repository.AuthenticationHolderRepository;
 import org.mitre.oauth2.repository.OAuth2TokenRepository;
+import org.mitre.oauth2.service.AccessTokenCacheService;
 import org.mitre.oauth2.service.ClientDetailsEntityService;
 import org.mitre.oauth2.service.OAuth2TokenEntityService;
 import org.mitre.oauth2.service.SystemScopeService;
@@ -52,6 +51,7 @@ import org.mitre.openid.connect.service.ApprovedSiteService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.oauth2.common.exceptions.InvalidClientException;
@@ -63,7 +63,11 @@ import org.springframework.security.oauth2.provider.OAuth2Request;
 import org.springframework.security.oauth2.provider.TokenRequest;
 import org.springframework.security.oauth2.provider.token.TokenEnhancer;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.google.common.base.Strings;
 import com.nimbusds.jose.util.Base64URL;
@@ -83,6 +87,11 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 	 */
 	private static final Logger logger = LoggerFactory.getLogger(DefaultOAuth2ProviderTokenService.class);
 
+	private static final int HASH_BACKFILL_BATCH_SIZE = 500;
+
+	// kept below the 1000-element IN list limit of some databases
+	private static final int CLEANUP_CHUNK_SIZE = 500;
+
 	@Autowired
 	private OAuth2TokenRepository tokenRepository;
 
@@ -101,6 +110,13 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 	@Autowired
 	private ApprovedSiteService approvedSiteService;
 
+	@Autowired
+	private AccessTokenCacheService tokenCache;
+
+	@Autowired
+	@Qualifier("defaultTransactionManager")
+	private PlatformTransactionManager transactionManager;
+
 	@Override
 	public Set<OAuth2AccessTokenEntity> getAllAccessTokensForUser(String userName) {
 		return tokenRepository.getAccessTokensByUserName(userName);
@@ -157,8 +173,13 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 		}
 	}
 
+	/**
+	 * Mint a new access token. The token is built and signed before any database work
+	 * is done, so the (potentially expensive) signing step never holds a connection;
+	 * the authentication holder, refresh token and access token are then persisted
+	 * together in a single short transaction.
+	 */
 	@Override
-	@Transactional(value="defaultTransactionManager")
 	public OAuth2AccessTokenEntity createAccessToken(OAuth2Authentication authentication) throws AuthenticationException, InvalidClientException {
 		if (authentication != null && authentication.getOAuth2Request() != null) {
 			// look up our client
@@ -218,18 +239,15 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 				token.setExpiration(expiration);
 			}
 
-			// attach the authorization so that we can look it up later
+			// attach the authorization so that we can look it up later, it gets saved along with the token below
 			AuthenticationHolderEntity authHolder = new AuthenticationHolderEntity();
 			authHolder.setAuthentication(authentication);
-			authHolder = authenticationHolderRepository.save(authHolder);
 
 			token.setAuthenticationHolder(authHolder);
 
 			// attach a refresh token, if this client is allowed to request them and the user gets the offline scope
 			if (client.isAllowRefresh() && token.getScope().contains(SystemScopeService.OFFLINE_ACCESS)) {
-				OAuth2RefreshTokenEntity savedRefreshToken = createRefreshToken(client, authHolder);
-
-				token.setRefreshToken(savedRefreshToken);
+				token.setRefreshToken(buildRefreshToken(client, authHolder));
 			}
 
 			//Add approved site reference, if any
@@ -243,15 +261,24 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 				token.setApprovedSite(ap);
 			}
 
-			OAuth2AccessTokenEntity enhancedToken = (OAuth2AccessTokenEntity) tokenEnhancer.enhance(token, authentication);
+			// sign the token before opening the transaction
+			final OAuth2AccessTokenEntity enhancedToken = (OAuth2AccessTokenEntity) tokenEnhancer.enhance(token, authentication);
 
-			OAuth2AccessTokenEntity savedToken = saveAccessToken(enhancedToken);
+			return getTransactionTemplate().execute(new TransactionCallback<OAuth2AccessTokenEntity>() {
+				@Override
+				public OAuth2AccessTokenEntity doInTransaction(TransactionStatus status) {
+					AuthenticationHolderEntity savedAuthHolder = authenticationHolderRepository.save(enhancedToken.getAuthenticationHolder());
+					enhancedToken.setAuthenticationHolder(savedAuthHolder);
 
-			if (savedToken.getRefreshToken() != null) {
-				tokenRepository.saveRefreshToken(savedToken.getRefreshToken()); // make sure we save any changes that might have been enhanced
-			}
+					OAuth2RefreshTokenEntity refreshToken = enhancedToken.getRefreshToken();
+					if (refreshToken != null) {
+						refreshToken.setAuthenticationHolder(savedAuthHolder);
+						enhancedToken.setRefreshToken(tokenRepository.saveRefreshToken(refreshToken));
+					}
 
-			return savedToken;
+					return saveAccessToken(enhancedToken);
+				}
+			});
 		}
 
 		throw new AuthenticationCredentialsNotFoundException("No authentication credentials found");
@@ -259,6 +286,14 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 
 
 	private OAuth2RefreshTokenEntity createRefreshToken(ClientDetailsEntity client, AuthenticationHolderEntity authHolder) {
+		// save the token first so that we can set it to a member of the access token (NOTE: is this step necessary?)
+		return tokenRepository.saveRefreshToken(buildRefreshToken(client, authHolder));
+	}
+
+	/**
+	 * Build a new, unsaved refresh token for the given client and authentication.
+	 */
+	private OAuth2RefreshTokenEntity buildRefreshToken(ClientDetailsEntity client, AuthenticationHolderEntity authHolder) {
 		OAuth2RefreshTokenEntity refreshToken = new OAuth2RefreshTokenEntity(); //refreshTokenFactory.createNewRefreshToken();
 		JWTClaimsSet.Builder refreshClaims = new JWTClaimsSet.Builder();
 
@@ -282,9 +317,7 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 		refreshToken.setAuthenticationHolder(authHolder);
 		refreshToken.setClient(client);
 
-		// save the token first so that we can set it to a member of the access token (NOTE: is this step necessary?)
-		OAuth2RefreshTokenEntity savedRefreshToken = tokenRepository.saveRefreshToken(refreshToken);
-		return savedRefreshToken;
+		return refreshToken;
 	}
 
 	@Override
@@ -321,6 +354,7 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 
 		// clear out any access tokens
 		if (client.isClearAccessTokensOnRefresh()) {
+			tokenCache.evictForRefreshToken(refreshToken);
 			tokenRepository.clearAccessTokensForRefreshToken(refreshToken);
 		}
 
@@ -388,7 +422,7 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 
 	@Override
 	public OAuth2Authentication loadAuthentication(String accessTokenValue) throws AuthenticationException {
-		OAuth2AccessTokenEntity accessToken = clearExpiredAccessToken(tokenRepository.getAccessTokenByValue(accessTokenValue));
+		OAuth2AccessTokenEntity accessToken = getAccessTokenByValue(accessTokenValue);
 
 		if (accessToken == null) {
 			throw new InvalidTokenException("Invalid access token: " + accessTokenValue);
@@ -403,7 +437,7 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 	 */
 	@Override
 	public OAuth2AccessTokenEntity readAccessToken(String accessTokenValue) throws AuthenticationException {
-		OAuth2AccessTokenEntity accessToken = clearExpiredAccessToken(tokenRepository.getAccessTokenByValue(accessTokenValue));
+		OAuth2AccessTokenEntity accessToken = getAccessTokenByValue(accessTokenValue);
 		if (accessToken == null) {
 			throw new InvalidTokenException("Access token for value " + accessTokenValue + " was not found");
 		} else {
@@ -411,6 +445,20 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 		}
 	}
 
+	/**
+	 * Get an unexpired access token from the cache, falling back to the database on a miss.
+	 */
+	private OAuth2AccessTokenEntity getAccessTokenByValue(String accessTokenValue) {
+		OAuth2AccessTokenEntity accessToken = tokenCache.get(accessTokenValue);
+		if (accessToken == null) {
+			accessToken = clearExpiredAccessToken(tokenRepository.getAccessTokenByValue(accessTokenValue));
+			if (accessToken != null) {
+				tokenCache.put(accessToken);
+			}
+		}
+		return accessToken;
+	}
+
 	/**
 	 * Get an access token by its authentication object.
 	 */
@@ -440,6 +488,7 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 	@Override
 	@Transactional(value="defaultTransactionManager")
 	public void revokeRefreshToken(OAuth2RefreshTokenEntity refreshToken) {
+		tokenCache.evictForRefreshToken(refreshToken);
 		tokenRepository.clearAccessTokensForRefreshToken(refreshToken);
 		tokenRepository.removeRefreshToken(refreshToken);
 	}
@@ -450,6 +499,7 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 	@Override
 	@Transactional(value="defaultTransactionManager")
 	public void revokeAccessToken(OAuth2AccessTokenEntity accessToken) {
+		tokenCache.evict(accessToken);
 		tokenRepository.removeAccessToken(accessToken);
 	}
 
@@ -470,43 +520,55 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 	public void clearExpiredTokens() {
 		logger.debug("Cleaning out all expired tokens");
 
-		new AbstractPageOperationTemplate<OAuth2AccessTokenEntity>("clearExpiredAccessTokens") {
-			@Override
-			public Collection<OAuth2AccessTokenEntity> fetchPage() {
-				return tokenRepository.getAllExpiredAccessTokens(new DefaultPageCriteria());
-			}
+		final Date now = new Date();
 
+		long accessTokenCount = new AbstractChunkedDeleteTemplate("clearExpiredAccessTokens") {
 			@Override
-			public void doOperation(OAuth2AccessTokenEntity item) {
-				revokeAccessToken(item);
+			protected int deleteChunk() {
+				return tokenRepository.deleteExpiredAccessTokens(now, CLEANUP_CHUNK_SIZE);
 			}
 		}.execute();
 
-		new AbstractPageOperationTemplate<OAuth2RefreshTokenEntity>("clearExpiredRefreshTokens") {
-			@Override
-			public Collection<OAuth2RefreshTokenEntity> fetchPage() {
-				return tokenRepository.getAllExpiredRefreshTokens(new DefaultPageCriteria());
-			}
-
+		long refreshTokenCount = new AbstractChunkedDeleteTemplate("clearExpiredRefreshTokens") {
 			@Override
-			public void doOperation(OAuth2RefreshTokenEntity item) {
-				revokeRefreshToken(item);
+			protected int deleteChunk() {
+				return tokenRepository.deleteExpiredRefreshTokens(now, CLEANUP_CHUNK_SIZE);
 			}
 		}.execute();
 
-		new AbstractPageOperationTemplate<AuthenticationHolderEntity>("clearExpiredAuthenticationHolders") {
-			@Override
-			public Collection<AuthenticationHolderEntity> fetchPage() {
-				return authenticationHolderRepository.getOrphanedAuthenticationHolders(new DefaultPageCriteria());
-			}
+		if (accessTokenCount > 0 || refreshTokenCount > 0) {
+			// the deleted tokens, including unexpired ones issued from expired refresh tokens,
+			// were never loaded, so they can't be evicted one by one
+			tokenCache.evictAll();
+		}
 
+		new AbstractChunkedDeleteTemplate("clearExpiredAuthenticationHolders") {
 			@Override
-			public void doOperation(AuthenticationHolderEntity item) {
-				authenticationHolderRepository.remove(item);
+			protected int deleteChunk() {
+				return authenticationHolderRepository.deleteOrphanedAuthenticationHolders(CLEANUP_CHUNK_SIZE);
 			}
 		}.execute();
 	}
 
+	/**
+	 * Fills in the lookup hash for any tokens stored before the hash column existed,
+	 * one batch per transaction so that the tables aren't locked for the whole run.
+	 */
+	@Override
+	public void backfillTokenValueHashes() {
+		int total = 0;
+		int count;
+		while ((count = tokenRepository.backfillAccessTokenValueHashes(HASH_BACKFILL_BATCH_SIZE)) > 0) {
+			total += count;
+		}
+		while ((count = tokenRepository.backfillRefreshTokenValueHashes(HASH_BACKFILL_BATCH_SIZE)) > 0) {
+			total += count;
+		}
+		if (total > 0) {
+			logger.info("Backfilled token value hashes for {} tokens", total);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.mitre.oauth2.service.OAuth2TokenEntityService#saveAccessToken(org.mitre.oauth2.model.OAuth2AccessTokenEntity)
 	 */
@@ -546,6 +608,13 @@ public class DefaultOAuth2ProviderTokenService implements OAuth2TokenEntityServi
 		this.tokenEnhancer = tokenEnhancer;
 	}
 
+	/**
+	 * @return a template for running work in a transaction on the default transaction manager
+	 */
+	private TransactionTemplate getTransactionTemplate() {
+		return new TransactionTemplate(transactionManager);
+	}
+
 	@Override
 	public OAuth2AccessTokenEntity getRegistrationAccessTokenForClient(ClientDetailsEntity client) {
 		List<OAuth2AccessTokenEntity> allTokens = getAccessTokensForClient(client);
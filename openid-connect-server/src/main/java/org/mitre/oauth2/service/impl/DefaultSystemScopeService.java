@@ -20,12 +20,17 @@
  */
 package org.mitre.oauth2.service.impl;
 
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
+import org.mitre.data.AbstractVersionedSnapshot;
 import org.mitre.oauth2.model.SystemScope;
 import org.mitre.oauth2.repository.SystemScopeRepository;
 import org.mitre.oauth2.service.SystemScopeService;
+import org.mitre.openid.connect.service.CacheVersionService;
+import org.mitre.openid.connect.util.TransactionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -34,22 +39,80 @@ import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
 /**
+ * System scope service that answers lookups from an in-memory copy of all
+ * system scopes, so that resolving the scopes of a token request doesn't
+ * query the database once per scope. The copy is rebuilt when this node
+ * changes a scope, or when the scopes' version in the database shows that
+ * another node did.
+ *
  * @author jricher
  *
  */
 @Service("defaultSystemScopeService")
 public class DefaultSystemScopeService implements SystemScopeService {
 
+	/**
+	 * Name of the system scopes' cache version
+	 */
+	public static final String CACHE_NAME = "system_scope";
+
 	@Autowired
 	private SystemScopeRepository repository;
 
-	private Predicate<SystemScope> isDefault = new Predicate<SystemScope>() {
+	@Autowired
+	private CacheVersionService cacheVersionService;
+
+	/**
+	 * An immutable copy of all system scopes, with the filtered views worked out once
+	 */
+	private static class Scopes {
+		private final Set<SystemScope> all;
+		private final Map<String, SystemScope> byValue;
+		private final Set<SystemScope> defaults;
+		private final Set<SystemScope> restricted;
+		private final Set<SystemScope> unrestricted;
+
+		private Scopes(Set<SystemScope> scopes) {
+			ImmutableSet.Builder<SystemScope> defaults = ImmutableSet.builder();
+			ImmutableSet.Builder<SystemScope> restricted = ImmutableSet.builder();
+			ImmutableSet.Builder<SystemScope> unrestricted = ImmutableSet.builder();
+			Map<String, SystemScope> byValue = new HashMap<>();
+			for (SystemScope scope : scopes) {
+				if (scope.getValue() != null) {
+					byValue.put(scope.getValue(), scope);
+				}
+				if (scope.isDefaultScope()) {
+					defaults.add(scope);
+				}
+				if (scope.isRestricted()) {
+					restricted.add(scope);
+				} else {
+					unrestricted.add(scope);
+				}
+			}
+			this.all = ImmutableSet.copyOf(scopes);
+			this.byValue = ImmutableMap.copyOf(byValue);
+			this.defaults = defaults.build();
+			this.restricted = restricted.build();
+			this.unrestricted = unrestricted.build();
+		}
+	}
+
+	// all system scopes, reloaded when the scopes' version changes
+	private final AbstractVersionedSnapshot<Scopes> systemScopes = new AbstractVersionedSnapshot<Scopes>() {
 		@Override
-		public boolean apply(SystemScope input) {
-			return (input != null && input.isDefaultScope());
+		protected long currentVersion() {
+			return cacheVersionService.getVersion(CACHE_NAME);
+		}
+
+		@Override
+		protected Scopes load() {
+			return new Scopes(repository.getAll());
 		}
 	};
 
@@ -101,7 +164,7 @@ public class DefaultSystemScopeService implements SystemScopeService {
 	 */
 	@Override
 	public Set<SystemScope> getAll() {
-		return repository.getAll();
+		return systemScopes.get().all;
 	}
 
 	/* (non-Javadoc)
@@ -117,7 +180,10 @@ public class DefaultSystemScopeService implements SystemScopeService {
 	 */
 	@Override
 	public SystemScope getByValue(String value) {
-		return repository.getByValue(value);
+		if (value == null) {
+			return null;
+		}
+		return systemScopes.get().byValue.get(value);
 	}
 
 	/* (non-Javadoc)
@@ -126,7 +192,7 @@ public class DefaultSystemScopeService implements SystemScopeService {
 	@Override
 	public void remove(SystemScope scope) {
 		repository.remove(scope);
-
+		scopesChanged();
 	}
 
 	/* (non-Javadoc)
@@ -135,7 +201,9 @@ public class DefaultSystemScopeService implements SystemScopeService {
 	@Override
 	public SystemScope save(SystemScope scope) {
 		if (!isReserved.apply(scope)) { // don't allow saving of reserved scopes
-			return repository.save(scope);
+			SystemScope saved = repository.save(scope);
+			scopesChanged();
+			return saved;
 		} else {
 			return null;
 		}
@@ -190,7 +258,7 @@ public class DefaultSystemScopeService implements SystemScopeService {
 
 	@Override
 	public Set<SystemScope> getDefaults() {
-		return Sets.filter(getAll(), isDefault);
+		return systemScopes.get().defaults;
 	}
 
 
@@ -201,22 +269,46 @@ public class DefaultSystemScopeService implements SystemScopeService {
 
 	@Override
 	public Set<SystemScope> getRestricted() {
-		return Sets.filter(getAll(), isRestricted);
+		return systemScopes.get().restricted;
 	}
 
 	@Override
 	public Set<SystemScope> getUnrestricted() {
-		return Sets.filter(getAll(), Predicates.not(isRestricted));
+		return systemScopes.get().unrestricted;
 	}
 
 	@Override
 	public Set<SystemScope> removeRestrictedAndReservedScopes(Set<SystemScope> scopes) {
-		return Sets.filter(scopes, Predicates.not(Predicates.or(isRestricted, isReserved)));
+		return new LinkedHashSet<>(Sets.filter(scopes, Predicates.not(Predicates.or(isRestricted, isReserved))));
 	}
 
 	@Override
 	public Set<SystemScope> removeReservedScopes(Set<SystemScope> scopes) {
-		return Sets.filter(scopes, Predicates.not(isReserved));
+		return new LinkedHashSet<>(Sets.filter(scopes, Predicates.not(isReserved)));
+	}
+
+	/**
+	 * Bump the database version so other nodes reload, and drop this node's copy once the change has committed
+	 */
+	private void scopesChanged() {
+		cacheVersionService.increment(CACHE_NAME);
+		TransactionUtils.afterCommit(systemScopes::invalidate);
+	}
+
+	/**
+	 * @return how long the in-memory scopes are used before the database version is checked again
+	 */
+	public long getVersionCheckSeconds() {
+		return systemScopes.getVersionCheckSeconds();
+	}
+
+	/**
+	 * Set how long the in-memory scopes are used before the database version is checked again.
+	 * This bounds how long a change made on another node takes to be seen here.
+	 * @param versionCheckSeconds
+	 */
+	public void setVersionCheckSeconds(long versionCheckSeconds) {
+		systemScopes.setVersionCheckSeconds(versionCheckSeconds);
 	}
 
 }
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.oauth2.service.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.mitre.oauth2.model.ClientDetailsEntity;
+import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
+import org.mitre.oauth2.model.OAuth2RefreshTokenEntity;
+import org.mitre.oauth2.service.AccessTokenCacheService;
+import org.mitre.openid.connect.service.CacheVersionService;
+import org.mitre.openid.connect.util.TransactionUtils;
+import org.mitre.util.TokenValueHashUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Bounded, in-memory cache of access tokens. Entries time out after a fixed
+ * period and are never returned past the expiration of the token itself.
+ *
+ * The cache is off unless timeToLiveSeconds is set above zero. Once it's on,
+ * every eviction (revocation, client deletion, approved site cleanup) bumps the
+ * shared "access_token" cache version, and each node drops its whole cache when
+ * it sees that version move. A token revoked on one node can therefore still be
+ * accepted by another for up to versionCheckSeconds, or for up to
+ * timeToLiveSeconds if there is no cache version service. Clients that clear
+ * access tokens on refresh evict on every refresh, which empties the cache on
+ * every node; keep that in mind when turning the cache on.
+ */
+@Service("inMemoryAccessTokenCacheService")
+public class InMemoryAccessTokenCacheService implements AccessTokenCacheService {
+
+	public static final String CACHE_NAME = "access_token";
+
+	private long maximumSize = 10000;
+
+	private long timeToLiveSeconds = 0;
+
+	private long versionCheckSeconds = 5;
+
+	@Autowired(required = false)
+	private CacheVersionService cacheVersionService;
+
+	private Cache<String, OAuth2AccessTokenEntity> cache;
+
+	private volatile long knownVersion = -1;
+
+	private volatile long versionCheckedAt = 0;
+
+	private final AtomicBoolean checkingVersion = new AtomicBoolean(false);
+
+	public InMemoryAccessTokenCacheService() {
+		buildCache();
+	}
+
+	private void buildCache() {
+		cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @return true if tokens are cached at all
+	 */
+	public boolean isEnabled() {
+		return timeToLiveSeconds > 0 && maximumSize > 0;
+	}
+
+	@Override
+	public OAuth2AccessTokenEntity get(String accessTokenValue) {
+		if (!isEnabled()) {
+			return null;
+		}
+		String hash = TokenValueHashUtils.hash(accessTokenValue);
+		if (hash == null) {
+			return null;
+		}
+		checkVersion();
+		OAuth2AccessTokenEntity token = cache.getIfPresent(hash);
+		if (token != null && token.isExpired()) {
+			// let the caller go back to the database to clean it up
+			cache.invalidate(hash);
+			return null;
+		}
+		return token;
+	}
+
+	@Override
+	public void put(OAuth2AccessTokenEntity accessToken) {
+		if (isEnabled() && accessToken != null && accessToken.getTokenValueHash() != null) {
+			cache.put(accessToken.getTokenValueHash(), accessToken);
+		}
+	}
+
+	@Override
+	public void evict(OAuth2AccessTokenEntity accessToken) {
+		if (!isEnabled() || accessToken == null || accessToken.getTokenValueHash() == null) {
+			return;
+		}
+		final String hash = accessToken.getTokenValueHash();
+		changed(() -> cache.invalidate(hash));
+	}
+
+	@Override
+	public void evictForRefreshToken(OAuth2RefreshTokenEntity refreshToken) {
+		if (!isEnabled() || refreshToken == null || refreshToken.getId() == null) {
+			return;
+		}
+		final Long refreshTokenId = refreshToken.getId();
+		changed(() -> cache.asMap().values().removeIf(token -> token.getRefreshToken() != null
+				&& refreshTokenId.equals(token.getRefreshToken().getId())));
+	}
+
+	@Override
+	public void evictForClient(ClientDetailsEntity client) {
+		if (!isEnabled() || client == null || client.getClientId() == null) {
+			return;
+		}
+		final String clientId = client.getClientId();
+		changed(() -> cache.asMap().values().removeIf(token -> token.getClient() != null
+				&& clientId.equals(token.getClient().getClientId())));
+	}
+
+	@Override
+	public void evictAll() {
+		if (!isEnabled()) {
+			return;
+		}
+		changed(() -> cache.invalidateAll());
+	}
+
+	/**
+	 * Tell the other nodes about a change as part of the caller's transaction,
+	 * and evict locally once it has committed.
+	 */
+	private void changed(Runnable eviction) {
+		if (cacheVersionService != null) {
+			cacheVersionService.increment(CACHE_NAME);
+		}
+		TransactionUtils.afterCommit(eviction);
+	}
+
+	/**
+	 * Every versionCheckSeconds, let one caller see whether another node has
+	 * changed the shared version, and empty the cache if so.
+	 */
+	private void checkVersion() {
+		if (cacheVersionService == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (now - versionCheckedAt > versionCheckSeconds * 1000L && checkingVersion.compareAndSet(false, true)) {
+			try {
+				long version = cacheVersionService.getVersion(CACHE_NAME);
+				if (version != knownVersion) {
+					cache.invalidateAll();
+					knownVersion = version;
+				}
+				versionCheckedAt = now;
+			} finally {
+				checkingVersion.set(false);
+			}
+		}
+	}
+
+	@Override
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	/**
+	 * @return the maximum number of tokens held in the cache
+	 */
+	public long getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * @param maximumSize the maximum number of tokens held in the cache
+	 */
+	public void setMaximumSize(long maximumSize) {
+		this.maximumSize = maximumSize;
+		buildCache();
+	}
+
+	/**
+	 * @return how long a token is served from the cache before it is reloaded, 0 if the cache is off
+	 */
+	public long getTimeToLiveSeconds() {
+		return timeToLiveSeconds;
+	}
+
+	/**
+	 * Set how long a token is served from the cache before it is reloaded; 0, the
+	 * default, turns the cache off. Without a cache version service this bounds how
+	 * long a token revoked on another node keeps being accepted here.
+	 *
+	 * @param timeToLiveSeconds the timeToLiveSeconds to set
+	 */
+	public void setTimeToLiveSeconds(long timeToLiveSeconds) {
+		this.timeToLiveSeconds = timeToLiveSeconds;
+		buildCache();
+	}
+
+	/**
+	 * @return how often the shared cache version is checked for changes made on other nodes
+	 */
+	public long getVersionCheckSeconds() {
+		return versionCheckSeconds;
+	}
+
+	/**
+	 * @param versionCheckSeconds how often the shared cache version is checked for changes
+	 * made on other nodes; this bounds how long a token revoked elsewhere is still accepted
+	 */
+	public void setVersionCheckSeconds(long versionCheckSeconds) {
+		this.versionCheckSeconds = versionCheckSeconds;
+	}
+
+	/**
+	 * @param cacheVersionService the service used to share evictions with other nodes
+	 */
+	public void setCacheVersionService(CacheVersionService cacheVersionService) {
+		this.cacheVersionService = cacheVersionService;
+	}
+
+}
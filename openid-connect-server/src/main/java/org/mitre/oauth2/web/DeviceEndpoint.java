@@ -38,6 +38,7 @@ import org.mitre.oauth2.service.DeviceCodeService;
 import org.mitre.oauth2.service.SystemScopeService;
 import org.mitre.oauth2.token.DeviceTokenGranter;
 import org.mitre.openid.connect.config.ConfigurationPropertiesBean;
+import org.mitre.openid.connect.service.ClientLogoLoadingService;
 import org.mitre.openid.connect.view.HttpCodeView;
 import org.mitre.openid.connect.view.JsonEntityView;
 import org.mitre.openid.connect.view.JsonErrorView;
@@ -94,6 +95,9 @@ public class DeviceEndpoint {
 	@Autowired
 	private OAuth2RequestFactory oAuth2RequestFactory;
 
+	@Autowired
+	private ClientLogoLoadingService clientLogoLoadingService;
+
 	@RequestMapping(value = "/" + URL, method = RequestMethod.POST, consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
 	public String requestDeviceCode(@RequestParam("client_id") String clientId, @RequestParam(name="scope", required=false) String scope, Map<String, String> parameters, ModelMap model) {
 
@@ -222,6 +226,9 @@ public class DeviceEndpoint {
 		model.put("client", client);
 		model.put("dc", dc);
 
+		// start loading the logo now so the page's image request doesn't wait on the client's server
+		clientLogoLoadingService.prefetchLogo(client);
+
 		// pre-process the scopes
 		Set<SystemScope> scopes = scopeService.fromStrings(dc.getScope());
 
@@ -38,6 +38,7 @@ import org.mitre.oauth2.model.SystemScope;
 import org.mitre.oauth2.service.ClientDetailsEntityService;
 import org.mitre.oauth2.service.SystemScopeService;
 import org.mitre.openid.connect.model.UserInfo;
+import org.mitre.openid.connect.service.ClientLogoLoadingService;
 import org.mitre.openid.connect.service.ScopeClaimTranslationService;
 import org.mitre.openid.connect.service.StatsService;
 import org.mitre.openid.connect.service.UserInfoService;
@@ -88,6 +89,9 @@ public class OAuthConfirmationController {
 	@Autowired
 	private RedirectResolver redirectResolver;
 
+	@Autowired
+	private ClientLogoLoadingService clientLogoLoadingService;
+
 	/**
 	 * Logger for this class
 	 */
@@ -155,6 +159,9 @@ public class OAuthConfirmationController {
 		model.put("auth_request", authRequest);
 		model.put("client", client);
 
+		// start loading the logo now so the page's image request doesn't wait on the client's server
+		clientLogoLoadingService.prefetchLogo(client);
+
 		String redirect_uri = authRequest.getRedirectUri();
 
 		model.put("redirect_uri", redirect_uri);
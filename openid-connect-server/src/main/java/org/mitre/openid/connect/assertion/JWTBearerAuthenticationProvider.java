@@ -134,7 +134,7 @@ public class JWTBearerAuthenticationProvider implements AuthenticationProvider {
 					throw new AuthenticationServiceException("[HEART mode] Invalid authentication method");
 				}
 
-				JWTSigningAndValidationService validator = validators.getValidator(client, alg);
+				JWTSigningAndValidationService validator = validators.getValidator(client, alg, jws.getHeader().getKeyID());
 
 				if (validator == null) {
 					throw new AuthenticationServiceException("Unable to create signature validator for client " + client + " and algorithm " + alg);
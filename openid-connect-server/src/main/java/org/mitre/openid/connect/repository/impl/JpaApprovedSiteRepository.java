@@ -20,6 +20,8 @@ package org.mitre.openid.connect.repository.impl;
 import static org.mitre.util.jpa.JpaUtil.saveOrUpdate;
 
 import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
@@ -27,6 +29,7 @@ import javax.persistence.TypedQuery;
 
 import org.mitre.openid.connect.model.ApprovedSite;
 import org.mitre.openid.connect.repository.ApprovedSiteRepository;
+import org.mitre.util.jpa.JpaUtil;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -101,4 +104,46 @@ public class JpaApprovedSiteRepository implements ApprovedSiteRepository {
 
 		return query.getResultList();
 	}
+
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public long getCount() {
+		return manager.createNamedQuery(ApprovedSite.QUERY_COUNT_ALL, Long.class).getSingleResult();
+	}
+
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public long getUserCount() {
+		return manager.createNamedQuery(ApprovedSite.QUERY_COUNT_USERS, Long.class).getSingleResult();
+	}
+
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public long getClientCount() {
+		return manager.createNamedQuery(ApprovedSite.QUERY_COUNT_CLIENTS, Long.class).getSingleResult();
+	}
+
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public long getCountByClientId(String clientId) {
+		TypedQuery<Long> query = manager.createNamedQuery(ApprovedSite.QUERY_COUNT_BY_CLIENT_ID, Long.class);
+		query.setParameter(ApprovedSite.PARAM_CLIENT_ID, clientId);
+		return query.getSingleResult();
+	}
+
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public List<Long> getExpiredIds(Date expiredBefore, int chunkSize) {
+		TypedQuery<Long> query = manager.createNamedQuery(ApprovedSite.QUERY_EXPIRED_IDS_BY_DATE, Long.class);
+		query.setParameter(ApprovedSite.PARAM_DATE, expiredBefore);
+		query.setMaxResults(chunkSize);
+		return query.getResultList();
+	}
+
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public int deleteByIds(Collection<Long> ids) {
+		JpaUtil.deleteByIds(manager, "approved_site_scope", "owner_id", ids);
+		return JpaUtil.deleteByIds(manager, "approved_site", "id", ids);
+	}
 }
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.repository.impl;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.mitre.openid.connect.model.CacheVersion;
+import org.mitre.openid.connect.repository.CacheVersionRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * JPA CacheVersionRepository implementation. Increments join the caller's
+ * transaction; creating a counter runs in its own so that losing the race
+ * to create it doesn't roll back the caller.
+ */
+@Repository
+public class JpaCacheVersionRepository implements CacheVersionRepository {
+
+	@PersistenceContext(unitName="defaultPersistenceUnit")
+	private EntityManager manager;
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.repository.CacheVersionRepository#getByName(java.lang.String)
+	 */
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public CacheVersion getByName(String name) {
+		return manager.find(CacheVersion.class, name);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.repository.CacheVersionRepository#create(org.mitre.openid.connect.model.CacheVersion)
+	 */
+	@Override
+	@Transactional(value="defaultTransactionManager", propagation = Propagation.REQUIRES_NEW)
+	public CacheVersion create(CacheVersion version) {
+		manager.persist(version);
+		// surface a duplicate key here rather than at commit
+		manager.flush();
+		return version;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.repository.CacheVersionRepository#increment(java.lang.String)
+	 */
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public boolean increment(String name) {
+		return manager.createNamedQuery(CacheVersion.QUERY_INCREMENT)
+				.setParameter(CacheVersion.PARAM_NAME, name)
+				.executeUpdate() > 0;
+	}
+
+}
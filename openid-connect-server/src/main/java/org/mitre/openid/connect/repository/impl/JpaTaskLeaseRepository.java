@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.repository.impl;
+
+import java.util.Collection;
+import java.util.Date;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+
+import org.mitre.openid.connect.model.TaskLease;
+import org.mitre.openid.connect.repository.TaskLeaseRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * JPA TaskLeaseRepository implementation. Every write runs in its own
+ * transaction so that a lease is visible to the other nodes as soon as
+ * it has been taken.
+ */
+@Repository
+public class JpaTaskLeaseRepository implements TaskLeaseRepository {
+
+	@PersistenceContext(unitName="defaultPersistenceUnit")
+	private EntityManager manager;
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.repository.TaskLeaseRepository#getAll()
+	 */
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public Collection<TaskLease> getAll() {
+		TypedQuery<TaskLease> query = manager.createNamedQuery(TaskLease.QUERY_ALL, TaskLease.class);
+		return query.getResultList();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.repository.TaskLeaseRepository#getByName(java.lang.String)
+	 */
+	@Override
+	@Transactional(value="defaultTransactionManager")
+	public TaskLease getByName(String name) {
+		return manager.find(TaskLease.class, name);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.repository.TaskLeaseRepository#create(org.mitre.openid.connect.model.TaskLease)
+	 */
+	@Override
+	@Transactional(value="defaultTransactionManager", propagation = Propagation.REQUIRES_NEW)
+	public TaskLease create(TaskLease lease) {
+		manager.persist(lease);
+		// surface a duplicate key here rather than at commit
+		manager.flush();
+		return lease;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.repository.TaskLeaseRepository#acquire(java.lang.String, java.lang.String, java.util.Date, java.util.Date)
+	 */
+	@Override
+	@Transactional(value="defaultTransactionManager", propagation = Propagation.REQUIRES_NEW)
+	public boolean acquire(String name, String holder, Date now, Date expiration) {
+		return manager.createNamedQuery(TaskLease.QUERY_ACQUIRE)
+				.setParameter(TaskLease.PARAM_NAME, name)
+				.setParameter(TaskLease.PARAM_HOLDER, holder)
+				.setParameter(TaskLease.PARAM_NOW, now)
+				.setParameter(TaskLease.PARAM_EXPIRATION, expiration)
+				.executeUpdate() > 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.repository.TaskLeaseRepository#recordRun(java.lang.String, java.lang.String, java.util.Date, long, java.util.Date)
+	 */
+	@Override
+	@Transactional(value="defaultTransactionManager", propagation = Propagation.REQUIRES_NEW)
+	public boolean recordRun(String name, String holder, Date now, long duration, Date expiration) {
+		return manager.createNamedQuery(TaskLease.QUERY_RECORD_RUN)
+				.setParameter(TaskLease.PARAM_NAME, name)
+				.setParameter(TaskLease.PARAM_HOLDER, holder)
+				.setParameter(TaskLease.PARAM_NOW, now)
+				.setParameter(TaskLease.PARAM_DURATION, duration)
+				.setParameter(TaskLease.PARAM_EXPIRATION, expiration)
+				.executeUpdate() > 0;
+	}
+
+}
@@ -209,7 +209,7 @@ public class ConnectOAuth2RequestFactory extends DefaultOAuth2RequestFactory {
 					throw new InvalidClientException("Client's registered request object signing algorithm (" + client.getRequestObjectSigningAlg() + ") does not match request object's actual algorithm (" + alg.getName() + ")");
 				}
 
-				JWTSigningAndValidationService validator = validators.getValidator(client, alg);
+				JWTSigningAndValidationService validator = validators.getValidator(client, alg, signedJwt.getHeader().getKeyID());
 
 				if (validator == null) {
 					throw new InvalidClientException("Unable to create signature validator for client " + client + " and algorithm " + alg);
@@ -21,9 +21,12 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.mitre.data.AbstractChunkedDeleteTemplate;
 import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
 import org.mitre.oauth2.repository.OAuth2TokenRepository;
+import org.mitre.oauth2.service.AccessTokenCacheService;
 import org.mitre.openid.connect.model.ApprovedSite;
 import org.mitre.openid.connect.repository.ApprovedSiteRepository;
 import org.mitre.openid.connect.service.ApprovedSiteService;
@@ -35,9 +38,6 @@ import org.springframework.security.oauth2.provider.ClientDetails;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
-
 /**
  * Implementation of the ApprovedSiteService
  *
@@ -52,12 +52,17 @@ public class DefaultApprovedSiteService implements ApprovedSiteService {
 	 */
 	private static final Logger logger = LoggerFactory.getLogger(DefaultApprovedSiteService.class);
 
+	private static final int CLEANUP_CHUNK_SIZE = 500;
+
 	@Autowired
 	private ApprovedSiteRepository approvedSiteRepository;
 
 	@Autowired
 	private OAuth2TokenRepository tokenRepository;
 
+	@Autowired
+	private AccessTokenCacheService tokenCache;
+
 	@Autowired
 	private StatsService statsService;
 
@@ -69,8 +74,12 @@ public class DefaultApprovedSiteService implements ApprovedSiteService {
 	@Override
 	@Transactional(value="defaultTransactionManager")
 	public ApprovedSite save(ApprovedSite approvedSite) {
+		// updates such as the access date on each login don't change any counts
+		boolean isNew = approvedSite.getId() == null;
 		ApprovedSite a = approvedSiteRepository.save(approvedSite);
-		statsService.resetCache();
+		if (isNew) {
+			statsService.resetCache();
+		}
 		return a;
 	}
 
@@ -90,6 +99,7 @@ public class DefaultApprovedSiteService implements ApprovedSiteService {
 			if (token.getRefreshToken() != null) {
 				tokenRepository.removeRefreshToken(token.getRefreshToken());
 			}
+			tokenCache.evict(token);
 			tokenRepository.removeAccessToken(token);
 		}
 
@@ -112,7 +122,9 @@ public class DefaultApprovedSiteService implements ApprovedSiteService {
 		as.setTimeoutDate(timeoutDate);
 		as.setAllowedScopes(allowedScopes);
 
-		return save(as);
+		// save() resets the stats cache for the new site
+		as = save(as);
+		return as;
 
 	}
 
@@ -154,32 +166,40 @@ public class DefaultApprovedSiteService implements ApprovedSiteService {
 		}
 	}
 
+	/**
+	 * Removes expired sites a chunk at a time, selecting them through the indexed
+	 * timeout date and deleting them and their tokens with set-based statements,
+	 * so that the job never has to load every approved site into memory.
+	 */
 	@Override
 	public void clearExpiredSites() {
 
 		logger.debug("Clearing expired approved sites");
 
-		Collection<ApprovedSite> expiredSites = getExpired();
-		if (expiredSites.size() > 0) {
-			logger.info("Found " + expiredSites.size() + " expired approved sites.");
-		}
-		if (expiredSites != null) {
-			for (ApprovedSite expired : expiredSites) {
-				remove(expired);
+		final Date now = new Date();
+		final AtomicInteger tokenCount = new AtomicInteger();
+
+		long count = new AbstractChunkedDeleteTemplate("clearExpiredSites") {
+			@Override
+			protected int deleteChunk() {
+				List<Long> ids = approvedSiteRepository.getExpiredIds(now, CLEANUP_CHUNK_SIZE);
+				if (ids.isEmpty()) {
+					return 0;
+				}
+				// tokens go first, so a failure part way leaves the sites to be picked up by the next run
+				tokenCount.addAndGet(tokenRepository.deleteTokensForApprovedSites(ids));
+				return approvedSiteRepository.deleteByIds(ids);
 			}
-		}
+		}.execute();
 
-	}
-
-	private Predicate<ApprovedSite> isExpired = new Predicate<ApprovedSite>() {
-		@Override
-		public boolean apply(ApprovedSite input) {
-			return (input != null && input.isExpired());
+		if (tokenCount.get() > 0) {
+			// the deleted tokens were never loaded, so they can't be evicted one by one
+			tokenCache.evictAll();
+		}
+		if (count > 0) {
+			statsService.resetCache();
 		}
-	};
 
-	private Collection<ApprovedSite> getExpired() {
-		return Collections2.filter(approvedSiteRepository.getAll(), isExpired);
 	}
 
 	@Override
@@ -21,17 +21,27 @@
 package org.mitre.openid.connect.service.impl;
 
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
+import org.mitre.data.AbstractVersionedSnapshot;
 import org.mitre.openid.connect.model.BlacklistedSite;
 import org.mitre.openid.connect.repository.BlacklistedSiteRepository;
 import org.mitre.openid.connect.service.BlacklistedSiteService;
+import org.mitre.openid.connect.service.CacheVersionService;
+import org.mitre.openid.connect.util.TransactionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.base.Strings;
 
 /**
+ * Blacklist service that answers isBlacklisted from an in-memory set of the
+ * blacklisted URIs. The set is rebuilt when this node changes the blacklist,
+ * or when the blacklist's version in the database shows that another node did.
+ *
  * @author jricher
  *
  */
@@ -39,9 +49,34 @@ import com.google.common.base.Strings;
 @Transactional(value="defaultTransactionManager")
 public class DefaultBlacklistedSiteService implements BlacklistedSiteService {
 
+	/**
+	 * Name of the blacklist's cache version
+	 */
+	public static final String CACHE_NAME = "blacklisted_site";
+
 	@Autowired
 	private BlacklistedSiteRepository repository;
 
+	@Autowired
+	private CacheVersionService cacheVersionService;
+
+	// the blacklisted URIs, reloaded when the blacklist's version changes
+	private final AbstractVersionedSnapshot<Set<String>> blacklist = new AbstractVersionedSnapshot<Set<String>>() {
+		@Override
+		protected long currentVersion() {
+			return cacheVersionService.getVersion(CACHE_NAME);
+		}
+
+		@Override
+		protected Set<String> load() {
+			Set<String> uris = new HashSet<>();
+			for (BlacklistedSite site : repository.getAll()) {
+				uris.add(Strings.nullToEmpty(site.getUri()));
+			}
+			return uris;
+		}
+	};
+
 	/* (non-Javadoc)
 	 * @see org.mitre.openid.connect.service.BlacklistedSiteService#getAll()
 	 */
@@ -64,6 +99,7 @@ public class DefaultBlacklistedSiteService implements BlacklistedSiteService {
 	@Override
 	public void remove(BlacklistedSite blacklistedSite) {
 		repository.remove(blacklistedSite);
+		blacklistChanged();
 	}
 
 	/* (non-Javadoc)
@@ -71,7 +107,9 @@ public class DefaultBlacklistedSiteService implements BlacklistedSiteService {
 	 */
 	@Override
 	public BlacklistedSite saveNew(BlacklistedSite blacklistedSite) {
-		return repository.save(blacklistedSite);
+		BlacklistedSite saved = repository.save(blacklistedSite);
+		blacklistChanged();
+		return saved;
 	}
 
 	/* (non-Javadoc)
@@ -79,30 +117,50 @@ public class DefaultBlacklistedSiteService implements BlacklistedSiteService {
 	 */
 	@Override
 	public BlacklistedSite update(BlacklistedSite oldBlacklistedSite, BlacklistedSite blacklistedSite) {
-		return repository.update(oldBlacklistedSite, blacklistedSite);
+		BlacklistedSite updated = repository.update(oldBlacklistedSite, blacklistedSite);
+		blacklistChanged();
+		return updated;
 	}
 
 	/* (non-Javadoc)
 	 * @see org.mitre.openid.connect.service.BlacklistedSiteService#isBlacklisted(java.lang.String)
 	 */
 	@Override
+	@Transactional(value="defaultTransactionManager", propagation = Propagation.SUPPORTS)
 	public boolean isBlacklisted(String uri) {
 
 		if (Strings.isNullOrEmpty(uri)) {
 			return false; // can't be blacklisted if you don't exist
 		}
 
-		Collection<BlacklistedSite> sites = getAll();
-
 		// TODO: rewrite this to do regex matching and use the Guava predicates collection
 
-		for (BlacklistedSite blacklistedSite : sites) {
-			if (Strings.nullToEmpty(blacklistedSite.getUri()).equals(uri)) {
-				return true;
-			}
-		}
+		// answered from memory, so don't open a transaction for it
+		return blacklist.get().contains(uri);
+	}
+
+	/**
+	 * Bump the database version so other nodes reload, and drop this node's copy once the change has committed
+	 */
+	private void blacklistChanged() {
+		cacheVersionService.increment(CACHE_NAME);
+		TransactionUtils.afterCommit(blacklist::invalidate);
+	}
 
-		return false;
+	/**
+	 * @return how long the in-memory blacklist is used before the database version is checked again
+	 */
+	public long getVersionCheckSeconds() {
+		return blacklist.getVersionCheckSeconds();
+	}
+
+	/**
+	 * Set how long the in-memory blacklist is used before the database version is checked again.
+	 * This bounds how long a change made on another node takes to be seen here.
+	 * @param versionCheckSeconds
+	 */
+	public void setVersionCheckSeconds(long versionCheckSeconds) {
+		blacklist.setVersionCheckSeconds(versionCheckSeconds);
 	}
 
 }
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.service.impl;
+
+import org.mitre.openid.connect.model.CacheVersion;
+import org.mitre.openid.connect.repository.CacheVersionRepository;
+import org.mitre.openid.connect.service.CacheVersionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Database-backed cache version service. Each version is a single row that is
+ * incremented in place, so reading it is one primary key lookup.
+ */
+@Service("defaultCacheVersionService")
+public class DefaultCacheVersionService implements CacheVersionService {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultCacheVersionService.class);
+
+	@Autowired
+	private CacheVersionRepository repository;
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.service.CacheVersionService#getVersion(java.lang.String)
+	 */
+	@Override
+	public long getVersion(String name) {
+		CacheVersion version = repository.getByName(name);
+		return version == null ? 0 : version.getVersion();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.service.CacheVersionService#increment(java.lang.String)
+	 */
+	@Override
+	public void increment(String name) {
+		if (repository.increment(name)) {
+			return;
+		}
+
+		// first change to this data anywhere in the cluster
+		try {
+			repository.create(new CacheVersion(name));
+		} catch (RuntimeException e) {
+			logger.debug("Another node created the cache version for {} first", name);
+		}
+
+		if (!repository.increment(name)) {
+			throw new IllegalStateException("Could not increment cache version for " + name);
+		}
+	}
+
+}
@@ -20,35 +20,54 @@
  */
 package org.mitre.openid.connect.service.impl;
 
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
-import org.mitre.openid.connect.model.ApprovedSite;
 import org.mitre.openid.connect.model.ClientStat;
-import org.mitre.openid.connect.service.ApprovedSiteService;
+import org.mitre.openid.connect.repository.ApprovedSiteRepository;
 import org.mitre.openid.connect.service.StatsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 
 /**
+ * Computes statistics with aggregate count queries against the approved site
+ * table, so that each calculation is a fixed number of queries no matter how
+ * many sites there are. Results are kept for a few minutes and dropped only
+ * when the set of approved sites or clients changes, not on every login.
+ *
  * @author jricher
  *
  */
 @Service
 public class DefaultStatsService implements StatsService {
 
+	private static final long CACHE_MINUTES = 10;
+
+	private static final long MAX_CLIENT_COUNTS = 10000;
+
 	@Autowired
-	private ApprovedSiteService approvedSiteService;
+	private ApprovedSiteRepository approvedSiteRepository;
 
 	// stats cache
-	private Supplier<Map<String, Integer>> summaryCache = createSummaryCache();
+	private volatile Supplier<Map<String, Integer>> summaryCache = createSummaryCache();
+
+	// per-client approval counts, used on every approval page
+	private final LoadingCache<String, Integer> clientCountCache = CacheBuilder.newBuilder()
+			.expireAfterWrite(CACHE_MINUTES, TimeUnit.MINUTES)
+			.maximumSize(MAX_CLIENT_COUNTS)
+			.build(new CacheLoader<String, Integer>() {
+				@Override
+				public Integer load(String clientId) throws Exception {
+					return (int) approvedSiteRepository.getCountByClientId(clientId);
+				}
+			});
 
 	private Supplier<Map<String, Integer>> createSummaryCache() {
 		return Suppliers.memoizeWithExpiration(new Supplier<Map<String, Integer>>() {
@@ -57,7 +76,7 @@ public class DefaultStatsService implements StatsService {
 				return computeSummaryStats();
 			}
 
-		}, 10, TimeUnit.MINUTES);
+		}, CACHE_MINUTES, TimeUnit.MINUTES);
 	}
 
 	@Override
@@ -67,22 +86,11 @@ public class DefaultStatsService implements StatsService {
 
 	// do the actual computation
 	private Map<String, Integer> computeSummaryStats() {
-		// get all approved sites
-		Collection<ApprovedSite> allSites = approvedSiteService.getAll();
-
-		// process to find number of unique users and sites
-		Set<String> userIds = new HashSet<>();
-		Set<String> clientIds = new HashSet<>();
-		for (ApprovedSite approvedSite : allSites) {
-			userIds.add(approvedSite.getUserId());
-			clientIds.add(approvedSite.getClientId());
-		}
-
 		Map<String, Integer> e = new HashMap<>();
 
-		e.put("approvalCount", allSites.size());
-		e.put("userCount", userIds.size());
-		e.put("clientCount", clientIds.size());
+		e.put("approvalCount", (int) approvedSiteRepository.getCount());
+		e.put("userCount", (int) approvedSiteRepository.getUserCount());
+		e.put("clientCount", (int) approvedSiteRepository.getClientCount());
 		return e;
 	}
 
@@ -92,10 +100,8 @@ public class DefaultStatsService implements StatsService {
 	@Override
 	public ClientStat getCountForClientId(String clientId) {
 
-		Collection<ApprovedSite> approvedSites = approvedSiteService.getByClientId(clientId);
-
 		ClientStat stat = new ClientStat();
-		stat.setApprovedSiteCount(approvedSites.size());
+		stat.setApprovedSiteCount(clientCountCache.getUnchecked(clientId));
 
 		return stat;
 	}
@@ -106,6 +112,7 @@ public class DefaultStatsService implements StatsService {
 	@Override
 	public void resetCache() {
 		summaryCache = createSummaryCache();
+		clientCountCache.invalidateAll();
 	}
 
 }
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.service.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Date;
+
+import org.mitre.openid.connect.model.TaskLease;
+import org.mitre.openid.connect.repository.TaskLeaseRepository;
+import org.mitre.openid.connect.service.TaskLeaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.base.Strings;
+
+/**
+ * Database-backed task lease service. Taking a lease is a single
+ * conditional update, so of several nodes racing for the same task
+ * exactly one succeeds.
+ */
+@Service("defaultTaskLeaseService")
+public class DefaultTaskLeaseService implements TaskLeaseService {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultTaskLeaseService.class);
+
+	@Autowired
+	private TaskLeaseRepository repository;
+
+	// defaults to pid@hostname, which is unique per running server
+	private String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.service.TaskLeaseService#runWithLease(java.lang.String, long, java.lang.Runnable)
+	 */
+	@Override
+	public boolean runWithLease(String taskName, long leaseMillis, Runnable task) {
+		Date now = new Date();
+		if (!acquire(taskName, now, new Date(now.getTime() + leaseMillis))) {
+			logger.debug("Lease for {} is held by another node, skipping this run", taskName);
+			return false;
+		}
+
+		long start = System.currentTimeMillis();
+		try {
+			task.run();
+		} finally {
+			long finished = System.currentTimeMillis();
+			long duration = finished - start;
+			try {
+				if (!repository.recordRun(taskName, nodeId, new Date(finished), duration, new Date(finished + leaseMillis))) {
+					logger.warn("Lease for {} was taken over by another node while {} was running it for {} ms; consider a longer lease", taskName, nodeId, duration);
+				}
+			} catch (RuntimeException e) {
+				logger.warn("Could not record run of " + taskName + " on " + nodeId, e);
+			}
+		}
+		return true;
+	}
+
+	private boolean acquire(String taskName, Date now, Date expiration) {
+		if (repository.acquire(taskName, nodeId, now, expiration)) {
+			return true;
+		}
+
+		if (repository.getByName(taskName) != null) {
+			return false;
+		}
+
+		// first run of this task anywhere in the cluster
+		TaskLease lease = new TaskLease(taskName);
+		lease.setHolder(nodeId);
+		lease.setLastStarted(now);
+		lease.setLeaseExpiration(expiration);
+		try {
+			repository.create(lease);
+			return true;
+		} catch (RuntimeException e) {
+			logger.debug("Another node created the lease for {} first", taskName);
+			return false;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.service.TaskLeaseService#getAll()
+	 */
+	@Override
+	public Collection<TaskLease> getAll() {
+		return repository.getAll();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.service.TaskLeaseService#getNodeId()
+	 */
+	@Override
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * @param nodeId the identifier of this node, must be unique within the cluster
+	 */
+	public void setNodeId(String nodeId) {
+		if (!Strings.isNullOrEmpty(nodeId)) {
+			this.nodeId = nodeId;
+		}
+	}
+
+}
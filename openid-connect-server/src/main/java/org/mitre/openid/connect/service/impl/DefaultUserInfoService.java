@@ -17,6 +17,8 @@
  *******************************************************************************/
 package org.mitre.openid.connect.service.impl;
 
+import java.util.Arrays;
+
 import org.mitre.oauth2.model.ClientDetailsEntity;
 import org.mitre.oauth2.model.ClientDetailsEntity.SubjectType;
 import org.mitre.oauth2.service.ClientDetailsEntityService;
@@ -24,11 +26,13 @@ import org.mitre.openid.connect.model.UserInfo;
 import org.mitre.openid.connect.repository.UserInfoRepository;
 import org.mitre.openid.connect.service.PairwiseIdentiferService;
 import org.mitre.openid.connect.service.UserInfoService;
+import org.mitre.util.RequestScopedCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 /**
- * Implementation of the UserInfoService
+ * Implementation of the UserInfoService. Users are remembered for the
+ * rest of the request once loaded, see {@link RequestScopedCache}.
  *
  * @author Michael Joseph Walsh, jricher
  *
@@ -47,26 +51,35 @@ public class DefaultUserInfoService implements UserInfoService {
 
 	@Override
 	public UserInfo getByUsername(String username) {
-		return userInfoRepository.getByUsername(username);
+		return RequestScopedCache.get(Arrays.asList("userInfo", username), () -> userInfoRepository.getByUsername(username));
 	}
 
 	@Override
 	public UserInfo getByUsernameAndClientId(String username, String clientId) {
+		return RequestScopedCache.get(Arrays.asList("userInfo", username, clientId), () -> loadByUsernameAndClientId(username, clientId));
+	}
 
-		ClientDetailsEntity client = clientService.loadClientByClientId(clientId);
+	private UserInfo loadByUsernameAndClientId(String username, String clientId) {
 
-		UserInfo userInfo = getByUsername(username);
+		ClientDetailsEntity client = clientService.loadClientByClientId(clientId);
 
-		if (client == null || userInfo == null) {
+		if (client == null) {
 			return null;
 		}
 
 		if (SubjectType.PAIRWISE.equals(client.getSubjectType())) {
+			// the subject is replaced below, so load a separate copy rather than the one shared by getByUsername
+			UserInfo userInfo = userInfoRepository.getByUsername(username);
+			if (userInfo == null) {
+				return null;
+			}
+
 			String pairwiseSub = pairwiseIdentifierService.getIdentifier(userInfo, client);
 			userInfo.setSub(pairwiseSub);
+			return userInfo;
 		}
 
-		return userInfo;
+		return getByUsername(username);
 
 	}
 
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.service.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.mitre.oauth2.model.ClientDetailsEntity;
+import org.mitre.openid.connect.model.PairwiseIdentifier;
+import org.mitre.openid.connect.model.UserInfo;
+import org.mitre.openid.connect.repository.PairwiseIdentifierRepository;
+import org.mitre.openid.connect.service.PairwiseIdentiferService;
+import org.mitre.util.RequestScopedCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Pairwise identifier service that derives each identifier as an HMAC-SHA256 of the
+ * sector identifier and the user's subject, so identifiers never need to be stored.
+ *
+ * Keys are configured by key id. New sectors use the current key; sectors listed in
+ * the sector key map keep using the key they were first issued under, which lets the
+ * current key be rotated without changing identifiers that clients already hold.
+ *
+ * In migration mode, an identifier previously stored by {@link UUIDPairwiseIdentiferService}
+ * takes precedence over the derived one. The stored table is only read, never written.
+ *
+ * This service is not registered by default; declare it as a primary bean to use it.
+ */
+public class HmacPairwiseIdentiferService implements PairwiseIdentiferService {
+
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(HmacPairwiseIdentiferService.class);
+
+	/**
+	 * Minimum length of a decoded key, in bytes
+	 */
+	public static final int MIN_KEY_LENGTH = 32;
+
+	@Autowired(required = false)
+	private PairwiseIdentifierRepository pairwiseIdentifierRepository;
+
+	private Map<String, HashFunction> keys = new HashMap<>();
+
+	private String currentKeyId;
+
+	private Map<String, String> sectorKeyIds = new HashMap<>();
+
+	private boolean migrationMode = false;
+
+	/**
+	 * Check that the configured keys are usable.
+	 */
+	@PostConstruct
+	public void validate() {
+		if (Strings.isNullOrEmpty(currentKeyId) || !keys.containsKey(currentKeyId)) {
+			throw new IllegalArgumentException("Current pairwise key id is not one of the configured keys: " + currentKeyId);
+		}
+		for (Map.Entry<String, String> e : sectorKeyIds.entrySet()) {
+			if (!keys.containsKey(e.getValue())) {
+				throw new IllegalArgumentException("Sector " + e.getKey() + " refers to unknown pairwise key id: " + e.getValue());
+			}
+		}
+		if (migrationMode && pairwiseIdentifierRepository == null) {
+			throw new IllegalArgumentException("Migration mode requires a pairwise identifier repository");
+		}
+	}
+
+	@Override
+	public String getIdentifier(UserInfo userInfo, ClientDetailsEntity client) {
+
+		String sectorIdentifier = UUIDPairwiseIdentiferService.getSectorIdentifier(client);
+
+		if (sectorIdentifier == null) {
+			return null;
+		}
+
+		String userSub = userInfo.getSub();
+
+		if (migrationMode) {
+			// the stored lookup is the only expensive part, do it once per request
+			return RequestScopedCache.get(Arrays.asList("pairwise", userSub, sectorIdentifier), () -> {
+				PairwiseIdentifier stored = pairwiseIdentifierRepository.getBySectorIdentifier(userSub, sectorIdentifier);
+				if (stored != null) {
+					return stored.getIdentifier();
+				}
+				return deriveIdentifier(userSub, sectorIdentifier);
+			});
+		} else {
+			return deriveIdentifier(userSub, sectorIdentifier);
+		}
+	}
+
+	/**
+	 * Derive the identifier for a user in a sector with the key assigned to that sector.
+	 */
+	String deriveIdentifier(String userSub, String sectorIdentifier) {
+		String keyId = sectorKeyIds.getOrDefault(sectorIdentifier, currentKeyId);
+		HashFunction hmac = keys.get(keyId);
+		if (hmac == null) {
+			throw new IllegalStateException("No pairwise key configured with id " + keyId);
+		}
+
+		byte[] digest = hmac.newHasher()
+				.putString(sectorIdentifier, StandardCharsets.UTF_8)
+				.putByte((byte) 0) // separator, cannot occur in a host name
+				.putString(userSub, StandardCharsets.UTF_8)
+				.hash()
+				.asBytes();
+
+		logger.debug("Derived pairwise identifier for sector " + sectorIdentifier + " with key " + keyId);
+
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+	}
+
+	/**
+	 * @param keys map of key id to base64-encoded secret, each at least {@value #MIN_KEY_LENGTH} bytes
+	 */
+	public void setKeys(Map<String, String> keys) {
+		Map<String, HashFunction> parsed = new HashMap<>();
+		for (Map.Entry<String, String> e : keys.entrySet()) {
+			byte[] secret = Base64.getDecoder().decode(e.getValue());
+			if (secret.length < MIN_KEY_LENGTH) {
+				throw new IllegalArgumentException("Pairwise key " + e.getKey() + " is shorter than " + MIN_KEY_LENGTH + " bytes");
+			}
+			parsed.put(e.getKey(), Hashing.hmacSha256(secret));
+		}
+		this.keys = parsed;
+	}
+
+	/**
+	 * @return the id of the key used for sectors without a pinned key
+	 */
+	public String getCurrentKeyId() {
+		return currentKeyId;
+	}
+
+	/**
+	 * @param currentKeyId the id of the key used for sectors without a pinned key
+	 */
+	public void setCurrentKeyId(String currentKeyId) {
+		this.currentKeyId = currentKeyId;
+	}
+
+	/**
+	 * @return map of sector identifier to the key id pinned for that sector
+	 */
+	public Map<String, String> getSectorKeyIds() {
+		return sectorKeyIds;
+	}
+
+	/**
+	 * @param sectorKeyIds map of sector identifier to the key id pinned for that sector
+	 */
+	public void setSectorKeyIds(Map<String, String> sectorKeyIds) {
+		this.sectorKeyIds = sectorKeyIds;
+	}
+
+	/**
+	 * @return whether stored identifiers take precedence over derived ones
+	 */
+	public boolean isMigrationMode() {
+		return migrationMode;
+	}
+
+	/**
+	 * @param migrationMode whether stored identifiers take precedence over derived ones
+	 */
+	public void setMigrationMode(boolean migrationMode) {
+		this.migrationMode = migrationMode;
+	}
+
+}
@@ -16,53 +16,118 @@
 
 package org.mitre.openid.connect.service.impl;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.mitre.oauth2.model.ClientDetailsEntity;
 import org.mitre.openid.connect.model.CachedImage;
 import org.mitre.openid.connect.service.ClientLogoLoadingService;
+import org.mitre.util.http.PooledHttpClientFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Strings;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
+ * Loads client logos from their logo URIs and caches them by client ID and logo URI.
+ *
+ * The cache is bounded by the total size of the images it holds, and images over a size
+ * limit are refused. Cached images are revalidated in the background with the ETag and
+ * Last-Modified headers they were served with. If a disk cache directory is set, every
+ * image is also written there, so images evicted from memory or lost on restart are read
+ * back from disk and revalidated instead of fetched in full. The disk cache keeps one file
+ * per client, replaced when the client's logo changes, and is bounded by total size: the
+ * least recently used files are deleted once it grows past the limit.
+ *
  * @author jricher
  *
  */
 @Service("inMemoryClientLogoLoadingService")
 public class InMemoryClientLogoLoadingService implements ClientLogoLoadingService {
 
-	private LoadingCache<ClientDetailsEntity, CachedImage> cache;
+	/**
+	 * Logger for this class
+	 */
+	private static final Logger logger = LoggerFactory.getLogger(InMemoryClientLogoLoadingService.class);
+
+	private long maxCacheBytes = 16 * 1024 * 1024;
+
+	private int maxImageBytes = 256 * 1024;
+
+	private long revalidateMinutes = 24 * 60;
+
+	private File diskCacheDirectory;
+
+	private long maxDiskCacheBytes = 64 * 1024 * 1024;
+
+	// bytes held in the disk cache directory, -1 until it has been scanned
+	private long diskCacheBytes = -1;
+
+	// pools logo fetches, a factory of this service's own if none is wired
+	@Autowired(required = false)
+	private PooledHttpClientFactory httpClientFactory;
+
+	private Executor fetchExecutor;
+
+	private HttpClient httpClient;
+
+	// map of (client ID, logo URI) -> image
+	private LoadingCache<List<String>, CachedImage> cache;
 
 	public InMemoryClientLogoLoadingService() {
-		this(HttpClientBuilder.create().useSystemProperties().build());
+		this(null);
 	}
 
 	/**
 	 *
 	 */
 	public InMemoryClientLogoLoadingService(HttpClient httpClient) {
+		this.httpClient = httpClient;
+		buildCache();
+	}
 
+	private void buildCache() {
 		cache = CacheBuilder.newBuilder()
-				.maximumSize(100)
+				.maximumWeight(maxCacheBytes)
+				.weigher((List<String> key, CachedImage image) -> image.getData().length)
 				.expireAfterAccess(14, TimeUnit.DAYS)
-				.build(new ClientLogoFetcher(httpClient));
-
+				.refreshAfterWrite(revalidateMinutes, TimeUnit.MINUTES)
+				.build(new ClientLogoFetcher());
 	}
 
-
 	/* (non-Javadoc)
 	 * @see org.mitre.openid.connect.service.ClientLogoLoadingService#getLogo(org.mitre.oauth2.model.ClientDetailsEntity)
 	 */
@@ -70,7 +135,7 @@ public class InMemoryClientLogoLoadingService implements ClientLogoLoadingServic
 	public CachedImage getLogo(ClientDetailsEntity client) {
 		try {
 			if (client != null && !Strings.isNullOrEmpty(client.getLogoUri())) {
-				return cache.get(client);
+				return cache.get(getKey(client));
 			} else {
 				return null;
 			}
@@ -79,15 +144,153 @@ public class InMemoryClientLogoLoadingService implements ClientLogoLoadingServic
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see org.mitre.openid.connect.service.ClientLogoLoadingService#prefetchLogo(org.mitre.oauth2.model.ClientDetailsEntity)
+	 */
+	@Override
+	public void prefetchLogo(ClientDetailsEntity client) {
+		if (client == null || Strings.isNullOrEmpty(client.getLogoUri())) {
+			return;
+		}
+
+		List<String> key = getKey(client);
+		if (cache.getIfPresent(key) == null) {
+			try {
+				getFetchExecutor().execute(() -> {
+					try {
+						cache.get(key);
+					} catch (UncheckedExecutionException | ExecutionException e) {
+						logger.debug("Unable to prefetch logo for client " + client.getClientId(), e);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				logger.debug("Too many pending fetches, not prefetching logo for client " + client.getClientId());
+			}
+		}
+	}
+
+	private List<String> getKey(ClientDetailsEntity client) {
+		return Arrays.asList(client.getClientId(), client.getLogoUri());
+	}
+
+	/**
+	 * @return the most bytes of image data held in memory
+	 */
+	public long getMaxCacheBytes() {
+		return maxCacheBytes;
+	}
+
+	/**
+	 * @param maxCacheBytes the most bytes of image data held in memory
+	 */
+	public void setMaxCacheBytes(long maxCacheBytes) {
+		this.maxCacheBytes = maxCacheBytes;
+		buildCache();
+	}
+
+	/**
+	 * @return the largest image accepted, in bytes
+	 */
+	public int getMaxImageBytes() {
+		return maxImageBytes;
+	}
+
+	/**
+	 * @param maxImageBytes the largest image accepted, in bytes
+	 */
+	public void setMaxImageBytes(int maxImageBytes) {
+		this.maxImageBytes = maxImageBytes;
+	}
+
+	/**
+	 * @return how long an image is served before it is revalidated in the background
+	 */
+	public long getRevalidateMinutes() {
+		return revalidateMinutes;
+	}
+
+	/**
+	 * @param revalidateMinutes how long an image is served before it is revalidated in the background
+	 */
+	public void setRevalidateMinutes(long revalidateMinutes) {
+		this.revalidateMinutes = revalidateMinutes;
+		buildCache();
+	}
+
+	/**
+	 * @return the directory images are also written to, or null to keep them in memory only
+	 */
+	public File getDiskCacheDirectory() {
+		return diskCacheDirectory;
+	}
+
+	/**
+	 * @param diskCacheDirectory the directory images are also written to, or null to keep them in memory only
+	 */
+	public synchronized void setDiskCacheDirectory(File diskCacheDirectory) {
+		this.diskCacheDirectory = diskCacheDirectory;
+		this.diskCacheBytes = -1;
+	}
+
+	/**
+	 * @return the most bytes kept in the disk cache directory
+	 */
+	public long getMaxDiskCacheBytes() {
+		return maxDiskCacheBytes;
+	}
+
+	/**
+	 * @param maxDiskCacheBytes the most bytes kept in the disk cache directory
+	 */
+	public void setMaxDiskCacheBytes(long maxDiskCacheBytes) {
+		this.maxDiskCacheBytes = maxDiskCacheBytes;
+	}
+
+	/**
+	 * @param fetchExecutor runs prefetches and background revalidation
+	 */
+	public synchronized void setFetchExecutor(Executor fetchExecutor) {
+		this.fetchExecutor = fetchExecutor;
+	}
+
+	/**
+	 * @param httpClientFactory supplies the HTTP client and pool for logo fetches that were not set directly
+	 */
+	public synchronized void setHttpClientFactory(PooledHttpClientFactory httpClientFactory) {
+		this.httpClientFactory = httpClientFactory;
+	}
+
+	private synchronized PooledHttpClientFactory getHttpClientFactory() {
+		if (httpClientFactory == null) {
+			httpClientFactory = new PooledHttpClientFactory();
+		}
+		return httpClientFactory;
+	}
+
+	private synchronized HttpClient getHttpClient() {
+		if (httpClient == null) {
+			httpClient = getHttpClientFactory().getClient();
+		}
+		return httpClient;
+	}
+
+	private synchronized Executor getFetchExecutor() {
+		if (fetchExecutor == null) {
+			fetchExecutor = getHttpClientFactory().getAsyncExecutor();
+		}
+		return fetchExecutor;
+	}
+
 	/**
 	 * @author jricher
 	 *
 	 */
-	public class ClientLogoFetcher extends CacheLoader<ClientDetailsEntity, CachedImage> {
+	public class ClientLogoFetcher extends CacheLoader<List<String>, CachedImage> {
 		private HttpClient httpClient;
 
+		// uses the service's client when none is given
 		public ClientLogoFetcher() {
-			this(HttpClientBuilder.create().useSystemProperties().build());
+			this(null);
 		}
 
 		public ClientLogoFetcher(HttpClient httpClient) {
@@ -98,25 +301,227 @@ public class InMemoryClientLogoLoadingService implements ClientLogoLoadingServic
 		 * @see com.google.common.cache.CacheLoader#load(java.lang.Object)
 		 */
 		@Override
-		public CachedImage load(ClientDetailsEntity key) throws Exception {
-			try {
-				HttpResponse response = httpClient.execute(new HttpGet(key.getLogoUri()));
+		public CachedImage load(List<String> key) throws Exception {
+			CachedImage image = readFromDisk(key);
+			if (image != null) {
+				// served as-is, and revalidated once the refresh time has passed
+				return image;
+			}
+
+			image = fetch(key.get(1), null);
+			writeToDisk(key, image);
+			return image;
+		}
+
+		/* (non-Javadoc)
+		 * @see com.google.common.cache.CacheLoader#reload(java.lang.Object, java.lang.Object)
+		 */
+		@Override
+		public ListenableFuture<CachedImage> reload(List<String> key, CachedImage oldValue) throws Exception {
+			// keep serving the old image while it's revalidated
+			ListenableFutureTask<CachedImage> task = ListenableFutureTask.create(() -> {
+				CachedImage image = fetch(key.get(1), oldValue);
+				if (image != oldValue) {
+					writeToDisk(key, image);
+				}
+				return image;
+			});
+			getFetchExecutor().execute(task);
+			return task;
+		}
+
+		/**
+		 * Fetch the image, conditionally if there's a previous copy to revalidate.
+		 *
+		 * @return the new image, or the previous one if it hasn't changed
+		 */
+		private CachedImage fetch(String logoUri, CachedImage previous) {
+			HttpGet get = new HttpGet(logoUri);
+			if (previous != null) {
+				if (previous.getEtag() != null) {
+					get.setHeader(HttpHeaders.IF_NONE_MATCH, previous.getEtag());
+				}
+				if (previous.getLastModified() != null) {
+					get.setHeader(HttpHeaders.IF_MODIFIED_SINCE, previous.getLastModified());
+				}
+			}
 
+			try {
+				HttpResponse response = (httpClient != null ? httpClient : getHttpClient()).execute(get);
 				HttpEntity entity = response.getEntity();
+				try {
+					int status = response.getStatusLine().getStatusCode();
+					if (status == HttpStatus.SC_NOT_MODIFIED && previous != null) {
+						return previous;
+					}
+					if (status != HttpStatus.SC_OK || entity == null || entity.getContentType() == null) {
+						throw new IOException("Unexpected response for client image: " + status);
+					}
+					if (entity.getContentLength() > maxImageBytes) {
+						get.abort();
+						throw new IOException("Client image is " + entity.getContentLength() + " bytes, over the limit of " + maxImageBytes);
+					}
 
-				CachedImage image = new CachedImage();
+					byte[] data;
+					try (InputStream in = entity.getContent()) {
+						data = ByteStreams.toByteArray(ByteStreams.limit(in, maxImageBytes + 1L));
+					}
+					if (data.length > maxImageBytes) {
+						get.abort();
+						throw new IOException("Client image is over the limit of " + maxImageBytes + " bytes");
+					}
 
-				image.setContentType(entity.getContentType().getValue());
-				image.setLength(entity.getContentLength());
-				image.setData(IOUtils.toByteArray(entity.getContent()));
+					CachedImage image = new CachedImage();
 
-				return image;
+					image.setContentType(entity.getContentType().getValue());
+					image.setLength(data.length);
+					image.setData(data);
+					image.setEtag(getHeader(response, HttpHeaders.ETAG));
+					image.setLastModified(getHeader(response, HttpHeaders.LAST_MODIFIED));
+
+					return image;
+				} finally {
+					EntityUtils.consumeQuietly(entity);
+				}
 			} catch (IOException e) {
-				throw new IllegalArgumentException("Unable to load client image.");
+				throw new IllegalArgumentException("Unable to load client image.", e);
 			}
 		}
 
+		private String getHeader(HttpResponse response, String name) {
+			Header header = response.getFirstHeader(name);
+			return header == null ? null : header.getValue();
+		}
+
 	}
 
+	// named by client ID only, so that a client's new logo replaces the file of its old one
+	private File getDiskFile(List<String> key) {
+		String name = Hashing.sha256().hashString(key.get(0), StandardCharsets.UTF_8).toString();
+		return new File(diskCacheDirectory, name);
+	}
+
+	/**
+	 * Read an image written by {@link #writeToDisk(List, CachedImage)}, if there is one
+	 * for the same logo URI.
+	 */
+	private CachedImage readFromDisk(List<String> key) {
+		if (diskCacheDirectory == null) {
+			return null;
+		}
+
+		File file = getDiskFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			if (!in.readUTF().equals(key.get(1))) {
+				return null;
+			}
+			CachedImage image = new CachedImage();
+			image.setContentType(in.readUTF());
+			image.setEtag(Strings.emptyToNull(in.readUTF()));
+			image.setLastModified(Strings.emptyToNull(in.readUTF()));
+			byte[] data = new byte[in.readInt()];
+			if (data.length > maxImageBytes) {
+				return null;
+			}
+			in.readFully(data);
+			image.setData(data);
+			image.setLength(data.length);
+			// the modification time orders files for eviction
+			file.setLastModified(System.currentTimeMillis());
+			return image;
+		} catch (IOException e) {
+			logger.warn("Unable to read cached client image " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Write an image to the disk cache, if there is one, replacing the client's previous
+	 * image. A temporary file is moved into place so that readers never see a partly
+	 * written image. Least recently used files are then deleted until the cache is back
+	 * under its size limit.
+	 */
+	private synchronized void writeToDisk(List<String> key, CachedImage image) {
+		if (diskCacheDirectory == null) {
+			return;
+		}
+
+		File file = getDiskFile(key);
+		File temp = null;
+		try {
+			Files.createDirectories(diskCacheDirectory.toPath());
+			if (diskCacheBytes < 0) {
+				diskCacheBytes = sizeOfDiskCache();
+			}
+
+			temp = File.createTempFile(file.getName(), ".tmp", diskCacheDirectory);
+			try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+				out.writeUTF(key.get(1));
+				out.writeUTF(image.getContentType());
+				out.writeUTF(Strings.nullToEmpty(image.getEtag()));
+				out.writeUTF(Strings.nullToEmpty(image.getLastModified()));
+				out.writeInt(image.getData().length);
+				out.write(image.getData());
+			}
+			long replaced = file.length();
+			long written = temp.length();
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			temp = null;
+			diskCacheBytes += written - replaced;
+		} catch (IOException e) {
+			logger.warn("Unable to write cached client image " + file, e);
+		} finally {
+			if (temp != null && !temp.delete()) {
+				logger.warn("Unable to delete " + temp);
+			}
+		}
+
+		if (diskCacheBytes > maxDiskCacheBytes) {
+			trimDiskCache();
+		}
+	}
+
+	private long sizeOfDiskCache() {
+		long total = 0;
+		File[] files = diskCacheDirectory.listFiles(File::isFile);
+		if (files != null) {
+			for (File file : files) {
+				total += file.length();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Delete the least recently used files until the disk cache is within its size limit.
+	 */
+	private void trimDiskCache() {
+		File[] files = diskCacheDirectory.listFiles(File::isFile);
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+		long total = 0;
+		for (File file : files) {
+			total += file.length();
+		}
+		for (File file : files) {
+			if (total <= maxDiskCacheBytes) {
+				break;
+			}
+			long length = file.length();
+			if (file.delete()) {
+				total -= length;
+			} else {
+				logger.warn("Unable to delete cached client image " + file);
+			}
+		}
+		diskCacheBytes = total;
+	}
 
 }
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.service.impl;
+
+import org.mitre.openid.connect.service.TaskLeaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.support.MethodInvokingRunnable;
+
+/**
+ * Invokes a method on a target bean, but only on the node of a cluster
+ * that holds the lease for this task. Schedule its run method in place
+ * of the target method:
+ *
+ * <pre>
+ * &lt;bean id="clearExpiredTokensTask" class="org.mitre.openid.connect.service.impl.LeasedTask"&gt;
+ *     &lt;property name="targetObject" ref="defaultOAuth2ProviderTokenService" /&gt;
+ *     &lt;property name="targetMethod" value="clearExpiredTokens" /&gt;
+ * &lt;/bean&gt;
+ * &lt;task:scheduled ref="clearExpiredTokensTask" method="run" fixed-delay="300000" /&gt;
+ * </pre>
+ *
+ * The lease name defaults to the target method name.
+ */
+public class LeasedTask extends MethodInvokingRunnable {
+
+	private static final long DEFAULT_LEASE_MILLIS = 900000L; // 15 minutes
+
+	@Autowired
+	private TaskLeaseService taskLeaseService;
+
+	private String taskName;
+
+	private long leaseMillis = DEFAULT_LEASE_MILLIS;
+
+	@Override
+	public void run() {
+		taskLeaseService.runWithLease(getTaskName(), leaseMillis, new Runnable() {
+			@Override
+			public void run() {
+				LeasedTask.super.run();
+			}
+		});
+	}
+
+	/**
+	 * @return the taskName
+	 */
+	public String getTaskName() {
+		return taskName != null ? taskName : getTargetMethod();
+	}
+
+	/**
+	 * @param taskName the taskName to set
+	 */
+	public void setTaskName(String taskName) {
+		this.taskName = taskName;
+	}
+
+	/**
+	 * @return the leaseMillis
+	 */
+	public long getLeaseMillis() {
+		return leaseMillis;
+	}
+
+	/**
+	 * @param leaseMillis how long the lease is held after each start and finish
+	 */
+	public void setLeaseMillis(long leaseMillis) {
+		this.leaseMillis = leaseMillis;
+	}
+
+	/**
+	 * @param taskLeaseService the taskLeaseService to set
+	 */
+	public void setTaskLeaseService(TaskLeaseService taskLeaseService) {
+		this.taskLeaseService = taskLeaseService;
+	}
+
+}
@@ -20,6 +20,7 @@
  */
 package org.mitre.openid.connect.service.impl;
 
+import java.util.Arrays;
 import java.util.Set;
 import java.util.UUID;
 
@@ -28,6 +29,7 @@ import org.mitre.openid.connect.model.PairwiseIdentifier;
 import org.mitre.openid.connect.model.UserInfo;
 import org.mitre.openid.connect.repository.PairwiseIdentifierRepository;
 import org.mitre.openid.connect.service.PairwiseIdentiferService;
+import org.mitre.util.RequestScopedCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -56,37 +58,49 @@ public class UUIDPairwiseIdentiferService implements PairwiseIdentiferService {
 	@Override
 	public String getIdentifier(UserInfo userInfo, ClientDetailsEntity client) {
 
-		String sectorIdentifier = null;
+		String sectorIdentifier = getSectorIdentifier(client);
 
+		if (sectorIdentifier != null) {
+			// if there's a sector identifier, use that for the lookup, once per request
+			String userSub = userInfo.getSub();
+			String sector = sectorIdentifier;
+			return RequestScopedCache.get(Arrays.asList("pairwise", userSub, sector), () -> loadIdentifier(userSub, sector));
+		} else {
+
+			return null;
+		}
+	}
+
+	/**
+	 * Calculate the sector identifier for a client: the host of its sector identifier URI
+	 * if it has one, otherwise the host of its only redirect URI.
+	 */
+	static String getSectorIdentifier(ClientDetailsEntity client) {
 		if (!Strings.isNullOrEmpty(client.getSectorIdentifierUri())) {
 			UriComponents uri = UriComponentsBuilder.fromUriString(client.getSectorIdentifierUri()).build();
-			sectorIdentifier = uri.getHost(); // calculate based on the host component only
+			return uri.getHost(); // calculate based on the host component only
 		} else {
 			Set<String> redirectUris = client.getRedirectUris();
 			UriComponents uri = UriComponentsBuilder.fromUriString(Iterables.getOnlyElement(redirectUris)).build();
-			sectorIdentifier = uri.getHost(); // calculate based on the host of the only redirect URI
+			return uri.getHost(); // calculate based on the host of the only redirect URI
 		}
+	}
 
-		if (sectorIdentifier != null) {
-			// if there's a sector identifier, use that for the lookup
-			PairwiseIdentifier pairwise = pairwiseIdentifierRepository.getBySectorIdentifier(userInfo.getSub(), sectorIdentifier);
-
-			if (pairwise == null) {
-				// we don't have an identifier, need to make and save one
-
-				pairwise = new PairwiseIdentifier();
-				pairwise.setIdentifier(UUID.randomUUID().toString());
-				pairwise.setUserSub(userInfo.getSub());
-				pairwise.setSectorIdentifier(sectorIdentifier);
+	private String loadIdentifier(String userSub, String sectorIdentifier) {
+		PairwiseIdentifier pairwise = pairwiseIdentifierRepository.getBySectorIdentifier(userSub, sectorIdentifier);
 
-				pairwiseIdentifierRepository.save(pairwise);
-			}
+		if (pairwise == null) {
+			// we don't have an identifier, need to make and save one
 
-			return pairwise.getIdentifier();
-		} else {
+			pairwise = new PairwiseIdentifier();
+			pairwise.setIdentifier(UUID.randomUUID().toString());
+			pairwise.setUserSub(userSub);
+			pairwise.setSectorIdentifier(sectorIdentifier);
 
-			return null;
+			pairwiseIdentifierRepository.save(pairwise);
 		}
+
+		return pairwise.getIdentifier();
 	}
 
 }
@@ -18,6 +18,7 @@
 package org.mitre.openid.connect.token;
 
 import java.util.Date;
+import java.util.Objects;
 import java.util.UUID;
 
 import org.mitre.jwt.signer.service.JWTSigningAndValidationService;
@@ -70,6 +71,12 @@ public class ConnectTokenEnhancer implements TokenEnhancer {
 	@Autowired
 	private OIDCTokenService connectTokenService;
 
+	/**
+	 * Header shared by every access token signed with the current default key,
+	 * rebuilt only when the default algorithm or key id changes
+	 */
+	private volatile JWSHeader signingHeader;
+
 	@Override
 	public OAuth2AccessToken enhance(OAuth2AccessToken accessToken,	OAuth2Authentication authentication) {
 
@@ -77,7 +84,12 @@ public class ConnectTokenEnhancer implements TokenEnhancer {
 		OAuth2Request originalAuthRequest = authentication.getOAuth2Request();
 
 		String clientId = originalAuthRequest.getClientId();
-		ClientDetailsEntity client = clientService.loadClientByClientId(clientId);
+
+		// the token service has already loaded and attached the client, only look it up if it hasn't
+		ClientDetailsEntity client = token.getClient();
+		if (client == null || !clientId.equals(client.getClientId())) {
+			client = clientService.loadClientByClientId(clientId);
+		}
 
 		Builder builder = new JWTClaimsSet.Builder()
 				.claim("azp", clientId)
@@ -96,11 +108,7 @@ public class ConnectTokenEnhancer implements TokenEnhancer {
 
 		JWTClaimsSet claims = builder.build();
 
-		JWSAlgorithm signingAlg = jwtService.getDefaultSigningAlgorithm();
-		JWSHeader header = new JWSHeader(signingAlg, null, null, null, null, null, null, null, null, null,
-				jwtService.getDefaultSignerKeyId(),
-				null, null);
-		SignedJWT signed = new SignedJWT(header, claims);
+		SignedJWT signed = new SignedJWT(getSigningHeader(), claims);
 
 		jwtService.signJwt(signed);
 
@@ -138,6 +146,27 @@ public class ConnectTokenEnhancer implements TokenEnhancer {
 		return token;
 	}
 
+	/**
+	 * Get the JWS header for the signing service's current default algorithm and key,
+	 * building a new one only when either of them has changed since the last call.
+	 * JWSHeader is immutable, so the same instance can be shared across threads.
+	 */
+	protected JWSHeader getSigningHeader() {
+		JWSAlgorithm signingAlg = jwtService.getDefaultSigningAlgorithm();
+		String keyId = jwtService.getDefaultSignerKeyId();
+
+		JWSHeader header = signingHeader;
+		if (header == null
+				|| !Objects.equals(header.getAlgorithm(), signingAlg)
+				|| !Objects.equals(header.getKeyID(), keyId)) {
+			header = new JWSHeader(signingAlg, null, null, null, null, null, null, null, null, null,
+					keyId,
+					null, null);
+			signingHeader = header;
+		}
+		return header;
+	}
+
 	public ConfigurationPropertiesBean getConfigBean() {
 		return configBean;
 	}
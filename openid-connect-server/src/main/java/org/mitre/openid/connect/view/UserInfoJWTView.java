@@ -84,6 +84,13 @@ public class UserInfoJWTView extends UserInfoView {
 	@Autowired
 	private SymmetricKeyJWTValidatorCacheService symmetricCacheService;
 
+	@Override
+	protected void writeOut(RenderedUserInfo result, Map<String, Object> model,
+			HttpServletRequest request, HttpServletResponse response) {
+		// the claims are signed or encrypted for each response
+		writeOut(result.getJson(), model, request, response);
+	}
+
 	@Override
 	protected void writeOut(JsonObject json, Map<String, Object> model,
 			HttpServletRequest request, HttpServletResponse response) {
@@ -19,10 +19,15 @@ package org.mitre.openid.connect.view;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -37,6 +42,11 @@ import org.springframework.stereotype.Component;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.web.servlet.view.AbstractView;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gson.ExclusionStrategy;
 import com.google.gson.FieldAttributes;
 import com.google.gson.Gson;
@@ -65,6 +75,25 @@ public class UserInfoView extends AbstractView {
 	@Autowired
 	private ScopeClaimTranslationService translator;
 
+	// user data is provisioned outside of this server and nothing signals a change, so an edited
+	// claim is served from the render cache for up to this long
+	private long cacheExpireSeconds = 300;
+
+	// map of (subject, username, scopes, authorized claims, requested claims) -> filtered claims
+	private Cache<List<Object>, RenderedUserInfo> renderCache;
+
+	public UserInfoView() {
+		buildCache();
+	}
+
+	private void buildCache() {
+		renderCache = CacheBuilder.newBuilder()
+				.expireAfterWrite(cacheExpireSeconds, TimeUnit.SECONDS)
+				.maximumSize(10000)
+				.recordStats()
+				.build();
+	}
+
 	protected Gson gson = new GsonBuilder().setExclusionStrategies(new ExclusionStrategy() {
 
 		@Override
@@ -103,17 +132,52 @@ public class UserInfoView extends AbstractView {
 		response.setCharacterEncoding("UTF-8");
 
 
-		JsonObject authorizedClaims = null;
-		JsonObject requestedClaims = null;
-		if (model.get(AUTHORIZED_CLAIMS) != null) {
-			authorizedClaims = jsonParser.parse((String) model.get(AUTHORIZED_CLAIMS)).getAsJsonObject();
-		}
-		if (model.get(REQUESTED_CLAIMS) != null) {
-			requestedClaims = jsonParser.parse((String) model.get(REQUESTED_CLAIMS)).getAsJsonObject();
+		RenderedUserInfo result = render(userInfo, scope, (String) model.get(AUTHORIZED_CLAIMS), (String) model.get(REQUESTED_CLAIMS));
+
+		writeOut(result, model, request, response);
+	}
+
+	/**
+	 * Get the filtered claims for this user and request, from the cache if they have been rendered already.
+	 *
+	 * The subject is part of the key, so a pairwise view of a user is cached apart from the public one.
+	 */
+	protected RenderedUserInfo render(UserInfo userInfo, Set<String> scope, String authorizedClaimsString, String requestedClaimsString) {
+		List<Object> key = Arrays.asList(userInfo.getSub(), userInfo.getPreferredUsername(),
+				scope == null ? null : ImmutableSet.copyOf(scope), authorizedClaimsString, requestedClaimsString);
+
+		try {
+			return renderCache.get(key, () -> {
+				JsonObject authorizedClaims = null;
+				JsonObject requestedClaims = null;
+				if (authorizedClaimsString != null) {
+					authorizedClaims = jsonParser.parse(authorizedClaimsString).getAsJsonObject();
+				}
+				if (requestedClaimsString != null) {
+					requestedClaims = jsonParser.parse(requestedClaimsString).getAsJsonObject();
+				}
+				JsonObject json = toJsonFromRequestObj(userInfo, scope, authorizedClaims, requestedClaims);
+
+				return new RenderedUserInfo(json, gson.toJson(json).getBytes(StandardCharsets.UTF_8));
+			});
+		} catch (UncheckedExecutionException | ExecutionException e) {
+			throw new IllegalStateException("Unable to render user info", e.getCause());
 		}
-		JsonObject json = toJsonFromRequestObj(userInfo, scope, authorizedClaims, requestedClaims);
+	}
+
+	/**
+	 * Write the rendered claims to the response. The serialized form is copied straight to the output.
+	 */
+	protected void writeOut(RenderedUserInfo result, Map<String, Object> model, HttpServletRequest request, HttpServletResponse response) {
+		try {
+			byte[] bytes = result.getBytes();
+			response.setContentLength(bytes.length);
+			response.getOutputStream().write(bytes);
+		} catch (IOException e) {
+
+			logger.error("IOException in UserInfoView.java: ", e);
 
-		writeOut(json, model, request, response);
+		}
 	}
 
 	protected void writeOut(JsonObject json, Map<String, Object> model, HttpServletRequest request, HttpServletResponse response) {
@@ -128,6 +192,30 @@ public class UserInfoView extends AbstractView {
 
 	}
 
+	/**
+	 * @return hit, miss and load time statistics for the render cache
+	 */
+	public CacheStats getRenderCacheStats() {
+		return renderCache.stats();
+	}
+
+	/**
+	 * @return how long rendered claims are served before they are rendered again, which is
+	 * also how long a change to user data can take to show
+	 */
+	public long getCacheExpireSeconds() {
+		return cacheExpireSeconds;
+	}
+
+	/**
+	 * @param cacheExpireSeconds how long rendered claims are served before they are rendered
+	 * again, which is also how long a change to user data can take to show; 0 turns the cache off
+	 */
+	public void setCacheExpireSeconds(long cacheExpireSeconds) {
+		this.cacheExpireSeconds = cacheExpireSeconds;
+		buildCache();
+	}
+
 	/**
 	 * Build a JSON response according to the request object received.
 	 *
@@ -186,4 +274,34 @@ public class UserInfoView extends AbstractView {
 		}
 		return target;
 	}
+
+	/**
+	 * Claims filtered for one request, in both object and serialized form. Shared between
+	 * requests, so the object must not be modified.
+	 */
+	protected static class RenderedUserInfo {
+
+		private final JsonObject json;
+
+		private final byte[] bytes;
+
+		public RenderedUserInfo(JsonObject json, byte[] bytes) {
+			this.json = json;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * @return the filtered claims
+		 */
+		public JsonObject getJson() {
+			return json;
+		}
+
+		/**
+		 * @return the filtered claims serialized as UTF-8 JSON
+		 */
+		public byte[] getBytes() {
+			return bytes;
+		}
+	}
 }
@@ -523,6 +523,11 @@ public class ClientAPI {
 			// get the image from cache
 			CachedImage image = clientLogoLoadingService.getLogo(client);
 
+			if (image == null) {
+				// the logo couldn't be loaded
+				return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+			}
+
 			HttpHeaders headers = new HttpHeaders();
 			headers.setContentType(MediaType.parseMediaType(image.getContentType()));
 			headers.setContentLength(image.getLength());
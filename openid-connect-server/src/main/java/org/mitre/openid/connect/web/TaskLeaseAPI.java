@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.web;
+
+import java.util.Collection;
+
+import org.mitre.openid.connect.model.TaskLease;
+import org.mitre.openid.connect.service.TaskLeaseService;
+import org.mitre.openid.connect.view.JsonEntityView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.ModelMap;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Read-only view of the scheduled task leases: which node holds
+ * each lease and how long its last run took.
+ */
+@Controller
+@RequestMapping("/" + TaskLeaseAPI.URL)
+@PreAuthorize("hasRole('ROLE_ADMIN')")
+public class TaskLeaseAPI {
+
+	public static final String URL = RootController.API_URL + "/tasks";
+
+	@Autowired
+	private TaskLeaseService taskLeaseService;
+
+	/**
+	 * Get the lease of every scheduled task
+	 * @param m
+	 * @return
+	 */
+	@RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+	public String getAllTaskLeases(ModelMap m) {
+
+		Collection<TaskLease> all = taskLeaseService.getAll();
+
+		m.put(JsonEntityView.ENTITY, all);
+
+		return JsonEntityView.VIEWNAME;
+	}
+
+}
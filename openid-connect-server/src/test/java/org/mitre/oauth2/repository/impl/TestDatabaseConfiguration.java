@@ -11,6 +11,9 @@ import java.util.Map;
 import javax.persistence.EntityManagerFactory;
 import javax.sql.DataSource;
 
+import org.mitre.openid.connect.repository.impl.JpaApprovedSiteRepository;
+import org.mitre.openid.connect.repository.impl.JpaCacheVersionRepository;
+import org.mitre.openid.connect.repository.impl.JpaTaskLeaseRepository;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -42,6 +45,31 @@ public class TestDatabaseConfiguration {
 		return new JpaOAuth2TokenRepository();
 	}
 
+	@Bean
+	public JpaAuthenticationHolderRepository authenticationHolderRepository() {
+		return new JpaAuthenticationHolderRepository();
+	}
+
+	@Bean
+	public JpaAuthorizationCodeRepository authorizationCodeRepository() {
+		return new JpaAuthorizationCodeRepository();
+	}
+
+	@Bean
+	public JpaTaskLeaseRepository taskLeaseRepository() {
+		return new JpaTaskLeaseRepository();
+	}
+
+	@Bean
+	public JpaCacheVersionRepository cacheVersionRepository() {
+		return new JpaCacheVersionRepository();
+	}
+
+	@Bean
+	public JpaApprovedSiteRepository approvedSiteRepository() {
+		return new JpaApprovedSiteRepository();
+	}
+
 	@Bean(name = "defaultPersistenceUnit")
 	public FactoryBean<EntityManagerFactory> entityManagerFactory() {
 		LocalContainerEntityManagerFactoryBean factory = new LocalContainerEntityManagerFactoryBean();
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.oauth2.repository.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mitre.oauth2.model.AuthenticationHolderEntity;
+import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
+import org.mitre.oauth2.model.SavedUserAuthentication;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Sets;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = { TestDatabaseConfiguration.class })
+@Transactional
+public class TestJpaAuthenticationHolderRepository {
+
+	@Autowired
+	private JpaAuthenticationHolderRepository repository;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Test
+	public void testDeleteOrphanedAuthenticationHolders() {
+		AuthenticationHolderEntity used = createAuthenticationHolder("user1");
+		OAuth2AccessTokenEntity token = new OAuth2AccessTokenEntity();
+		token.setAuthenticationHolder(used);
+		entityManager.merge(token);
+
+		AuthenticationHolderEntity orphan = createAuthenticationHolder("user2");
+		entityManager.flush();
+		Long orphanUserAuthId = orphan.getUserAuth().getId();
+
+		assertEquals(1, repository.deleteOrphanedAuthenticationHolders(10));
+		assertEquals(0, repository.deleteOrphanedAuthenticationHolders(10));
+
+		entityManager.clear();
+		assertNotNull(repository.getById(used.getId()));
+		assertNull(repository.getById(orphan.getId()));
+		assertNull(entityManager.find(SavedUserAuthentication.class, orphanUserAuthId));
+	}
+
+	private AuthenticationHolderEntity createAuthenticationHolder(String name) {
+		SavedUserAuthentication userAuth = new SavedUserAuthentication();
+		userAuth.setName(name);
+		userAuth = entityManager.merge(userAuth);
+
+		AuthenticationHolderEntity authHolder = new AuthenticationHolderEntity();
+		authHolder.setUserAuth(userAuth);
+		authHolder.setScope(Sets.newHashSet("openid"));
+		return entityManager.merge(authHolder);
+	}
+}
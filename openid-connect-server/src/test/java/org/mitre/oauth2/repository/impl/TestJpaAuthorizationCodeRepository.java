@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.oauth2.repository.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mitre.oauth2.model.AuthorizationCodeEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = { TestDatabaseConfiguration.class })
+@Transactional
+public class TestJpaAuthorizationCodeRepository {
+
+	@Autowired
+	private JpaAuthorizationCodeRepository repository;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Test
+	public void testGetExpiredCodesByShard() {
+		Date expired = new Date(System.currentTimeMillis() - 60000L);
+		for (int i = 0; i < 5; i++) {
+			repository.save(new AuthorizationCodeEntity("expired" + i, null, expired));
+		}
+		repository.save(new AuthorizationCodeEntity("valid", null, new Date(System.currentTimeMillis() + 60000L)));
+		entityManager.flush();
+
+		Set<Long> seen = new HashSet<>();
+		for (int shard = 0; shard < 2; shard++) {
+			Collection<AuthorizationCodeEntity> codes = repository.getExpiredCodes(2, shard);
+			for (AuthorizationCodeEntity code : codes) {
+				assertEquals(shard, code.getId() % 2);
+				seen.add(code.getId());
+			}
+		}
+
+		assertEquals(5, seen.size());
+		assertEquals(5, repository.getExpiredCodes().size());
+	}
+}
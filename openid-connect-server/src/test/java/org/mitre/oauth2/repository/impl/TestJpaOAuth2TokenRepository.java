@@ -1,7 +1,11 @@
 package org.mitre.oauth2.repository.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
+import java.util.Arrays;
+import java.util.Date;
 import java.util.Set;
 
 import javax.persistence.EntityManager;
@@ -14,11 +18,19 @@ import org.mitre.oauth2.model.AuthenticationHolderEntity;
 import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
 import org.mitre.oauth2.model.OAuth2RefreshTokenEntity;
 import org.mitre.oauth2.model.SavedUserAuthentication;
+import org.mitre.openid.connect.model.ApprovedSite;
+import org.mitre.uma.model.Permission;
+import org.mitre.uma.model.PermissionTicket;
+import org.mitre.util.TokenValueHashUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.collect.Sets;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+
 @RunWith(SpringRunner.class)
 @ContextConfiguration(classes = { TestDatabaseConfiguration.class })
 @Transactional
@@ -70,6 +82,144 @@ public class TestJpaOAuth2TokenRepository {
 		assertEquals(5, tokens.size());
 	}
 	
+	@Test
+	public void testGetAccessTokenByValue() {
+		PlainJWT jwt = new PlainJWT(new JWTClaimsSet.Builder().jwtID("access-1").build());
+		OAuth2AccessTokenEntity token = createAccessToken("user3");
+		token.setJwt(jwt);
+		repository.saveAccessToken(token);
+
+		OAuth2AccessTokenEntity found = repository.getAccessTokenByValue(jwt.serialize());
+		assertNotNull(found);
+		assertEquals(TokenValueHashUtils.hash(jwt.serialize()), found.getTokenValueHash());
+
+		assertNull(repository.getAccessTokenByValue(new PlainJWT(new JWTClaimsSet.Builder().jwtID("other").build()).serialize()));
+	}
+
+	@Test
+	public void testGetRefreshTokenByValue() {
+		PlainJWT jwt = new PlainJWT(new JWTClaimsSet.Builder().jwtID("refresh-1").build());
+		OAuth2RefreshTokenEntity token = createRefreshToken("user3");
+		token.setJwt(jwt);
+		repository.saveRefreshToken(token);
+
+		OAuth2RefreshTokenEntity found = repository.getRefreshTokenByValue(jwt.serialize());
+		assertNotNull(found);
+		assertEquals(TokenValueHashUtils.hash(jwt.serialize()), found.getTokenValueHash());
+	}
+
+	@Test
+	public void testBackfillAccessTokenValueHashes() {
+		PlainJWT jwt = new PlainJWT(new JWTClaimsSet.Builder().jwtID("legacy").build());
+		OAuth2AccessTokenEntity token = createAccessToken("user3");
+		token.setJwt(jwt);
+		token = repository.saveAccessToken(token);
+
+		// simulate a token stored before the hash column existed
+		entityManager.createNativeQuery("update access_token set token_value_hash = null where id = " + token.getId()).executeUpdate();
+		entityManager.clear();
+
+		assertEquals(1, repository.backfillAccessTokenValueHashes(100));
+		assertEquals(0, repository.backfillAccessTokenValueHashes(100));
+
+		entityManager.clear();
+		Object stored = entityManager.createNativeQuery("select token_value_hash from access_token where id = " + token.getId()).getSingleResult();
+		assertEquals(TokenValueHashUtils.hash(jwt), stored);
+	}
+
+	@Test
+	public void testDeleteExpiredAccessTokens() {
+		Date past = new Date(System.currentTimeMillis() - 60000L);
+		for (int i = 0; i < 3; i++) {
+			OAuth2AccessTokenEntity token = createAccessToken("user3");
+			token.setExpiration(past);
+			token.setScope(Sets.newHashSet("openid", "profile"));
+			repository.saveAccessToken(token);
+		}
+
+		Date now = new Date();
+		assertEquals(2, repository.deleteExpiredAccessTokens(now, 2));
+		assertEquals(1, repository.deleteExpiredAccessTokens(now, 2));
+		assertEquals(0, repository.deleteExpiredAccessTokens(now, 2));
+
+		entityManager.clear();
+		assertEquals(4, repository.getAllAccessTokens().size());
+		Number scopes = (Number) entityManager.createNativeQuery("select count(*) from token_scope").getSingleResult();
+		assertEquals(0, scopes.intValue());
+	}
+
+	@Test
+	public void testDeleteExpiredRefreshTokens() {
+		OAuth2RefreshTokenEntity refreshToken = createRefreshToken("user3");
+		refreshToken.setExpiration(new Date(System.currentTimeMillis() - 60000L));
+		refreshToken = repository.saveRefreshToken(refreshToken);
+
+		OAuth2AccessTokenEntity accessToken = createAccessToken("user3");
+		accessToken.setRefreshToken(refreshToken);
+		repository.saveAccessToken(accessToken);
+
+		assertEquals(1, repository.deleteExpiredRefreshTokens(new Date(), 10));
+
+		entityManager.clear();
+		assertEquals(5, repository.getAllRefreshTokens().size());
+		assertEquals(4, repository.getAllAccessTokens().size());
+	}
+
+	@Test
+	public void testDeleteTokensForApprovedSites() {
+		ApprovedSite site = entityManager.merge(new ApprovedSite());
+		ApprovedSite otherSite = entityManager.merge(new ApprovedSite());
+
+		OAuth2RefreshTokenEntity refreshToken = createRefreshToken("user3");
+
+		OAuth2AccessTokenEntity accessToken = createAccessToken("user3");
+		accessToken.setApprovedSite(site);
+		accessToken.setRefreshToken(refreshToken);
+		accessToken.setScope(Sets.newHashSet("openid"));
+		repository.saveAccessToken(accessToken);
+
+		// issued from the same refresh token, but not itself tied to the site
+		OAuth2AccessTokenEntity refreshedToken = createAccessToken("user3");
+		refreshedToken.setRefreshToken(refreshToken);
+		repository.saveAccessToken(refreshedToken);
+
+		OAuth2AccessTokenEntity otherToken = createAccessToken("user3");
+		otherToken.setApprovedSite(otherSite);
+		repository.saveAccessToken(otherToken);
+
+		assertEquals(2, repository.deleteTokensForApprovedSites(Arrays.asList(site.getId())));
+		assertEquals(0, repository.deleteTokensForApprovedSites(Arrays.asList(site.getId())));
+
+		entityManager.clear();
+		assertEquals(5, repository.getAllAccessTokens().size());
+		assertEquals(5, repository.getAllRefreshTokens().size());
+		assertNotNull(repository.getAccessTokenById(otherToken.getId()));
+		Number scopes = (Number) entityManager.createNativeQuery("select count(*) from token_scope").getSingleResult();
+		assertEquals(0, scopes.intValue());
+	}
+
+	@Test
+	public void testDeleteExpiredAccessTokens_keepsTicketPermissions() {
+		Permission ticketPermission = entityManager.merge(new Permission());
+		PermissionTicket ticket = new PermissionTicket();
+		ticket.setTicket("ticket");
+		ticket.setPermission(ticketPermission);
+		entityManager.merge(ticket);
+
+		OAuth2AccessTokenEntity token = createAccessToken("user3");
+		token.setExpiration(new Date(System.currentTimeMillis() - 60000L));
+		token.setPermissions(Sets.newHashSet(ticketPermission, new Permission()));
+		repository.saveAccessToken(token);
+		entityManager.flush();
+
+		assertEquals(1, repository.deleteExpiredAccessTokens(new Date(), 10));
+
+		entityManager.clear();
+		Number permissions = (Number) entityManager.createNativeQuery("select count(*) from permission").getSingleResult();
+		assertEquals(1, permissions.intValue());
+		assertNotNull(entityManager.find(Permission.class, ticketPermission.getId()));
+	}
+
 	private OAuth2AccessTokenEntity createAccessToken(String name) {
 		SavedUserAuthentication userAuth = new SavedUserAuthentication();
 		userAuth.setName(name);
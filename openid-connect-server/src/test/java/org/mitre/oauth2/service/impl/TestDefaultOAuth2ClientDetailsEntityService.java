@@ -20,6 +20,12 @@ package org.mitre.oauth2.service.impl;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -29,11 +35,13 @@ import org.mitre.oauth2.model.ClientDetailsEntity.AuthMethod;
 import org.mitre.oauth2.model.SystemScope;
 import org.mitre.oauth2.repository.OAuth2ClientRepository;
 import org.mitre.oauth2.repository.OAuth2TokenRepository;
+import org.mitre.oauth2.service.AccessTokenCacheService;
 import org.mitre.oauth2.service.SystemScopeService;
 import org.mitre.openid.connect.config.ConfigurationPropertiesBean;
 import org.mitre.openid.connect.model.WhitelistedSite;
 import org.mitre.openid.connect.service.ApprovedSiteService;
 import org.mitre.openid.connect.service.BlacklistedSiteService;
+import org.mitre.openid.connect.service.CacheVersionService;
 import org.mitre.openid.connect.service.StatsService;
 import org.mitre.openid.connect.service.WhitelistedSiteService;
 import org.mitre.uma.model.ResourceSet;
@@ -71,6 +79,9 @@ public class TestDefaultOAuth2ClientDetailsEntityService {
 	@Mock
 	private OAuth2TokenRepository tokenRepository;
 
+	@Mock
+	private AccessTokenCacheService tokenCache;
+
 	@Mock
 	private ApprovedSiteService approvedSiteService;
 
@@ -92,12 +103,15 @@ public class TestDefaultOAuth2ClientDetailsEntityService {
 	@Mock
 	private ConfigurationPropertiesBean config;
 
+	@Mock
+	private CacheVersionService cacheVersionService;
+
 	@InjectMocks
 	private DefaultOAuth2ClientDetailsEntityService service;
 
 	@Before
 	public void prepare() {
-		Mockito.reset(clientRepository, tokenRepository, approvedSiteService, whitelistedSiteService, blacklistedSiteService, scopeService, statsService);
+		Mockito.reset(clientRepository, tokenRepository, approvedSiteService, whitelistedSiteService, blacklistedSiteService, scopeService, statsService, cacheVersionService);
 
 		Mockito.when(clientRepository.saveClient(Matchers.any(ClientDetailsEntity.class))).thenAnswer(new Answer<ClientDetailsEntity>() {
 			@Override
@@ -253,6 +267,154 @@ public class TestDefaultOAuth2ClientDetailsEntityService {
 
 	}
 
+	@Test
+	public void loadClientByClientId_cached() {
+
+		String clientId = "b00g3r";
+		ClientDetailsEntity client = new ClientDetailsEntity();
+		client.setClientId(clientId);
+		Mockito.when(clientRepository.getClientByClientId(clientId)).thenReturn(client);
+
+		assertThat(service.loadClientByClientId(clientId).getClientId(), is(clientId));
+		assertThat(service.loadClientByClientId(clientId).getClientId(), is(clientId));
+
+		Mockito.verify(clientRepository, Mockito.times(1)).getClientByClientId(clientId);
+		assertThat(service.getClientCacheStats().hitCount(), is(1L));
+		assertThat(service.getClientCacheStats().loadCount(), is(1L));
+	}
+
+	@Test
+	public void loadClientByClientId_returnsCopies() {
+
+		String clientId = "b00g3r";
+		ClientDetailsEntity client = new ClientDetailsEntity();
+		client.setClientId(clientId);
+		client.setClientName("name");
+		client.setScope(Sets.newHashSet("openid"));
+		Mockito.when(clientRepository.getClientByClientId(clientId)).thenReturn(client);
+
+		ClientDetailsEntity first = service.loadClientByClientId(clientId);
+		assertThat(first == client, is(false));
+		first.setClientName("changed");
+		first.getScope().add("admin");
+
+		ClientDetailsEntity second = service.loadClientByClientId(clientId);
+		assertThat(second.getClientName(), is("name"));
+		assertThat(second.getScope(), equalTo((Set<String>) Sets.newHashSet("openid")));
+		assertThat(client.getClientName(), is("name"));
+	}
+
+	@Test
+	public void loadClientByClientId_notFoundNotCached() {
+
+		String clientId = "b00g3r";
+		Mockito.when(clientRepository.getClientByClientId(clientId)).thenReturn(null);
+		try {
+			service.loadClientByClientId(clientId);
+			fail("Client id not found. Expected an InvalidClientException.");
+		} catch (InvalidClientException e) {
+			assertThat(e, is(notNullValue()));
+		}
+
+		// registered since the first lookup
+		ClientDetailsEntity client = new ClientDetailsEntity();
+		client.setClientId(clientId);
+		Mockito.when(clientRepository.getClientByClientId(clientId)).thenReturn(client);
+
+		assertThat(service.loadClientByClientId(clientId).getClientId(), is(clientId));
+	}
+
+	@Test
+	public void loadClientByClientId_afterUpdate() {
+
+		String clientId = "b00g3r";
+		ClientDetailsEntity oldClient = new ClientDetailsEntity();
+		oldClient.setClientId(clientId);
+		oldClient.setClientName("old");
+		Mockito.when(clientRepository.getClientByClientId(clientId)).thenReturn(oldClient);
+
+		assertThat(service.loadClientByClientId(clientId).getClientName(), is("old"));
+
+		ClientDetailsEntity newClient = new ClientDetailsEntity();
+		newClient.setClientId(clientId);
+		newClient.setClientName("new");
+		service.updateClient(oldClient, newClient);
+		Mockito.when(clientRepository.getClientByClientId(clientId)).thenReturn(newClient);
+		Mockito.when(cacheVersionService.getVersion(DefaultOAuth2ClientDetailsEntityService.CACHE_NAME)).thenReturn(1L);
+
+		Mockito.verify(cacheVersionService).increment(DefaultOAuth2ClientDetailsEntityService.CACHE_NAME);
+		assertThat(service.loadClientByClientId(clientId).getClientName(), is("new"));
+	}
+
+	@Test
+	public void loadClientByClientId_versionChange() {
+
+		service.setVersionCheckSeconds(-1);
+
+		String clientId = "b00g3r";
+		ClientDetailsEntity oldClient = new ClientDetailsEntity();
+		oldClient.setClientName("old");
+		Mockito.when(clientRepository.getClientByClientId(clientId)).thenReturn(oldClient);
+
+		assertThat(service.loadClientByClientId(clientId).getClientName(), is("old"));
+
+		// another node updated the client
+		ClientDetailsEntity newClient = new ClientDetailsEntity();
+		newClient.setClientName("new");
+		Mockito.when(clientRepository.getClientByClientId(clientId)).thenReturn(newClient);
+		assertThat(service.loadClientByClientId(clientId).getClientName(), is("old"));
+
+		Mockito.when(cacheVersionService.getVersion(DefaultOAuth2ClientDetailsEntityService.CACHE_NAME)).thenReturn(1L);
+		assertThat(service.loadClientByClientId(clientId).getClientName(), is("new"));
+	}
+
+	@Test
+	public void loadClientByClientId_staleLoadNotReused() throws Exception {
+
+		service.setVersionCheckSeconds(-1);
+
+		final String clientId = "b00g3r";
+		final ClientDetailsEntity oldClient = new ClientDetailsEntity();
+		oldClient.setClientName("old");
+		final ClientDetailsEntity newClient = new ClientDetailsEntity();
+		newClient.setClientName("new");
+
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Mockito.when(clientRepository.getClientByClientId(clientId)).thenAnswer(new Answer<ClientDetailsEntity>() {
+			@Override
+			public ClientDetailsEntity answer(InvocationOnMock invocation) throws Throwable {
+				loading.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				return oldClient;
+			}
+		});
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			// a load that starts before the client is changed...
+			Future<ClientDetailsEntity> stale = executor.submit(new Callable<ClientDetailsEntity>() {
+				@Override
+				public ClientDetailsEntity call() throws Exception {
+					return service.loadClientByClientId(clientId);
+				}
+			});
+			assertThat(loading.await(5, TimeUnit.SECONDS), is(true));
+
+			// ...and finishes after the new version is seen
+			Mockito.when(cacheVersionService.getVersion(DefaultOAuth2ClientDetailsEntityService.CACHE_NAME)).thenReturn(1L);
+			Mockito.doReturn(newClient).when(clientRepository).getClientByClientId(clientId);
+			assertThat(service.loadClientByClientId(clientId).getClientName(), is("new"));
+
+			release.countDown();
+			assertThat(stale.get(5, TimeUnit.SECONDS).getClientName(), is("old"));
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(service.loadClientByClientId(clientId).getClientName(), is("new"));
+	}
+
 	@Test(expected = InvalidClientException.class)
 	public void deleteClient_badId() {
 
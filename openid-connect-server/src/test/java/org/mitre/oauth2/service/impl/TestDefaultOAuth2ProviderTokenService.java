@@ -31,8 +31,10 @@ import org.mitre.oauth2.model.OAuth2RefreshTokenEntity;
 import org.mitre.oauth2.model.SystemScope;
 import org.mitre.oauth2.repository.AuthenticationHolderRepository;
 import org.mitre.oauth2.repository.OAuth2TokenRepository;
+import org.mitre.oauth2.service.AccessTokenCacheService;
 import org.mitre.oauth2.service.ClientDetailsEntityService;
 import org.mitre.oauth2.service.SystemScopeService;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Matchers;
 import org.mockito.Mock;
@@ -48,6 +50,9 @@ import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.OAuth2Request;
 import org.springframework.security.oauth2.provider.TokenRequest;
 import org.springframework.security.oauth2.provider.token.TokenEnhancer;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
 
 import static com.google.common.collect.Sets.newHashSet;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -114,6 +119,12 @@ public class TestDefaultOAuth2ProviderTokenService {
 	@Mock
 	private SystemScopeService scopeService;
 
+	@Mock
+	private AccessTokenCacheService tokenCache;
+
+	@Mock
+	private PlatformTransactionManager transactionManager;
+
 	@InjectMocks
 	private DefaultOAuth2ProviderTokenService service;
 
@@ -352,6 +363,30 @@ public class TestDefaultOAuth2ProviderTokenService {
 		verify(scopeService, atLeastOnce()).removeReservedScopes(anySet());
 	}
 
+	/**
+	 * The token has to be signed before anything is written, so that no database connection
+	 * is held while signing.
+	 */
+	@Test
+	public void createAccessToken_enhanceBeforeSave() {
+		OAuth2Request clientAuth = new OAuth2Request(null, clientId, null, true, newHashSet(SystemScopeService.OFFLINE_ACCESS), null, null, null, null);
+		when(authentication.getOAuth2Request()).thenReturn(clientAuth);
+
+		OAuth2AccessTokenEntity token = service.createAccessToken(authentication);
+
+		InOrder inOrder = Mockito.inOrder(tokenEnhancer, transactionManager, authenticationHolderRepository, tokenRepository);
+		inOrder.verify(tokenEnhancer).enhance(any(OAuth2AccessTokenEntity.class), Matchers.eq(authentication));
+		inOrder.verify(transactionManager).getTransaction(any(TransactionDefinition.class));
+		inOrder.verify(authenticationHolderRepository).save(any(AuthenticationHolderEntity.class));
+		inOrder.verify(tokenRepository).saveRefreshToken(any(OAuth2RefreshTokenEntity.class));
+		inOrder.verify(tokenRepository).saveAccessToken(any(OAuth2AccessTokenEntity.class));
+		inOrder.verify(transactionManager).commit(any(TransactionStatus.class));
+
+		// both tokens point at the saved authentication holder
+		assertThat(token.getAuthenticationHolder(), equalTo(storedAuthHolder));
+		assertThat(token.getRefreshToken().getAuthenticationHolder(), equalTo(storedAuthHolder));
+	}
+
 	@Test(expected = InvalidTokenException.class)
 	public void refreshAccessToken_noRefreshToken() {
 		when(tokenRepository.getRefreshTokenByValue(anyString())).thenReturn(null);
@@ -543,4 +578,60 @@ public class TestDefaultOAuth2ProviderTokenService {
 		assertEquals(1, tokens.size());
 		assertTrue(tokens.contains(refreshToken));
 	}
+
+	@Test
+	public void loadAuthentication_cached() {
+		String accessTokenValue = "access_token_value";
+		when(tokenCache.get(accessTokenValue)).thenReturn(accessToken);
+		when(accessToken.getAuthenticationHolder()).thenReturn(storedAuthHolder);
+
+		OAuth2Authentication auth = service.loadAuthentication(accessTokenValue);
+
+		assertThat(auth, equalTo(storedAuthentication));
+		verify(tokenRepository, never()).getAccessTokenByValue(anyString());
+	}
+
+	@Test
+	public void loadAuthentication_cacheMiss() {
+		String accessTokenValue = "access_token_value";
+		when(tokenRepository.getAccessTokenByValue(accessTokenValue)).thenReturn(accessToken);
+		when(accessToken.getAuthenticationHolder()).thenReturn(storedAuthHolder);
+
+		OAuth2Authentication auth = service.loadAuthentication(accessTokenValue);
+
+		assertThat(auth, equalTo(storedAuthentication));
+		verify(tokenCache).put(accessToken);
+	}
+
+	@Test
+	public void revokeAccessToken_evictsCache() {
+		service.revokeAccessToken(accessToken);
+
+		verify(tokenCache).evict(accessToken);
+		verify(tokenRepository).removeAccessToken(accessToken);
+	}
+
+	@Test
+	public void revokeRefreshToken_evictsCache() {
+		service.revokeRefreshToken(refreshToken);
+
+		verify(tokenCache).evictForRefreshToken(refreshToken);
+		verify(tokenRepository).removeRefreshToken(refreshToken);
+	}
+
+	@Test
+	public void clearExpiredTokens_evictsCache() {
+		when(tokenRepository.deleteExpiredRefreshTokens(any(Date.class), Matchers.anyInt())).thenReturn(1, 0);
+
+		service.clearExpiredTokens();
+
+		verify(tokenCache).evictAll();
+	}
+
+	@Test
+	public void clearExpiredTokens_nothingDeleted() {
+		service.clearExpiredTokens();
+
+		verify(tokenCache, never()).evictAll();
+	}
 }
@@ -24,6 +24,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mitre.oauth2.model.SystemScope;
 import org.mitre.oauth2.repository.SystemScopeRepository;
+import org.mitre.openid.connect.service.CacheVersionService;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -67,6 +68,9 @@ public class TestDefaultSystemScopeService {
 	@Mock
 	private SystemScopeRepository repository;
 
+	@Mock
+	private CacheVersionService cacheVersionService;
+
 	@InjectMocks
 	private DefaultSystemScopeService service;
 
@@ -76,7 +80,7 @@ public class TestDefaultSystemScopeService {
 	@Before
 	public void prepare() {
 
-		Mockito.reset(repository);
+		Mockito.reset(repository, cacheVersionService);
 
 		// two default and dynamically registerable scopes (unrestricted)
 		defaultDynScope1 = new SystemScope(defaultDynScope1String);
@@ -186,4 +190,49 @@ public class TestDefaultSystemScopeService {
 		assertThat(service.scopesMatch(expected, actualBad), is(false));
 	}
 
+	@Test
+	public void fromStrings_loadsOnce() {
+
+		service.fromStrings(allScopeStrings);
+		service.fromStrings(allScopeStrings);
+		service.getDefaults();
+		service.getRestricted();
+
+		// every lookup is answered from the one copy of the scopes
+		Mockito.verify(repository, Mockito.times(1)).getAll();
+		Mockito.verify(repository, Mockito.never()).getByValue(Mockito.anyString());
+	}
+
+	@Test
+	public void save_reloads() {
+
+		assertThat(service.getByValue("newScope"), is(nullValue()));
+
+		SystemScope newScope = new SystemScope("newScope");
+		Mockito.when(repository.save(newScope)).thenReturn(newScope);
+		Mockito.when(repository.getAll()).thenReturn(Sets.newHashSet(newScope));
+
+		service.save(newScope);
+
+		Mockito.verify(cacheVersionService).increment(DefaultSystemScopeService.CACHE_NAME);
+		assertThat(service.getByValue("newScope"), equalTo(newScope));
+	}
+
+	@Test
+	public void versionChange_reloads() {
+
+		service.setVersionCheckSeconds(-1);
+		assertThat(service.getByValue("newScope"), is(nullValue()));
+
+		SystemScope newScope = new SystemScope("newScope");
+		Mockito.when(repository.getAll()).thenReturn(Sets.newHashSet(newScope));
+
+		// not reloaded while the version is unchanged
+		assertThat(service.getByValue("newScope"), is(nullValue()));
+
+		// another node changed the scopes
+		Mockito.when(cacheVersionService.getVersion(DefaultSystemScopeService.CACHE_NAME)).thenReturn(1L);
+		assertThat(service.getByValue("newScope"), equalTo(newScope));
+	}
+
 }
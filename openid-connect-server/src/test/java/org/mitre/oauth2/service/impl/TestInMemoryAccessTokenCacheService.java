@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.oauth2.service.impl;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mitre.oauth2.model.ClientDetailsEntity;
+import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
+import org.mitre.oauth2.model.OAuth2RefreshTokenEntity;
+import org.mitre.openid.connect.service.CacheVersionService;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+
+public class TestInMemoryAccessTokenCacheService {
+
+	private InMemoryAccessTokenCacheService cache;
+
+	private ClientDetailsEntity client;
+
+	private OAuth2RefreshTokenEntity refreshToken;
+
+	@Before
+	public void prepare() {
+		cache = new InMemoryAccessTokenCacheService();
+		cache.setTimeToLiveSeconds(60);
+
+		client = new ClientDetailsEntity();
+		client.setClientId("client");
+
+		refreshToken = new OAuth2RefreshTokenEntity();
+		refreshToken.setId(1L);
+	}
+
+	@Test
+	public void getAndPut() {
+		OAuth2AccessTokenEntity token = createToken("a", new Date(System.currentTimeMillis() + 60000L));
+		assertThat(cache.get(token.getValue()), nullValue());
+
+		cache.put(token);
+
+		assertThat(cache.get(token.getValue()), equalTo(token));
+		assertEquals(1, cache.getStats().hitCount());
+		assertEquals(1, cache.getStats().missCount());
+	}
+
+	@Test
+	public void get_expired() {
+		OAuth2AccessTokenEntity token = createToken("a", new Date(System.currentTimeMillis() - 1000L));
+		cache.put(token);
+
+		assertThat(cache.get(token.getValue()), nullValue());
+	}
+
+	@Test
+	public void evict() {
+		OAuth2AccessTokenEntity token = createToken("a", null);
+		OAuth2AccessTokenEntity other = createToken("b", null);
+		cache.put(token);
+		cache.put(other);
+
+		cache.evict(token);
+
+		assertThat(cache.get(token.getValue()), nullValue());
+		assertThat(cache.get(other.getValue()), equalTo(other));
+	}
+
+	@Test
+	public void evictForRefreshToken() {
+		OAuth2AccessTokenEntity token = createToken("a", null);
+		token.setRefreshToken(refreshToken);
+		OAuth2AccessTokenEntity other = createToken("b", null);
+		cache.put(token);
+		cache.put(other);
+
+		cache.evictForRefreshToken(refreshToken);
+
+		assertThat(cache.get(token.getValue()), nullValue());
+		assertThat(cache.get(other.getValue()), equalTo(other));
+	}
+
+	@Test
+	public void evictForClient() {
+		OAuth2AccessTokenEntity token = createToken("a", null);
+		token.setClient(client);
+		OAuth2AccessTokenEntity other = createToken("b", null);
+		cache.put(token);
+		cache.put(other);
+
+		cache.evictForClient(client);
+
+		assertThat(cache.get(token.getValue()), nullValue());
+		assertThat(cache.get(other.getValue()), equalTo(other));
+	}
+
+	@Test
+	public void disabledByDefault() {
+		cache = new InMemoryAccessTokenCacheService();
+		OAuth2AccessTokenEntity token = createToken("a", null);
+		cache.put(token);
+
+		assertThat(cache.isEnabled(), equalTo(false));
+		assertThat(cache.get(token.getValue()), nullValue());
+	}
+
+	@Test
+	public void evict_sharesVersion() {
+		CacheVersionService versions = mock(CacheVersionService.class);
+		cache.setCacheVersionService(versions);
+
+		cache.evict(createToken("a", null));
+
+		verify(versions).increment(InMemoryAccessTokenCacheService.CACHE_NAME);
+	}
+
+	@Test
+	public void get_emptiedByVersionChange() {
+		CacheVersionService versions = mock(CacheVersionService.class);
+		when(versions.getVersion(InMemoryAccessTokenCacheService.CACHE_NAME)).thenReturn(1L);
+		cache.setCacheVersionService(versions);
+		cache.setVersionCheckSeconds(-1);
+
+		OAuth2AccessTokenEntity token = createToken("a", null);
+		cache.put(token);
+		assertThat(cache.get(token.getValue()), nullValue());
+
+		cache.put(token);
+		assertThat(cache.get(token.getValue()), equalTo(token));
+
+		// revoked on another node
+		when(versions.getVersion(InMemoryAccessTokenCacheService.CACHE_NAME)).thenReturn(2L);
+		assertThat(cache.get(token.getValue()), nullValue());
+	}
+
+	private OAuth2AccessTokenEntity createToken(String jti, Date expiration) {
+		OAuth2AccessTokenEntity token = new OAuth2AccessTokenEntity();
+		token.setJwt(new PlainJWT(new JWTClaimsSet.Builder().jwtID(jti).build()));
+		token.setExpiration(expiration);
+		return token;
+	}
+}
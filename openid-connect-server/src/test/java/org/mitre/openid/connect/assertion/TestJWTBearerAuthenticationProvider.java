@@ -6,6 +6,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
@@ -83,7 +84,7 @@ public class TestJWTBearerAuthenticationProvider {
 		when(client.getTokenEndpointAuthMethod()).thenReturn(AuthMethod.NONE);
 		when(client.getAuthorities()).thenReturn(ImmutableSet.of(authority1, authority2, authority3));
 
-		when(validators.getValidator(client, JWSAlgorithm.RS256)).thenReturn(validator);
+		when(validators.getValidator(eq(client), eq(JWSAlgorithm.RS256), any(String.class))).thenReturn(validator);
 		when(validator.validateSignature(any(SignedJWT.class))).thenReturn(true);
 
 		when(config.getIssuer()).thenReturn("http://issuer.com/");
@@ -212,7 +213,7 @@ public class TestJWTBearerAuthenticationProvider {
 	@Test
 	public void should_throw_AuthenticationServiceException_for_SignedJWT_when_null_validator() {
 		mockSignedJWTAuthAttempt();
-		when(validators.getValidator(any(ClientDetailsEntity.class), any(JWSAlgorithm.class))).thenReturn(null);
+		when(validators.getValidator(any(ClientDetailsEntity.class), any(JWSAlgorithm.class), any(String.class))).thenReturn(null);
 
 		Throwable thrown = authenticateAndReturnThrownException();
 
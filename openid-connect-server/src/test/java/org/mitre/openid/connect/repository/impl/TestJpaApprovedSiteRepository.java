@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.repository.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mitre.oauth2.repository.impl.TestDatabaseConfiguration;
+import org.mitre.openid.connect.model.ApprovedSite;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Sets;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = { TestDatabaseConfiguration.class })
+@Transactional
+public class TestJpaApprovedSiteRepository {
+
+	@Autowired
+	private JpaApprovedSiteRepository repository;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Test
+	public void testDeleteExpired() {
+		Date now = new Date();
+		ApprovedSite expired1 = createSite(new Date(now.getTime() - 60000L));
+		ApprovedSite expired2 = createSite(new Date(now.getTime() - 60000L));
+		ApprovedSite current = createSite(new Date(now.getTime() + 60000L));
+		ApprovedSite forever = createSite(null);
+
+		List<Long> ids = repository.getExpiredIds(now, 1);
+		assertEquals(1, ids.size());
+
+		ids = repository.getExpiredIds(now, 10);
+		assertEquals(2, ids.size());
+		assertTrue(ids.contains(expired1.getId()));
+		assertTrue(ids.contains(expired2.getId()));
+
+		assertEquals(2, repository.deleteByIds(ids));
+
+		entityManager.clear();
+		assertNull(repository.getById(expired1.getId()));
+		assertNotNull(repository.getById(current.getId()));
+		assertNotNull(repository.getById(forever.getId()));
+		assertEquals(0, repository.getExpiredIds(now, 10).size());
+
+		Number scopes = (Number) entityManager.createNativeQuery("select count(*) from approved_site_scope").getSingleResult();
+		assertEquals(4, scopes.intValue());
+	}
+
+	@Test
+	public void testCounts() {
+		createSite("user1", "client1");
+		createSite("user1", "client1");
+		createSite("user2", "client1");
+		createSite("user2", "client2");
+
+		assertEquals(4, repository.getCount());
+		assertEquals(2, repository.getUserCount());
+		assertEquals(2, repository.getClientCount());
+		assertEquals(3, repository.getCountByClientId("client1"));
+		assertEquals(0, repository.getCountByClientId("client3"));
+	}
+
+	private ApprovedSite createSite(String userId, String clientId) {
+		ApprovedSite site = new ApprovedSite();
+		site.setUserId(userId);
+		site.setClientId(clientId);
+		return repository.save(site);
+	}
+
+	private ApprovedSite createSite(Date timeoutDate) {
+		ApprovedSite site = new ApprovedSite();
+		site.setTimeoutDate(timeoutDate);
+		site.setAllowedScopes(Sets.newHashSet("openid", "profile"));
+		return repository.save(site);
+	}
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.repository.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mitre.oauth2.repository.impl.TestDatabaseConfiguration;
+import org.mitre.openid.connect.model.CacheVersion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = { TestDatabaseConfiguration.class })
+@Transactional
+public class TestJpaCacheVersionRepository {
+
+	@Autowired
+	private JpaCacheVersionRepository repository;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Test
+	public void testIncrement() {
+		repository.create(new CacheVersion("cache"));
+
+		assertTrue(repository.increment("cache"));
+		assertTrue(repository.increment("cache"));
+
+		entityManager.clear();
+		assertEquals(2, repository.getByName("cache").getVersion());
+	}
+
+	@Test
+	public void testIncrementUnknown() {
+		assertFalse(repository.increment("unknown"));
+		assertNull(repository.getByName("unknown"));
+	}
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.repository.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mitre.oauth2.repository.impl.TestDatabaseConfiguration;
+import org.mitre.openid.connect.model.TaskLease;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Transactional;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = { TestDatabaseConfiguration.class })
+@Transactional
+public class TestJpaTaskLeaseRepository {
+
+	@Autowired
+	private JpaTaskLeaseRepository repository;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Test
+	public void testAcquireHeldLease() {
+		Date now = new Date();
+		createLease("task", "node1", new Date(now.getTime() + 60000L));
+
+		assertFalse(repository.acquire("task", "node2", now, new Date(now.getTime() + 60000L)));
+		assertTrue(repository.acquire("task", "node1", now, new Date(now.getTime() + 120000L)));
+
+		entityManager.clear();
+		assertEquals("node1", repository.getByName("task").getHolder());
+	}
+
+	@Test
+	public void testAcquireExpiredLease() {
+		Date now = new Date();
+		createLease("task", "node1", new Date(now.getTime() - 1000L));
+
+		assertTrue(repository.acquire("task", "node2", now, new Date(now.getTime() + 60000L)));
+
+		entityManager.clear();
+		TaskLease lease = repository.getByName("task");
+		assertEquals("node2", lease.getHolder());
+		assertEquals(now.getTime() + 60000L, lease.getLeaseExpiration().getTime());
+	}
+
+	@Test
+	public void testAcquireUnknownTask() {
+		Date now = new Date();
+		assertFalse(repository.acquire("unknown", "node1", now, now));
+	}
+
+	@Test
+	public void testRecordRun() {
+		Date now = new Date();
+		createLease("task", "node1", new Date(now.getTime() + 60000L));
+
+		assertFalse(repository.recordRun("task", "node2", now, 10L, now));
+		assertTrue(repository.recordRun("task", "node1", now, 1234L, new Date(now.getTime() + 300000L)));
+
+		entityManager.clear();
+		TaskLease lease = repository.getByName("task");
+		assertEquals(Long.valueOf(1234L), lease.getLastDuration());
+		assertEquals(now.getTime(), lease.getLastFinished().getTime());
+		assertEquals(1, repository.getAll().size());
+	}
+
+	private void createLease(String name, String holder, Date expiration) {
+		TaskLease lease = new TaskLease(name);
+		lease.setHolder(holder);
+		lease.setLeaseExpiration(expiration);
+		repository.create(lease);
+	}
+}
@@ -18,7 +18,10 @@
 package org.mitre.openid.connect.service.impl;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -29,10 +32,12 @@ import org.junit.runner.RunWith;
 import org.mitre.oauth2.model.ClientDetailsEntity;
 import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
 import org.mitre.oauth2.repository.OAuth2TokenRepository;
+import org.mitre.oauth2.service.AccessTokenCacheService;
 import org.mitre.openid.connect.model.ApprovedSite;
 import org.mitre.openid.connect.repository.ApprovedSiteRepository;
 import org.mitre.openid.connect.service.ApprovedSiteService;
 import org.mitre.openid.connect.service.StatsService;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -61,6 +66,9 @@ public class TestDefaultApprovedSiteService {
 	@Mock
 	private OAuth2TokenRepository tokenRepository;
 
+	@Mock
+	private AccessTokenCacheService tokenCache;
+
 	@Mock
 	private StatsService statsService;
 
@@ -127,5 +135,69 @@ public class TestDefaultApprovedSiteService {
 		Mockito.verify(repository, never()).remove(any(ApprovedSite.class));
 	}
 
+	/**
+	 * Test clearing expired sites. Ensure that each chunk's tokens are removed before
+	 * the sites themselves, and that the run stops at the first empty chunk.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void clearExpiredSites_chunked() {
+		List<Long> chunk = ImmutableList.of(1L, 2L);
+		List<Long> empty = ImmutableList.of();
+		Mockito.when(repository.getExpiredIds(any(Date.class), anyInt())).thenReturn(chunk, empty);
+		Mockito.when(tokenRepository.deleteTokensForApprovedSites(chunk)).thenReturn(3);
+		Mockito.when(repository.deleteByIds(chunk)).thenReturn(2);
+
+		service.clearExpiredSites();
+
+		InOrder inOrder = Mockito.inOrder(tokenRepository, repository);
+		inOrder.verify(tokenRepository).deleteTokensForApprovedSites(chunk);
+		inOrder.verify(repository).deleteByIds(chunk);
+		Mockito.verify(repository, never()).getAll();
+		Mockito.verify(repository, times(1)).deleteByIds(any(Collection.class));
+		Mockito.verify(tokenCache).evictAll();
+		Mockito.verify(statsService).resetCache();
+	}
+
+	/**
+	 * Test clearing expired sites when there are none. Ensure nothing is deleted or reset.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void clearExpiredSites_none() {
+		List<Long> empty = ImmutableList.of();
+		Mockito.when(repository.getExpiredIds(any(Date.class), anyInt())).thenReturn(empty);
+
+		service.clearExpiredSites();
+
+		Mockito.verify(tokenRepository, never()).deleteTokensForApprovedSites(any(Collection.class));
+		Mockito.verify(repository, never()).deleteByIds(any(Collection.class));
+		Mockito.verify(tokenCache, never()).evictAll();
+		Mockito.verify(statsService, never()).resetCache();
+	}
+
+	/**
+	 * Test saving an existing site, as happens on every login. Ensure that the stats are kept.
+	 */
+	@Test
+	public void save_existing() {
+		Mockito.when(repository.save(site1)).thenReturn(site1);
+
+		service.save(site1);
+
+		Mockito.verify(statsService, never()).resetCache();
+	}
 
+	/**
+	 * Test saving a new site. Ensure that the stats are recalculated.
+	 */
+	@Test
+	public void save_new() {
+		site1.setId(null);
+		Mockito.when(repository.save(site1)).thenReturn(site1);
+
+		service.save(site1);
+
+		Mockito.verify(statsService).resetCache();
+	}
 }
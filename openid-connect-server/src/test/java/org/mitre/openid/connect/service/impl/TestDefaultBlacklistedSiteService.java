@@ -24,10 +24,13 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mitre.openid.connect.model.BlacklistedSite;
 import org.mitre.openid.connect.repository.BlacklistedSiteRepository;
+import org.mitre.openid.connect.service.CacheVersionService;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.collect.Sets;
 
@@ -55,6 +58,9 @@ public class TestDefaultBlacklistedSiteService {
 	@Mock
 	private BlacklistedSiteRepository mockRepository;
 
+	@Mock
+	private CacheVersionService cacheVersionService;
+
 	@InjectMocks
 	private DefaultBlacklistedSiteService service = new DefaultBlacklistedSiteService();
 
@@ -84,7 +90,8 @@ public class TestDefaultBlacklistedSiteService {
 		assertTrue(service.isBlacklisted(uri1));
 		assertTrue(service.isBlacklisted(uri2));
 
-		Mockito.verify(mockRepository, times(2)).getAll();
+		// the blacklist is loaded once and kept in memory
+		Mockito.verify(mockRepository, times(1)).getAll();
 	}
 
 	/**
@@ -100,4 +107,84 @@ public class TestDefaultBlacklistedSiteService {
 		Mockito.verify(mockRepository).getAll();
 	}
 
+	/**
+	 * Changing the blacklist on this node reloads it and tells the other nodes.
+	 */
+	@Test
+	public void isBlacklisted_afterSaveNew() {
+
+		Mockito.when(mockRepository.getAll()).thenReturn(blackListedSitesSet);
+		assertFalse(service.isBlacklisted(uri3));
+
+		BlacklistedSite site3 = new BlacklistedSite();
+		site3.setUri(uri3);
+		Mockito.when(mockRepository.save(site3)).thenReturn(site3);
+		Mockito.when(mockRepository.getAll()).thenReturn(Sets.newHashSet(site1, site2, site3));
+
+		service.saveNew(site3);
+
+		assertTrue(service.isBlacklisted(uri3));
+		Mockito.verify(cacheVersionService).increment(DefaultBlacklistedSiteService.CACHE_NAME);
+		Mockito.verify(mockRepository, times(2)).getAll();
+	}
+
+	/**
+	 * Inside a transaction the copy is only dropped once the change has committed, so a
+	 * concurrent reader can't load the old blacklist back in under the new version.
+	 */
+	@Test
+	public void isBlacklisted_afterCommit() {
+
+		Mockito.when(mockRepository.getAll()).thenReturn(blackListedSitesSet);
+		assertFalse(service.isBlacklisted(uri3));
+
+		BlacklistedSite site3 = new BlacklistedSite();
+		site3.setUri(uri3);
+		Mockito.when(mockRepository.save(site3)).thenReturn(site3);
+		Mockito.when(mockRepository.getAll()).thenReturn(Sets.newHashSet(site1, site2, site3));
+
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			service.saveNew(site3);
+
+			// not committed yet
+			assertFalse(service.isBlacklisted(uri3));
+
+			for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+				synchronization.afterCommit();
+			}
+		} finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+
+		assertTrue(service.isBlacklisted(uri3));
+	}
+
+	/**
+	 * A change made on another node is picked up once the version is checked again.
+	 */
+	@Test
+	public void isBlacklisted_afterVersionChange() throws InterruptedException {
+
+		Mockito.when(mockRepository.getAll()).thenReturn(blackListedSitesSet);
+		Mockito.when(cacheVersionService.getVersion(DefaultBlacklistedSiteService.CACHE_NAME)).thenReturn(1L);
+		assertFalse(service.isBlacklisted(uri3));
+
+		service.setVersionCheckSeconds(0);
+		Thread.sleep(5);
+
+		// same version, the copy in memory is still good
+		assertFalse(service.isBlacklisted(uri3));
+		Mockito.verify(mockRepository, times(1)).getAll();
+
+		BlacklistedSite site3 = new BlacklistedSite();
+		site3.setUri(uri3);
+		Mockito.when(mockRepository.getAll()).thenReturn(Sets.newHashSet(site1, site2, site3));
+		Mockito.when(cacheVersionService.getVersion(DefaultBlacklistedSiteService.CACHE_NAME)).thenReturn(2L);
+		Thread.sleep(5);
+
+		assertTrue(service.isBlacklisted(uri3));
+		Mockito.verify(mockRepository, times(2)).getAll();
+	}
+
 }
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mitre.openid.connect.model.TaskLease;
+import org.mitre.openid.connect.repository.TaskLeaseRepository;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestDefaultTaskLeaseService {
+
+	@Mock
+	private TaskLeaseRepository repository;
+
+	@InjectMocks
+	private DefaultTaskLeaseService service = new DefaultTaskLeaseService();
+
+	private AtomicInteger runs = new AtomicInteger();
+
+	private Runnable task = new Runnable() {
+		@Override
+		public void run() {
+			runs.incrementAndGet();
+		}
+	};
+
+	@Before
+	public void prepare() {
+		service.setNodeId("node1");
+	}
+
+	@Test
+	public void runWithLease_acquired() {
+		when(repository.acquire(eq("task"), eq("node1"), any(Date.class), any(Date.class))).thenReturn(true);
+		when(repository.recordRun(eq("task"), eq("node1"), any(Date.class), anyLong(), any(Date.class))).thenReturn(true);
+
+		assertTrue(service.runWithLease("task", 60000L, task));
+
+		assertEquals(1, runs.get());
+		verify(repository).recordRun(eq("task"), eq("node1"), any(Date.class), anyLong(), any(Date.class));
+	}
+
+	@Test
+	public void runWithLease_heldElsewhere() {
+		when(repository.acquire(eq("task"), eq("node1"), any(Date.class), any(Date.class))).thenReturn(false);
+		when(repository.getByName("task")).thenReturn(new TaskLease("task"));
+
+		assertFalse(service.runWithLease("task", 60000L, task));
+
+		assertEquals(0, runs.get());
+		verify(repository, never()).create(any(TaskLease.class));
+		verify(repository, never()).recordRun(anyString(), anyString(), any(Date.class), anyLong(), any(Date.class));
+	}
+
+	@Test
+	public void runWithLease_firstRun() {
+		when(repository.acquire(eq("task"), eq("node1"), any(Date.class), any(Date.class))).thenReturn(false);
+		when(repository.getByName("task")).thenReturn(null);
+
+		assertTrue(service.runWithLease("task", 60000L, task));
+
+		assertEquals(1, runs.get());
+		verify(repository).create(any(TaskLease.class));
+	}
+
+	@Test
+	public void runWithLease_lostCreateRace() {
+		when(repository.acquire(eq("task"), eq("node1"), any(Date.class), any(Date.class))).thenReturn(false);
+		when(repository.getByName("task")).thenReturn(null);
+		when(repository.create(any(TaskLease.class))).thenThrow(new IllegalStateException("duplicate key"));
+
+		assertFalse(service.runWithLease("task", 60000L, task));
+
+		assertEquals(0, runs.get());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void runWithLease_recordsFailedRun() {
+		when(repository.acquire(eq("task"), eq("node1"), any(Date.class), any(Date.class))).thenReturn(true);
+
+		try {
+			service.runWithLease("task", 60000L, new Runnable() {
+				@Override
+				public void run() {
+					throw new IllegalStateException("task failed");
+				}
+			});
+		} finally {
+			verify(repository).recordRun(eq("task"), eq("node1"), any(Date.class), anyLong(), any(Date.class));
+		}
+	}
+}
@@ -20,6 +20,9 @@
  */
 package org.mitre.openid.connect.service.impl;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -30,6 +33,7 @@ import org.mitre.openid.connect.model.DefaultUserInfo;
 import org.mitre.openid.connect.model.UserInfo;
 import org.mitre.openid.connect.repository.UserInfoRepository;
 import org.mitre.openid.connect.service.PairwiseIdentiferService;
+import org.mitre.util.RequestScopedCache;
 import org.mockito.InjectMocks;
 import org.mockito.Matchers;
 import org.mockito.Mock;
@@ -37,6 +41,8 @@ import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -237,6 +243,66 @@ public class TestDefaultUserInfoService {
 
 	}
 
+	/**
+	 * Within one request each user is loaded once, and the pairwise copy doesn't leak into getByUsername
+	 */
+	@Test
+	public void getByUsernameAndClientId_oncePerRequest() {
+
+		Mockito.when(clientDetailsEntityService.loadClientByClientId(publicClientId1)).thenReturn(publicClient1);
+		Mockito.when(clientDetailsEntityService.loadClientByClientId(pairwiseClientId1)).thenReturn(pairwiseClient1);
+
+		Mockito.when(userInfoRepository.getByUsername(regularUsername)).thenAnswer(new Answer<UserInfo>() {
+			@Override
+			public UserInfo answer(InvocationOnMock invocation) throws Throwable {
+				UserInfo userInfo = new DefaultUserInfo();
+				userInfo.setPreferredUsername(regularUsername);
+				userInfo.setSub(regularSub);
+
+				return userInfo;
+			}
+		});
+
+		Mockito.when(pairwiseIdentiferService.getIdentifier(userInfoRegular, pairwiseClient1)).thenReturn(pairwiseSub12);
+
+		RequestContextHolder.setRequestAttributes(mapRequestAttributes());
+		try {
+			for (int i = 0; i < 2; i++) {
+				assertEquals(regularSub, service.getByUsername(regularUsername).getSub());
+				assertEquals(regularSub, service.getByUsernameAndClientId(regularUsername, publicClientId1).getSub());
+				assertEquals(pairwiseSub12, service.getByUsernameAndClientId(regularUsername, pairwiseClientId1).getSub());
+			}
+
+			// one shared load, one separate load for the pairwise copy
+			Mockito.verify(userInfoRepository, Mockito.times(2)).getByUsername(regularUsername);
+			Mockito.verify(pairwiseIdentiferService, Mockito.times(1)).getIdentifier(Matchers.any(UserInfo.class), Matchers.any(ClientDetailsEntity.class));
+			// the user, and its views for each of the two clients
+			assertEquals(3, RequestScopedCache.getLoadCount());
+		} finally {
+			RequestContextHolder.resetRequestAttributes();
+		}
+	}
 
+	/**
+	 * Request attributes backed by a plain map
+	 */
+	private RequestAttributes mapRequestAttributes() {
+		final Map<String, Object> attributes = new HashMap<>();
+		RequestAttributes requestAttributes = Mockito.mock(RequestAttributes.class);
+		Mockito.when(requestAttributes.getAttribute(Matchers.anyString(), Matchers.anyInt())).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return attributes.get(invocation.getArguments()[0]);
+			}
+		});
+		Mockito.doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+				return null;
+			}
+		}).when(requestAttributes).setAttribute(Matchers.anyString(), Matchers.any(), Matchers.anyInt());
+		return requestAttributes;
+	}
 
 }
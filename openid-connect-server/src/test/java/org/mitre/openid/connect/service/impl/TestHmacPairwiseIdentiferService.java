@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.service.impl;
+
+import java.util.Base64;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mitre.oauth2.model.ClientDetailsEntity;
+import org.mitre.oauth2.model.ClientDetailsEntity.SubjectType;
+import org.mitre.openid.connect.model.DefaultUserInfo;
+import org.mitre.openid.connect.model.PairwiseIdentifier;
+import org.mitre.openid.connect.model.UserInfo;
+import org.mitre.openid.connect.repository.PairwiseIdentifierRepository;
+import org.mockito.InjectMocks;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestHmacPairwiseIdentiferService {
+
+	@Mock
+	private PairwiseIdentifierRepository pairwiseIdentifierRepository;
+
+	@InjectMocks
+	private HmacPairwiseIdentiferService service;
+
+	private String key1 = Base64.getEncoder().encodeToString("0123456789abcdef0123456789abcdef".getBytes());
+	private String key2 = Base64.getEncoder().encodeToString("fedcba9876543210fedcba9876543210".getBytes());
+
+	private UserInfo userInfo;
+
+	private ClientDetailsEntity client1;
+	private ClientDetailsEntity client2;
+	private ClientDetailsEntity client3;
+
+	@Before
+	public void prepare() {
+		service.setKeys(ImmutableMap.of("k1", key1, "k2", key2));
+		service.setCurrentKeyId("k1");
+		service.validate();
+
+		userInfo = new DefaultUserInfo();
+		userInfo.setSub("regularSub652ha23b");
+
+		// clients 1 and 2 share a sector
+		client1 = new ClientDetailsEntity();
+		client1.setClientId("pairwiseClient-1");
+		client1.setSubjectType(SubjectType.PAIRWISE);
+		client1.setSectorIdentifierUri("https://sector-12/url");
+
+		client2 = new ClientDetailsEntity();
+		client2.setClientId("pairwiseClient-2");
+		client2.setSubjectType(SubjectType.PAIRWISE);
+		client2.setSectorIdentifierUri("https://sector-12/url2");
+
+		client3 = new ClientDetailsEntity();
+		client3.setClientId("pairwiseClient-3");
+		client3.setSubjectType(SubjectType.PAIRWISE);
+		client3.setRedirectUris(ImmutableSet.of("https://client-3/oauth"));
+	}
+
+	@Test
+	public void getIdentifier_deterministic() {
+		String id1 = service.getIdentifier(userInfo, client1);
+
+		assertEquals(id1, service.getIdentifier(userInfo, client1));
+		assertEquals(id1, service.getIdentifier(userInfo, client2));
+		assertNotEquals(id1, service.getIdentifier(userInfo, client3));
+		assertEquals(43, id1.length());
+
+		Mockito.verifyZeroInteractions(pairwiseIdentifierRepository);
+	}
+
+	@Test
+	public void getIdentifier_rotation() {
+		String before = service.getIdentifier(userInfo, client1);
+
+		// rotate to a new key, pinning the existing sector to the old one
+		service.setCurrentKeyId("k2");
+		service.setSectorKeyIds(ImmutableMap.of("sector-12", "k1"));
+		service.validate();
+
+		assertEquals(before, service.getIdentifier(userInfo, client1));
+
+		service.setSectorKeyIds(ImmutableMap.<String, String>of());
+		assertNotEquals(before, service.getIdentifier(userInfo, client1));
+	}
+
+	@Test
+	public void getIdentifier_migration() {
+		PairwiseIdentifier stored = new PairwiseIdentifier();
+		stored.setUserSub(userInfo.getSub());
+		stored.setSectorIdentifier("sector-12");
+		stored.setIdentifier("stored-uuid");
+		Mockito.when(pairwiseIdentifierRepository.getBySectorIdentifier(userInfo.getSub(), "sector-12")).thenReturn(stored);
+
+		String derived = service.getIdentifier(userInfo, client3);
+
+		service.setMigrationMode(true);
+
+		assertEquals("stored-uuid", service.getIdentifier(userInfo, client1));
+		assertEquals(derived, service.getIdentifier(userInfo, client3));
+
+		Mockito.verify(pairwiseIdentifierRepository, Mockito.never()).save(Matchers.any(PairwiseIdentifier.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void validate_unknownKey() {
+		service.setSectorKeyIds(ImmutableMap.of("sector-12", "k3"));
+		service.validate();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setKeys_tooShort() {
+		service.setKeys(ImmutableMap.of("k1", Base64.getEncoder().encodeToString("short".getBytes())));
+	}
+
+	@Test
+	public void getIdentifier_noSector() {
+		ClientDetailsEntity client = new ClientDetailsEntity();
+		client.setRedirectUris(ImmutableSet.of("urn:ietf:wg:oauth:2.0:oob"));
+
+		assertNull(service.getIdentifier(userInfo, client));
+	}
+
+}
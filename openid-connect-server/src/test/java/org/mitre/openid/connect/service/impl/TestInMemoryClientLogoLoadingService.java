@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mitre.oauth2.model.ClientDetailsEntity;
+import org.mitre.openid.connect.model.CachedImage;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Loads logos from a stub server on a local port.
+ */
+public class TestInMemoryClientLogoLoadingService {
+
+	private static final byte[] LOGO = new byte[] { 1, 2, 3, 4 };
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private HttpServer server;
+
+	private String base;
+
+	private AtomicInteger fullFetches = new AtomicInteger();
+
+	private AtomicInteger notModified = new AtomicInteger();
+
+	private InMemoryClientLogoLoadingService service;
+
+	@Before
+	public void prepare() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+				notModified.incrementAndGet();
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+			fullFetches.incrementAndGet();
+			exchange.getResponseHeaders().add("Content-Type", "image/png");
+			exchange.getResponseHeaders().add("ETag", "\"v1\"");
+			exchange.sendResponseHeaders(200, LOGO.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(LOGO);
+			}
+		});
+		server.createContext("/huge.png", exchange -> {
+			byte[] huge = new byte[4096];
+			exchange.getResponseHeaders().add("Content-Type", "image/png");
+			exchange.sendResponseHeaders(200, huge.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(huge);
+			}
+		});
+		server.start();
+
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		service = new InMemoryClientLogoLoadingService(HttpClientBuilder.create().build());
+		service.setMaxImageBytes(1024);
+		service.setFetchExecutor(MoreExecutors.directExecutor());
+	}
+
+	@After
+	public void shutdown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void getLogo_keyedByClientIdAndUri() {
+		CachedImage image = service.getLogo(client("client", "/logo.png"));
+
+		assertArrayEquals(LOGO, image.getData());
+		assertEquals("image/png", image.getContentType());
+		assertEquals("\"v1\"", image.getEtag());
+
+		// an updated copy of the same client, as saved by updateClient
+		ClientDetailsEntity updated = client("client", "/logo.png");
+		updated.setClientName("renamed");
+		assertSame(image, service.getLogo(updated));
+
+		assertEquals(1, fullFetches.get());
+	}
+
+	@Test
+	public void getLogo_tooLarge() {
+		assertNull(service.getLogo(client("client", "/huge.png")));
+	}
+
+	@Test
+	public void prefetchLogo() {
+		ClientDetailsEntity client = client("client", "/logo.png");
+
+		service.prefetchLogo(client);
+		assertEquals(1, fullFetches.get());
+
+		service.getLogo(client);
+		service.prefetchLogo(client);
+		assertEquals(1, fullFetches.get());
+	}
+
+	@Test
+	public void reload_notModified() throws Exception {
+		ClientDetailsEntity client = client("client", "/logo.png");
+		CachedImage image = service.getLogo(client);
+
+		CachedImage reloaded = service.new ClientLogoFetcher(HttpClientBuilder.create().build())
+				.reload(Arrays.asList("client", client.getLogoUri()), image).get();
+
+		assertSame(image, reloaded);
+		assertEquals(1, fullFetches.get());
+		assertEquals(1, notModified.get());
+	}
+
+	@Test
+	public void diskCache() throws IOException {
+		File dir = temp.newFolder("logos");
+		service.setDiskCacheDirectory(dir);
+
+		ClientDetailsEntity client = client("client", "/logo.png");
+		service.getLogo(client);
+
+		// a new instance, as after a restart, reads the image back from disk
+		InMemoryClientLogoLoadingService restarted = new InMemoryClientLogoLoadingService(HttpClientBuilder.create().build());
+		restarted.setDiskCacheDirectory(dir);
+		CachedImage image = restarted.getLogo(client);
+
+		assertArrayEquals(LOGO, image.getData());
+		assertEquals("\"v1\"", image.getEtag());
+		assertEquals(1, fullFetches.get());
+	}
+
+	@Test
+	public void diskCache_replacedForNewLogo() throws IOException {
+		File dir = temp.newFolder("logos");
+		service.setDiskCacheDirectory(dir);
+
+		service.getLogo(client("client", "/logo.png"));
+		service.getLogo(client("client", "/new-logo.png"));
+
+		assertEquals(1, dir.listFiles().length);
+		assertEquals(2, fullFetches.get());
+	}
+
+	@Test
+	public void diskCache_bounded() throws IOException {
+		File dir = temp.newFolder("logos");
+		service.setDiskCacheDirectory(dir);
+		service.getLogo(client("client0", "/logo.png"));
+		long fileBytes = dir.listFiles()[0].length();
+
+		service.setMaxDiskCacheBytes(fileBytes * 2);
+		for (int i = 1; i < 5; i++) {
+			service.getLogo(client("client" + i, "/logo.png"));
+		}
+
+		assertEquals(2, dir.listFiles().length);
+	}
+
+	private ClientDetailsEntity client(String clientId, String path) {
+		ClientDetailsEntity client = new ClientDetailsEntity();
+		client.setClientId(clientId);
+		client.setLogoUri(base + path);
+		return client;
+	}
+
+}
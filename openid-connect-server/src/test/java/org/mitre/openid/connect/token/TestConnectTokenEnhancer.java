@@ -40,8 +40,10 @@ import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTClaimsSet.Builder;
+import com.nimbusds.jwt.SignedJWT;
 
 @RunWith(MockitoJUnitRunner.class)
 public class TestConnectTokenEnhancer {
@@ -100,6 +102,34 @@ public class TestConnectTokenEnhancer {
 		Assert.assertEquals("foo", enhanced.getJwt().getJWTClaimsSet().getClaim("test"));
 	}
 
+	@Test
+	public void reusesAttachedClient() {
+		ClientDetailsEntity client = new ClientDetailsEntity();
+		client.setClientId(CLIENT_ID);
+
+		OAuth2AccessTokenEntity token = new OAuth2AccessTokenEntity();
+		token.setClient(client);
+
+		enhancer.enhance(token, authentication);
+
+		Mockito.verify(clientService, Mockito.never()).loadClientByClientId(Mockito.anyString());
+	}
+
+	@Test
+	public void reusesHeaderUntilKeyChanges() {
+		OAuth2AccessTokenEntity first = (OAuth2AccessTokenEntity) enhancer.enhance(new OAuth2AccessTokenEntity(), authentication);
+		OAuth2AccessTokenEntity second = (OAuth2AccessTokenEntity) enhancer.enhance(new OAuth2AccessTokenEntity(), authentication);
+
+		JWSHeader header = ((SignedJWT) first.getJwt()).getHeader();
+		Assert.assertSame(header, ((SignedJWT) second.getJwt()).getHeader());
+		Assert.assertEquals(KEY_ID, header.getKeyID());
+
+		Mockito.when(jwtService.getDefaultSignerKeyId()).thenReturn("rotated");
+		OAuth2AccessTokenEntity third = (OAuth2AccessTokenEntity) enhancer.enhance(new OAuth2AccessTokenEntity(), authentication);
+
+		Assert.assertEquals("rotated", ((SignedJWT) third.getJwt()).getHeader().getKeyID());
+	}
+
 	private void configure(ConnectTokenEnhancer e) {
 		e.setConfigBean(configBean);
 		e.setJwtService(jwtService);
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2018 The MIT Internet Trust Consortium
+ *
+ * Portions copyright 2011-2013 The MITRE Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.mitre.openid.connect.view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mitre.openid.connect.model.UserInfo;
+import org.mitre.openid.connect.service.ScopeClaimTranslationService;
+import org.mockito.InjectMocks;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonObject;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestUserInfoView {
+
+	@Mock
+	private ScopeClaimTranslationService translator;
+
+	@Mock
+	private UserInfo userInfo;
+
+	@Mock
+	private HttpServletRequest request;
+
+	@InjectMocks
+	private UserInfoView view;
+
+	@Before
+	public void prepare() {
+		JsonObject json = new JsonObject();
+		json.addProperty("sub", "user-sub");
+		json.addProperty("email", "user@example.com");
+		json.addProperty("phone_number", "555-1234");
+
+		Mockito.when(userInfo.getSub()).thenReturn("user-sub");
+		Mockito.when(userInfo.getPreferredUsername()).thenReturn("user");
+		Mockito.when(userInfo.toJson()).thenReturn(json);
+
+		Mockito.when(translator.getClaimsForScopeSet(Matchers.<Set<String>>any())).thenReturn(ImmutableSet.of("sub", "email"));
+	}
+
+	@Test
+	public void render_cached() throws Exception {
+		assertEquals("{\"sub\":\"user-sub\",\"email\":\"user@example.com\"}", render(ImmutableSet.of("openid", "email"), null));
+		assertEquals("{\"sub\":\"user-sub\",\"email\":\"user@example.com\"}", render(ImmutableSet.of("email", "openid"), null));
+
+		Mockito.verify(userInfo, Mockito.times(1)).toJson();
+		Mockito.verify(translator, Mockito.times(1)).getClaimsForScopeSet(Matchers.<Set<String>>any());
+	}
+
+	@Test
+	public void render_requestedClaims() throws Exception {
+		render(ImmutableSet.of("openid", "email"), null);
+
+		assertEquals("{\"sub\":\"user-sub\"}", render(ImmutableSet.of("openid", "email"), "{\"userinfo\":{\"sub\":null}}"));
+
+		Mockito.verify(userInfo, Mockito.times(2)).toJson();
+	}
+
+	@Test
+	public void render_cacheOff() throws Exception {
+		view.setCacheExpireSeconds(0);
+		render(ImmutableSet.of("openid"), null);
+		render(ImmutableSet.of("openid"), null);
+
+		Mockito.verify(userInfo, Mockito.times(2)).toJson();
+	}
+
+	private String render(Set<String> scope, String requestedClaims) throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+		Mockito.when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+			}
+		});
+
+		Map<String, Object> model = new HashMap<>();
+		model.put(UserInfoView.USER_INFO, userInfo);
+		model.put(UserInfoView.SCOPE, scope);
+		model.put(UserInfoView.REQUESTED_CLAIMS, requestedClaims);
+
+		view.renderMergedOutputModel(model, request, response);
+
+		return out.toString("UTF-8");
+	}
+
+}
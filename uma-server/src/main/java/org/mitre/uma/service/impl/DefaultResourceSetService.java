@@ -21,6 +21,7 @@ import java.util.Collection;
 import org.mitre.oauth2.model.ClientDetailsEntity;
 import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
 import org.mitre.oauth2.repository.OAuth2TokenRepository;
+import org.mitre.oauth2.service.AccessTokenCacheService;
 import org.mitre.uma.model.PermissionTicket;
 import org.mitre.uma.model.Policy;
 import org.mitre.uma.model.ResourceSet;
@@ -49,6 +50,9 @@ public class DefaultResourceSetService implements ResourceSetService {
 	@Autowired
 	private OAuth2TokenRepository tokenRepository;
 
+	@Autowired
+	private AccessTokenCacheService tokenCache;
+
 	@Autowired
 	private PermissionRepository ticketRepository;
 
@@ -102,6 +106,7 @@ public class DefaultResourceSetService implements ResourceSetService {
 		// find all the access tokens issued against this resource set and revoke them
 		Collection<OAuth2AccessTokenEntity> tokens = tokenRepository.getAccessTokensForResourceSet(rs);
 		for (OAuth2AccessTokenEntity token : tokens) {
+			tokenCache.evict(token);
 			tokenRepository.removeAccessToken(token);
 		}
 